@@ -0,0 +1,53 @@
+package havis.app.modbus.reader.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the encoding of field values to registers with
+ * {@link RegisterCodec}. The encoding must not allocate memory once the
+ * scratch arrays of the thread have been grown: the GC profiler of
+ * <code>ant bench</code> must report a <code>gc.alloc.rate.norm</code> of
+ * about 0 B/op for {@link #encode()}.
+ * <p>
+ * The benchmark is kept apart from {@link RegisterPipelineBenchmark} because
+ * it does not depend on the parameters of the pipeline.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegisterCodecBenchmark {
+
+	private final String[] strings = { "HAVIS", "RF-R300" };
+	private final int[] ushorts = { 1, 2, 3 };
+	private final boolean[] booleans = { true, false, true };
+	private final byte[] bytes = { 1, 2, 3, 4, 5 };
+
+	@Benchmark
+	public int encode() {
+		RegisterCodec codec = RegisterCodec.get();
+		short[] registers = codec.getRegisters(64);
+		codec.encodeString(strings, registers, 64);
+		int ret = registers[0];
+		RegisterCodec.encodeUShorts(ushorts, registers, 8);
+		ret += registers[1];
+		RegisterCodec.encodeBytes(bytes, bytes.length, registers, 8);
+		ret += registers[2];
+		byte[] bits = codec.getBits(8);
+		RegisterCodec.encodeBits(booleans, bits, 8);
+		return ret + bits[0];
+	}
+}
@@ -0,0 +1,194 @@
+package havis.app.modbus.reader.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import havis.app.modbus.reader.common.ReflectionServiceFactory;
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+import havis.app.modbus.reader.rf.RfConstants.RfFieldType;
+import havis.app.modbus.reader.rf.RfModule;
+import havis.device.rf.RFDevice;
+
+/**
+ * Benchmarks of the register pipeline. The requests are processed by
+ * {@link ModbusSlaveProcessor} against an {@link RfModule} with the
+ * <code>standalone.RFDeviceStub</code>, so the module and the mapping are
+ * measured without the network. The slave engine does not process any
+ * request, so the native engine (which requires libmodbus) is not
+ * benchmarked.
+ * <p>
+ * Run with <code>ant bench</code>. The throughput, the latency percentiles
+ * (sample mode) and the allocation per operation (GC profiler) are
+ * reported.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegisterPipelineBenchmark {
+
+	// keep a reference, otherwise the level is lost
+	private static final Logger log = Logger.getLogger("havis");
+
+	@Param({ "1", "10" })
+	private int tagsInField;
+
+	@Param({ "6" })
+	private int epcLength;
+
+	@Param({ "6" })
+	private int tidLength;
+
+	@Param({ "20", "255" })
+	private int userLength;
+
+	/**
+	 * The address quantity of the read requests
+	 */
+	@Param({ "1", "16", "125" })
+	private int blockSize;
+
+	/**
+	 * The delay of each inventory of the stub device in ms
+	 */
+	@Param({ "0" })
+	private long executeDelay;
+
+	private Path configBaseDir;
+	private ModbusSlaveProcessor processor;
+	private FieldProperties configFieldProps;
+	private FieldProperties antennaMaskFieldProps;
+	private FieldProperties tagCountFieldProps;
+	private int tagBlockAddress;
+	private int tagBlockQuantity;
+	private short[] antennaMask = new short[] { 1 };
+
+	@Setup
+	public void setup() throws Exception {
+		log.setLevel(Level.WARNING);
+		System.setProperty("rfDeviceStub.executeDelay", String.valueOf(executeDelay));
+		System.setProperty("rfDeviceStub.getCapabilitiesDelay", "0");
+		System.setProperty("rfDeviceStub.getConfigurationDelay", "0");
+
+		configBaseDir = Files.createTempDirectory("modbusReaderBench");
+		Files.write(configBaseDir.resolve("dfltFields.properties"), Arrays.asList( //
+				"0=STRING \"Vendor\"", //
+				"1=STRING \"RF-R320\"", //
+				"2=STRING \"1.0\"", //
+				"20=USHORT " + tagsInField, //
+				"21=SHORT 31", //
+				"22=USHORT " + epcLength, //
+				"23=USHORT " + tidLength, //
+				"24=USHORT " + userLength, //
+				"25=USHORT 1", //
+				"26=USHORT 20", //
+				"27=USHORT 20"), StandardCharsets.UTF_8);
+
+		RfModule module = new RfModule(
+				new ReflectionServiceFactory<RFDevice>("standalone.RFDeviceStub", null /* addressSetterMethodName */));
+		module.configure(new Properties());
+		// the state directory is the config directory, the field values are
+		// not changed by the benchmarks
+		processor = new ModbusSlaveProcessor(configBaseDir, configBaseDir, 3000 /* openCloseTimeout */,
+				0 /* lingerTime */, new NioModbusSlave(), module, new RequestTracer() /* disabled */);
+		processor.connect();
+
+		configFieldProps = processor.getFieldProperties(RfFieldType.TAGS_IN_FIELD.getField(),
+				0 /* fieldGroupIndex */);
+		antennaMaskFieldProps = processor.getFieldProperties(RfFieldType.ANTENNA_MASK.getField(),
+				0 /* fieldGroupIndex */);
+		tagCountFieldProps = processor.getFieldProperties(RfFieldType.TAG_COUNT.getField(),
+				0 /* fieldGroupIndex */);
+		// the tag block starts with the CRC of the first tag and ends before
+		// the second tag, because the stub device provides one tag
+		tagBlockAddress = processor.getFieldProperties(RfFieldType.CRC.getField(), 0 /* fieldGroupIndex */)
+				.getAddress();
+		FieldProperties nextTagFieldProps = processor.getFieldProperties(RfFieldType.LOCK_OPERATION.getField(),
+				1 /* fieldGroupIndex */);
+		int tagBlockEndAddress = nextTagFieldProps == null ? module.getEndAddress(FieldType.HOLDING_REGISTERS)
+				: nextTagFieldProps.getAddress();
+		tagBlockQuantity = Math.min(blockSize, tagBlockEndAddress - tagBlockAddress);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		processor.disconnect();
+		try {
+			Files.deleteIfExists(configBaseDir.resolve("fields.properties"));
+			Files.deleteIfExists(configBaseDir.resolve("fields.bin"));
+			Files.deleteIfExists(configBaseDir.resolve("dfltFields.properties"));
+			Files.deleteIfExists(configBaseDir);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Cannot delete " + configBaseDir, e);
+		}
+	}
+
+	private RegisterMapping read(short functionCode, int address, int quantity) throws ModbusSlaveException {
+		RegisterMapping mapping = processor.acquireMapping(functionCode, address, quantity);
+		try {
+			processor.read(functionCode, address, quantity, mapping);
+			return mapping;
+		} finally {
+			processor.releaseMapping();
+		}
+	}
+
+	/**
+	 * Reads the tag count, which executes an inventory, and a block of the
+	 * registers of the first tag like a polling client.
+	 */
+	@Benchmark
+	public RegisterMapping readTagBlock() throws ModbusSlaveException {
+		read(FunctionCode.READ_INPUT_REGISTERS, tagCountFieldProps.getAddress(), 1 /* quantity */);
+		return read(FunctionCode.READ_HOLDING_REGISTERS, tagBlockAddress, tagBlockQuantity);
+	}
+
+	/**
+	 * Reads the runtime configuration, which is kept in memory.
+	 */
+	@Benchmark
+	public RegisterMapping readConfig() throws ModbusSlaveException {
+		return read(FunctionCode.READ_HOLDING_REGISTERS, configFieldProps.getAddress(),
+				Math.min(8, blockSize) /* TAGS_IN_FIELD .. CUSTOM_COMMAND_MAX_LENGTH */);
+	}
+
+	/**
+	 * Writes the antenna mask, which configures the device.
+	 */
+	@Benchmark
+	public RegisterMapping writeAntennaMask() throws ModbusSlaveException {
+		int address = antennaMaskFieldProps.getAddress();
+		int quantity = antennaMaskFieldProps.getAddressQuantity();
+		RegisterMapping mapping = processor.acquireMapping(FunctionCode.WRITE_MULTIPLE_REGISTERS, address, quantity);
+		try {
+			mapping.setRegisters(FieldType.HOLDING_REGISTERS, address, antennaMask, 0 /* srcOffset */, quantity);
+			return processor.write(FunctionCode.WRITE_MULTIPLE_REGISTERS, address, quantity, new Date(), mapping);
+		} finally {
+			processor.releaseMapping();
+		}
+	}
+}
@@ -1,35 +1,53 @@
 package havis.app.modbus.reader;
 
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigInteger;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
+import havis.app.modbus.reader.api.Field;
+import havis.app.modbus.reader.api.FieldValue;
 import havis.app.modbus.reader.core.FieldProperties;
 import havis.app.modbus.reader.core.FieldProperties.FieldType;
+import havis.app.modbus.reader.core.FunctionCode;
+import havis.app.modbus.reader.core.MetricsHistogram;
 import havis.app.modbus.reader.core.ModbusSlaveException;
+import havis.app.modbus.reader.core.RegisterCodec;
+import havis.app.modbus.reader.core.RegisterMapping;
+import havis.app.modbus.reader.core.RequestTrace;
+import havis.app.modbus.reader.core.SlaveMetrics;
 import havis.app.modbus.reader.core.SlaveProcessor;
 import havis.app.modbus.reader.rest.data.DeviceInfo;
+import havis.app.modbus.reader.rest.data.HistogramSummary;
+import havis.app.modbus.reader.rest.data.Metrics;
 import havis.app.modbus.reader.rest.data.RuntimeConfiguration;
 import havis.app.modbus.reader.rest.data.RuntimeRegisterItem;
-import havis.app.modbus.reader.rest.data.Type;
+import havis.app.modbus.reader.rest.data.RuntimeRegisterPage;
+import havis.app.modbus.reader.rest.data.Trace;
+import havis.app.modbus.reader.rest.data.TraceSpan;
 import havis.app.modbus.reader.rf.RfConstants.RfFieldType;
-import havis.util.modbus.ModbusBase;
-import havis.util.modbus.ModbusMapping;
-import havis.util.modbus.UInt16Array;
 
 public class ModbusReaderConfiguration {
 
 	private static final Logger log = Logger.getLogger(ModbusReaderConfiguration.class.getName());
 	private static final String DESCRIPTIONS_PATH = "havis-modbus-reader/descriptions.properties";
+	// time in ms the backend stays connected after the last call
+	private static final int SESSION_IDLE_TIMEOUT = 30000;
 
 	private static final RfFieldType[] DEVICE_INFO_FIELDS = new RfFieldType[] { RfFieldType.VENDOR_NAME, RfFieldType.PRODUCT_CODE,
 			RfFieldType.MAJOR_MINOR_REVISION, RfFieldType.SERIAL_NUMBER, RfFieldType.HARDWARE_REVISION, RfFieldType.BASE_FIRMWARE };
@@ -38,15 +56,10 @@ public class ModbusReaderConfiguration {
 			RfFieldType.MEMORY_SELECTOR, RfFieldType.EPC_LENGTH, RfFieldType.TID_LENGTH, RfFieldType.USER_LENGTH,
 			RfFieldType.SELECTION_MASK_COUNT, RfFieldType.SELECTION_MASK_MAX_LENGTH, RfFieldType.CUSTOM_COMMAND_MAX_LENGTH };
 
-	private static final RfFieldType[] RUNTIME_FIELDS = new RfFieldType[] { RfFieldType.TAG_COUNT, RfFieldType.LAST_ERROR,
-			RfFieldType.ACCESS_PASSWORD, RfFieldType.ANTENNA_MASK };
-
-	private static final RfFieldType[] SELECTION_MASK_FIELDS = new RfFieldType[] { RfFieldType.SELECTION_MASK_BANK,
-			RfFieldType.SELECTION_MASK_LENGTH, RfFieldType.SELECTION_MASK_OFFSET, RfFieldType.SELECTION_MASK };
-
 	private Properties descriptions;
 	private SlaveProcessor slaveProcessor;
-	private ModbusMapping mapping;
+	private SlaveSession session;
+	private RegisterLayout layout;
 
 	/**
 	 * Loads field descriptions from classpath
@@ -55,40 +68,69 @@ public class ModbusReaderConfiguration {
 	 *            {@link SlaveProcessor} Interface
 	 */
 	public ModbusReaderConfiguration(SlaveProcessor slaveProcessor) {
+		this(slaveProcessor, SESSION_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * Loads field descriptions from classpath
+	 * 
+	 * @param slaveProcessor
+	 *            {@link SlaveProcessor} Interface
+	 * @param sessionIdleTimeout
+	 *            the time in ms the backend stays connected after the last
+	 *            call (0: disconnect after each call)
+	 */
+	ModbusReaderConfiguration(SlaveProcessor slaveProcessor, int sessionIdleTimeout) {
 		this.slaveProcessor = slaveProcessor;
+		session = new SlaveSession(slaveProcessor, sessionIdleTimeout);
 		descriptions = new Properties();
 		try {
 			descriptions.load(getClass().getClassLoader().getResourceAsStream(DESCRIPTIONS_PATH));
 		} catch (IOException e) {
 			log.log(Level.FINE, "Field descriptions not found", e);
 		}
+		layout = new RegisterLayout(descriptions);
 	}
 
 	/**
-	 * Opens TCP connection, initilizes {@link SlaveProcessor} and acquires the
-	 * field mapping. Must be called before reading/writing.
+	 * Leases the shared session, which initializes the {@link SlaveProcessor}
+	 * if it is not connected yet. Must be called before reading/writing. The
+	 * field mapping is acquired for each field, so only the region of the
+	 * field is locked.
 	 * 
 	 * @throws ModbusReaderException
 	 */
 	private void connect() throws ModbusReaderException {
 		try {
-			slaveProcessor.connect();
-			mapping = slaveProcessor.acquireMapping();
+			session.acquire();
 		} catch (ModbusSlaveException e) {
 			throw new ModbusReaderException(e);
 		}
 	}
 
 	/**
-	 * Closes TCP connection and releases the field mapping. Must be called
-	 * after reading/writing.
+	 * Returns the lease of the shared session. Must be called after
+	 * reading/writing. The session is disconnected after an idle time.
 	 * 
 	 * @throws ModbusReaderException
 	 */
 	private void disconnect() throws ModbusReaderException {
 		try {
-			slaveProcessor.releaseMapping();
-			slaveProcessor.disconnect();
+			session.release();
+		} catch (ModbusSlaveException e) {
+			throw new ModbusReaderException(e);
+		}
+	}
+
+	/**
+	 * Disconnects the shared session. Must be called before the slave is
+	 * closed.
+	 * 
+	 * @throws ModbusReaderException
+	 */
+	public void close() throws ModbusReaderException {
+		try {
+			session.close();
 		} catch (ModbusSlaveException e) {
 			throw new ModbusReaderException(e);
 		}
@@ -104,165 +146,101 @@ public class ModbusReaderConfiguration {
 	 */
 	private String getString(FieldProperties fp) throws ModbusReaderException {
 		try {
-			UInt16Array registers = null;
-			try {
-				slaveProcessor.read((short) ModbusBase.MODBUS_FC_READ_INPUT_REGISTERS, fp.getAddress(),
-						fp.getAddressQuantity(), mapping);
-				registers = UInt16Array.frompointer(mapping.getTabInputRegisters());
-				String[] value = getStringValues(registers, mapping.getNbInputRegisters(), fp.getAddress(),
-						fp.getAddressQuantity(), StandardCharsets.UTF_8, "");
-				return value[0];
-			} finally {
-				if (registers != null) {
-					registers.delete();
-				}
-			}
+			short[] registers = getRegisters(FieldType.INPUT_REGISTERS, fp);
+			return getStringValue(registers, fp.getAddressQuantity());
 		} catch (ModbusSlaveException e) {
 			throw new ModbusReaderException(e);
 		}
 	}
 
 	/**
-	 * Read String value from Modbus register
+	 * Decodes a String value from registers. The value ends with the first
+	 * 0x00 byte.
 	 * 
-	 * @param srcRegisters
-	 * @param srcRegistersSize
-	 * @param address
-	 * @param addressQuantity
-	 * @param encoding
-	 * @param description
-	 * @return
-	 * @throws ModbusSlaveException
+	 * @param registers
+	 * @param quantity
+	 * @return String value
 	 */
-	private String[] getStringValues(UInt16Array srcRegisters, int srcRegistersSize, int address, int addressQuantity,
-			Charset encoding, String description) throws ModbusSlaveException {
-		if (address + addressQuantity > srcRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + srcRegistersSize);
-		}
-
-		int length = addressQuantity * 2;
-		byte[] bytes = new byte[length];
-		for (int index = 0; index < addressQuantity; ++index) {
-			int pos = index * 2;
-			int key = address + index;
-			short shortValue = (short) srcRegisters.getitem(key);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Read " + description + " " + key + ": " + String.format("0x%04X", shortValue));
-			}
-
-			if (!addIfValid(bytes, pos, (byte) (shortValue >> 8))) {
-				length = pos;
-				break;
-			}
-			if (!addIfValid(bytes, pos + 1, (byte) shortValue)) {
-				length = pos + 1;
-				break;
-			}
-		}
-		String stringValue = new String(bytes, 0, length, StandardCharsets.UTF_8);
+	private String getStringValue(short[] registers, int quantity) {
+		String stringValue = RegisterCodec.get().decodeString(registers, quantity, true /* isZeroTerminated */);
 		if (log.isLoggable(Level.FINE)) {
 			log.log(Level.FINE, "  -> " + stringValue);
 		}
-		return new String[] { stringValue };
-	}
-
-	private boolean addIfValid(byte[] bytes, int index, byte b) {
-		if (b != 0x00) {
-			bytes[index] = b;
-			return true;
-		} else {
-			return false;
-		}
+		return stringValue;
 	}
 
 	/**
-	 * Write unsigned short value to address specified by
+	 * Read registers from the backend at the addresses specified by
 	 * {@link FieldProperties} fp.
 	 * 
+	 * @param type
 	 * @param fp
-	 * @param value
-	 * @throws ModbusReaderException
+	 * @return The scratch registers of the current thread (see
+	 *         {@link RegisterCodec#getRegisters(int)}), which contain the
+	 *         registers of the field at the beginning
+	 * @throws ModbusSlaveException
 	 */
-	private void setUShort(FieldProperties fp, int value) throws ModbusReaderException {
+	private short[] getRegisters(FieldType type, FieldProperties fp) throws ModbusSlaveException {
+		short functionCode = type == FieldType.INPUT_REGISTERS ? FunctionCode.READ_INPUT_REGISTERS
+				: FunctionCode.READ_HOLDING_REGISTERS;
+		int quantity = fp.getAddressQuantity();
+		RegisterMapping mapping = slaveProcessor.acquireMapping(functionCode, fp.getAddress(), quantity);
+		short[] registers;
 		try {
-			UInt16Array registers = null;
-			try {
-				registers = UInt16Array.frompointer(mapping.getTabRegisters());
-				setUShortValues(registers, mapping.getNbRegisters(), fp.getAddress(), fp.getAddressQuantity(),
-						new int[] { value }, "");
-				mapping = slaveProcessor.write((short) ModbusBase.MODBUS_FC_READ_HOLDING_REGISTERS, fp.getAddress(),
-						fp.getAddressQuantity(), new Date(), mapping);
-			} finally {
-				if (registers != null) {
-					registers.delete();
-				}
-			}
-		} catch (ModbusSlaveException e) {
-			throw new ModbusReaderException(e);
+			slaveProcessor.read(functionCode, fp.getAddress(), quantity, mapping);
+			// the scratch registers are used by the processor while reading
+			registers = RegisterCodec.get().getRegisters(quantity);
+			mapping.getRegisters(type, fp.getAddress(), registers, 0 /* destOffset */, quantity);
+		} finally {
+			slaveProcessor.releaseMapping();
 		}
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Read " + type + " " + fp.getAddress() + "+" + quantity + ": "
+					+ Arrays.toString(Arrays.copyOf(registers, quantity)));
+		}
+		return registers;
 	}
 
 	/**
-	 * Write unsigned short value to Modbus register
+	 * Write registers to the mapping at the addresses specified by
+	 * {@link FieldProperties} fp and write them to the backend. Missing
+	 * registers are filled with 0.
 	 * 
-	 * @param destRegisters
-	 * @param destRegistersSize
-	 * @param address
-	 * @param addressQuantity
+	 * @param fp
 	 * @param values
-	 * @param description
 	 * @throws ModbusSlaveException
 	 */
-	private void setUShortValues(UInt16Array destRegisters, int destRegistersSize, int address, int addressQuantity,
-			int[] values, String description) throws ModbusSlaveException {
-		if (address + addressQuantity > destRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + destRegistersSize);
-		}
-		// for each value
-		for (int i = 0; i < addressQuantity; i++) {
-			int intValue = (values != null && i < values.length) ? values[i] : 0;
-			// set value to registers
-			int key = address + i;
-			destRegisters.setitem(key, intValue);
+	private void setRegisters(FieldProperties fp, short[] values) throws ModbusSlaveException {
+		int quantity = fp.getAddressQuantity();
+		RegisterMapping mapping = slaveProcessor.acquireMapping(FunctionCode.WRITE_MULTIPLE_REGISTERS,
+				fp.getAddress(), quantity);
+		try {
+			short[] registers = RegisterCodec.get().getRegisters(quantity);
+			RegisterCodec.encodeShorts(values, registers, quantity);
+			mapping.setRegisters(FieldType.HOLDING_REGISTERS, fp.getAddress(), registers, 0 /* srcOffset */,
+					quantity);
 			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Wrote " + description + " " + key + ": " + intValue);
+				log.log(Level.FINE, "Wrote " + FieldType.HOLDING_REGISTERS + " " + fp.getAddress() + "+" + quantity
+						+ ": " + Arrays.toString(Arrays.copyOf(registers, quantity)));
 			}
+			slaveProcessor.write(FunctionCode.WRITE_MULTIPLE_REGISTERS, fp.getAddress(), fp.getAddressQuantity(),
+					new Date(), mapping);
+		} finally {
+			slaveProcessor.releaseMapping();
 		}
 	}
 
-	private byte[] shorts2bytes(short[] value) {
-		byte[] ret = new byte[value.length * 2];
-		for (int i = 0; i < value.length; i++) {
-			ret[i * 2] = (byte) (value[i] >> 8);
-			ret[i * 2 + 1] = (byte) value[i];
-		}
-		return ret;
-	}
-
 	/**
-	 * Read unsigned short value from address specified by
+	 * Write unsigned short value to address specified by
 	 * {@link FieldProperties} fp.
 	 * 
 	 * @param fp
-	 *            {@link FieldProperties}
-	 * @return unsigned short value
+	 * @param value
 	 * @throws ModbusReaderException
 	 */
-	private BigInteger getBigInteger(FieldProperties fp) throws ModbusReaderException {
+	private void setUShort(FieldProperties fp, int value) throws ModbusReaderException {
 		try {
-			UInt16Array registers = null;
-			try {
-				slaveProcessor.read((short) ModbusBase.MODBUS_FC_READ_INPUT_REGISTERS, fp.getAddress(),
-						fp.getAddressQuantity(), mapping);
-				registers = UInt16Array.frompointer(mapping.getTabInputRegisters());
-				short[] value = getShortValues(registers, mapping.getNbInputRegisters(), fp.getAddress(),
-						fp.getAddressQuantity(), "");
-				return new BigInteger(shorts2bytes(value));
-			} finally {
-				if (registers != null) {
-					registers.delete();
-				}
-			}
+			setRegisters(fp, new short[] { (short) value });
 		} catch (ModbusSlaveException e) {
 			throw new ModbusReaderException(e);
 		}
@@ -277,54 +255,26 @@ public class ModbusReaderConfiguration {
 	 * @return unsigned short value
 	 * @throws ModbusReaderException
 	 */
-	private int getUShort(FieldProperties fp) throws ModbusReaderException {
+	private BigInteger getBigInteger(FieldProperties fp) throws ModbusReaderException {
 		try {
-			UInt16Array registers = null;
-			try {
-				slaveProcessor.read((short) ModbusBase.MODBUS_FC_READ_HOLDING_REGISTERS, fp.getAddress(),
-						fp.getAddressQuantity(), mapping);
-				registers = UInt16Array.frompointer(mapping.getTabRegisters());
-				int[] value = getUShortValues(registers, mapping.getNbRegisters(), fp.getAddress(),
-						fp.getAddressQuantity(), "");
-				return value[0];
-			} finally {
-				if (registers != null) {
-					registers.delete();
-				}
-			}
+			return new BigInteger(
+					RegisterCodec.decodeBytes(getRegisters(FieldType.INPUT_REGISTERS, fp), fp.getAddressQuantity()));
 		} catch (ModbusSlaveException e) {
 			throw new ModbusReaderException(e);
 		}
 	}
 
 	/**
-	 * Read unsigned short value from Modbus register
+	 * Read unsigned short value from address specified by
+	 * {@link FieldProperties} fp.
 	 * 
-	 * @param srcRegisters
-	 * @param srcRegistersSize
-	 * @param address
-	 * @param addressQuantity
-	 * @param description
+	 * @param fp
+	 *            {@link FieldProperties}
 	 * @return unsigned short value
-	 * @throws ModbusSlaveException
+	 * @throws ModbusReaderException
 	 */
-	private int[] getUShortValues(UInt16Array srcRegisters, int srcRegistersSize, int address, int addressQuantity,
-			String description) throws ModbusSlaveException {
-		if (address + addressQuantity > srcRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + srcRegistersSize);
-		}
-		int[] ret = new int[addressQuantity];
-		// for each value
-		for (int i = 0; i < addressQuantity; i++) {
-			// get value from registers
-			int key = address + i;
-			int intValue = srcRegisters.getitem(key) & 0xFFFF;
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Read " + description + " " + key + ": " + intValue);
-			}
-			ret[i] = intValue;
-		}
-		return ret;
+	private int getUShort(FieldProperties fp) throws ModbusReaderException {
+		return getShort(fp) & 0xFFFF;
 	}
 
 	/**
@@ -337,52 +287,12 @@ public class ModbusReaderConfiguration {
 	 */
 	private void setShort(FieldProperties fp, short value) throws ModbusReaderException {
 		try {
-			UInt16Array registers = null;
-			try {
-				registers = UInt16Array.frompointer(mapping.getTabRegisters());
-				setShortValues(registers, mapping.getNbRegisters(), fp.getAddress(), fp.getAddressQuantity(),
-						new short[] { value }, "");
-				mapping = slaveProcessor.write((short) ModbusBase.MODBUS_FC_READ_HOLDING_REGISTERS, fp.getAddress(),
-						fp.getAddressQuantity(), new Date(), mapping);
-			} finally {
-				if (registers != null) {
-					registers.delete();
-				}
-			}
+			setRegisters(fp, new short[] { value });
 		} catch (ModbusSlaveException e) {
 			throw new ModbusReaderException(e);
 		}
 	}
 
-	/**
-	 * Write short value to Modbus register
-	 * 
-	 * @param destRegisters
-	 * @param destRegistersSize
-	 * @param address
-	 * @param addressQuantity
-	 * @param values
-	 * @param description
-	 * @throws ModbusSlaveException
-	 */
-	private void setShortValues(UInt16Array destRegisters, int destRegistersSize, int address, int addressQuantity,
-			short[] values, String description) throws ModbusSlaveException {
-		if (address + addressQuantity > destRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + destRegistersSize);
-		}
-		// for each value
-		for (int i = 0; i < addressQuantity; i++) {
-			short v = (values != null && i < values.length) ? values[i] : 0;
-			int intValue = v & 0xFFFF;
-			// set value to registers
-			int key = address + i;
-			destRegisters.setitem(key, intValue);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Wrote " + description + " " + key + ": 0x" + String.format("%04X", intValue));
-			}
-		}
-	}
-
 	/**
 	 * Read short value from address specified by {@link FieldProperties} fp.
 	 * 
@@ -393,103 +303,12 @@ public class ModbusReaderConfiguration {
 	 */
 	private short getShort(FieldProperties fp) throws ModbusReaderException {
 		try {
-			UInt16Array registers = null;
-			try {
-				slaveProcessor.read((short) ModbusBase.MODBUS_FC_READ_HOLDING_REGISTERS, fp.getAddress(),
-						fp.getAddressQuantity(), mapping);
-				registers = UInt16Array.frompointer(mapping.getTabRegisters());
-				short[] value = getShortValues(registers, mapping.getNbRegisters(), fp.getAddress(),
-						fp.getAddressQuantity(), "");
-				return value[0];
-			} finally {
-				if (registers != null) {
-					registers.delete();
-				}
-			}
+			return getRegisters(FieldType.HOLDING_REGISTERS, fp)[0];
 		} catch (ModbusSlaveException e) {
 			throw new ModbusReaderException(e);
 		}
 	}
 
-	/**
-	 * Read short value from Modbus register
-	 * 
-	 * @param srcRegisters
-	 * @param srcRegistersSize
-	 * @param address
-	 * @param addressQuantity
-	 * @param description
-	 * @return short value
-	 * @throws ModbusSlaveException
-	 */
-	private short[] getShortValues(UInt16Array srcRegisters, int srcRegistersSize, int address, int addressQuantity,
-			String description) throws ModbusSlaveException {
-		if (address + addressQuantity > srcRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + srcRegistersSize);
-		}
-		short[] ret = new short[addressQuantity];
-		// for each value
-		for (int i = 0; i < addressQuantity; i++) {
-			// get value from registers
-			int key = address + i;
-			short shortValue = (short) srcRegisters.getitem(key);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Read " + description + " " + key + ": 0x" + String.format("%04X", shortValue));
-			}
-			ret[i] = shortValue;
-		}
-		return ret;
-	}
-
-	/**
-	 * Converts FieldType from {@link SlaveProcessor} API to REST-friendly
-	 * {@link Type}
-	 * 
-	 * @param fieldType
-	 * @return Type
-	 */
-	private Type fromFieldType(FieldType fieldType) {
-		Type result = null;
-		if (fieldType == FieldType.INPUT_REGISTERS)
-			result = Type.INPUT;
-		if (fieldType == FieldType.HOLDING_REGISTERS) {
-			result = Type.HOLDING;
-		}
-		return result;
-	}
-
-	/**
-	 * Creates a {@link RuntimeRegisterItem} for RfField field and adds it to
-	 * list.
-	 * 
-	 * @param start
-	 *            {@link FieldProperties} to start fro,
-	 * @param field
-	 *            {@link RfFieldType} to get the properties for
-	 * @param list
-	 *            {@link List}&lt;{@link RuntimeRegisterItem}&gt; to add the
-	 *            item
-	 * @return {@link FieldProperties} Can be used as the start field for the
-	 *         next search.
-	 */
-	private FieldProperties readFieldProp(FieldProperties start, RfFieldType field, List<RuntimeRegisterItem> list) {
-		FieldProperties result = slaveProcessor.getFieldProperties(start, null, field.getField());
-		list.add(runtimeItem(result));
-		return result;
-	}
-
-	/**
-	 * Create {@link RuntimeRegisterItem} from {@link FieldProperties}
-	 * 
-	 * @param fp
-	 *            {@link FieldProperties}
-	 * @return {@link RuntimeRegisterItem}
-	 */
-	private RuntimeRegisterItem runtimeItem(FieldProperties fp) {
-		return new RuntimeRegisterItem(String.format("0x%04X", fp.getAddress()), String.valueOf(fp.getAddress()), fp.getAddressQuantity(),
-				fromFieldType(fp.getType()), descriptions.getProperty(fp.getField().toString()));
-	}
-
 	/**
 	 * Get a list of {@link FieldProperties} from an {@link RfFieldType} array
 	 * 
@@ -498,10 +317,8 @@ public class ModbusReaderConfiguration {
 	 */
 	private List<FieldProperties> getFieldProperties(RfFieldType[] fields) {
 		List<FieldProperties> result = new ArrayList<>(fields.length);
-		FieldProperties fp = null;
 		for (RfFieldType field : fields) {
-			fp = slaveProcessor.getFieldProperties(fp, null, field.getField());
-			result.add(fp);
+			result.add(slaveProcessor.getFieldProperties(field.getField(), 0 /* fieldGroupIndex */));
 		}
 		return result;
 	}
@@ -581,72 +398,254 @@ public class ModbusReaderConfiguration {
 	}
 
 	/**
-	 * Get Runtime Register
+	 * Get the current {@link RuntimeConfiguration} without a lease of the
+	 * session, so the backend is not connected. The values are read from the
+	 * open module or from the stored field values.
+	 * 
+	 * @return {@link RuntimeConfiguration}
+	 * @throws ModbusReaderException
+	 */
+	private RuntimeConfiguration getCurrentRuntimeConfiguration() throws ModbusReaderException {
+		Field[] fields = new Field[RUNTIME_CONFIG_FIELDS.length];
+		for (int i = 0; i < fields.length; i++) {
+			fields[i] = RUNTIME_CONFIG_FIELDS[i].getField();
+		}
+		FieldValue[] values;
+		try {
+			values = slaveProcessor.getConfigFieldValues(fields);
+		} catch (ModbusSlaveException e) {
+			throw new ModbusReaderException(e);
+		}
+		RuntimeConfiguration rc = new RuntimeConfiguration();
+		rc.setTagsInField(getValue(values[0]));
+		rc.setMemorySelector((short) getValue(values[1]));
+		rc.setEpcLength(getValue(values[2]));
+		rc.setTidLength(getValue(values[3]));
+		rc.setUserLength(getValue(values[4]));
+		rc.setSelectionMaskCount(getValue(values[5]));
+		rc.setSelectionMaskMaxLength(getValue(values[6]));
+		rc.setCustomOperationMaxLength(getValue(values[7]));
+		return rc;
+	}
+
+	/**
+	 * Gets the first value of a short or unsigned short field value.
+	 * 
+	 * @param value
+	 * @return The value or <code>0</code> if the value does not exist
+	 */
+	private static int getValue(FieldValue value) {
+		if (value == null) {
+			return 0;
+		}
+		if (value.getShortValue() != null && value.getShortValue().length > 0) {
+			return value.getShortValue()[0];
+		}
+		if (value.getUShortValue() != null && value.getUShortValue().length > 0) {
+			return value.getUShortValue()[0];
+		}
+		return 0;
+	}
+
+	/**
+	 * Get Runtime Register. The register layout is computed from the runtime
+	 * configuration and is cached per runtime configuration, so no field
+	 * values are read. The session is not leased, so the backend is not
+	 * connected.
 	 * 
 	 * @return List of {@link RuntimeRegisterItem}
 	 * @throws ModbusReaderException
 	 */
 	public List<RuntimeRegisterItem> getRuntime() throws ModbusReaderException {
 		log.log(Level.FINE, "Reading runtime register");
-		connect();
-		try {
-			RuntimeConfiguration rc = getRuntimeConfiguration();
-			List<RuntimeRegisterItem> result = new ArrayList<>();
+		return layout.get(getCurrentRuntimeConfiguration());
+	}
 
-			FieldProperties fp = null;
+	/**
+	 * Get a page of the runtime register
+	 * 
+	 * @param offset
+	 *            the index of the first item
+	 * @param limit
+	 *            the max. count of items (0: all items)
+	 * @return {@link RuntimeRegisterPage}
+	 * @throws ModbusReaderException
+	 */
+	public RuntimeRegisterPage getRuntimePage(int offset, int limit) throws ModbusReaderException {
+		List<RuntimeRegisterItem> rt = getRuntime();
+		int from = Math.min(Math.max(offset, 0), rt.size());
+		int to = limit > 0 ? Math.min(from + limit, rt.size()) : rt.size();
+		RuntimeRegisterPage result = new RuntimeRegisterPage();
+		result.setOffset(from);
+		result.setTotal(rt.size());
+		result.setItems(new ArrayList<>(rt.subList(from, to)));
+		return result;
+	}
 
-			// Runtime Register
-			for (RfFieldType field : RUNTIME_FIELDS) {
-				fp = readFieldProp(fp, field, result);
-			}
+	/**
+	 * Get {@link Metrics}. The metrics are available without a connection
+	 * to the backend.
+	 * 
+	 * @return {@link Metrics}
+	 */
+	public Metrics getMetrics() {
+		SlaveMetrics metrics = slaveProcessor.getMetrics();
+		Metrics result = new Metrics();
+		result.setUptime(metrics.getUptime());
+		result.setActiveConnections(metrics.getActiveConnections());
+		result.setAcceptedConnections(metrics.getAcceptedConnections());
+		result.setRejectedConnections(metrics.getRejectedConnections());
+		Map<String, HistogramSummary> requests = new LinkedHashMap<>();
+		for (Entry<Short, MetricsHistogram> entry : metrics.getRequestLatencies().entrySet()) {
+			requests.put(String.valueOf(entry.getKey()), summarize(entry.getValue()));
+		}
+		result.setRequests(requests);
+		Map<String, Long> exceptionReplies = new LinkedHashMap<>();
+		for (Entry<Integer, Long> entry : metrics.getExceptionReplies().entrySet()) {
+			exceptionReplies.put(String.valueOf(entry.getKey()), entry.getValue());
+		}
+		result.setExceptionReplies(exceptionReplies);
+		result.setMappingLockWaits(summarize(metrics.getMappingLockWaits()));
+		result.setStructureLockWaits(summarize(metrics.getStructureLockWaits()));
+		Map<String, HistogramSummary> deviceOperations = new LinkedHashMap<>();
+		for (Entry<String, MetricsHistogram> entry : metrics.getDeviceOperations().entrySet()) {
+			deviceOperations.put(entry.getKey(), summarize(entry.getValue()));
+		}
+		result.setDeviceOperations(deviceOperations);
+		result.setInventoryTagCounts(summarize(metrics.getInventoryTagCounts()));
+		return result;
+	}
 
-			// Selection Mask Register
-			for (int i = 0; i < rc.getSelectionMaskCount(); ++i) {
-				for (RfFieldType field : SELECTION_MASK_FIELDS) {
-					fp = readFieldProp(fp, field, result);
-				}
+	/**
+	 * Get the traces of the latest slow requests. The traces are available
+	 * without a connection to the backend.
+	 * 
+	 * @return The traces, the latest trace first. The list is empty if
+	 *         tracing is disabled.
+	 */
+	public List<Trace> getTraces() {
+		List<Trace> result = new ArrayList<>();
+		for (RequestTrace requestTrace : slaveProcessor.getMetrics().getTracer().getTraces()) {
+			Trace trace = new Trace();
+			trace.setTime(requestTrace.getTime());
+			trace.setFunctionCode(requestTrace.getFunctionCode());
+			trace.setAddress(requestTrace.getAddress());
+			trace.setQuantity(requestTrace.getQuantity());
+			trace.setDuration(requestTrace.getDuration());
+			trace.setExceptionCode(requestTrace.getExceptionCode());
+			List<TraceSpan> spans = new ArrayList<>();
+			for (RequestTrace.Span requestSpan : requestTrace.getSpans()) {
+				TraceSpan span = new TraceSpan();
+				span.setStage(requestSpan.getStage());
+				span.setDetail(requestSpan.getDetail());
+				span.setOffset(requestSpan.getOffset());
+				span.setDuration(requestSpan.getDuration());
+				span.setCount(requestSpan.getCount());
+				spans.add(span);
 			}
+			trace.setSpans(spans);
+			trace.setDroppedSpanCount(requestTrace.getDroppedSpanCount());
+			result.add(trace);
+		}
+		return result;
+	}
 
-			// Runtime Tag Register
-			Map<RfFieldType, Boolean> fields = new LinkedHashMap<>();
-			fields.put(RfFieldType.LOCK_OPERATION, true);
-			fields.put(RfFieldType.KILL_OPERATION, true);
-			fields.put(RfFieldType.KILL_PWD, rc.isIncludeKillPwd());
-			fields.put(RfFieldType.ACCESS_PWD, rc.isIncludeAccessPwd());
-			fields.put(RfFieldType.CRC, rc.isIncludeCRC());
-			fields.put(RfFieldType.PC, rc.isIncludePC());
-			fields.put(RfFieldType.EPC, rc.getEpcLength() > 0);
-			fields.put(RfFieldType.XPC, rc.isIncludeXPC());
-			fields.put(RfFieldType.TID_BANK, rc.getTidLength() > 0);
-			fields.put(RfFieldType.USER_BANK, rc.getUserLength() > 0);
-			fields.put(RfFieldType.CUSTOM_COMMAND_LENGTH, rc.getCustomOperationMaxLength() > 0);
-			fields.put(RfFieldType.CUSTOM_COMMAND_DATA, rc.getCustomOperationMaxLength() > 0);
-
-			for (int i = 0; i < rc.getTagsInField(); ++i) {
-				for (Map.Entry<RfFieldType, Boolean> entry : fields.entrySet()) {
-					if (entry.getValue()) {
-						fp = readFieldProp(fp, entry.getKey(), result);
-					}
-				}
-			}
+	private HistogramSummary summarize(MetricsHistogram histogram) {
+		HistogramSummary result = new HistogramSummary();
+		result.setCount(histogram.getCount());
+		result.setMean(histogram.getMean());
+		result.setP50(histogram.getValueAtPercentile(50));
+		result.setP90(histogram.getValueAtPercentile(90));
+		result.setP99(histogram.getValueAtPercentile(99));
+		result.setMax(histogram.getMax());
+		return result;
+	}
 
-			return result;
-		} finally {
-			disconnect();
+	/**
+	 * Writes the runtime register as separated values. The rows are written
+	 * to the writer one by one, so the export is not buffered as a whole.
+	 * Values which contain the separator, a quote or a line break are quoted.
+	 * 
+	 * @param rt
+	 *            the items of the runtime register (see {@link #getRuntime()})
+	 * @param separator
+	 *            the separator of the values ('\t' for TSV, ',' for CSV)
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeRuntimeExport(List<RuntimeRegisterItem> rt, char separator, Writer writer) throws IOException {
+		writeRow(writer, separator, "Register address (HEX)", "Register address (DEC)", "Length (WORD)",
+				"Register type", "Description");
+		for (RuntimeRegisterItem r : rt) {
+			writeRow(writer, separator, r.getAddressHex(), r.getAddressDez(), String.valueOf(r.getLength()),
+					String.valueOf(r.getType()), String.valueOf(r.getDescription()));
 		}
+		writer.flush();
 	}
 
-	public String getRuntimeExport() throws ModbusReaderException {
-		List<RuntimeRegisterItem> rt = getRuntime();
-		StringBuilder result = new StringBuilder();
-		result.append("Register address (HEX)\tRegister address (DEC)\tLength (WORD)\tRegister type\tDescription\n");
-		for (RuntimeRegisterItem r : rt) {
-			result.append(r.getAddressHex() + "\t");
-			result.append(r.getAddressDez() + "\t");
-			result.append(r.getLength() + "\t");
-			result.append(r.getType() + "\t");
-			result.append(r.getDescription() + "\n");
+	/**
+	 * Writes the runtime register as separated values in UTF-8 (see
+	 * {@link #writeRuntimeExport(List, char, Writer)}). The output stream is
+	 * not closed.
+	 * 
+	 * @param rt
+	 *            the items of the runtime register (see {@link #getRuntime()})
+	 * @param separator
+	 *            the separator of the values ('\t' for TSV, ',' for CSV)
+	 * @param gzip
+	 *            whether the export is compressed with gzip
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeRuntimeExport(List<RuntimeRegisterItem> rt, char separator, boolean gzip, OutputStream out)
+			throws IOException {
+		if (!gzip) {
+			writeRuntimeExport(rt, separator, new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+			return;
+		}
+		// closing the gzip stream releases its deflater, even if the export
+		// fails
+		try (GZIPOutputStream gzipOut = new GZIPOutputStream(new NonClosingOutputStream(out))) {
+			writeRuntimeExport(rt, separator,
+					new BufferedWriter(new OutputStreamWriter(gzipOut, StandardCharsets.UTF_8)));
+		}
+	}
+
+	/**
+	 * Keeps the wrapped stream open when it is closed.
+	 */
+	private static class NonClosingOutputStream extends FilterOutputStream {
+
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	private void writeRow(Writer writer, char separator, String... values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				writer.write(separator);
+			}
+			String value = values[i];
+			if (value.indexOf(separator) >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+					|| value.indexOf('\r') >= 0) {
+				writer.write('"');
+				writer.write(value.replace("\"", "\"\""));
+				writer.write('"');
+			} else {
+				writer.write(value);
+			}
 		}
-		return result.toString();
+		writer.write('\n');
 	}
-}
+}
\ No newline at end of file
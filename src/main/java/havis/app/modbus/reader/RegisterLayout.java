@@ -0,0 +1,159 @@
+package havis.app.modbus.reader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import havis.app.modbus.reader.api.Field;
+import havis.app.modbus.reader.api.FieldValue;
+import havis.app.modbus.reader.core.FieldProperties;
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+import havis.app.modbus.reader.rest.data.RuntimeConfiguration;
+import havis.app.modbus.reader.rest.data.RuntimeRegisterItem;
+import havis.app.modbus.reader.rest.data.Type;
+import havis.app.modbus.reader.rf.RfConstants.RfFieldType;
+import havis.app.modbus.reader.rf.RfModule;
+
+/**
+ * Computes the runtime register layout (runtime, selection mask and tag
+ * registers) from a runtime configuration. The diagnostic registers follow at
+ * their fixed addresses. The fields are expanded like the module does, so no
+ * connection to the backend is required. The layouts are cached per runtime
+ * configuration.
+ */
+class RegisterLayout {
+
+	private static final Logger log = Logger.getLogger(RegisterLayout.class.getName());
+
+	// max. count of cached layouts
+	private static final int MAX_CACHE_SIZE = 4;
+
+	// the fields of the layout
+	private static final Set<Field> FIELDS = new HashSet<>();
+
+	static {
+		for (RfFieldType field : Arrays.asList(
+				// Runtime Register
+				RfFieldType.TAG_COUNT, RfFieldType.LAST_ERROR, RfFieldType.ACCESS_PASSWORD, RfFieldType.ANTENNA_MASK,
+				// Selection Mask Register
+				RfFieldType.SELECTION_MASK_BANK, RfFieldType.SELECTION_MASK_LENGTH,
+				RfFieldType.SELECTION_MASK_OFFSET, RfFieldType.SELECTION_MASK,
+				// Runtime Tag Register
+				RfFieldType.LOCK_OPERATION, RfFieldType.KILL_OPERATION, RfFieldType.KILL_PWD, RfFieldType.ACCESS_PWD,
+				RfFieldType.CRC, RfFieldType.PC, RfFieldType.EPC, RfFieldType.XPC, RfFieldType.TID_BANK,
+				RfFieldType.USER_BANK, RfFieldType.CUSTOM_COMMAND_LENGTH, RfFieldType.CUSTOM_COMMAND_DATA,
+				// Diagnostic Register
+				RfFieldType.REQUEST_COUNT, RfFieldType.EXCEPTION_REPLY_COUNT, RfFieldType.CONNECTION_COUNT,
+				RfFieldType.REQUEST_LATENCY_P50, RfFieldType.REQUEST_LATENCY_P99, RfFieldType.REQUEST_LATENCY_MAX,
+				RfFieldType.LOCK_WAIT_P99, RfFieldType.DEVICE_OPERATION_P99, RfFieldType.INVENTORY_TAG_COUNT_MAX,
+				RfFieldType.UPTIME)) {
+			FIELDS.add(field.getField());
+		}
+	}
+
+	private final Properties descriptions;
+	// runtime configuration key -> layout (least recently used first)
+	private final Map<List<Integer>, List<RuntimeRegisterItem>> cache = new LinkedHashMap<List<Integer>, List<RuntimeRegisterItem>>(
+			MAX_CACHE_SIZE, 0.75f, true /* accessOrder */) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<List<Integer>, List<RuntimeRegisterItem>> eldest) {
+			return size() > MAX_CACHE_SIZE;
+		}
+	};
+
+	RegisterLayout(Properties descriptions) {
+		this.descriptions = descriptions;
+	}
+
+	/**
+	 * @param rc
+	 * @return The key of the cached layouts for a runtime configuration
+	 */
+	static List<Integer> getKey(RuntimeConfiguration rc) {
+		return Arrays.asList(rc.getTagsInField(), (int) rc.getMemorySelector(), rc.getEpcLength(), rc.getTidLength(),
+				rc.getUserLength(), rc.getSelectionMaskCount(), rc.getSelectionMaskMaxLength(),
+				rc.getCustomOperationMaxLength());
+	}
+
+	/**
+	 * Gets the layout of a runtime configuration. The layout is computed if
+	 * it is not cached yet.
+	 *
+	 * @param rc
+	 * @return The unmodifiable layout in address order
+	 */
+	synchronized List<RuntimeRegisterItem> get(RuntimeConfiguration rc) {
+		List<Integer> key = getKey(rc);
+		List<RuntimeRegisterItem> result = cache.get(key);
+		if (result == null) {
+			result = compute(rc);
+			cache.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the layout of a runtime configuration.
+	 *
+	 * @param rc
+	 * @return The unmodifiable layout in address order
+	 */
+	List<RuntimeRegisterItem> compute(RuntimeConfiguration rc) {
+		Map<Field, FieldValue> configFieldValues = new HashMap<>();
+		configFieldValues.put(RfFieldType.TAGS_IN_FIELD.getField(), new FieldValue(new int[] { rc.getTagsInField() }));
+		configFieldValues.put(RfFieldType.MEMORY_SELECTOR.getField(),
+				new FieldValue(new short[] { rc.getMemorySelector() }));
+		configFieldValues.put(RfFieldType.EPC_LENGTH.getField(), new FieldValue(new int[] { rc.getEpcLength() }));
+		configFieldValues.put(RfFieldType.TID_LENGTH.getField(), new FieldValue(new int[] { rc.getTidLength() }));
+		configFieldValues.put(RfFieldType.USER_LENGTH.getField(), new FieldValue(new int[] { rc.getUserLength() }));
+		configFieldValues.put(RfFieldType.SELECTION_MASK_COUNT.getField(),
+				new FieldValue(new int[] { rc.getSelectionMaskCount() }));
+		configFieldValues.put(RfFieldType.SELECTION_MASK_MAX_LENGTH.getField(),
+				new FieldValue(new int[] { rc.getSelectionMaskMaxLength() }));
+		configFieldValues.put(RfFieldType.CUSTOM_COMMAND_MAX_LENGTH.getField(),
+				new FieldValue(new int[] { rc.getCustomOperationMaxLength() }));
+		FieldProperties[] fieldProps = RfModule.getFieldProperties(configFieldValues);
+		List<RuntimeRegisterItem> result = new ArrayList<>(fieldProps.length);
+		for (FieldProperties fp : fieldProps) {
+			if (FIELDS.contains(fp.getField())) {
+				result.add(new RuntimeRegisterItem(String.format("0x%04X", fp.getAddress()),
+						String.valueOf(fp.getAddress()), fp.getAddressQuantity(), fromFieldType(fp.getType()),
+						descriptions.getProperty(fp.getField().toString())));
+			}
+		}
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Computed register layout with " + result.size() + " of " + fieldProps.length
+					+ " fields");
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Converts FieldType from {@link FieldProperties} to REST-friendly
+	 * {@link Type}
+	 *
+	 * @param fieldType
+	 * @return Type
+	 */
+	private static Type fromFieldType(FieldType fieldType) {
+		Type result = null;
+		if (fieldType == FieldType.INPUT_REGISTERS)
+			result = Type.INPUT;
+		if (fieldType == FieldType.HOLDING_REGISTERS) {
+			result = Type.HOLDING;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,161 @@
+package havis.app.modbus.reader;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import havis.app.modbus.reader.core.ModbusSlaveException;
+import havis.app.modbus.reader.core.SlaveProcessor;
+
+/**
+ * A connection to the {@link SlaveProcessor} which is shared by the calls of
+ * the REST layer. A call leases the session while it accesses the fields.
+ * The session stays connected for an idle time after the last lease has been
+ * returned, so subsequent calls do not open and close the backend again.
+ */
+class SlaveSession {
+
+	private static final Logger log = Logger.getLogger(SlaveSession.class.getName());
+
+	private final SlaveProcessor slaveProcessor;
+	private final int idleTimeout;
+	private final Lock lock = new ReentrantLock();
+	private int leaseCount;
+	private boolean isConnected;
+	private boolean isClosed;
+	private ScheduledExecutorService idleExecutor;
+	private ScheduledFuture<?> idleFuture;
+
+	/**
+	 * @param slaveProcessor
+	 * @param idleTimeout
+	 *            the time in ms the session stays connected after the last
+	 *            lease has been returned (0: disconnect immediately)
+	 */
+	SlaveSession(SlaveProcessor slaveProcessor, int idleTimeout) {
+		this.slaveProcessor = slaveProcessor;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Leases the session. The slave processor is connected if the session is
+	 * not connected yet. Each lease must be returned with {@link #release()}.
+	 *
+	 * @throws ModbusSlaveException
+	 */
+	void acquire() throws ModbusSlaveException {
+		lock.lock();
+		try {
+			if (idleFuture != null) {
+				idleFuture.cancel(false /* mayInterruptIfRunning */);
+				idleFuture = null;
+			}
+			if (!isConnected) {
+				slaveProcessor.connect();
+				isConnected = true;
+			}
+			leaseCount++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a lease. The slave processor is disconnected after the idle
+	 * time if the session is not leased again in the meantime.
+	 *
+	 * @throws ModbusSlaveException
+	 */
+	void release() throws ModbusSlaveException {
+		lock.lock();
+		try {
+			leaseCount--;
+			if (leaseCount > 0) {
+				return;
+			}
+			if (idleTimeout == 0 || isClosed) {
+				disconnect();
+				return;
+			}
+			if (idleExecutor == null) {
+				idleExecutor = Executors.newSingleThreadScheduledExecutor();
+			}
+			idleFuture = idleExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					lock.lock();
+					try {
+						// if the session has not been leased in the meantime
+						if (leaseCount == 0) {
+							disconnect();
+						}
+					} catch (ModbusSlaveException e) {
+						log.log(Level.SEVERE, "Cannot disconnect idle session", e);
+					} finally {
+						lock.unlock();
+					}
+				}
+			}, idleTimeout, TimeUnit.MILLISECONDS);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Disconnects the session. The caller must hold the lock.
+	 *
+	 * @throws ModbusSlaveException
+	 */
+	private void disconnect() throws ModbusSlaveException {
+		idleFuture = null;
+		if (isConnected) {
+			isConnected = false;
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Disconnecting idle session");
+			}
+			slaveProcessor.disconnect();
+		}
+	}
+
+	/**
+	 * Disconnects an idle session immediately. Leases which are returned
+	 * afterwards disconnect the session immediately.
+	 *
+	 * @throws ModbusSlaveException
+	 */
+	void close() throws ModbusSlaveException {
+		lock.lock();
+		try {
+			isClosed = true;
+			if (idleFuture != null) {
+				idleFuture.cancel(false /* mayInterruptIfRunning */);
+			}
+			if (leaseCount == 0) {
+				disconnect();
+			}
+		} finally {
+			if (idleExecutor != null) {
+				idleExecutor.shutdown();
+				idleExecutor = null;
+			}
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Whether the slave processor is connected by the session
+	 */
+	boolean isConnected() {
+		lock.lock();
+		try {
+			return isConnected;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -1,16 +1,82 @@
 package havis.app.modbus.reader.api;
 
+import java.util.Properties;
+
 import havis.app.modbus.reader.core.FieldProperties;
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+import havis.app.modbus.reader.core.SlaveMetrics;
 
 public interface Module {
+	/**
+	 * Configures the module with the configuration properties of the slave.
+	 * The configuration is applied with the next call of {@link #open(int)}.
+	 * 
+	 * @param configProps
+	 * @throws ModuleException
+	 *             if a configuration property is invalid
+	 */
+	void configure(Properties configProps) throws ModuleException;
+
+	/**
+	 * Sets the metrics of the slave. The module records the durations of its
+	 * device operations and may provide the metrics as fields.
+	 * 
+	 * @param metrics
+	 */
+	void setMetrics(SlaveMetrics metrics);
+
 	void open(int timeout) throws ModuleException;;
 
 	void close(int timeout) throws ModuleException;
 
 	void expandFields();
 
+	/**
+	 * Expands the fields again after the value of a config field has been
+	 * changed. Only the fields whose layout depends on the changed field are
+	 * expanded, the fields before keep their addresses.
+	 * 
+	 * @param changedField
+	 * @return The start address of the first field whose layout has changed
+	 *         or the address after the last field if the layout has not
+	 *         changed
+	 */
+	int expandFields(Field changedField);
+
+	/**
+	 * Gets the size of the table of a field type. The expanded fields share
+	 * one address range, but the fields of a type may end before the last
+	 * field.
+	 * 
+	 * @param type
+	 * @return The address after the last field of the type
+	 */
+	int getEndAddress(FieldType type);
+
 	FieldProperties getFieldProperties(FieldProperties startFieldProps, Integer selectAddress, Field selectField);
 
+	/**
+	 * Gets the properties of a field with a group index.
+	 * 
+	 * @param field
+	 * @param fieldGroupIndex
+	 * @return The field properties or <code>null</code> if the field does not
+	 *         exist
+	 */
+	FieldProperties getFieldProperties(Field field, int fieldGroupIndex);
+
+	/**
+	 * Gets the properties of all fields of an address range. The field of the
+	 * first and the last properties contains the offset and length of the
+	 * addressed part of the field.
+	 * 
+	 * @param address
+	 * @param addressQuantity
+	 * @return The field properties in address order. The array is empty if the
+	 *         address does not exist.
+	 */
+	FieldProperties[] getFieldProperties(int address, int addressQuantity);
+
 	FieldValue getFieldValue(Field field, int fieldGroupIndex) throws ModuleException;
 
 	void setFieldValue(Field field, int fieldGroupIndex, FieldValue value) throws ModuleException;
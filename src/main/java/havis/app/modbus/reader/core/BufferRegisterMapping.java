@@ -0,0 +1,196 @@
+package havis.app.modbus.reader.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+
+/**
+ * A register mapping backed by direct buffers. A bit is stored in one byte
+ * (0 or 1). The registers are stored in big endian order, so they can be
+ * copied to and from modbus frames without conversion.
+ * <p>
+ * The buffers are never repositioned. Bulk copies use duplicates, so shared
+ * readers do not interfere with each other.
+ * </p>
+ */
+class BufferRegisterMapping implements RegisterMapping {
+
+	private final ByteBuffer[] tables = new ByteBuffer[FieldType.values().length];
+	private final int[] sizes = new int[FieldType.values().length];
+
+	BufferRegisterMapping(int coils, int discreteInputs, int holdingRegisters, int inputRegisters) {
+		setTable(FieldType.COILS, coils, 1 /* bytes per address */);
+		setTable(FieldType.DISCRETE_INPUTS, discreteInputs, 1);
+		setTable(FieldType.HOLDING_REGISTERS, holdingRegisters, 2);
+		setTable(FieldType.INPUT_REGISTERS, inputRegisters, 2);
+	}
+
+	private void setTable(FieldType type, int size, int bytesPerAddress) {
+		tables[type.ordinal()] = ByteBuffer.allocateDirect(size * bytesPerAddress);
+		sizes[type.ordinal()] = size;
+	}
+
+	/**
+	 * Resizes the tables. A table keeps its buffer if the capacity of the
+	 * buffer is sufficient. Otherwise the capacity is doubled at least and
+	 * the valid addresses are copied to the new buffer.
+	 * 
+	 * @param coils
+	 * @param discreteInputs
+	 * @param holdingRegisters
+	 * @param inputRegisters
+	 * @param validAddressQuantity
+	 *            the count of addresses whose contents are kept
+	 */
+	void resize(int coils, int discreteInputs, int holdingRegisters, int inputRegisters, int validAddressQuantity) {
+		resizeTable(FieldType.COILS, coils, 1 /* bytes per address */, validAddressQuantity);
+		resizeTable(FieldType.DISCRETE_INPUTS, discreteInputs, 1, validAddressQuantity);
+		resizeTable(FieldType.HOLDING_REGISTERS, holdingRegisters, 2, validAddressQuantity);
+		resizeTable(FieldType.INPUT_REGISTERS, inputRegisters, 2, validAddressQuantity);
+	}
+
+	private void resizeTable(FieldType type, int size, int bytesPerAddress, int validAddressQuantity) {
+		ByteBuffer table = tables[type.ordinal()];
+		if (size * bytesPerAddress > table.capacity()) {
+			ByteBuffer newTable = ByteBuffer.allocateDirect(Math.max(size * bytesPerAddress, 2 * table.capacity()));
+			ByteBuffer validData = table.duplicate();
+			validData.limit(Math.min(validAddressQuantity, sizes[type.ordinal()]) * bytesPerAddress);
+			newTable.duplicate().put(validData);
+			tables[type.ordinal()] = newTable;
+		}
+		sizes[type.ordinal()] = size;
+	}
+
+	@Override
+	public int getSize(FieldType type) {
+		return sizes[type.ordinal()];
+	}
+
+	@Override
+	public void setBits(FieldType type, int address, byte[] src, int srcOffset, int quantity)
+			throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		ByteBuffer table = tables[type.ordinal()].duplicate();
+		table.position(address);
+		table.put(src, srcOffset, quantity);
+	}
+
+	@Override
+	public void getBits(FieldType type, int address, byte[] dest, int destOffset, int quantity)
+			throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		ByteBuffer table = tables[type.ordinal()].duplicate();
+		table.position(address);
+		table.get(dest, destOffset, quantity);
+	}
+
+	@Override
+	public void setRegisters(FieldType type, int address, short[] src, int srcOffset, int quantity)
+			throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		ShortBuffer table = tables[type.ordinal()].duplicate().asShortBuffer();
+		table.position(address);
+		table.put(src, srcOffset, quantity);
+	}
+
+	@Override
+	public void getRegisters(FieldType type, int address, short[] dest, int destOffset, int quantity)
+			throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		ShortBuffer table = tables[type.ordinal()].duplicate().asShortBuffer();
+		table.position(address);
+		table.get(dest, destOffset, quantity);
+	}
+
+	/**
+	 * Packs bits of the coils or discrete inputs to a buffer (LSB first like
+	 * in a modbus response).
+	 * 
+	 * @param type
+	 * @param address
+	 * @param quantity
+	 * @param dest
+	 * @throws ModbusSlaveException
+	 */
+	void packBits(FieldType type, int address, int quantity, ByteBuffer dest) throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		ByteBuffer table = tables[type.ordinal()];
+		int b = 0;
+		for (int i = 0; i < quantity; i++) {
+			if (table.get(address + i) != 0) {
+				b |= 1 << (i % 8);
+			}
+			if (i % 8 == 7 || i == quantity - 1) {
+				dest.put((byte) b);
+				b = 0;
+			}
+		}
+	}
+
+	/**
+	 * Unpacks bits from a buffer (LSB first like in a modbus request) to the
+	 * coils or discrete inputs.
+	 * 
+	 * @param type
+	 * @param address
+	 * @param quantity
+	 * @param src
+	 * @throws ModbusSlaveException
+	 */
+	void unpackBits(FieldType type, int address, int quantity, ByteBuffer src) throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		ByteBuffer table = tables[type.ordinal()];
+		int b = 0;
+		for (int i = 0; i < quantity; i++) {
+			if (i % 8 == 0) {
+				b = src.get();
+			}
+			table.put(address + i, (byte) ((b >> (i % 8)) & 1));
+		}
+	}
+
+	/**
+	 * Copies registers to a buffer (big endian).
+	 * 
+	 * @param type
+	 * @param address
+	 * @param quantity
+	 * @param dest
+	 * @throws ModbusSlaveException
+	 */
+	void copyRegisters(FieldType type, int address, int quantity, ByteBuffer dest) throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		ByteBuffer table = tables[type.ordinal()].duplicate();
+		table.limit((address + quantity) * 2);
+		table.position(address * 2);
+		dest.put(table);
+	}
+
+	/**
+	 * Copies registers from a buffer (big endian).
+	 * 
+	 * @param type
+	 * @param address
+	 * @param quantity
+	 * @param src
+	 * @throws ModbusSlaveException
+	 */
+	void putRegisters(FieldType type, int address, int quantity, ByteBuffer src) throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		ByteBuffer table = tables[type.ordinal()].duplicate();
+		table.position(address * 2);
+		ByteBuffer data = src.duplicate();
+		data.limit(data.position() + quantity * 2);
+		table.put(data);
+		src.position(data.position());
+	}
+
+	private void checkRange(FieldType type, int address, int quantity) throws ModbusSlaveException {
+		int size = getSize(type);
+		if (address < 0 || address + quantity > size) {
+			throw new ModbusSlaveException(
+					type + ": Invalid address range " + address + "+" + quantity + " (size " + size + ")");
+		}
+	}
+}
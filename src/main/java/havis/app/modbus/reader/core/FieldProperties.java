@@ -21,6 +21,7 @@ public class FieldProperties {
     private FieldDataType dataType;
     private Integer fieldGroupIndex;
     private Boolean isConfigField;
+    private Boolean isDeviceField;
 	private Field[] scannedFields;
 
 	public FieldProperties(int address, Field[] scannedFields) {
@@ -80,6 +81,18 @@ public class FieldProperties {
         this.isConfigField = isConfigField;
     }
 
+    /**
+     * @return Whether the value of the field is read from the device. Reading
+     *         of such fields is serialized.
+     */
+    public Boolean isDeviceField() {
+        return isDeviceField;
+    }
+
+    public void setDeviceField(Boolean isDeviceField) {
+        this.isDeviceField = isDeviceField;
+    }
+
 	public Field[] getScannedFields() {
         return scannedFields;
     }
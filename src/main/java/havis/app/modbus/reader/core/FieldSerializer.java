@@ -1,24 +1,47 @@
 package havis.app.modbus.reader.core;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.zip.CRC32;
 
 import havis.app.modbus.reader.api.Field;
 import havis.app.modbus.reader.api.FieldValue;
 import havis.app.modbus.reader.common.FileHandler;
 import havis.app.modbus.reader.core.FieldProperties.FieldDataType;
 
+/**
+ * Serializes field values. The default field values are provided in the
+ * properties format (see {@link #read(Path)}), the current field values are
+ * stored in a binary format (see {@link #readBinary(Path)}).
+ */
 class FieldSerializer {
 
+	// "MBFV"
+	private static final int BINARY_MAGIC = 0x4D424656;
+	private static final byte BINARY_VERSION = 1;
+	// the data type of a field value without data type
+	private static final byte NO_DATA_TYPE = -1;
+
 	Map<Field, List<FieldValue>> read(Path file) throws IOException {
 		Properties props = new Properties();
 		InputStream in = new FileHandler().newInputStream(file);
@@ -36,16 +59,235 @@ class FieldSerializer {
 		return ret;
 	}
 
-	void write(Map<Field, List<FieldValue>> fieldValues, Path file) throws IOException {
-		Properties props = new Properties();
-		for (Entry<Field, List<FieldValue>> fieldValueEntry : fieldValues.entrySet()) {
-			props.put(fieldValueEntry.getKey().toString(), serialize(fieldValueEntry.getValue()));
+	/**
+	 * Reads field values from a binary file written by
+	 * {@link #writeBinary(Map, Path)}.
+	 * 
+	 * @param file
+	 * @return The field values
+	 * @throws IOException
+	 *             if the file cannot be read or a record is corrupt
+	 */
+	Map<Field, List<FieldValue>> readBinary(Path file) throws IOException {
+		Map<Field, List<FieldValue>> ret = new HashMap<>();
+		long fileSize = Files.size(file);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != BINARY_MAGIC) {
+				throw new IOException("Invalid file format: " + file);
+			}
+			byte version = in.readByte();
+			if (version != BINARY_VERSION) {
+				throw new IOException("Unsupported file version " + version + ": " + file);
+			}
+			CRC32 crc = new CRC32();
+			int b;
+			// until the end of the file
+			while ((b = in.read()) != -1) {
+				int length = (b << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8)
+						| in.readUnsignedByte();
+				// min.: field identifier + value count
+				if (length < 6 || length > fileSize) {
+					throw new IOException("Invalid length of record " + ret.size() + ": " + file);
+				}
+				byte[] record = new byte[length];
+				in.readFully(record);
+				crc.reset();
+				crc.update(record);
+				if ((int) crc.getValue() != in.readInt()) {
+					throw new IOException("Invalid checksum of record " + ret.size() + ": " + file);
+				}
+				DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+				Field field = new Field(recordIn.readInt());
+				int valueCount = recordIn.readUnsignedShort();
+				List<FieldValue> values = new ArrayList<>(valueCount);
+				for (int i = 0; i < valueCount; i++) {
+					values.add(readBinary(recordIn));
+				}
+				ret.put(field, values);
+			}
+		} catch (EOFException e) {
+			throw new IOException("Truncated file: " + file, e);
+		}
+		return ret;
+	}
+
+	private FieldValue readBinary(DataInputStream in) throws IOException {
+		byte dataType = in.readByte();
+		if (dataType == NO_DATA_TYPE) {
+			return null;
+		}
+		if (dataType < 0 || dataType >= FieldDataType.values().length) {
+			throw new IOException("Unknown data type " + dataType);
+		}
+		int length = in.readInt();
+		FieldValue fieldValue = new FieldValue();
+		switch (FieldDataType.values()[dataType]) {
+		case BOOLEAN:
+			boolean[] booleanValue = new boolean[length];
+			for (int i = 0; i < length; i++) {
+				booleanValue[i] = in.readBoolean();
+			}
+			fieldValue.setBooleanValue(booleanValue);
+			break;
+		case BYTE:
+			byte[] byteValue = new byte[length];
+			in.readFully(byteValue);
+			fieldValue.setByteValue(byteValue);
+			break;
+		case FLOAT:
+			float[] floatValue = new float[length];
+			for (int i = 0; i < length; i++) {
+				floatValue[i] = in.readFloat();
+			}
+			fieldValue.setFloatValue(floatValue);
+			break;
+		case SHORT:
+			short[] shortValue = new short[length];
+			for (int i = 0; i < length; i++) {
+				shortValue[i] = in.readShort();
+			}
+			fieldValue.setShortValue(shortValue);
+			break;
+		case STRING:
+			String[] stringValue = new String[length];
+			for (int i = 0; i < length; i++) {
+				int byteCount = in.readInt();
+				// -1: null
+				if (byteCount >= 0) {
+					byte[] bytes = new byte[byteCount];
+					in.readFully(bytes);
+					stringValue[i] = new String(bytes, StandardCharsets.UTF_8);
+				}
+			}
+			fieldValue.setStringValue(stringValue);
+			break;
+		case USHORT:
+			int[] ushortValue = new int[length];
+			for (int i = 0; i < length; i++) {
+				ushortValue[i] = in.readUnsignedShort();
+			}
+			fieldValue.setUShortValue(ushortValue);
+			break;
 		}
-		OutputStream out = Files.newOutputStream(file);
+		return fieldValue;
+	}
+
+	/**
+	 * Writes field values to a binary file. The file starts with a header
+	 * (magic number, version) followed by a record per field: the length of
+	 * the record, the field identifier, the field values and a CRC32 checksum
+	 * of the record. The values are written to a temporary file which is
+	 * synced to the storage and then renamed to the file, so the file is
+	 * replaced atomically. If the file cannot be written, the temporary file
+	 * is deleted.
+	 * 
+	 * @param fieldValues
+	 * @param file
+	 * @throws IOException
+	 */
+	void writeBinary(Map<Field, List<FieldValue>> fieldValues, Path file) throws IOException {
+		Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
 		try {
-			props.store(out, null /* comments */);
-		} finally {
-			out.close();
+			writeBinaryFile(fieldValues, tmpFile);
+			Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException | RuntimeException e) {
+			try {
+				Files.deleteIfExists(tmpFile);
+			} catch (IOException e1) {
+				e.addSuppressed(e1);
+			}
+			throw e;
+		}
+		// sync the directory entry of the renamed file
+		try (FileChannel dir = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			dir.force(true /* metaData */);
+		} catch (IOException e) {
+			// directories cannot be synced on some platforms
+		}
+	}
+
+	private void writeBinaryFile(Map<Field, List<FieldValue>> fieldValues, Path file) throws IOException {
+		try (FileOutputStream fileOut = new FileOutputStream(file.toFile())) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			out.writeInt(BINARY_MAGIC);
+			out.writeByte(BINARY_VERSION);
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			DataOutputStream recordOut = new DataOutputStream(record);
+			CRC32 crc = new CRC32();
+			for (Entry<Field, List<FieldValue>> fieldValueEntry : fieldValues.entrySet()) {
+				List<FieldValue> values = fieldValueEntry.getValue();
+				record.reset();
+				recordOut.writeInt(fieldValueEntry.getKey().getId());
+				recordOut.writeShort(values.size());
+				for (FieldValue value : values) {
+					writeBinary(value, recordOut);
+				}
+				recordOut.flush();
+				crc.reset();
+				crc.update(record.toByteArray());
+				out.writeInt(record.size());
+				record.writeTo(out);
+				out.writeInt((int) crc.getValue());
+			}
+			out.flush();
+			fileOut.getFD().sync();
+		}
+	}
+
+	private void writeBinary(FieldValue value, DataOutputStream out) throws IOException {
+		if (value == null || value.getDataType() == null) {
+			out.writeByte(NO_DATA_TYPE);
+			return;
+		}
+		// the ordinal of the data type (new data types must be appended)
+		out.writeByte(value.getDataType().ordinal());
+		switch (value.getDataType()) {
+		case BOOLEAN:
+			boolean[] booleanValue = value.getBooleanValue();
+			out.writeInt(booleanValue.length);
+			for (boolean b : booleanValue) {
+				out.writeBoolean(b);
+			}
+			break;
+		case BYTE:
+			byte[] byteValue = value.getByteValue();
+			out.writeInt(byteValue.length);
+			out.write(byteValue);
+			break;
+		case FLOAT:
+			float[] floatValue = value.getFloatValue();
+			out.writeInt(floatValue.length);
+			for (float f : floatValue) {
+				out.writeFloat(f);
+			}
+			break;
+		case SHORT:
+			short[] shortValue = value.getShortValue();
+			out.writeInt(shortValue.length);
+			for (short v : shortValue) {
+				out.writeShort(v);
+			}
+			break;
+		case STRING:
+			String[] stringValue = value.getStringValue();
+			out.writeInt(stringValue.length);
+			for (String str : stringValue) {
+				if (str == null) {
+					out.writeInt(-1);
+				} else {
+					byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			}
+			break;
+		case USHORT:
+			int[] ushortValue = value.getUShortValue();
+			out.writeInt(ushortValue.length);
+			for (int v : ushortValue) {
+				out.writeShort(v);
+			}
+			break;
 		}
 	}
 
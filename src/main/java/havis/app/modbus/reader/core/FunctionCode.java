@@ -0,0 +1,19 @@
+package havis.app.modbus.reader.core;
+
+/**
+ * The modbus function codes supported by the slave.
+ */
+public final class FunctionCode {
+
+	public static final short READ_COILS = 0x01;
+	public static final short READ_DISCRETE_INPUTS = 0x02;
+	public static final short READ_HOLDING_REGISTERS = 0x03;
+	public static final short READ_INPUT_REGISTERS = 0x04;
+	public static final short WRITE_SINGLE_COIL = 0x05;
+	public static final short WRITE_SINGLE_REGISTER = 0x06;
+	public static final short WRITE_MULTIPLE_COILS = 0x0F;
+	public static final short WRITE_MULTIPLE_REGISTERS = 0x10;
+
+	private FunctionCode() {
+	}
+}
@@ -0,0 +1,132 @@
+package havis.app.modbus.reader.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of non negative values (eg. durations in &micro;s).
+ * Each power of two is divided into 4 buckets, so a percentile is reported
+ * with a relative error of at most 25%.
+ * <p>
+ * Recording a value does not allocate memory and does not block. The
+ * statistics are read without a consistent snapshot, so a value which is
+ * recorded concurrently may be missing in some of them.
+ * </p>
+ */
+public final class MetricsHistogram {
+
+	// count of buckets per power of two: 2^SUB_BUCKET_BITS
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	// the values 0 .. SUB_BUCKET_COUNT - 1 have their own buckets, the powers
+	// of two up to 2^62 are divided into sub buckets
+	private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value
+	 *            the value, a negative value is recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(getBucketIndex(value));
+		sum.add(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+		}
+	}
+
+	private static int getBucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+		return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	/**
+	 * @param index
+	 * @return The largest value of a bucket
+	 */
+	private static long getBucketMaxValue(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+		long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+		return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return The count of recorded values
+	 */
+	public long getCount() {
+		long ret = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			ret += buckets.get(i);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return The sum of the recorded values
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return The mean of the recorded values or <code>0</code> if no value
+	 *         has been recorded
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) getSum() / count;
+	}
+
+	/**
+	 * @return The largest recorded value
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the value below which a percentage of the recorded values falls.
+	 *
+	 * @param percentile
+	 *            the percentage (0 .. 100)
+	 * @return The largest value of the bucket which contains the percentile
+	 *         (at most the largest recorded value) or <code>0</code> if no
+	 *         value has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] counts = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+			count += counts[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			total += counts[i];
+			if (total >= rank) {
+				return Math.min(getBucketMaxValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+}
@@ -6,27 +6,17 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Date;
 import java.util.Properties;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import havis.app.modbus.reader.api.Module;
+import havis.app.modbus.reader.api.ModuleException;
 import havis.app.modbus.reader.common.FileHandler;
 import havis.app.modbus.reader.common.NativeLibraryLoader;
 import havis.app.modbus.reader.common.PathHandler;
-import havis.util.modbus.IntArray;
-import havis.util.modbus.ModbusBase;
-import havis.util.modbus.ModbusMapping;
-import havis.util.modbus.ModbusTcpPi;
-import havis.util.modbus.UInt16Array;
-import havis.util.modbus.UInt8Array;
 
-public class ModbusSlave implements Slave {
+public class ModbusSlave {
 
 	private static final Logger log = Logger.getLogger(ModbusSlave.class.getName());
 
@@ -36,6 +26,8 @@ public class ModbusSlave implements Slave {
 
 	private final static String CONFIG_BASE_DIR = "havis-modbus-reader";
 	private final static String STATE_BASE_DIR = "/var/lib/havis-modbus-reader";
+	private final static String ENGINE_NATIVE = "native";
+	private final static String ENGINE_NIO = "nio";
 
 	private String configBaseDir;
 	private String stateBaseDir;
@@ -45,13 +37,9 @@ public class ModbusSlave implements Slave {
 
 	private int openCloseTimeout;
 	private int maxConnectionCount;
-	private SlaveProcessor slaveProcessor;
-	private ModbusTcpPi ctx = null;
-	private int serverSocket = -1;
-
-	private Lock lock = new ReentrantLock();
-	private Condition stopped = lock.newCondition();
-	private int stopState;
+	private int workerCount;
+	private Slave slave;
+	private ModbusSlaveProcessor slaveProcessor;
 
 	/**
 	 * @param configBaseDir
@@ -155,382 +143,115 @@ public class ModbusSlave implements Slave {
 			throw new ModbusSlaveException(
 					"Cannot parse configuration property 'maxConnectionCount': " + maxConnectionCountStr);
 		}
-		// create processor
-		slaveProcessor = new ModbusSlaveProcessor(configBaseDirPath, stateBaseDirPath, openCloseTimeout, this, module);
-		if (nativeLibraryNames != null) {
-			NativeLibraryLoader loader = new NativeLibraryLoader();
-			for (String nativeLibraryName : nativeLibraryNames) {
-				loader.load(nativeLibraryName);
+		String workerCountStr = configProps.getProperty("workerCount");
+		if (workerCountStr == null || workerCountStr.isEmpty()) {
+			workerCountStr = "1";
+		}
+		try {
+			workerCount = Integer.parseInt(workerCountStr);
+		} catch (NumberFormatException e) {
+			throw new ModbusSlaveException("Cannot parse configuration property 'workerCount': " + workerCountStr);
+		}
+		if (workerCount < 1) {
+			throw new ModbusSlaveException("Invalid configuration property 'workerCount': " + workerCountStr);
+		}
+		String engine = configProps.getProperty("engine");
+		if (engine == null || engine.isEmpty()) {
+			engine = ENGINE_NATIVE;
+		}
+		switch (engine) {
+		case ENGINE_NATIVE:
+			if (nativeLibraryNames != null) {
+				NativeLibraryLoader loader = new NativeLibraryLoader();
+				for (String nativeLibraryName : nativeLibraryNames) {
+					loader.load(nativeLibraryName);
+				}
 			}
+			slave = new NativeModbusSlave();
+			break;
+		case ENGINE_NIO:
+			slave = new NioModbusSlave();
+			break;
+		default:
+			throw new ModbusSlaveException("Invalid configuration property 'engine': " + engine);
 		}
-		ctx = new ModbusTcpPi();
 		if (log.isLoggable(Level.INFO)) {
-			log.log(Level.INFO, "Opening server socket on port " + port);
+			log.log(Level.INFO, "Using slave engine " + engine);
 		}
-		if (ctx.newTcpPi("::0", port) < 0) {
-			// delete class instance
-			ctx.delete();
-			ctx = null;
-			slaveProcessor = null;
-			throw new ModbusSlaveException("Unable to create a TCP context");
+		String lingerTimeStr = configProps.getProperty("lingerMs");
+		if (lingerTimeStr == null || lingerTimeStr.isEmpty()) {
+			lingerTimeStr = "0";
+		}
+		int lingerTime;
+		try {
+			lingerTime = Integer.parseInt(lingerTimeStr);
+		} catch (NumberFormatException e) {
+			throw new ModbusSlaveException("Cannot parse configuration property 'lingerMs': " + lingerTimeStr);
+		}
+		if (lingerTime < 0) {
+			throw new ModbusSlaveException("Invalid configuration property 'lingerMs': " + lingerTimeStr);
 		}
-		// set debug mode
-		ctx.setDebug(log.isLoggable(Level.FINE));
-		// open slave
-		serverSocket = ctx.tcpPiListen(maxConnectionCount);
-		if (serverSocket < 0) {
-			String msg = "Unable to open slave: " + ctx.getErrNo() + " " + ctx.strError(ctx.getErrNo());
-			// destroy context
-			ctx.free();
-			// delete class instance
-			ctx.delete();
-			ctx = null;
+		String traceThresholdStr = configProps.getProperty("traceThresholdMs");
+		if (traceThresholdStr == null || traceThresholdStr.isEmpty()) {
+			traceThresholdStr = "-1";
+		}
+		int traceThreshold;
+		try {
+			traceThreshold = Integer.parseInt(traceThresholdStr);
+		} catch (NumberFormatException e) {
+			throw new ModbusSlaveException(
+					"Cannot parse configuration property 'traceThresholdMs': " + traceThresholdStr);
+		}
+		String traceCapacityStr = configProps.getProperty("traceCapacity");
+		if (traceCapacityStr == null || traceCapacityStr.isEmpty()) {
+			traceCapacityStr = "100";
+		}
+		int traceCapacity;
+		try {
+			traceCapacity = Integer.parseInt(traceCapacityStr);
+		} catch (NumberFormatException e) {
+			throw new ModbusSlaveException("Cannot parse configuration property 'traceCapacity': " + traceCapacityStr);
+		}
+		if (traceCapacity < 1) {
+			throw new ModbusSlaveException("Invalid configuration property 'traceCapacity': " + traceCapacityStr);
+		}
+		RequestTracer tracer = new RequestTracer(traceThreshold, traceCapacity);
+		if (tracer.isEnabled() && log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, "Tracing requests exceeding " + traceThreshold + " ms");
+		}
+		try {
+			module.configure(configProps);
+		} catch (ModuleException e) {
+			throw new ModbusSlaveException("Cannot configure module", e);
+		}
+		// create processor
+		slaveProcessor = new ModbusSlaveProcessor(configBaseDirPath, stateBaseDirPath, openCloseTimeout, lingerTime,
+				slave, module, tracer);
+		try {
+			slave.open(port, maxConnectionCount, workerCount, openCloseTimeout, slaveProcessor);
+		} catch (ModbusSlaveException e) {
+			slave = null;
 			slaveProcessor = null;
-			throw new ModbusSlaveException(msg);
+			throw e;
 		}
 		return slaveProcessor;
 	}
 
 	public void close() throws ModbusSlaveException {
-		if (ctx == null) {
+		if (slave == null) {
 			return;
 		}
-		if (serverSocket >= 0) {
-			lock.lock();
-			try {
-				if (log.isLoggable(Level.INFO)) {
-					log.log(Level.INFO, "Closing server socket");
-				}
-				stopState = 1;
-				// close the network connection and socket (tcpPiAccept /
-				// receive call is aborted)
-				ctx.close();
-				try {
-					while (stopState != 2) {
-						if (!stopped.await(openCloseTimeout, TimeUnit.MILLISECONDS)) {
-							throw new ModbusSlaveException("Cannot close back end within " + openCloseTimeout + "ms");
-						}
-					}
-				} catch (ModbusSlaveException e) {
-					throw e;
-				} catch (Exception e) {
-					throw new ModbusSlaveException("Closing failed", e);
-				}
-				stopState = 0;
-			} finally {
-				lock.unlock();
-			}
-			serverSocket = -1;
-		}
-		// destroy context
-		ctx.free();
-		// delete class instance
-		ctx.delete();
-		ctx = null;
-		slaveProcessor = null;
-		if (log.isLoggable(Level.INFO)) {
-			log.log(Level.INFO, "Modbus slave closed");
-		}
-	}
-
-	private boolean isClosing() {
-		lock.lock();
 		try {
-			if (stopState == 1) {
-				stopState = 2;
-				stopped.signalAll();
-				return true;
-			}
-			return false;
+			slave.close();
 		} finally {
-			lock.unlock();
+			// a lingering module is closed with the slave
+			slaveProcessor.close();
+			slave = null;
+			slaveProcessor = null;
 		}
 	}
 
 	public void run() {
-		int connectionCount = 0;
-		boolean isSlaveProcessorConnected = false;
-		UInt8Array request = new UInt8Array(ModbusTcpPi.MODBUS_TCP_MAX_ADU_LENGTH);
-		IntArray readFds = new IntArray(1 /* serverSocket */ + maxConnectionCount);
-		int readFdsCount = 0;
-		try {
-			while (true) {
-				if (readFdsCount == 0) {
-					boolean isIncomingConnection;
-					do {
-						if (log.isLoggable(Level.INFO)) {
-							log.log(Level.INFO, "Waiting for data...");
-						}
-						do {
-							readFdsCount = ctx.selectRead(readFds.cast());
-							// if slave is being closed
-							if (isClosing()) {
-								if (isSlaveProcessorConnected) {
-									// disconnect slave processor
-									try {
-										slaveProcessor.disconnect();
-									} catch (ModbusSlaveException e) {
-										log.log(Level.SEVERE, "Cannot clean up backend", e);
-									}
-								}
-								return;
-							}
-							if (readFdsCount < 0) {
-								System.err.println("Waiting for data failed: " + ctx.getErrNo() + " "
-										+ ctx.strError(ctx.getErrNo()));
-							}
-						} while (readFdsCount <= 0);
-						isIncomingConnection = readFds.getitem(0) == serverSocket;
-						if (isIncomingConnection) {
-							// accept the connection
-							int clientSocket = ctx.tcpPiAccept(serverSocket);
-							if (clientSocket < 0) {
-								log.log(Level.SEVERE, "Unable to accept a connection: " + ctx.getErrNo() + " "
-										+ ctx.strError(ctx.getErrNo()));
-							} else {
-								if (log.isLoggable(Level.INFO)) {
-									log.log(Level.INFO, "Connection established: " + clientSocket);
-								}
-								connectionCount++;
-								if (!isSlaveProcessorConnected) {
-									try {
-										// connect slave processor
-										slaveProcessor.connect();
-										isSlaveProcessorConnected = true;
-									} catch (ModbusSlaveException e) {
-										log.log(Level.SEVERE, "Cannot initialize backend", e);
-									}
-								}
-							}
-						}
-					} while (isIncomingConnection);
-				}
-				if (log.isLoggable(Level.INFO)) {
-					log.log(Level.INFO, "Processing request from connection " + readFds.getitem(readFdsCount - 1));
-				}
-				// set client socket
-				ctx.setSocket(readFds.getitem(readFdsCount - 1));
-				readFdsCount--;
-				// wait for a request
-				int requestLength;
-				Date timeStamp;
-				do {
-					requestLength = ctx.receive(request.cast());
-					timeStamp = new Date();
-					// filtered requests return 0
-				} while (requestLength == 0);
-				// if an error has occurred
-				if (requestLength < 0) {
-					// if "Connection reset by peer"
-					if (ctx.getErrNo() == ModbusBase.ERRNO_ECONNRESET) {
-						if (log.isLoggable(Level.INFO)) {
-							log.log(Level.INFO, "Failed to receive message: " + ctx.getErrNo() + " "
-									+ ctx.strError(ctx.getErrNo()));
-						}
-						// close client
-						ctx.close(ctx.getSocket());
-						connectionCount--;
-						if (connectionCount == 0 && isSlaveProcessorConnected) {
-							// disconnect slave processor
-							try {
-								slaveProcessor.disconnect();
-								isSlaveProcessorConnected = false;
-							} catch (ModbusSlaveException e) {
-								log.log(Level.SEVERE, "Cannot clean up backend", e);
-							}
-						}
-					} else {
-						log.log(Level.SEVERE,
-								"Failed to receive message: " + ctx.getErrNo() + " " + ctx.strError(ctx.getErrNo()));
-					}
-					// wait for next connection/request
-					continue;
-				}
-				// if initialization of backend failed
-				if (!isSlaveProcessorConnected) {
-					log.log(Level.SEVERE, "Discarding request due to failed initialization of backend");
-					// send exception response
-					if (ctx.replyException(request.cast(), ModbusBase.MODBUS_EXCEPTION_SLAVE_OR_SERVER_FAILURE) < 0) {
-						// if "Connection reset by peer"
-						if (ctx.getErrNo() == ModbusBase.ERRNO_ECONNRESET) {
-							if (log.isLoggable(Level.INFO)) {
-								log.log(Level.INFO, "Failed to receive message: " + ctx.getErrNo() + " "
-										+ ctx.strError(ctx.getErrNo()));
-							}
-							// close client
-							ctx.close(ctx.getSocket());
-							connectionCount--;
-						} else {
-							log.log(Level.SEVERE, "Failed to send exception response: " + ctx.getErrNo() + " "
-									+ ctx.strError(ctx.getErrNo()));
-						}
-					}
-					// wait for next connection/request
-					continue;
-				}
-				ModbusMapping mapping = null;
-				try {
-					int headerLength = ctx.getHeaderLength();
-					// get function code
-					short functionCode = request.getitem(headerLength);
-					String requestDescr = null;
-					if (log.isLoggable(Level.INFO)) {
-						if (functionCode == ModbusBase.MODBUS_FC_READ_COILS) {
-							requestDescr = "READ_COILS";
-						} else if (functionCode == ModbusBase.MODBUS_FC_READ_DISCRETE_INPUTS) {
-							requestDescr = "READ_DISCRETE_INPUTS";
-						} else if (functionCode == ModbusBase.MODBUS_FC_READ_HOLDING_REGISTERS) {
-							requestDescr = "READ_HOLDING_REGISTERS";
-						} else if (functionCode == ModbusBase.MODBUS_FC_READ_INPUT_REGISTERS) {
-							requestDescr = "READ_INPUT_REGISTERS";
-						} else if (functionCode == ModbusBase.MODBUS_FC_WRITE_SINGLE_COIL) {
-							requestDescr = "WRITE_SINGLE_COIL";
-						} else if (functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_COILS) {
-							requestDescr = "WRITE_MULTIPLE_COILS";
-						} else if (functionCode == ModbusBase.MODBUS_FC_WRITE_SINGLE_REGISTER) {
-							requestDescr = "WRITE_SINGLE_REGISTER";
-						} else if (functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_REGISTERS) {
-							requestDescr = "WRITE_MULTIPLE_REGISTERS";
-						}
-						log.log(Level.INFO, "Received " + requestDescr);
-					}
-					boolean isRead = functionCode == ModbusBase.MODBUS_FC_READ_COILS
-							|| functionCode == ModbusBase.MODBUS_FC_READ_DISCRETE_INPUTS
-							|| functionCode == ModbusBase.MODBUS_FC_READ_HOLDING_REGISTERS
-							|| functionCode == ModbusBase.MODBUS_FC_READ_INPUT_REGISTERS;
-					boolean isWrite = functionCode == ModbusBase.MODBUS_FC_WRITE_SINGLE_COIL
-							|| functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_COILS
-							|| functionCode == ModbusBase.MODBUS_FC_WRITE_SINGLE_REGISTER
-							|| functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_REGISTERS;
-					// get address
-					int address = ctx.getInt16FromInt8(request.cast(), headerLength + 1);
-					// get quantity
-					int addressQuantity = 1;
-					if (isRead || functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_COILS
-							|| functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_REGISTERS) {
-						addressQuantity = ctx.getInt16FromInt8(request.cast(), headerLength + 3);
-					}
-					mapping = slaveProcessor.acquireMapping();
-					// if data shall be read
-					if (isRead) {
-						if (log.isLoggable(Level.FINE)) {
-							log.log(Level.FINE, "Reading data for functionCode=" + functionCode + ", address=" + address
-									+ ", addressQuantity=" + addressQuantity);
-						}
-						// update data
-						try {
-							slaveProcessor.read(functionCode, address, addressQuantity, mapping);
-						} catch (ModbusSlaveException e) {
-							log.log(Level.SEVERE, "Cannot read data for functionCode=" + functionCode + ",address="
-									+ address + ",quantity=" + addressQuantity, e);
-							// send exception response
-							if (ctx.replyException(request.cast(),
-									ModbusBase.MODBUS_EXCEPTION_SLAVE_OR_SERVER_FAILURE) < 0) {
-								// if "Connection reset by peer"
-								if (ctx.getErrNo() == ModbusBase.ERRNO_ECONNRESET) {
-									if (log.isLoggable(Level.INFO)) {
-										log.log(Level.INFO, "Failed to send exception response: " + ctx.getErrNo() + " "
-												+ ctx.strError(ctx.getErrNo()));
-									}
-									// close client
-									ctx.close(ctx.getSocket());
-									connectionCount--;
-									if (connectionCount == 0) {
-										// disconnect slave processor
-										try {
-											slaveProcessor.disconnect();
-											isSlaveProcessorConnected = false;
-										} catch (ModbusSlaveException e1) {
-											log.log(Level.SEVERE, "Cannot clean up backend", e1);
-										}
-									}
-								} else {
-									log.log(Level.SEVERE, "Failed to send exception response: " + ctx.getErrNo() + " "
-											+ ctx.strError(ctx.getErrNo()));
-								}
-							}
-							// wait for next connection/request
-							continue;
-						}
-					}
-					// send response
-					if (ctx.reply(request.cast(), requestLength, mapping) < 0) {
-						// if "Connection reset by peer"
-						if (ctx.getErrNo() == ModbusBase.ERRNO_ECONNRESET) {
-							if (log.isLoggable(Level.INFO)) {
-								log.log(Level.INFO, "Failed to send response: " + ctx.getErrNo() + " "
-										+ ctx.strError(ctx.getErrNo()));
-							}
-							// close client
-							ctx.close(ctx.getSocket());
-							connectionCount--;
-							if (connectionCount == 0) {
-								// disconnect slave processor
-								try {
-									slaveProcessor.disconnect();
-									isSlaveProcessorConnected = false;
-								} catch (ModbusSlaveException e) {
-									log.log(Level.SEVERE, "Cannot clean up backend", e);
-								}
-							}
-						} else {
-							log.log(Level.SEVERE,
-									"Failed to send response: " + ctx.getErrNo() + " " + ctx.strError(ctx.getErrNo()));
-						}
-						// wait for next connection/request
-						continue;
-					}
-					if (log.isLoggable(Level.INFO)) {
-						log.log(Level.INFO, "Sent " + requestDescr);
-					}
-					// if data has been written
-					if (isWrite) {
-						if (log.isLoggable(Level.FINE)) {
-							log.log(Level.FINE, "Writing data for functionCode=" + functionCode + ", address=" + address
-									+ ", addressQuantity=" + addressQuantity);
-						}
-						// update data
-						try {
-							slaveProcessor.write(functionCode, address, addressQuantity, timeStamp, mapping);
-						} catch (ModbusSlaveException e) {
-							log.log(Level.SEVERE, "Cannot write data for functionCode=" + functionCode + ",address="
-									+ address + ",quantity=" + addressQuantity, e);
-						}
-					}
-				} finally {
-					if (mapping != null) {
-						slaveProcessor.releaseMapping();
-					}
-				}
-			}
-		} finally {
-			// destroy request structure
-			request.delete();
-			// destroy structure for read fds
-			readFds.delete();
-		}
-	}
-
-	@Override
-	public ModbusMapping createMapping(int coils, int discreteInputs, int holdingRegisters, int inputRegisters) {
-		return ctx.mappingNew(coils, discreteInputs, holdingRegisters, inputRegisters);
-	}
-
-	@Override
-	public void destroyMapping(ModbusMapping mapping) {
-		// destroy mapping structure
-		ctx.mappingFree(mapping);
-		// destroy class instance
-		mapping.delete();
-	}
-
-	@Override
-	public void setFloat(float value, UInt16Array destRegisters) {
-		ctx.setFloat(value, destRegisters.cast());
-	}
-
-	@Override
-	public float getFloat(UInt16Array destRegisters) {
-		return ctx.getFloat(destRegisters.cast());
+		slave.run();
 	}
 }
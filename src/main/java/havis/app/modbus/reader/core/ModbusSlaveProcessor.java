@@ -1,17 +1,29 @@
 package havis.app.modbus.reader.core;
 
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,39 +31,180 @@ import havis.app.modbus.reader.api.Field;
 import havis.app.modbus.reader.api.FieldValue;
 import havis.app.modbus.reader.api.Module;
 import havis.app.modbus.reader.api.ModuleException;
-import havis.util.modbus.ModbusMapping;
-import havis.util.modbus.UInt16Array;
-import havis.util.modbus.UInt8Array;
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
 
 class ModbusSlaveProcessor implements SlaveProcessor {
 
 	private static final Logger log = Logger.getLogger(ModbusSlaveProcessor.class.getName());
 
+	/**
+	 * Regions of fields which are locked independently. The order is the
+	 * locking order.
+	 */
+	enum Region {
+		// fields whose values are kept in memory by the module (eg. device
+		// info)
+		MEMORY,
+		// persisted configuration fields
+		CONFIG,
+		// fields which access the device
+		DEVICE;
+
+		static Region get(FieldProperties fieldProps) {
+			if (Boolean.TRUE.equals(fieldProps.isDeviceField())) {
+				return DEVICE;
+			}
+			return Boolean.TRUE.equals(fieldProps.isConfigField()) ? CONFIG : MEMORY;
+		}
+	}
+
+	/**
+	 * A version of the mapping. A new version is published when the fields are
+	 * remapped. Requests pin the version they have started with, so their
+	 * replies are finished against this version. The mapping is destroyed when
+	 * the version has been replaced and the last request which pinned it has
+	 * finished.
+	 */
+	private class MappingSnapshot {
+		final RegisterMapping mapping;
+		final int version;
+		// the processor holds a reference to the current version
+		private final AtomicInteger refCount = new AtomicInteger(1);
+		// whether the mapping has been resized for the next version
+		private volatile boolean isHandedOver;
+
+		MappingSnapshot(RegisterMapping mapping, int version) {
+			this.mapping = mapping;
+			this.version = version;
+		}
+
+		void retain() {
+			refCount.incrementAndGet();
+		}
+
+		/**
+		 * @param pinned
+		 *            the version pinned by the current request
+		 * @return Whether the version is referenced by the processor and the
+		 *         current request only
+		 */
+		boolean isExclusive(MappingSnapshot pinned) {
+			return refCount.get() == (pinned == this ? 2 : 1);
+		}
+
+		/**
+		 * Hands the mapping over to the next version. The mapping is not
+		 * destroyed when this version is released.
+		 */
+		void handOver() {
+			isHandedOver = true;
+		}
+
+		void release() {
+			if (refCount.decrementAndGet() == 0 && !isHandedOver) {
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "Destroying mapping version " + version);
+				}
+				slave.destroyMapping(mapping);
+			}
+		}
+	}
+
+	/**
+	 * The locks and the pinned mapping version of an acquired mapping.
+	 */
+	private static class Acquisition {
+		final Lock[] locks;
+		MappingSnapshot snapshot;
+		// whether the read lock of the field structure is held until the
+		// values of the request have been processed
+		boolean isStructureLocked;
+
+		Acquisition(Lock[] locks) {
+			this.locks = locks;
+		}
+	}
+
 	private Path dfltFieldsPropsFilePath;
 	private Path fieldsPropsFilePath;
+	private Path fieldsFilePath;
 	private int openCloseTimeout;
 	private Slave slave;
 	private Module module;
 	private Map<Field, List<FieldValue>> initialFieldValues;
-	private Lock lock = new ReentrantLock();
-	private ModbusMapping mapping;
-	private Lock mappingLock = new ReentrantLock();
+	// read lock: access to the fields
+	// write lock: (dis)connecting, remapping
+	private ReadWriteLock lock = new ReentrantReadWriteLock();
+	// the current mapping version
+	private volatile MappingSnapshot snapshot;
+	// locks of the mapping per region
+	// read lock: reading of fields which do not access the device
+	// write lock: reading of device fields, writing
+	private final Map<Region, ReadWriteLock> regionLocks = new EnumMap<>(Region.class);
+	// the mappings acquired by the current thread
+	private final ThreadLocal<Deque<Acquisition>> acquisitions = new ThreadLocal<Deque<Acquisition>>() {
+		@Override
+		protected Deque<Acquisition> initialValue() {
+			return new ArrayDeque<>();
+		}
+	};
 	private int connectionCounter = 0;
+	// whether the module is open (it lingers after the last disconnect)
+	private boolean isModuleOpen;
+	// time in ms the module is kept open after the last disconnect (0: the
+	// module is closed immediately)
+	private final int lingerTime;
+	private ScheduledExecutorService lingerExecutor;
+	private ScheduledFuture<?> lingerFuture;
+	// whether the processor has been closed (the module does not linger)
+	private boolean isClosed;
+	private final SlaveMetrics metrics;
+	private final RequestTracer tracer;
 
-	ModbusSlaveProcessor(Path configBaseDirPath, Path stateBaseDirPath, int openCloseTimeout, Slave slave,
-			Module module) throws ModbusSlaveException {
+	/**
+	 * @param configBaseDirPath
+	 * @param stateBaseDirPath
+	 * @param openCloseTimeout
+	 * @param lingerTime
+	 *            the time in ms the module and the mapping are kept after the
+	 *            last disconnect, so a reconnect within this time does not
+	 *            open the module again (0: the module is closed immediately)
+	 * @param slave
+	 * @param module
+	 * @param tracer
+	 * @throws ModbusSlaveException
+	 */
+	ModbusSlaveProcessor(Path configBaseDirPath, Path stateBaseDirPath, int openCloseTimeout, int lingerTime,
+			Slave slave, Module module, RequestTracer tracer) throws ModbusSlaveException {
 		dfltFieldsPropsFilePath = configBaseDirPath.resolve("dfltFields.properties");
 		fieldsPropsFilePath = stateBaseDirPath.resolve("fields.properties").toAbsolutePath();
+		fieldsFilePath = stateBaseDirPath.resolve("fields.bin").toAbsolutePath();
 		this.openCloseTimeout = openCloseTimeout;
+		this.lingerTime = lingerTime;
 		this.slave = slave;
 		this.module = module;
+		this.tracer = tracer;
+		metrics = new SlaveMetrics(tracer);
+		module.setMetrics(metrics);
+		for (Region region : Region.values()) {
+			regionLocks.put(region, new ReentrantReadWriteLock());
+		}
 	}
 
 	@Override
 	public void connect() throws ModbusSlaveException {
-		lock.lock();
+		lock.writeLock().lock();
 		try {
-			if (connectionCounter == 0) {
+			if (connectionCounter == 0 && isModuleOpen) {
+				// reuse the lingering module and mapping
+				if (lingerFuture != null) {
+					lingerFuture.cancel(false /* mayInterruptIfRunning */);
+					lingerFuture = null;
+				}
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "Reusing open module");
+				}
+			} else if (connectionCounter == 0) {
 				try {
 					module.open(openCloseTimeout);
 				} catch (ModuleException e) {
@@ -59,12 +212,7 @@ class ModbusSlaveProcessor implements SlaveProcessor {
 				}
 				try {
 					if (initialFieldValues == null) {
-						Path path = Files.isRegularFile(fieldsPropsFilePath) ? fieldsPropsFilePath
-								: dfltFieldsPropsFilePath;
-						if (log.isLoggable(Level.INFO)) {
-							log.log(Level.INFO, "Reading field values from " + path);
-						}
-						initialFieldValues = new FieldSerializer().read(path);
+						initialFieldValues = readFieldValues();
 					}
 					// set field values to module
 					for (Entry<Field, List<FieldValue>> fieldValueEntry : initialFieldValues.entrySet()) {
@@ -83,17 +231,20 @@ class ModbusSlaveProcessor implements SlaveProcessor {
 					throw new ModbusSlaveException("Cannot initialize configuration fields", e);
 				}
 
-				createMapping();
+				// expand fields
+				module.expandFields();
+				createMapping(0 /* validAddressQuantity */, null /* pinned */);
+				isModuleOpen = true;
 			}
 			connectionCounter++;
 		} finally {
-			lock.unlock();
+			lock.writeLock().unlock();
 		}
 	}
 
 	@Override
 	public void disconnect() throws ModbusSlaveException {
-		lock.lock();
+		lock.writeLock().lock();
 		try {
 			switch (connectionCounter) {
 			case 0:
@@ -102,641 +253,886 @@ class ModbusSlaveProcessor implements SlaveProcessor {
 				try {
 					Map<Field, List<FieldValue>> fieldValues = new HashMap<>();
 					// get all fields
-					FieldProperties fieldProps = module.getFieldProperties(null /* startFieldInfo */,
+					FieldProperties endFieldProps = module.getFieldProperties(null /* startFieldInfo */,
 							null /* address */, null /* field */);
-					Field[] fields = fieldProps.getScannedFields();
-					fieldProps = null;
 					// for each field
-					for (Field field : fields) {
-						// get field properties
-						fieldProps = module.getFieldProperties(fieldProps /* startFieldInfo */, null /* address */,
-								field);
+					for (FieldProperties fieldProps : module.getFieldProperties(0 /* address */,
+							endFieldProps.getAddress() /* addressQuantity */)) {
 						// if field is a configuration field
 						if (fieldProps.isConfigField()) {
+							Field field = new Field(fieldProps.getField().getId());
 							List<FieldValue> values = fieldValues.get(field);
 							if (values == null) {
 								values = new ArrayList<>();
 								fieldValues.put(field, values);
 							}
 							// get field value from module and add it to list
-							values.add(module.getFieldValue(field, fieldValues.size() /* fieldGroupIndex */));
+							values.add(module.getFieldValue(field, fieldProps.getFieldGroupIndex()));
 						}
 					}
 					// if field values have been changed
 					if (!initialFieldValues.equals(fieldValues)) {
 						if (log.isLoggable(Level.INFO)) {
-							log.log(Level.INFO, "Writing field values to " + fieldsPropsFilePath);
+							log.log(Level.INFO, "Writing field values to " + fieldsFilePath);
 						}
-						new FieldSerializer().write(fieldValues, fieldsPropsFilePath);
+						new FieldSerializer().writeBinary(fieldValues, fieldsFilePath);
 						initialFieldValues = fieldValues;
 					}
 				} catch (Exception e) {
 					throw new ModbusSlaveException("Cannot store configuration fields", e);
 				} finally {
-					slave.destroyMapping(mapping);
-					mapping = null;
-					try {
-						module.close(openCloseTimeout);
-					} catch (ModuleException e) {
-						throw new ModbusSlaveException("Cannot close module", e);
+					connectionCounter--;
+					if (lingerTime > 0 && !isClosed) {
+						linger();
+					} else {
+						closeModule();
 					}
 				}
+				return;
 			}
 			connectionCounter--;
 		} finally {
-			lock.unlock();
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads the stored field values. Field values which have been stored in
+	 * the properties format by a previous version are migrated to the binary
+	 * format. If no field values have been stored yet or the stored field
+	 * values are corrupt, the default field values are read. A corrupt file
+	 * is kept as <code>fields.bin.corrupt</code>.
+	 * 
+	 * @return The field values
+	 * @throws IOException
+	 */
+	private Map<Field, List<FieldValue>> readFieldValues() throws IOException {
+		FieldSerializer serializer = new FieldSerializer();
+		if (Files.isRegularFile(fieldsFilePath)) {
+			if (log.isLoggable(Level.INFO)) {
+				log.log(Level.INFO, "Reading field values from " + fieldsFilePath);
+			}
+			try {
+				return serializer.readBinary(fieldsFilePath);
+			} catch (IOException e) {
+				Path corruptFilePath = fieldsFilePath.resolveSibling(fieldsFilePath.getFileName() + ".corrupt");
+				log.log(Level.WARNING, "Cannot read field values from " + fieldsFilePath + ", moving it to "
+						+ corruptFilePath + " and using the default field values", e);
+				Files.move(fieldsFilePath, corruptFilePath, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} else if (Files.isRegularFile(fieldsPropsFilePath)) {
+			if (log.isLoggable(Level.INFO)) {
+				log.log(Level.INFO, "Migrating field values from " + fieldsPropsFilePath + " to " + fieldsFilePath);
+			}
+			Map<Field, List<FieldValue>> ret = serializer.read(fieldsPropsFilePath);
+			serializer.writeBinary(ret, fieldsFilePath);
+			Files.delete(fieldsPropsFilePath);
+			return ret;
+		}
+		if (log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, "Reading field values from " + dfltFieldsPropsFilePath);
+		}
+		return serializer.read(dfltFieldsPropsFilePath);
+	}
+
+	/**
+	 * Schedules the closing of the module after the linger time. The caller
+	 * must hold the write lock.
+	 */
+	private void linger() {
+		if (lingerExecutor == null) {
+			lingerExecutor = Executors.newSingleThreadScheduledExecutor();
+		}
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Keeping module open for " + lingerTime + "ms");
+		}
+		lingerFuture = lingerExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				lock.writeLock().lock();
+				try {
+					// if no client has connected in the meantime
+					if (connectionCounter == 0 && isModuleOpen) {
+						closeModule();
+					}
+				} catch (ModbusSlaveException e) {
+					log.log(Level.SEVERE, "Cannot close lingering module", e);
+				} finally {
+					lock.writeLock().unlock();
+				}
+			}
+		}, lingerTime, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Closes the module and releases the mapping. The caller must hold the
+	 * write lock.
+	 * 
+	 * @throws ModbusSlaveException
+	 */
+	private void closeModule() throws ModbusSlaveException {
+		lingerFuture = null;
+		isModuleOpen = false;
+		// the mapping is destroyed when the last request has finished
+		snapshot.release();
+		snapshot = null;
+		try {
+			module.close(openCloseTimeout);
+		} catch (ModuleException e) {
+			throw new ModbusSlaveException("Cannot close module", e);
+		}
+	}
+
+	/**
+	 * Closes a lingering module immediately and stops the scheduling of the
+	 * linger time. The slave must have been closed before.
+	 * 
+	 * @throws ModbusSlaveException
+	 */
+	void close() throws ModbusSlaveException {
+		lock.writeLock().lock();
+		try {
+			isClosed = true;
+			if (lingerFuture != null) {
+				lingerFuture.cancel(false /* mayInterruptIfRunning */);
+			}
+			if (connectionCounter == 0 && isModuleOpen) {
+				closeModule();
+			}
+		} finally {
+			if (lingerExecutor != null) {
+				lingerExecutor.shutdown();
+				lingerExecutor = null;
+			}
+			lock.writeLock().unlock();
 		}
 	}
 
 	@Override
 	public FieldProperties getFieldProperties(FieldProperties startFieldProps, Integer selectAddress,
 			Field selectField) {
-		lock.lock();
+		lock.readLock().lock();
 		try {
 			return module.getFieldProperties(startFieldProps, selectAddress, selectField);
 		} finally {
-			lock.unlock();
+			lock.readLock().unlock();
 		}
 	}
 
 	@Override
-	public ModbusMapping acquireMapping() {
-		mappingLock.lock();
-		lock.lock();
+	public FieldProperties getFieldProperties(Field field, int fieldGroupIndex) {
+		lock.readLock().lock();
 		try {
-			return mapping;
+			return module.getFieldProperties(field, fieldGroupIndex);
 		} finally {
-			lock.unlock();
+			lock.readLock().unlock();
 		}
 	}
 
 	@Override
-	public void releaseMapping() {
-		mappingLock.unlock();
-	}
-
-	@Override
-	public void read(short functionCode, int address, int addressQuantity, ModbusMapping mapping)
-			throws ModbusSlaveException {
-		lock.lock();
+	public FieldProperties[] getFieldProperties(int address, int addressQuantity) {
+		lock.readLock().lock();
 		try {
-			// get field properties for first address
-			FieldProperties fieldPropsStart = module.getFieldProperties(null /* startFieldInfo */, address,
-					null /* field */);
-			// if address does not exist
-			if (fieldPropsStart.getField() == null) {
-				return;
-			}
-			try {
-				Field[] scannedFields;
-				// if multiple addresses
-				if (addressQuantity > 1) {
-					// get field properties of last address
-					FieldProperties fieldPropsEnd = module.getFieldProperties(fieldPropsStart /* startFieldInfo */,
-							address + addressQuantity - 1, null /* field */);
-					scannedFields = fieldPropsEnd.getScannedFields();
-				} else {
-					scannedFields = new Field[] { fieldPropsStart.getField() };
-				}
-				// get values of scanned fields from module and write them to
-				// the mapping
-				setFieldValues(fieldPropsStart, scannedFields, mapping);
-			} catch (ModuleException e) {
-				throw new ModbusSlaveException("Cannot read values for address " + address, e);
-			}
+			return module.getFieldProperties(address, addressQuantity);
 		} finally {
-			lock.unlock();
+			lock.readLock().unlock();
 		}
 	}
 
 	@Override
-	public ModbusMapping write(short functionCode, int address, int addressQuantity, Date timeStamp,
-			ModbusMapping mapping) throws ModbusSlaveException {
-		lock.lock();
+	public FieldValue[] getConfigFieldValues(Field... fields) throws ModbusSlaveException {
+		FieldValue[] ret = new FieldValue[fields.length];
+		// config fields are written with the write lock of the config region
+		Lock regionLock = regionLocks.get(Region.CONFIG).readLock();
+		regionLock.lock();
 		try {
-			// get field properties for first address
-			FieldProperties fieldPropsStart = module.getFieldProperties(null /* startFieldInfo */, address,
-					null /* field */);
-			// if address does not exist
-			if (fieldPropsStart.getField() == null) {
-				return mapping;
-			}
-			Field[] scannedFields;
+			lock.readLock().lock();
 			try {
-				// if multiple addresses
-				if (addressQuantity > 1) {
-					// get field properties of last address
-					FieldProperties fieldPropsEnd = module.getFieldProperties(fieldPropsStart /* startFieldInfo */,
-							address + addressQuantity - 1, null /* field */);
-					scannedFields = fieldPropsEnd.getScannedFields();
-				} else {
-					scannedFields = new Field[] { fieldPropsStart.getField() };
+				if (isModuleOpen) {
+					getModuleFieldValues(fields, ret);
+					return ret;
 				}
-				// get values of scanned fields from mapping and write them to
-				// the module
-				getFieldValues(fieldPropsStart, scannedFields, mapping);
-			} catch (ModuleException e) {
-				throw new ModbusSlaveException("Cannot write values of address " + address, e);
+			} finally {
+				lock.readLock().unlock();
 			}
-			fieldPropsStart = null;
-			// for each scanned field
-			for (Field scannedField : scannedFields) {
-				// get field properties
-				fieldPropsStart = module.getFieldProperties(fieldPropsStart /* startFieldInfo */, null /* address */,
-						scannedField);
-				// if field is a config field
-				if (fieldPropsStart.isConfigField()) {
-					// create a new mapping
-					createMapping();
-					return this.mapping;
+			// the stored field values are read with the write lock (the
+			// module may have been opened in the meantime)
+			lock.writeLock().lock();
+			try {
+				if (isModuleOpen) {
+					getModuleFieldValues(fields, ret);
+					return ret;
+				}
+				if (initialFieldValues == null) {
+					initialFieldValues = readFieldValues();
 				}
+				for (int i = 0; i < fields.length; i++) {
+					List<FieldValue> values = initialFieldValues.get(fields[i]);
+					ret[i] = values == null || values.isEmpty() ? null : values.get(0);
+				}
+				return ret;
+			} catch (IOException e) {
+				throw new ModbusSlaveException("Cannot read stored field values", e);
+			} finally {
+				lock.writeLock().unlock();
 			}
-			return mapping;
 		} finally {
-			lock.unlock();
-		}
-	}
-
-	private void createMapping() {
-		// expand fields
-		module.expandFields();
-		// create mapping
-		FieldProperties fieldProps = module.getFieldProperties(null /* startFieldInfo */, null /* address */,
-				null /* field */);
-		if (mapping != null) {
-			slave.destroyMapping(mapping);
+			regionLock.unlock();
 		}
-		mapping = slave.createMapping(fieldProps.getAddress() /* coils */, fieldProps.getAddress() /* discreteInputs */,
-				fieldProps.getAddress() /* holdingRegisters */, fieldProps.getAddress()/* inputRegisters */);
 	}
 
 	/**
-	 * Sets field values from the module to a mapping.
+	 * Gets the values of the first group of config fields from the open
+	 * module. The caller must hold the read lock of the config region and a
+	 * lock of the field structure.
 	 * 
-	 * @param fieldPropsStart
 	 * @param fields
-	 * @param mapping
+	 * @param values
+	 *            the values of the fields
 	 * @throws ModbusSlaveException
-	 * @throws ModuleException
 	 */
-	private void setFieldValues(FieldProperties fieldPropsStart, Field[] fields, ModbusMapping mapping)
-			throws ModbusSlaveException, ModuleException {
-		FieldProperties fieldProps = fieldPropsStart;
-		// for each field
-		for (Field field : fields) {
-			// get field properties
-			fieldProps = module.getFieldProperties(fieldProps, null /* address */, field);
-			// get field value from module
-			FieldValue value = module.getFieldValue(field, fieldProps.getFieldGroupIndex());
-			if (value != null && value.getDataType() != fieldProps.getDataType()) {
-				throw new ModbusSlaveException("Invalid data type for field " + fieldProps.getField() + " at address "
-						+ fieldProps.getAddress() + ": " + value.getDataType() + " (expected "
-						+ fieldProps.getDataType() + ")");
+	private void getModuleFieldValues(Field[] fields, FieldValue[] values) throws ModbusSlaveException {
+		for (int i = 0; i < fields.length; i++) {
+			FieldProperties props = module.getFieldProperties(fields[i], 0 /* fieldGroupIndex */);
+			if (props != null && Region.get(props) == Region.CONFIG) {
+				try {
+					values[i] = module.getFieldValue(fields[i], 0 /* fieldGroupIndex */);
+				} catch (ModuleException e) {
+					throw new ModbusSlaveException("Cannot read value of field " + fields[i], e);
+				}
 			}
-			UInt8Array tabBits = null;
-			UInt16Array tabRegisters = null;
+		}
+	}
+
+	@Override
+	public RegisterMapping acquireMapping() {
+		Lock[] locks = new Lock[Region.values().length];
+		for (Region region : Region.values()) {
+			locks[region.ordinal()] = regionLocks.get(region).writeLock();
+		}
+		// the mapping cannot be remapped by others while all regions are
+		// locked
+		return acquire(locks, false /* isStructureLocked */);
+	}
+
+	@Override
+	public RegisterMapping acquireMapping(short functionCode, int address, int addressQuantity) {
+		boolean isRead = isReadFunction(functionCode);
+		while (true) {
+			MappingSnapshot current;
+			Set<Region> regions = EnumSet.noneOf(Region.class);
+			boolean isRemapping;
+			lock.readLock().lock();
 			try {
-				// set field value to mapping
-				switch (fieldProps.getType()) {
-				case COILS:
-					tabBits = UInt8Array.frompointer(mapping.getTabBits());
-					setFieldValue(tabBits, mapping.getNbBits(), fieldProps, value, "coil");
-					break;
-				case DISCRETE_INPUTS:
-					tabBits = UInt8Array.frompointer(mapping.getTabInputBits());
-					setFieldValue(tabBits, mapping.getNbInputBits(), fieldProps, value, "discrete input");
-					break;
-				case HOLDING_REGISTERS:
-					tabRegisters = UInt16Array.frompointer(mapping.getTabRegisters());
-					setFieldValue(tabRegisters, mapping.getNbRegisters(), fieldProps, value, "holding register");
-					break;
-				case INPUT_REGISTERS:
-					tabRegisters = UInt16Array.frompointer(mapping.getTabInputRegisters());
-					setFieldValue(tabRegisters, mapping.getNbInputRegisters(), fieldProps, value, "input register");
-					break;
+				current = snapshot;
+				FieldProperties[] fieldProps = module.getFieldProperties(address, addressQuantity);
+				for (FieldProperties props : fieldProps) {
+					regions.add(Region.get(props));
 				}
+				// writing of config fields leads to a remapping, which
+				// requires the write lock of the field structure
+				isRemapping = !isRead && isConfigAccess(fieldProps);
 			} finally {
-				if (tabBits != null) {
-					tabBits.delete();
-				} else if (tabRegisters != null) {
-					tabRegisters.delete();
-				}
+				lock.readLock().unlock();
 			}
+			List<Lock> locks = new ArrayList<>();
+			for (Region region : regions) {
+				ReadWriteLock regionLock = regionLocks.get(region);
+				// the device is accessed exclusively
+				locks.add(isRead && region != Region.DEVICE ? regionLock.readLock() : regionLock.writeLock());
+			}
+			RegisterMapping ret = acquire(locks.toArray(new Lock[locks.size()]), !isRemapping);
+			// if the fields have not been remapped in the meantime
+			if (acquisitions.get().peek().snapshot == current) {
+				return ret;
+			}
+			releaseMapping();
 		}
 	}
 
 	/**
-	 * Gets field values from a mapping and sets them to the module.
+	 * Acquires locks in the given order, pins the current mapping version and
+	 * registers both for {@link #releaseMapping()}.
 	 * 
-	 * @param fieldPropsStart
-	 * @param fields
-	 * @param mapping
-	 * @throws ModbusSlaveException
-	 * @throws ModuleException
+	 * @param locks
+	 * @param isStructureLocked
+	 *            whether the read lock of the field structure is held until
+	 *            the values of the request have been processed
+	 * @return The mapping
 	 */
-	private void getFieldValues(FieldProperties fieldPropsStart, Field[] fields, ModbusMapping mapping)
-			throws ModbusSlaveException, ModuleException {
-		FieldProperties fieldProps = fieldPropsStart;
-		// for each field
-		for (Field field : fields) {
-			// get field properties
-			fieldProps = module.getFieldProperties(fieldProps, null /* address */, field);
-			UInt8Array tabBits = null;
-			UInt16Array tabRegisters = null;
-			try {
-				FieldValue value = null;
-				// get field value from mapping
-				switch (fieldProps.getType()) {
-				case COILS:
-					tabBits = UInt8Array.frompointer(mapping.getTabBits());
-					value = getFieldValue(tabBits, mapping.getNbBits(), fieldProps, "coil");
-					break;
-				case DISCRETE_INPUTS:
-					tabBits = UInt8Array.frompointer(mapping.getTabInputBits());
-					value = getFieldValue(tabBits, mapping.getNbInputBits(), fieldProps, "discrete input");
-					break;
-				case HOLDING_REGISTERS:
-					tabRegisters = UInt16Array.frompointer(mapping.getTabRegisters());
-					value = getFieldValue(tabRegisters, mapping.getNbRegisters(), fieldProps, "holding register");
-					break;
-				case INPUT_REGISTERS:
-					tabRegisters = UInt16Array.frompointer(mapping.getTabInputRegisters());
-					value = getFieldValue(tabRegisters, mapping.getNbInputRegisters(), fieldProps, "input register");
-					break;
-				}
-				// set field value to module
-				module.setFieldValue(field, fieldProps.getFieldGroupIndex(), value);
-			} finally {
-				if (tabBits != null) {
-					tabBits.delete();
-				} else if (tabRegisters != null) {
-					tabRegisters.delete();
-				}
-			}
+	private RegisterMapping acquire(Lock[] locks, boolean isStructureLocked) {
+		long start = System.nanoTime();
+		for (Lock l : locks) {
+			l.lock();
 		}
+		metrics.recordMappingLockWait(start);
+		tracer.span("mappingLock", null /* detail */, start);
+		Acquisition acquisition = new Acquisition(locks);
+		start = System.nanoTime();
+		lock.readLock().lock();
+		metrics.recordStructureLockWait(start);
+		tracer.span("structureLock", null /* detail */, start);
+		acquisition.snapshot = snapshot;
+		if (acquisition.snapshot != null) {
+			acquisition.snapshot.retain();
+		}
+		acquisition.isStructureLocked = isStructureLocked;
+		if (!isStructureLocked) {
+			lock.readLock().unlock();
+		}
+		acquisitions.get().push(acquisition);
+		return acquisition.snapshot == null ? null : acquisition.snapshot.mapping;
 	}
 
-	private void setFieldValue(UInt8Array destBits, int destBitsSize, FieldProperties fieldProps, FieldValue fieldValue,
-			String description) throws ModbusSlaveException {
-		if (fieldValue == null) {
-			setBoolValues(destBits, destBitsSize, fieldProps.getAddress(), fieldProps.getAddressQuantity(),
-					(boolean[]) null /* value */, description);
-			return;
+	@Override
+	public void releaseMapping() {
+		Acquisition acquisition = acquisitions.get().pop();
+		unlockStructure(acquisition);
+		if (acquisition.snapshot != null) {
+			acquisition.snapshot.release();
 		}
-		switch (fieldValue.getDataType()) {
-		case BOOLEAN:
-			setBoolValues(destBits, destBitsSize, fieldProps.getAddress(), fieldProps.getAddressQuantity(),
-					fieldValue.getBooleanValue(), description);
-			break;
-		default:
-			throw new ModbusSlaveException("Unknown data type for bits at address " + fieldProps.getAddress() + ": "
-					+ fieldValue.getDataType() + " (supported: BOOLEAN)");
+		for (int i = acquisition.locks.length - 1; i >= 0; i--) {
+			acquisition.locks[i].unlock();
 		}
 	}
 
-	private FieldValue getFieldValue(UInt8Array destBits, int destBitsSize, FieldProperties fieldProps,
-			String description) throws ModbusSlaveException {
-		switch (fieldProps.getDataType()) {
-		case BOOLEAN:
-			return getBoolValues(destBits, destBitsSize, fieldProps.getAddress(), fieldProps.getAddressQuantity(),
-					description);
-		default:
-			throw new ModbusSlaveException("Unknown data type for bits at address " + fieldProps.getAddress() + ": "
-					+ fieldProps.getDataType() + " (supported: BOOLEAN)");
+	/**
+	 * Releases the read lock of the field structure after the values of a
+	 * request have been processed. The reply is finished against the pinned
+	 * mapping version, so the fields may be remapped in the meantime.
+	 */
+	private void unlockStructure(Acquisition acquisition) {
+		if (acquisition.isStructureLocked) {
+			acquisition.isStructureLocked = false;
+			lock.readLock().unlock();
 		}
 	}
 
-	private void setFieldValue(UInt16Array destRegisters, int destRegistersSize, FieldProperties fieldProps,
-			FieldValue fieldValue, String description) throws ModbusSlaveException {
-		if (fieldValue == null) {
-			setByteValues(destRegisters, destRegistersSize, fieldProps.getAddress(), fieldProps.getAddressQuantity(),
-					(byte[]) null /* value */, description);
-			return;
-		}
-		switch (fieldValue.getDataType()) {
-		case BYTE:
-			setByteValues(destRegisters, destRegistersSize, fieldProps.getAddress(), fieldProps.getAddressQuantity(),
-					fieldValue.getByteValue(), description);
-			break;
-		case SHORT:
-			setShortValues(destRegisters, destRegistersSize, fieldProps.getAddress(), fieldProps.getAddressQuantity(),
-					fieldValue.getShortValue(), description);
-			break;
-		case USHORT:
-			setUShortValues(destRegisters, destRegistersSize, fieldProps.getAddress(), fieldProps.getAddressQuantity(),
-					fieldValue.getUShortValue(), description);
-			break;
-		case FLOAT:
-			setFloatValues(destRegisters, destRegistersSize, fieldProps.getAddress(), fieldProps.getAddressQuantity(),
-					fieldValue.getFloatValue(), description);
-			break;
-		case STRING:
-			setStringValues(destRegisters, destRegistersSize, fieldProps.getAddress(), fieldProps.getAddressQuantity(),
-					fieldValue.getStringValue(), StandardCharsets.UTF_8, description);
-			break;
-		default:
-			throw new ModbusSlaveException("Unknown data type for registers at address " + fieldProps.getAddress()
-					+ ": " + fieldValue.getDataType() + " (supported: BYTE, SHORT, USHORT, FLOAT, STRING)");
+	/**
+	 * Acquires the read lock of the field structure for the values of a
+	 * request if it is not held yet.
+	 */
+	private void lockStructure(Acquisition acquisition) {
+		if (!acquisition.isStructureLocked) {
+			long start = System.nanoTime();
+			lock.readLock().lock();
+			metrics.recordStructureLockWait(start);
+			tracer.span("structureLock", null /* detail */, start);
+			acquisition.isStructureLocked = true;
 		}
 	}
 
-	private FieldValue getFieldValue(UInt16Array destRegisters, int destRegistersSize, FieldProperties fieldProps,
-			String description) throws ModbusSlaveException {
-		switch (fieldProps.getDataType()) {
-		case BYTE:
-			return getByteValues(destRegisters, destRegistersSize, fieldProps.getAddress(),
-					fieldProps.getAddressQuantity(), description);
-		case SHORT:
-			return getShortValues(destRegisters, destRegistersSize, fieldProps.getAddress(),
-					fieldProps.getAddressQuantity(), description);
-		case USHORT:
-			return getUShortValues(destRegisters, destRegistersSize, fieldProps.getAddress(),
-					fieldProps.getAddressQuantity(), description);
-		case FLOAT:
-			return getFloatValues(destRegisters, destRegistersSize, fieldProps.getAddress(),
-					fieldProps.getAddressQuantity(), description);
-		case STRING:
-			return getStringValues(destRegisters, destRegistersSize, fieldProps.getAddress(),
-					fieldProps.getAddressQuantity(), StandardCharsets.UTF_8, description);
-		default:
-			throw new ModbusSlaveException("Unknown data type for registers at address " + fieldProps.getAddress()
-					+ ": " + fieldProps.getDataType() + " (supported: BYTE, SHORT, USHORT, FLOAT, STRING)");
+	@Override
+	public void read(short functionCode, int address, int addressQuantity, RegisterMapping mapping)
+			throws ModbusSlaveException {
+		Acquisition acquisition = acquisitions.get().peek();
+		lockStructure(acquisition);
+		try {
+			// get field properties of the address range
+			FieldProperties[] fieldProps = module.getFieldProperties(address, addressQuantity);
+			try {
+				// get values of the fields from module
+				FieldValue[] values;
+				while (true) {
+					if (!isDeviceAccess(fieldProps)) {
+						values = getModuleValues(fieldProps);
+						break;
+					}
+					// the device is accessed without the read lock of the
+					// field structure, so remappings and other regions do not
+					// wait for the device
+					MappingSnapshot current = snapshot;
+					unlockStructure(acquisition);
+					values = getModuleValues(fieldProps);
+					lockStructure(acquisition);
+					// if the fields have not been remapped during the device
+					// access
+					if (snapshot == current) {
+						break;
+					}
+					// the values may not fit the fields of the new layout (eg.
+					// a changed field length), so the values of the fields
+					// which now cover the address range are read again. The
+					// address range exists in the pinned mapping version.
+					fieldProps = module.getFieldProperties(address, addressQuantity);
+				}
+				// write the values to the mapping
+				setFieldValues(fieldProps, values, mapping);
+			} catch (ModuleException e) {
+				throw new ModbusSlaveException("Cannot read values for address " + address, e);
+			}
+		} finally {
+			unlockStructure(acquisition);
 		}
 	}
 
-	private void setBoolValues(UInt8Array destBits, int destBitsSize, int address, int addressQuantity,
-			boolean[] values, String description) throws ModbusSlaveException {
-		if (address + addressQuantity > destBitsSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + destBitsSize);
-		}
-		// for each value
-		for (int i = 0; i < addressQuantity; i++) {
-			short shortValue = (values != null && i < values.length && values[i]) ? (short) 1 : (short) 0;
-			// set value to registers
-			int key = address + i;
-			destBits.setitem(key, shortValue);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Wrote " + description + " " + key + ": 0x" + String.format("%02X", shortValue));
+	@Override
+	public RegisterMapping write(short functionCode, int address, int addressQuantity, Date timeStamp,
+			RegisterMapping mapping) throws ModbusSlaveException {
+		Acquisition acquisition = acquisitions.get().peek();
+		// requests which may remap do not hold the read lock of the field
+		// structure. The fields cannot be remapped by others in the meantime,
+		// because remappings require the write lock of the config region.
+		boolean mayRemap = !acquisition.isStructureLocked;
+		try {
+			// get field properties of the address range
+			FieldProperties[] fieldProps = module.getFieldProperties(address, addressQuantity);
+			// see read
+			if (isDeviceAccess(fieldProps)) {
+				unlockStructure(acquisition);
 			}
+			try {
+				// get values of the fields from mapping and write them to the
+				// module (config fields are written before the write lock of
+				// the field structure is acquired, so the readers of other
+				// regions do not wait for the module)
+				getFieldValues(fieldProps, mapping);
+			} catch (ModuleException e) {
+				throw new ModbusSlaveException("Cannot write values of address " + address, e);
+			}
+			// if a config field has been written
+			if (mayRemap && isConfigAccess(fieldProps)) {
+				return remap(fieldProps, mapping, acquisition);
+			}
+			return mapping;
+		} finally {
+			unlockStructure(acquisition);
 		}
 	}
 
-	private FieldValue getBoolValues(UInt8Array srcBits, int srcBitsSize, int address, int addressQuantity,
-			String description) throws ModbusSlaveException {
-		if (address + addressQuantity > srcBitsSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + srcBitsSize);
-		}
-		boolean[] ret = new boolean[addressQuantity];
-		// for each value
-		for (int i = 0; i < addressQuantity; i++) {
-			// get value from registers
-			int key = address + i;
-			short shortValue = srcBits.getitem(key);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Read" + description + " " + key + ": 0x" + String.format("%02X", shortValue));
+	/**
+	 * Expands the fields which depend on written config fields and publishes
+	 * a new mapping version if the layout has been changed. Only the
+	 * expansion and the publishing are done with the write lock of the field
+	 * structure.
+	 * 
+	 * @param fieldProps
+	 *            the written fields
+	 * @param mapping
+	 *            the mapping of the request
+	 * @param acquisition
+	 *            the acquisition of the current request
+	 * @return The mapping for the reply
+	 * @throws ModbusSlaveException
+	 */
+	private RegisterMapping remap(FieldProperties[] fieldProps, RegisterMapping mapping, Acquisition acquisition)
+			throws ModbusSlaveException {
+		long start = System.nanoTime();
+		lock.writeLock().lock();
+		metrics.recordStructureLockWait(start);
+		tracer.span("structureLock", null /* detail */, start);
+		try {
+			// expand the fields which depend on the written config fields
+			int validAddressQuantity = Integer.MAX_VALUE;
+			for (FieldProperties props : fieldProps) {
+				if (Boolean.TRUE.equals(props.isConfigField())) {
+					validAddressQuantity = Math.min(validAddressQuantity, module.expandFields(props.getField()));
+				}
+			}
+			// if the layout has not been changed
+			if (validAddressQuantity >= module.getFieldProperties(null /* startFieldInfo */, null /* address */,
+					null /* field */).getAddress() && Arrays.equals(getTableSizes(), getTableSizes(snapshot.mapping))) {
+				return mapping;
+			}
+			// publish a new mapping version and pin it for the reply
+			createMapping(validAddressQuantity, acquisition.snapshot);
+			if (acquisition.snapshot != null) {
+				acquisition.snapshot.release();
 			}
-			ret[i] = (shortValue == 1);
+			acquisition.snapshot = snapshot;
+			acquisition.snapshot.retain();
+			return acquisition.snapshot.mapping;
+		} finally {
+			lock.writeLock().unlock();
 		}
-		return new FieldValue(ret);
 	}
 
-	private void setByteValues(UInt16Array destRegisters, int destRegistersSize, int address, int addressQuantity,
-			byte[] values, String description) throws ModbusSlaveException {
-		if (address + addressQuantity > destRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + destRegistersSize);
+	@Override
+	public SlaveMetrics getMetrics() {
+		return metrics;
+	}
+
+	private boolean isReadFunction(short functionCode) {
+		switch (functionCode) {
+		case FunctionCode.READ_COILS:
+		case FunctionCode.READ_DISCRETE_INPUTS:
+		case FunctionCode.READ_HOLDING_REGISTERS:
+		case FunctionCode.READ_INPUT_REGISTERS:
+			return true;
+		default:
+			return false;
 		}
-		for (int i = 0; i < addressQuantity * 2; i += 2) {
-			byte b1 = (values != null && i < values.length) ? values[i] : 0;
-			byte b2 = (values != null && i + 1 < values.length) ? values[i + 1] : 0;
-			int intValue = (b1 << 8 | b2 & 0x00FF) & 0xFFFF;
-			// set value to registers
-			int key = address + i / 2;
-			destRegisters.setitem(key, intValue);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Wrote " + description + " " + key + ": 0x" + String.format("%04X", intValue));
+	}
+
+	private boolean isDeviceAccess(FieldProperties[] fieldPropsList) {
+		for (FieldProperties fieldProps : fieldPropsList) {
+			if (Boolean.TRUE.equals(fieldProps.isDeviceField())) {
+				return true;
 			}
 		}
+		return false;
 	}
 
-	private FieldValue getByteValues(UInt16Array srcRegisters, int srcRegistersSize, int address, int addressQuantity,
-			String description) throws ModbusSlaveException {
-		if (address + addressQuantity > srcRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + srcRegistersSize);
-		}
-		byte[] ret = new byte[addressQuantity * 2];
-		for (int i = 0; i < addressQuantity; i++) {
-			// get value from registers
-			int key = address + i;
-			short shortValue = (short) srcRegisters.getitem(key);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Read " + description + " " + key + ": 0x" + String.format("%04X", shortValue));
+	private boolean isConfigAccess(FieldProperties[] fieldPropsList) {
+		for (FieldProperties fieldProps : fieldPropsList) {
+			if (Boolean.TRUE.equals(fieldProps.isConfigField())) {
+				return true;
 			}
-			ret[i * 2] = (byte) (shortValue >> 8);
-			ret[i * 2 + 1] = (byte) shortValue;
 		}
-		return new FieldValue(ret);
+		return false;
 	}
 
-	private void setShortValues(UInt16Array destRegisters, int destRegistersSize, int address, int addressQuantity,
-			short[] values, String description) throws ModbusSlaveException {
-		if (address + addressQuantity > destRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + destRegistersSize);
+	/**
+	 * Publishes a new mapping version for the expanded fields. The mapping of
+	 * the current version is resized in place if no other request has pinned
+	 * it. Otherwise a new mapping is created. The contents of the valid
+	 * addresses are kept in both cases.
+	 * 
+	 * @param validAddressQuantity
+	 *            the count of addresses whose fields have not been changed
+	 * @param pinned
+	 *            the version pinned by the current request
+	 * @throws ModbusSlaveException
+	 */
+	private void createMapping(int validAddressQuantity, MappingSnapshot pinned) throws ModbusSlaveException {
+		// each table is sized to the fields of its type
+		int[] sizes = getTableSizes();
+		int coils = sizes[FieldType.COILS.ordinal()];
+		int discreteInputs = sizes[FieldType.DISCRETE_INPUTS.ordinal()];
+		int holdingRegisters = sizes[FieldType.HOLDING_REGISTERS.ordinal()];
+		int inputRegisters = sizes[FieldType.INPUT_REGISTERS.ordinal()];
+		MappingSnapshot previous = snapshot;
+		RegisterMapping mapping;
+		boolean isResized = false;
+		if (previous == null) {
+			mapping = slave.createMapping(coils, discreteInputs, holdingRegisters, inputRegisters);
+		} else if (previous.isExclusive(pinned) && slave.resizeMapping(previous.mapping, coils, discreteInputs,
+				holdingRegisters, inputRegisters, validAddressQuantity)) {
+			previous.handOver();
+			mapping = previous.mapping;
+			isResized = true;
+		} else {
+			mapping = slave.createMapping(coils, discreteInputs, holdingRegisters, inputRegisters);
+			// values of other regions may be set concurrently, but all values
+			// are set again before they are read
+			copyMapping(previous.mapping, mapping, validAddressQuantity);
 		}
-		// for each value
-		for (int i = 0; i < addressQuantity; i++) {
-			short v = (values != null && i < values.length) ? values[i] : 0;
-			int intValue = v & 0xFFFF;
-			// set value to registers
-			int key = address + i;
-			destRegisters.setitem(key, intValue);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Wrote " + description + " " + key + ": 0x" + String.format("%04X", intValue));
-			}
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, (isResized ? "Resized" : "Created") + " mapping with " + Arrays.toString(sizes)
+					+ " addresses");
+		}
+		snapshot = new MappingSnapshot(mapping, previous == null ? 0 : previous.version + 1);
+		// the previous mapping is destroyed when the last request which pinned
+		// it has finished
+		if (previous != null) {
+			previous.release();
 		}
 	}
 
-	private FieldValue getShortValues(UInt16Array srcRegisters, int srcRegistersSize, int address, int addressQuantity,
-			String description) throws ModbusSlaveException {
-		if (address + addressQuantity > srcRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + srcRegistersSize);
-		}
-		short[] ret = new short[addressQuantity];
-		// for each value
-		for (int i = 0; i < addressQuantity; i++) {
-			// get value from registers
-			int key = address + i;
-			short shortValue = (short) srcRegisters.getitem(key);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Read " + description + " " + key + ": 0x" + String.format("%04X", shortValue));
-			}
-			ret[i] = shortValue;
+	/**
+	 * @return The table sizes of the expanded fields (index: ordinal of
+	 *         {@link FieldType})
+	 */
+	private int[] getTableSizes() {
+		int[] sizes = new int[FieldType.values().length];
+		for (FieldType type : FieldType.values()) {
+			sizes[type.ordinal()] = module.getEndAddress(type);
 		}
-		return new FieldValue(ret);
+		return sizes;
 	}
 
-	private void setUShortValues(UInt16Array destRegisters, int destRegistersSize, int address, int addressQuantity,
-			int[] values, String description) throws ModbusSlaveException {
-		if (address + addressQuantity > destRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + destRegistersSize);
+	/**
+	 * @param mapping
+	 * @return The table sizes of a mapping (index: ordinal of
+	 *         {@link FieldType})
+	 */
+	private int[] getTableSizes(RegisterMapping mapping) {
+		int[] sizes = new int[FieldType.values().length];
+		for (FieldType type : FieldType.values()) {
+			sizes[type.ordinal()] = mapping.getSize(type);
 		}
-		// for each value
-		for (int i = 0; i < addressQuantity; i++) {
-			int intValue = (values != null && i < values.length) ? values[i] : 0;
-			// set value to registers
-			int key = address + i;
-			destRegisters.setitem(key, intValue);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Wrote " + description + " " + key + ": " + intValue);
+		return sizes;
+	}
+
+	/**
+	 * Copies the contents of the first addresses of all tables.
+	 * 
+	 * @param src
+	 * @param dest
+	 * @param addressQuantity
+	 * @throws ModbusSlaveException
+	 */
+	private void copyMapping(RegisterMapping src, RegisterMapping dest, int addressQuantity)
+			throws ModbusSlaveException {
+		for (FieldType type : FieldType.values()) {
+			int quantity = Math.min(addressQuantity, Math.min(src.getSize(type), dest.getSize(type)));
+			if (quantity <= 0) {
+				continue;
+			}
+			switch (type) {
+			case COILS:
+			case DISCRETE_INPUTS:
+				byte[] bits = RegisterCodec.get().getBits(quantity);
+				src.getBits(type, 0 /* address */, bits, 0 /* destOffset */, quantity);
+				dest.setBits(type, 0 /* address */, bits, 0 /* srcOffset */, quantity);
+				break;
+			case HOLDING_REGISTERS:
+			case INPUT_REGISTERS:
+				short[] registers = RegisterCodec.get().getRegisters(quantity);
+				src.getRegisters(type, 0 /* address */, registers, 0 /* destOffset */, quantity);
+				dest.setRegisters(type, 0 /* address */, registers, 0 /* srcOffset */, quantity);
+				break;
 			}
 		}
 	}
 
-	private FieldValue getUShortValues(UInt16Array srcRegisters, int srcRegistersSize, int address, int addressQuantity,
-			String description) throws ModbusSlaveException {
-		if (address + addressQuantity > srcRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + srcRegistersSize);
-		}
-		int[] ret = new int[addressQuantity];
-		// for each value
-		for (int i = 0; i < addressQuantity; i++) {
-			// get value from registers
-			int key = address + i;
-			int intValue = srcRegisters.getitem(key);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Read " + description + " " + key + ": " + intValue);
+	/**
+	 * Gets field values from the module.
+	 * 
+	 * @param fieldPropsList
+	 * @return The values of the fields
+	 * @throws ModbusSlaveException
+	 * @throws ModuleException
+	 */
+	private FieldValue[] getModuleValues(FieldProperties[] fieldPropsList)
+			throws ModbusSlaveException, ModuleException {
+		FieldValue[] ret = new FieldValue[fieldPropsList.length];
+		for (int i = 0; i < fieldPropsList.length; i++) {
+			FieldProperties fieldProps = fieldPropsList[i];
+			FieldValue value = module.getFieldValue(fieldProps.getField(), fieldProps.getFieldGroupIndex());
+			if (value != null && value.getDataType() != fieldProps.getDataType()) {
+				throw new ModbusSlaveException("Invalid data type for field " + fieldProps.getField() + " at address "
+						+ fieldProps.getAddress() + ": " + value.getDataType() + " (expected "
+						+ fieldProps.getDataType() + ")");
 			}
-			ret[i] = intValue;
+			ret[i] = value;
 		}
-		return new FieldValue(ret);
+		return ret;
 	}
 
-	private void setFloatValues(UInt16Array destRegisters, int destRegistersSize, int address, int addressQuantity,
-			float[] values, String description) throws ModbusSlaveException {
-		if (address + addressQuantity > destRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + destRegistersSize);
-		}
-		UInt16Array floatRegisters = new UInt16Array(2);
-		try {
-			// for each value
-			for (int i = 0; i < addressQuantity / 2; i++) {
-				float floatValue = (values != null && i < values.length) ? values[i] : 0;
-				// set float value to register array
-				slave.setFloat(floatValue, floatRegisters);
-				// for each register value
-				for (int j = 0; j < 2; j++) {
-					int intValue = floatRegisters.getitem(j);
-					// set value to registers
-					int key = address + i * 2 + j;
-					destRegisters.setitem(key, intValue);
-					if (log.isLoggable(Level.FINE)) {
-						log.log(Level.FINE,
-								"Wrote " + description + " " + key + ": 0x" + String.format("%04X", intValue));
-					}
-				}
-				if (log.isLoggable(Level.FINE)) {
-					log.log(Level.FINE, " -> " + floatValue);
-				}
+	/**
+	 * Sets field values to a mapping.
+	 * 
+	 * @param fieldPropsList
+	 * @param values
+	 *            the values of the fields
+	 * @param mapping
+	 * @throws ModbusSlaveException
+	 */
+	private void setFieldValues(FieldProperties[] fieldPropsList, FieldValue[] values, RegisterMapping mapping)
+			throws ModbusSlaveException {
+		// for each field
+		for (int i = 0; i < fieldPropsList.length; i++) {
+			FieldProperties fieldProps = fieldPropsList[i];
+			// set field value to mapping
+			long start = tracer.start();
+			switch (fieldProps.getType()) {
+			case COILS:
+			case DISCRETE_INPUTS:
+				setBits(mapping, fieldProps, values[i]);
+				break;
+			case HOLDING_REGISTERS:
+			case INPUT_REGISTERS:
+				setRegisters(mapping, fieldProps, values[i]);
+				break;
 			}
-		} finally {
-			floatRegisters.delete();
+			tracer.span("encode", null /* detail */, start);
 		}
 	}
 
-	private FieldValue getFloatValues(UInt16Array srcRegisters, int srcRegistersSize, int address, int addressQuantity,
-			String description) throws ModbusSlaveException {
-		if (address + addressQuantity > srcRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + srcRegistersSize);
+	/**
+	 * Gets field values from a mapping and sets them to the module.
+	 * 
+	 * @param fieldPropsList
+	 * @param mapping
+	 * @throws ModbusSlaveException
+	 * @throws ModuleException
+	 */
+	private void getFieldValues(FieldProperties[] fieldPropsList, RegisterMapping mapping)
+			throws ModbusSlaveException, ModuleException {
+		// for each field
+		for (FieldProperties fieldProps : fieldPropsList) {
+			FieldValue value = null;
+			// get field value from mapping
+			switch (fieldProps.getType()) {
+			case COILS:
+			case DISCRETE_INPUTS:
+				value = getBits(mapping, fieldProps);
+				break;
+			case HOLDING_REGISTERS:
+			case INPUT_REGISTERS:
+				value = getRegisters(mapping, fieldProps);
+				break;
+			}
+			// set field value to module
+			module.setFieldValue(fieldProps.getField(), fieldProps.getFieldGroupIndex(), value);
 		}
-		float[] ret = new float[addressQuantity];
-		UInt16Array floatRegisters = new UInt16Array(2);
-		try {
-			// for each float value
-			for (int i = 0; i < addressQuantity / 2; i++) {
-				// for each integer value
-				for (int j = 0; j < 2; j++) {
-					int key = address + i * 2 + j;
-					short shortValue = (short) srcRegisters.getitem(key);
-					if (log.isLoggable(Level.FINE)) {
-						log.log(Level.FINE,
-								"Read " + description + " " + key + ": 0x" + String.format("%04X", shortValue));
-					}
-					floatRegisters.setitem(j, shortValue);
-				}
-				// set float value to register array
-				float floatValue = slave.getFloat(floatRegisters);
-				ret[i] = floatValue;
-				if (log.isLoggable(Level.FINE)) {
-					log.log(Level.FINE, "  -> " + floatValue);
-				}
+	}
+
+	/**
+	 * Encodes a field value to bits and copies them to the mapping in one
+	 * call.
+	 */
+	private void setBits(RegisterMapping mapping, FieldProperties fieldProps, FieldValue fieldValue)
+			throws ModbusSlaveException {
+		int address = fieldProps.getAddress();
+		int addressQuantity = fieldProps.getAddressQuantity();
+		boolean[] values = null;
+		if (fieldValue != null) {
+			switch (fieldValue.getDataType()) {
+			case BOOLEAN:
+				values = fieldValue.getBooleanValue();
+				break;
+			default:
+				throw new ModbusSlaveException("Unknown data type for bits at address " + address + ": "
+						+ fieldValue.getDataType() + " (supported: BOOLEAN)");
 			}
-		} finally {
-			floatRegisters.delete();
 		}
-		return new FieldValue(ret);
+		byte[] bits = RegisterCodec.get().getBits(addressQuantity);
+		RegisterCodec.encodeBits(values, bits, addressQuantity);
+		mapping.setBits(fieldProps.getType(), address, bits, 0 /* srcOffset */, addressQuantity);
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Wrote " + getDescription(fieldProps.getType()) + " " + address + "+"
+					+ addressQuantity + ": " + Arrays.toString(Arrays.copyOf(bits, addressQuantity)));
+		}
 	}
 
-	private void setStringValues(UInt16Array destRegisters, int destRegistersSize, int address, int addressQuantity,
-			String[] values, Charset encoding, String description) throws ModbusSlaveException {
-		if (address + addressQuantity > destRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + destRegistersSize);
+	/**
+	 * Copies bits from the mapping in one call and decodes them to a field
+	 * value.
+	 */
+	private FieldValue getBits(RegisterMapping mapping, FieldProperties fieldProps) throws ModbusSlaveException {
+		int address = fieldProps.getAddress();
+		int addressQuantity = fieldProps.getAddressQuantity();
+		switch (fieldProps.getDataType()) {
+		case BOOLEAN:
+			break;
+		default:
+			throw new ModbusSlaveException("Unknown data type for bits at address " + address + ": "
+					+ fieldProps.getDataType() + " (supported: BOOLEAN)");
+		}
+		byte[] bits = RegisterCodec.get().getBits(addressQuantity);
+		mapping.getBits(fieldProps.getType(), address, bits, 0 /* destOffset */, addressQuantity);
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Read " + getDescription(fieldProps.getType()) + " " + address + "+"
+					+ addressQuantity + ": " + Arrays.toString(Arrays.copyOf(bits, addressQuantity)));
 		}
-		// convert string array to byte array
-		byte[] bytes = null;
-		String stringValue = null;
-		if (values != null) {
-			StringBuilder strB = new StringBuilder();
-			for (String value : values) {
-				if (value != null) {
-					strB.append(value);
+		return new FieldValue(RegisterCodec.decodeBits(bits, addressQuantity));
+	}
+
+	/**
+	 * Encodes a field value to registers and copies them to the mapping in
+	 * one call.
+	 */
+	private void setRegisters(RegisterMapping mapping, FieldProperties fieldProps, FieldValue fieldValue)
+			throws ModbusSlaveException {
+		int address = fieldProps.getAddress();
+		int addressQuantity = fieldProps.getAddressQuantity();
+		RegisterCodec codec = RegisterCodec.get();
+		short[] registers = codec.getRegisters(addressQuantity);
+		if (fieldValue == null) {
+			Arrays.fill(registers, 0, addressQuantity, (short) 0);
+		} else {
+			switch (fieldValue.getDataType()) {
+			case BYTE:
+				byte[] byteValues = fieldValue.getByteValue();
+				RegisterCodec.encodeBytes(byteValues, byteValues == null ? 0 : byteValues.length, registers,
+						addressQuantity);
+				break;
+			case SHORT:
+				RegisterCodec.encodeShorts(fieldValue.getShortValue(), registers, addressQuantity);
+				break;
+			case USHORT:
+				RegisterCodec.encodeUShorts(fieldValue.getUShortValue(), registers, addressQuantity);
+				break;
+			case FLOAT:
+				Arrays.fill(registers, 0, addressQuantity, (short) 0);
+				float[] floatValues = fieldValue.getFloatValue();
+				for (int i = 0; i < addressQuantity / 2; i++) {
+					float floatValue = (floatValues != null && i < floatValues.length) ? floatValues[i] : 0;
+					slave.setFloat(floatValue, registers, i * 2);
 				}
-			}
-			stringValue = strB.toString();
-			bytes = stringValue.getBytes(encoding);
-		}
-		// for each value
-		for (int i = 0; i < addressQuantity * 2; i += 2) {
-			byte b1 = (bytes != null && i < bytes.length) ? bytes[i] : 0;
-			byte b2 = (bytes != null && i + 1 < bytes.length) ? bytes[i + 1] : 0;
-			int intValue = (b1 << 8 | b2 & 0x00FF) & 0xFFFF;
-			// set value to registers
-			int key = address + i / 2;
-			destRegisters.setitem(key, intValue);
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Wrote " + description + " " + key + ": 0x" + String.format("%04X", intValue));
+				break;
+			case STRING:
+				codec.encodeString(fieldValue.getStringValue(), registers, addressQuantity);
+				break;
+			default:
+				throw new ModbusSlaveException("Unknown data type for registers at address " + address + ": "
+						+ fieldValue.getDataType() + " (supported: BYTE, SHORT, USHORT, FLOAT, STRING)");
 			}
 		}
+		mapping.setRegisters(fieldProps.getType(), address, registers, 0 /* srcOffset */, addressQuantity);
 		if (log.isLoggable(Level.FINE)) {
-			log.log(Level.FINE, "  -> " + stringValue);
+			log.log(Level.FINE, "Wrote " + getDescription(fieldProps.getType()) + " " + address + "+"
+					+ addressQuantity + ": " + toHex(registers, addressQuantity));
 		}
 	}
 
-	private FieldValue getStringValues(UInt16Array srcRegisters, int srcRegistersSize, int address, int addressQuantity,
-			Charset encoding, String description) throws ModbusSlaveException {
-		if (address + addressQuantity > srcRegistersSize) {
-			throw new ModbusSlaveException(description + ": Invalid address: " + srcRegistersSize);
+	/**
+	 * Copies registers from the mapping in one call and decodes them to a
+	 * field value.
+	 */
+	private FieldValue getRegisters(RegisterMapping mapping, FieldProperties fieldProps) throws ModbusSlaveException {
+		int address = fieldProps.getAddress();
+		int addressQuantity = fieldProps.getAddressQuantity();
+		switch (fieldProps.getDataType()) {
+		case BYTE:
+		case SHORT:
+		case USHORT:
+		case FLOAT:
+		case STRING:
+			break;
+		default:
+			throw new ModbusSlaveException("Unknown data type for registers at address " + address + ": "
+					+ fieldProps.getDataType() + " (supported: BYTE, SHORT, USHORT, FLOAT, STRING)");
 		}
-
-		List<Byte> byteList = new ArrayList<>();
-		// for each value
-		for (int i = 0; i < addressQuantity; i++) {
-			// get value from registers
-			int key = address + i;
-			short shortValue = (short) srcRegisters.getitem(key);
+		RegisterCodec codec = RegisterCodec.get();
+		short[] registers = codec.getRegisters(addressQuantity);
+		mapping.getRegisters(fieldProps.getType(), address, registers, 0 /* destOffset */, addressQuantity);
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Read " + getDescription(fieldProps.getType()) + " " + address + "+" + addressQuantity
+					+ ": " + toHex(registers, addressQuantity));
+		}
+		switch (fieldProps.getDataType()) {
+		case BYTE:
+			return new FieldValue(RegisterCodec.decodeBytes(registers, addressQuantity));
+		case SHORT:
+			return new FieldValue(RegisterCodec.decodeShorts(registers, addressQuantity));
+		case USHORT:
+			return new FieldValue(RegisterCodec.decodeUShorts(registers, addressQuantity));
+		case FLOAT:
+			float[] floatValues = new float[addressQuantity / 2];
+			for (int i = 0; i < floatValues.length; i++) {
+				floatValues[i] = slave.getFloat(registers, i * 2);
+			}
+			return new FieldValue(floatValues);
+		default: // STRING
+			String stringValue = codec.decodeString(registers, addressQuantity, false /* isZeroTerminated */);
 			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "Read " + description + " " + key + ": 0x" + String.format("%04X", shortValue));
+				log.log(Level.FINE, "  -> " + stringValue);
 			}
-			byteList.add((byte) (shortValue >> 8));
-			byteList.add((byte) shortValue);
+			return new FieldValue(new String[] { stringValue });
 		}
-		byte[] bytes = new byte[byteList.size()];
-		for (int i = 0; i < byteList.size(); i++) {
-			bytes[i] = byteList.get(i);
-		}
-		String stringValue = new String(bytes, StandardCharsets.UTF_8);
-		if (log.isLoggable(Level.FINE)) {
-			log.log(Level.FINE, "  -> " + stringValue);
+	}
+
+	private String toHex(short[] registers, int quantity) {
+		StringBuilder ret = new StringBuilder();
+		for (int i = 0; i < quantity; i++) {
+			ret.append(String.format("%04X", registers[i]));
 		}
-		return new FieldValue(new String[] { stringValue });
+		return ret.toString();
 	}
 
+	private String getDescription(FieldType type) {
+		switch (type) {
+		case COILS:
+			return "coil";
+		case DISCRETE_INPUTS:
+			return "discrete input";
+		case HOLDING_REGISTERS:
+			return "holding register";
+		default:
+			return "input register";
+		}
+	}
 }
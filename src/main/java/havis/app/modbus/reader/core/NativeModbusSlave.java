@@ -0,0 +1,679 @@
+package havis.app.modbus.reader.core;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import havis.util.modbus.IntArray;
+import havis.util.modbus.ModbusBase;
+import havis.util.modbus.ModbusTcpPi;
+import havis.util.modbus.UInt8Array;
+
+/**
+ * A slave based on the native modbus library (libmodbus). The native
+ * libraries must have been loaded before the slave is opened.
+ */
+class NativeModbusSlave implements Slave {
+
+	private static final Logger log = Logger.getLogger(NativeModbusSlave.class.getName());
+
+	// min./max. time in ms the select loop waits for a worker if all sockets
+	// with incoming data are being processed. The native select cannot skip
+	// the busy sockets, so the loop must select again to see data of other
+	// sockets. The wait is doubled while only busy sockets have data.
+	private final static int MIN_WORKER_PROGRESS_WAIT = 1;
+	private final static int MAX_WORKER_PROGRESS_WAIT = 16;
+
+	private int openCloseTimeout;
+	private int maxConnectionCount;
+	private int workerCount;
+	private SlaveProcessor slaveProcessor;
+	private SlaveMetrics metrics;
+	private RequestTracer tracer;
+	private ModbusTcpPi ctx = null;
+	private int serverSocket = -1;
+	private volatile boolean isSlaveProcessorConnected;
+
+	private Lock lock = new ReentrantLock();
+	private Condition stopped = lock.newCondition();
+	private int stopState;
+
+	private ExecutorService executor;
+	private Queue<Worker> workers = new ConcurrentLinkedQueue<>();
+	private Lock workerLock = new ReentrantLock();
+	private Condition workerProgressed = workerLock.newCondition();
+	private long workerProgress;
+	// sockets which are being processed by a worker
+	private Set<Integer> busySockets = new HashSet<>();
+	// sockets of reset connections which must be closed by the select loop
+	private Queue<Integer> closedSockets = new ArrayDeque<>();
+
+	@Override
+	public void open(String port, int maxConnectionCount, int workerCount, int openCloseTimeout,
+			SlaveProcessor slaveProcessor) throws ModbusSlaveException {
+		this.maxConnectionCount = maxConnectionCount;
+		this.workerCount = workerCount;
+		this.openCloseTimeout = openCloseTimeout;
+		this.slaveProcessor = slaveProcessor;
+		metrics = slaveProcessor.getMetrics();
+		tracer = metrics.getTracer();
+		ctx = new ModbusTcpPi();
+		if (log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, "Opening server socket on port " + port);
+		}
+		if (ctx.newTcpPi("::0", port) < 0) {
+			// delete class instance
+			ctx.delete();
+			ctx = null;
+			this.slaveProcessor = null;
+			throw new ModbusSlaveException("Unable to create a TCP context");
+		}
+		// set debug mode
+		ctx.setDebug(log.isLoggable(Level.FINE));
+		// open slave
+		serverSocket = ctx.tcpPiListen(maxConnectionCount);
+		if (serverSocket < 0) {
+			String msg = "Unable to open slave: " + ctx.getErrNo() + " " + ctx.strError(ctx.getErrNo());
+			// destroy context
+			ctx.free();
+			// delete class instance
+			ctx.delete();
+			ctx = null;
+			this.slaveProcessor = null;
+			throw new ModbusSlaveException(msg);
+		}
+		// create the contexts of the workers
+		for (int i = 0; i < workerCount; i++) {
+			ModbusTcpPi workerCtx = new ModbusTcpPi();
+			if (workerCtx.newTcpPi("::0", port) < 0) {
+				workerCtx.delete();
+				deleteWorkers();
+				ctx.close();
+				ctx.free();
+				ctx.delete();
+				ctx = null;
+				serverSocket = -1;
+				this.slaveProcessor = null;
+				throw new ModbusSlaveException("Unable to create a TCP context for a worker");
+			}
+			workerCtx.setDebug(log.isLoggable(Level.FINE));
+			workers.add(new Worker(workerCtx));
+		}
+	}
+
+	@Override
+	public void close() throws ModbusSlaveException {
+		if (ctx == null) {
+			return;
+		}
+		if (serverSocket >= 0) {
+			lock.lock();
+			try {
+				if (log.isLoggable(Level.INFO)) {
+					log.log(Level.INFO, "Closing server socket");
+				}
+				stopState = 1;
+				// close the network connection and socket (tcpPiAccept /
+				// receive call is aborted)
+				ctx.close();
+				try {
+					while (stopState != 2) {
+						if (!stopped.await(openCloseTimeout, TimeUnit.MILLISECONDS)) {
+							throw new ModbusSlaveException("Cannot close back end within " + openCloseTimeout + "ms");
+						}
+					}
+				} catch (ModbusSlaveException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new ModbusSlaveException("Closing failed", e);
+				}
+				stopState = 0;
+			} finally {
+				lock.unlock();
+			}
+			serverSocket = -1;
+		}
+		deleteWorkers();
+		// destroy context
+		ctx.free();
+		// delete class instance
+		ctx.delete();
+		ctx = null;
+		slaveProcessor = null;
+		if (log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, "Modbus slave closed");
+		}
+	}
+
+	private void deleteWorkers() {
+		Worker worker;
+		while ((worker = workers.poll()) != null) {
+			worker.delete();
+		}
+	}
+
+	private boolean isClosing() {
+		lock.lock();
+		try {
+			if (stopState == 1) {
+				// stop the workers and disconnect the slave processor before
+				// the slave is closed
+				stopWorkers();
+				if (isSlaveProcessorConnected) {
+					try {
+						slaveProcessor.disconnect();
+					} catch (ModbusSlaveException e) {
+						log.log(Level.SEVERE, "Cannot clean up backend", e);
+					}
+					isSlaveProcessorConnected = false;
+				}
+				stopState = 2;
+				stopped.signalAll();
+				return true;
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs the select loop. Incoming connections are accepted by the loop
+	 * itself. Sockets with incoming requests are handed over to a pool of
+	 * workers. A socket is processed by at most one worker at a time, so the
+	 * requests of a connection are answered in order.
+	 */
+	@Override
+	public void run() {
+		int connectionCount = 0;
+		isSlaveProcessorConnected = false;
+		IntArray readFds = new IntArray(1 /* serverSocket */ + maxConnectionCount);
+		executor = Executors.newFixedThreadPool(workerCount);
+		int workerProgressWait = MIN_WORKER_PROGRESS_WAIT;
+		try {
+			while (true) {
+				int readFdsCount;
+				long progress;
+				do {
+					if (log.isLoggable(Level.INFO)) {
+						log.log(Level.INFO, "Waiting for data...");
+					}
+					progress = getWorkerProgress();
+					readFdsCount = ctx.selectRead(readFds.cast());
+					// if slave is being closed
+					if (isClosing()) {
+						return;
+					}
+					if (readFdsCount < 0) {
+						System.err.println(
+								"Waiting for data failed: " + ctx.getErrNo() + " " + ctx.strError(ctx.getErrNo()));
+					}
+				} while (readFdsCount <= 0);
+				// close the sockets of the connections which have been reset
+				Integer closedSocket;
+				while ((closedSocket = pollClosedSocket()) != null) {
+					ctx.close(closedSocket);
+					connectionCount--;
+					metrics.recordConnectionClosed();
+					if (connectionCount == 0 && isSlaveProcessorConnected) {
+						// disconnect slave processor
+						try {
+							slaveProcessor.disconnect();
+							isSlaveProcessorConnected = false;
+						} catch (ModbusSlaveException e) {
+							log.log(Level.SEVERE, "Cannot clean up backend", e);
+						}
+					}
+				}
+				boolean isProcessed = false;
+				for (int i = 0; i < readFdsCount; i++) {
+					int socket = readFds.getitem(i);
+					if (socket == serverSocket) {
+						// accept the connection
+						int clientSocket = ctx.tcpPiAccept(serverSocket);
+						if (clientSocket < 0) {
+							log.log(Level.SEVERE, "Unable to accept a connection: " + ctx.getErrNo() + " "
+									+ ctx.strError(ctx.getErrNo()));
+						} else {
+							if (log.isLoggable(Level.INFO)) {
+								log.log(Level.INFO, "Connection established: " + clientSocket);
+							}
+							connectionCount++;
+							metrics.recordConnectionAccepted();
+							if (!isSlaveProcessorConnected) {
+								try {
+									// connect slave processor
+									slaveProcessor.connect();
+									isSlaveProcessorConnected = true;
+								} catch (ModbusSlaveException e) {
+									log.log(Level.SEVERE, "Cannot initialize backend", e);
+								}
+							}
+						}
+						isProcessed = true;
+					} else if (dispatch(socket)) {
+						isProcessed = true;
+					}
+				}
+				// if all sockets with incoming data are being processed
+				if (isProcessed) {
+					workerProgressWait = MIN_WORKER_PROGRESS_WAIT;
+				} else {
+					// wait until a worker has received a request or finished
+					// processing
+					if (awaitWorkerProgress(progress, workerProgressWait)) {
+						workerProgressWait = MIN_WORKER_PROGRESS_WAIT;
+					} else {
+						workerProgressWait = Math.min(2 * workerProgressWait, MAX_WORKER_PROGRESS_WAIT);
+					}
+				}
+			}
+		} finally {
+			stopWorkers();
+			// destroy structure for read fds
+			readFds.delete();
+		}
+	}
+
+	/**
+	 * Hands a socket with incoming data over to a worker.
+	 * 
+	 * @param socket
+	 * @return <code>false</code> if the socket is already being processed by
+	 *         a worker or is being closed
+	 */
+	private boolean dispatch(final int socket) {
+		workerLock.lock();
+		try {
+			if (busySockets.contains(socket) || closedSockets.contains(socket)) {
+				return false;
+			}
+			busySockets.add(socket);
+		} finally {
+			workerLock.unlock();
+		}
+		if (log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, "Processing request from connection " + socket);
+		}
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				Worker worker = workers.poll();
+				boolean isClosed = false;
+				try {
+					isClosed = worker.process(socket);
+				} catch (Throwable t) {
+					log.log(Level.SEVERE, "Cannot process request from connection " + socket, t);
+				} finally {
+					workers.add(worker);
+					finish(socket, isClosed);
+				}
+			}
+		});
+		return true;
+	}
+
+	private long getWorkerProgress() {
+		workerLock.lock();
+		try {
+			return workerProgress;
+		} finally {
+			workerLock.unlock();
+		}
+	}
+
+	private void signalWorkerProgress() {
+		workerLock.lock();
+		try {
+			workerProgress++;
+			workerProgressed.signalAll();
+		} finally {
+			workerLock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until a worker has received a request or finished processing.
+	 * The workers signal their progress, so the wait ends as soon as a busy
+	 * socket may have been released.
+	 * 
+	 * @param progress
+	 *            the progress of the workers before the select
+	 * @param timeout
+	 *            the max. time in ms to wait
+	 * @return <code>true</code> if a worker has progressed
+	 */
+	private boolean awaitWorkerProgress(long progress, int timeout) {
+		workerLock.lock();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+			while (workerProgress == progress && remaining > 0) {
+				remaining = workerProgressed.awaitNanos(remaining);
+			}
+			return workerProgress != progress;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			workerLock.unlock();
+		}
+	}
+
+	/**
+	 * Marks a socket as processed. The socket of a connection which has been
+	 * reset is closed by the select loop.
+	 * 
+	 * @param socket
+	 * @param isClosed
+	 */
+	private void finish(int socket, boolean isClosed) {
+		workerLock.lock();
+		try {
+			busySockets.remove(socket);
+			if (isClosed) {
+				closedSockets.add(socket);
+			}
+			workerProgress++;
+			workerProgressed.signalAll();
+		} finally {
+			workerLock.unlock();
+		}
+	}
+
+	private Integer pollClosedSocket() {
+		workerLock.lock();
+		try {
+			return closedSockets.poll();
+		} finally {
+			workerLock.unlock();
+		}
+	}
+
+	private void stopWorkers() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(openCloseTimeout, TimeUnit.MILLISECONDS)) {
+				log.log(Level.SEVERE, "Cannot stop workers within " + openCloseTimeout + "ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+		workerLock.lock();
+		try {
+			busySockets.clear();
+			closedSockets.clear();
+		} finally {
+			workerLock.unlock();
+		}
+	}
+
+	/**
+	 * A worker processes one request of a connection at a time. Each worker
+	 * uses its own modbus context and request buffer.
+	 */
+	private class Worker {
+		private ModbusTcpPi ctx;
+		private UInt8Array request = new UInt8Array(ModbusTcpPi.MODBUS_TCP_MAX_ADU_LENGTH);
+		// the exception code of the current reply for the trace
+		private int exceptionCode;
+
+		Worker(ModbusTcpPi ctx) {
+			this.ctx = ctx;
+		}
+
+		void delete() {
+			// destroy request structure
+			request.delete();
+			// destroy context
+			ctx.free();
+			// delete class instance
+			ctx.delete();
+		}
+
+		/**
+		 * Receives a request from a socket, processes it and sends the
+		 * response.
+		 * 
+		 * @param socket
+		 * @return <code>true</code> if the connection has been reset and the
+		 *         socket must be closed
+		 */
+		boolean process(int socket) {
+			// set client socket
+			ctx.setSocket(socket);
+			// wait for a request
+			int requestLength;
+			Date timeStamp;
+			long receiveTime;
+			do {
+				requestLength = ctx.receive(request.cast());
+				timeStamp = new Date();
+				receiveTime = System.nanoTime();
+				// filtered requests return 0
+			} while (requestLength == 0);
+			// the data has been consumed from the socket
+			signalWorkerProgress();
+			// if an error has occurred
+			if (requestLength < 0) {
+				// if "Connection reset by peer"
+				if (ctx.getErrNo() == ModbusBase.ERRNO_ECONNRESET) {
+					if (log.isLoggable(Level.INFO)) {
+						log.log(Level.INFO,
+								"Failed to receive message: " + ctx.getErrNo() + " " + ctx.strError(ctx.getErrNo()));
+					}
+					// close client
+					return true;
+				}
+				log.log(Level.SEVERE,
+						"Failed to receive message: " + ctx.getErrNo() + " " + ctx.strError(ctx.getErrNo()));
+				// wait for next connection/request
+				return false;
+			}
+			tracer.begin(receiveTime);
+			exceptionCode = 0;
+			try {
+				return processRequest(requestLength, timeStamp, receiveTime);
+			} finally {
+				tracer.end(exceptionCode);
+			}
+		}
+
+		/**
+		 * Processes a received request and sends the response.
+		 * 
+		 * @param requestLength
+		 * @param timeStamp
+		 * @param receiveTime
+		 *            the time of the receipt of the request in ns (
+		 *            {@link System#nanoTime()})
+		 * @return <code>true</code> if the connection has been reset and the
+		 *         socket must be closed
+		 */
+		private boolean processRequest(int requestLength, Date timeStamp, long receiveTime) {
+			// if initialization of backend failed
+			if (!isSlaveProcessorConnected) {
+				log.log(Level.SEVERE, "Discarding request due to failed initialization of backend");
+				// send exception response
+				if (ctx.replyException(request.cast(), ModbusBase.MODBUS_EXCEPTION_SLAVE_OR_SERVER_FAILURE) < 0) {
+					return isConnectionReset("Failed to send exception response");
+				}
+				exceptionCode = ModbusBase.MODBUS_EXCEPTION_SLAVE_OR_SERVER_FAILURE;
+				metrics.recordExceptionReply(exceptionCode);
+				metrics.recordRequest(request.getitem(ctx.getHeaderLength()), receiveTime);
+				// wait for next connection/request
+				return false;
+			}
+			int headerLength = ctx.getHeaderLength();
+			// get function code
+			short functionCode = request.getitem(headerLength);
+			String requestDescr = null;
+			if (log.isLoggable(Level.INFO)) {
+				if (functionCode == ModbusBase.MODBUS_FC_READ_COILS) {
+					requestDescr = "READ_COILS";
+				} else if (functionCode == ModbusBase.MODBUS_FC_READ_DISCRETE_INPUTS) {
+					requestDescr = "READ_DISCRETE_INPUTS";
+				} else if (functionCode == ModbusBase.MODBUS_FC_READ_HOLDING_REGISTERS) {
+					requestDescr = "READ_HOLDING_REGISTERS";
+				} else if (functionCode == ModbusBase.MODBUS_FC_READ_INPUT_REGISTERS) {
+					requestDescr = "READ_INPUT_REGISTERS";
+				} else if (functionCode == ModbusBase.MODBUS_FC_WRITE_SINGLE_COIL) {
+					requestDescr = "WRITE_SINGLE_COIL";
+				} else if (functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_COILS) {
+					requestDescr = "WRITE_MULTIPLE_COILS";
+				} else if (functionCode == ModbusBase.MODBUS_FC_WRITE_SINGLE_REGISTER) {
+					requestDescr = "WRITE_SINGLE_REGISTER";
+				} else if (functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_REGISTERS) {
+					requestDescr = "WRITE_MULTIPLE_REGISTERS";
+				}
+				log.log(Level.INFO, "Received " + requestDescr);
+			}
+			boolean isRead = functionCode == ModbusBase.MODBUS_FC_READ_COILS
+					|| functionCode == ModbusBase.MODBUS_FC_READ_DISCRETE_INPUTS
+					|| functionCode == ModbusBase.MODBUS_FC_READ_HOLDING_REGISTERS
+					|| functionCode == ModbusBase.MODBUS_FC_READ_INPUT_REGISTERS;
+			boolean isWrite = functionCode == ModbusBase.MODBUS_FC_WRITE_SINGLE_COIL
+					|| functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_COILS
+					|| functionCode == ModbusBase.MODBUS_FC_WRITE_SINGLE_REGISTER
+					|| functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_REGISTERS;
+			// get address
+			int address = ctx.getInt16FromInt8(request.cast(), headerLength + 1);
+			// get quantity
+			int addressQuantity = 1;
+			if (isRead || functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_COILS
+					|| functionCode == ModbusBase.MODBUS_FC_WRITE_MULTIPLE_REGISTERS) {
+				addressQuantity = ctx.getInt16FromInt8(request.cast(), headerLength + 3);
+			}
+			tracer.setRequest(functionCode, address, addressQuantity);
+			RegisterMapping mapping = slaveProcessor.acquireMapping(functionCode, address, addressQuantity);
+			try {
+				// if data shall be read
+				if (isRead) {
+					if (log.isLoggable(Level.FINE)) {
+						log.log(Level.FINE, "Reading data for functionCode=" + functionCode + ", address=" + address
+								+ ", addressQuantity=" + addressQuantity);
+					}
+					// update data
+					try {
+						slaveProcessor.read(functionCode, address, addressQuantity, mapping);
+					} catch (ModbusSlaveException e) {
+						log.log(Level.SEVERE, "Cannot read data for functionCode=" + functionCode + ",address="
+								+ address + ",quantity=" + addressQuantity, e);
+						// send exception response
+						if (ctx.replyException(request.cast(),
+								ModbusBase.MODBUS_EXCEPTION_SLAVE_OR_SERVER_FAILURE) < 0) {
+							return isConnectionReset("Failed to send exception response");
+						}
+						exceptionCode = ModbusBase.MODBUS_EXCEPTION_SLAVE_OR_SERVER_FAILURE;
+						metrics.recordExceptionReply(exceptionCode);
+						metrics.recordRequest(functionCode, receiveTime);
+						// wait for next connection/request
+						return false;
+					}
+				}
+				// send response
+				if (ctx.reply(request.cast(), requestLength, ((NativeRegisterMapping) mapping).getMapping()) < 0) {
+					return isConnectionReset("Failed to send response");
+				}
+				// exception responses for invalid addresses are sent by the
+				// library
+				metrics.recordRequest(functionCode, receiveTime);
+				if (log.isLoggable(Level.INFO)) {
+					log.log(Level.INFO, "Sent " + requestDescr);
+				}
+				// if data has been written
+				if (isWrite) {
+					if (log.isLoggable(Level.FINE)) {
+						log.log(Level.FINE, "Writing data for functionCode=" + functionCode + ", address=" + address
+								+ ", addressQuantity=" + addressQuantity);
+					}
+					// update data
+					try {
+						slaveProcessor.write(functionCode, address, addressQuantity, timeStamp, mapping);
+					} catch (ModbusSlaveException e) {
+						log.log(Level.SEVERE, "Cannot write data for functionCode=" + functionCode + ",address="
+								+ address + ",quantity=" + addressQuantity, e);
+					}
+				}
+				return false;
+			} finally {
+				slaveProcessor.releaseMapping();
+			}
+		}
+
+		/**
+		 * Logs a failed send operation.
+		 * 
+		 * @param msg
+		 * @return <code>true</code> if the connection has been reset and the
+		 *         socket must be closed
+		 */
+		private boolean isConnectionReset(String msg) {
+			// if "Connection reset by peer"
+			if (ctx.getErrNo() == ModbusBase.ERRNO_ECONNRESET) {
+				if (log.isLoggable(Level.INFO)) {
+					log.log(Level.INFO, msg + ": " + ctx.getErrNo() + " " + ctx.strError(ctx.getErrNo()));
+				}
+				return true;
+			}
+			log.log(Level.SEVERE, msg + ": " + ctx.getErrNo() + " " + ctx.strError(ctx.getErrNo()));
+			return false;
+		}
+	}
+
+	@Override
+	public RegisterMapping createMapping(int coils, int discreteInputs, int holdingRegisters, int inputRegisters) {
+		return new NativeRegisterMapping(ctx.mappingNew(coils, discreteInputs, holdingRegisters, inputRegisters));
+	}
+
+	@Override
+	public void destroyMapping(RegisterMapping mapping) {
+		NativeRegisterMapping nativeMapping = (NativeRegisterMapping) mapping;
+		// destroy array proxies
+		nativeMapping.delete();
+		// destroy mapping structure
+		ctx.mappingFree(nativeMapping.getMapping());
+		// destroy class instance
+		nativeMapping.getMapping().delete();
+	}
+
+	@Override
+	public boolean resizeMapping(RegisterMapping mapping, int coils, int discreteInputs, int holdingRegisters,
+			int inputRegisters, int validAddressQuantity) {
+		// the table sizes of a native mapping are fixed (they are checked by
+		// the library for each request)
+		return false;
+	}
+
+	@Override
+	public void setFloat(float value, short[] destRegisters, int destOffset) {
+		// converted in Java instead of the library to avoid a native scratch
+		// array per value (same register order as modbus_set_float: low word
+		// first)
+		int bits = Float.floatToIntBits(value);
+		destRegisters[destOffset] = (short) bits;
+		destRegisters[destOffset + 1] = (short) (bits >>> 16);
+	}
+
+	@Override
+	public float getFloat(short[] srcRegisters, int srcOffset) {
+		// see setFloat
+		return Float.intBitsToFloat(
+				(srcRegisters[srcOffset] & 0xFFFF) | (srcRegisters[srcOffset + 1] & 0xFFFF) << 16);
+	}
+}
@@ -0,0 +1,108 @@
+package havis.app.modbus.reader.core;
+
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+import havis.util.modbus.ModbusMapping;
+import havis.util.modbus.UInt16Array;
+import havis.util.modbus.UInt8Array;
+
+/**
+ * A register mapping backed by a native {@link ModbusMapping}. The array
+ * proxies for the tables are created once with the mapping and are deleted
+ * with {@link #delete()}.
+ * <p>
+ * The binding only provides element-wise access to the native tables, so
+ * the methods copy the values element by element with one native call per
+ * value. The native engine has no bulk copy.
+ * </p>
+ */
+class NativeRegisterMapping implements RegisterMapping {
+
+	private final ModbusMapping mapping;
+	private final UInt8Array tabBits;
+	private final UInt8Array tabInputBits;
+	private final UInt16Array tabRegisters;
+	private final UInt16Array tabInputRegisters;
+	private final int[] sizes = new int[FieldType.values().length];
+
+	NativeRegisterMapping(ModbusMapping mapping) {
+		this.mapping = mapping;
+		tabBits = UInt8Array.frompointer(mapping.getTabBits());
+		tabInputBits = UInt8Array.frompointer(mapping.getTabInputBits());
+		tabRegisters = UInt16Array.frompointer(mapping.getTabRegisters());
+		tabInputRegisters = UInt16Array.frompointer(mapping.getTabInputRegisters());
+		sizes[FieldType.COILS.ordinal()] = mapping.getNbBits();
+		sizes[FieldType.DISCRETE_INPUTS.ordinal()] = mapping.getNbInputBits();
+		sizes[FieldType.HOLDING_REGISTERS.ordinal()] = mapping.getNbRegisters();
+		sizes[FieldType.INPUT_REGISTERS.ordinal()] = mapping.getNbInputRegisters();
+	}
+
+	/**
+	 * @return The native mapping
+	 */
+	ModbusMapping getMapping() {
+		return mapping;
+	}
+
+	/**
+	 * Deletes the array proxies. The native mapping is not affected.
+	 */
+	void delete() {
+		tabBits.delete();
+		tabInputBits.delete();
+		tabRegisters.delete();
+		tabInputRegisters.delete();
+	}
+
+	@Override
+	public int getSize(FieldType type) {
+		return sizes[type.ordinal()];
+	}
+
+	@Override
+	public void setBits(FieldType type, int address, byte[] src, int srcOffset, int quantity)
+			throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		UInt8Array tab = type == FieldType.COILS ? tabBits : tabInputBits;
+		for (int i = 0; i < quantity; i++) {
+			tab.setitem(address + i, src[srcOffset + i]);
+		}
+	}
+
+	@Override
+	public void getBits(FieldType type, int address, byte[] dest, int destOffset, int quantity)
+			throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		UInt8Array tab = type == FieldType.COILS ? tabBits : tabInputBits;
+		for (int i = 0; i < quantity; i++) {
+			dest[destOffset + i] = (byte) tab.getitem(address + i);
+		}
+	}
+
+	@Override
+	public void setRegisters(FieldType type, int address, short[] src, int srcOffset, int quantity)
+			throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		UInt16Array tab = type == FieldType.HOLDING_REGISTERS ? tabRegisters : tabInputRegisters;
+		for (int i = 0; i < quantity; i++) {
+			tab.setitem(address + i, src[srcOffset + i] & 0xFFFF);
+		}
+	}
+
+	@Override
+	public void getRegisters(FieldType type, int address, short[] dest, int destOffset, int quantity)
+			throws ModbusSlaveException {
+		checkRange(type, address, quantity);
+		UInt16Array tab = type == FieldType.HOLDING_REGISTERS ? tabRegisters : tabInputRegisters;
+		for (int i = 0; i < quantity; i++) {
+			dest[destOffset + i] = (short) tab.getitem(address + i);
+		}
+	}
+
+	private void checkRange(FieldType type, int address, int quantity) throws ModbusSlaveException {
+		int size = getSize(type);
+		if (address < 0 || address + quantity > size) {
+			throw new ModbusSlaveException(
+					type + ": Invalid address range " + address + "+" + quantity + " (size " + size + ")");
+		}
+	}
+}
@@ -0,0 +1,749 @@
+package havis.app.modbus.reader.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+
+/**
+ * A pure Java modbus TCP slave. The MBAP header and the PDU of the requests
+ * are decoded by the slave itself, so no native libraries are required.
+ * <p>
+ * Connections are served by a selector loop. Each connection has its own
+ * direct input and output buffers. Complete requests are handed over to a
+ * pool of workers. All complete requests which have been received at once
+ * (pipelined requests) are processed in order by one worker and the
+ * responses are sent with a single write. While requests of a connection
+ * are being processed, no further data is read from the connection, so the
+ * requests of a connection are answered in order.
+ * </p>
+ */
+class NioModbusSlave implements Slave {
+
+	private static final Logger log = Logger.getLogger(NioModbusSlave.class.getName());
+
+	// transaction identifier (2), protocol identifier (2), length (2), unit
+	// identifier (1)
+	static final int MBAP_HEADER_LENGTH = 7;
+	static final int MAX_ADU_LENGTH = 260;
+	// max. amount of requests of a connection which are processed at once
+	static final int MAX_PIPELINED_REQUESTS = 8;
+	// unit identifier (1) + max. PDU length (253)
+	private static final int MAX_MBAP_LENGTH = 254;
+
+	private static final int MAX_READ_BITS = 0x07D0;
+	private static final int MAX_WRITE_BITS = 0x07B0;
+	private static final int MAX_READ_REGISTERS = 0x007D;
+	private static final int MAX_WRITE_REGISTERS = 0x007B;
+
+	static final byte EXCEPTION_ILLEGAL_FUNCTION = 0x01;
+	static final byte EXCEPTION_ILLEGAL_DATA_ADDRESS = 0x02;
+	static final byte EXCEPTION_ILLEGAL_DATA_VALUE = 0x03;
+	static final byte EXCEPTION_SLAVE_OR_SERVER_FAILURE = 0x04;
+
+	private int openCloseTimeout;
+	private int maxConnectionCount;
+	private int workerCount;
+	private SlaveProcessor slaveProcessor;
+	private SlaveMetrics metrics;
+	private RequestTracer tracer;
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private int connectionCount;
+	private volatile boolean isSlaveProcessorConnected;
+
+	private Lock lock = new ReentrantLock();
+	private Condition stopped = lock.newCondition();
+	private int stopState;
+
+	private ExecutorService executor;
+	// connections whose request has been processed by a worker
+	private Queue<Connection> processedConnections = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The state of a client connection. The state is either accessed by the
+	 * selector loop or by the worker which processes a request.
+	 */
+	private class Connection {
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private final ByteBuffer in = ByteBuffer.allocateDirect(MAX_ADU_LENGTH * MAX_PIPELINED_REQUESTS);
+		private final ByteBuffer out = ByteBuffer.allocateDirect(MAX_ADU_LENGTH * MAX_PIPELINED_REQUESTS);
+		private Date timeStamp;
+		// time of the receipt of the requests in ns
+		private long receiveTime;
+		// whether the processing of the requests has failed unexpectedly
+		// (the connection is closed)
+		private volatile boolean isFailed;
+
+		Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+			out.flip();
+		}
+
+		@Override
+		public String toString() {
+			try {
+				return String.valueOf(channel.getRemoteAddress());
+			} catch (IOException e) {
+				return channel.toString();
+			}
+		}
+	}
+
+	@Override
+	public void open(String port, int maxConnectionCount, int workerCount, int openCloseTimeout,
+			SlaveProcessor slaveProcessor) throws ModbusSlaveException {
+		this.maxConnectionCount = maxConnectionCount;
+		this.workerCount = workerCount;
+		this.openCloseTimeout = openCloseTimeout;
+		this.slaveProcessor = slaveProcessor;
+		metrics = slaveProcessor.getMetrics();
+		tracer = metrics.getTracer();
+		int portNumber;
+		try {
+			portNumber = Integer.parseInt(port);
+		} catch (NumberFormatException e) {
+			throw new ModbusSlaveException("Cannot parse port: " + port);
+		}
+		if (log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, "Opening server socket on port " + port);
+		}
+		try {
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(portNumber), maxConnectionCount);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			closeQuietly();
+			this.slaveProcessor = null;
+			throw new ModbusSlaveException("Unable to open slave", e);
+		}
+	}
+
+	/**
+	 * @return The local port of the server socket
+	 */
+	int getLocalPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	@Override
+	public void close() throws ModbusSlaveException {
+		if (selector == null) {
+			return;
+		}
+		lock.lock();
+		try {
+			if (log.isLoggable(Level.INFO)) {
+				log.log(Level.INFO, "Closing server socket");
+			}
+			stopState = 1;
+			// abort the select call
+			selector.wakeup();
+			try {
+				while (stopState != 2) {
+					if (!stopped.await(openCloseTimeout, TimeUnit.MILLISECONDS)) {
+						throw new ModbusSlaveException("Cannot close back end within " + openCloseTimeout + "ms");
+					}
+				}
+			} catch (ModbusSlaveException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new ModbusSlaveException("Closing failed", e);
+			}
+			stopState = 0;
+		} finally {
+			lock.unlock();
+		}
+		closeQuietly();
+		slaveProcessor = null;
+		if (log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, "Modbus slave closed");
+		}
+	}
+
+	private void closeQuietly() {
+		if (selector != null) {
+			for (SelectionKey key : selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+					log.log(Level.FINE, "Cannot close channel", e);
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				log.log(Level.FINE, "Cannot close selector", e);
+			}
+			selector = null;
+		}
+		if (serverChannel != null) {
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				log.log(Level.FINE, "Cannot close server socket", e);
+			}
+			serverChannel = null;
+		}
+	}
+
+	private boolean isClosing() {
+		lock.lock();
+		try {
+			if (stopState == 1) {
+				// stop the workers and disconnect the slave processor before
+				// the slave is closed
+				stopWorkers();
+				if (isSlaveProcessorConnected) {
+					try {
+						slaveProcessor.disconnect();
+					} catch (ModbusSlaveException e) {
+						log.log(Level.SEVERE, "Cannot clean up backend", e);
+					}
+					isSlaveProcessorConnected = false;
+				}
+				stopState = 2;
+				stopped.signalAll();
+				return true;
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void run() {
+		connectionCount = 0;
+		isSlaveProcessorConnected = false;
+		executor = Executors.newFixedThreadPool(workerCount);
+		try {
+			while (true) {
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "Waiting for data...");
+				}
+				try {
+					selector.select();
+				} catch (IOException e) {
+					log.log(Level.SEVERE, "Waiting for data failed", e);
+				}
+				// if slave is being closed
+				if (isClosing()) {
+					return;
+				}
+				// continue the connections whose request has been processed
+				Connection connection;
+				while ((connection = processedConnections.poll()) != null) {
+					if (connection.isFailed) {
+						closeConnection(connection);
+					} else {
+						write(connection);
+					}
+				}
+				for (SelectionKey key : selector.selectedKeys()) {
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						connection = (Connection) key.attachment();
+						if (key.isWritable()) {
+							write(connection);
+						} else if (key.isReadable()) {
+							read(connection);
+						}
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+		} finally {
+			stopWorkers();
+		}
+	}
+
+	private void stopWorkers() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(openCloseTimeout, TimeUnit.MILLISECONDS)) {
+				log.log(Level.SEVERE, "Cannot stop workers within " + openCloseTimeout + "ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+		processedConnections.clear();
+	}
+
+	private void accept() {
+		SocketChannel channel;
+		try {
+			channel = serverChannel.accept();
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Unable to accept a connection", e);
+			return;
+		}
+		if (channel == null) {
+			return;
+		}
+		if (connectionCount >= maxConnectionCount) {
+			log.log(Level.SEVERE, "Rejecting connection: Max. connection count " + maxConnectionCount + " reached");
+			metrics.recordConnectionRejected();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.log(Level.FINE, "Cannot close rejected connection", e);
+			}
+			return;
+		}
+		try {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			Connection connection = new Connection(channel, key);
+			key.attach(connection);
+			if (log.isLoggable(Level.INFO)) {
+				log.log(Level.INFO, "Connection established: " + connection);
+			}
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Unable to register a connection", e);
+			try {
+				channel.close();
+			} catch (IOException e1) {
+				log.log(Level.FINE, "Cannot close connection", e1);
+			}
+			return;
+		}
+		connectionCount++;
+		metrics.recordConnectionAccepted();
+		if (!isSlaveProcessorConnected) {
+			try {
+				// connect slave processor
+				slaveProcessor.connect();
+				isSlaveProcessorConnected = true;
+			} catch (ModbusSlaveException e) {
+				log.log(Level.SEVERE, "Cannot initialize backend", e);
+			}
+		}
+	}
+
+	private void closeConnection(Connection connection) {
+		if (log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, "Closing connection " + connection);
+		}
+		connection.key.cancel();
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			log.log(Level.FINE, "Cannot close connection", e);
+		}
+		connectionCount--;
+		metrics.recordConnectionClosed();
+		if (connectionCount == 0 && isSlaveProcessorConnected) {
+			// disconnect slave processor
+			try {
+				slaveProcessor.disconnect();
+				isSlaveProcessorConnected = false;
+			} catch (ModbusSlaveException e) {
+				log.log(Level.SEVERE, "Cannot clean up backend", e);
+			}
+		}
+	}
+
+	/**
+	 * Reads data from a connection and dispatches a complete request.
+	 */
+	private void read(Connection connection) {
+		int count;
+		try {
+			count = connection.channel.read(connection.in);
+		} catch (IOException e) {
+			if (log.isLoggable(Level.INFO)) {
+				log.log(Level.INFO, "Failed to receive message from " + connection + ": " + e);
+			}
+			closeConnection(connection);
+			return;
+		}
+		if (count < 0) {
+			closeConnection(connection);
+			return;
+		}
+		dispatch(connection);
+	}
+
+	/**
+	 * Hands a complete request of a connection over to a worker. If the input
+	 * buffer does not contain a complete request, further data is read from
+	 * the connection.
+	 */
+	private void dispatch(final Connection connection) {
+		int frameLength = getFrameLength(connection.in);
+		if (frameLength < 0) {
+			log.log(Level.SEVERE, "Invalid MBAP header received from " + connection);
+			closeConnection(connection);
+			return;
+		}
+		if (frameLength == 0 || connection.in.position() < frameLength) {
+			// wait for further data
+			connection.key.interestOps(SelectionKey.OP_READ);
+			return;
+		}
+		connection.timeStamp = new Date();
+		connection.receiveTime = System.nanoTime();
+		// do not read further requests while the request is processed
+		connection.key.interestOps(0);
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					process(connection);
+				} catch (Throwable t) {
+					log.log(Level.SEVERE, "Cannot process request from " + connection, t);
+					// end a started trace
+					tracer.end(EXCEPTION_SLAVE_OR_SERVER_FAILURE);
+					// the unprocessed requests are still in the input buffer
+					connection.isFailed = true;
+				} finally {
+					processedConnections.add(connection);
+					selector.wakeup();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sends the response of a connection. After the response has been sent,
+	 * the next request is dispatched.
+	 */
+	private void write(Connection connection) {
+		if (!connection.key.isValid()) {
+			return;
+		}
+		try {
+			connection.channel.write(connection.out);
+		} catch (IOException e) {
+			if (log.isLoggable(Level.INFO)) {
+				log.log(Level.INFO, "Failed to send response to " + connection + ": " + e);
+			}
+			closeConnection(connection);
+			return;
+		}
+		if (connection.out.hasRemaining()) {
+			connection.key.interestOps(SelectionKey.OP_WRITE);
+			return;
+		}
+		dispatch(connection);
+	}
+
+	/**
+	 * Gets the length of the first frame in a buffer.
+	 *
+	 * @param in
+	 *            buffer in write mode
+	 * @return The frame length, <code>0</code> if the MBAP header is
+	 *         incomplete or <code>-1</code> if the MBAP header is invalid
+	 */
+	static int getFrameLength(ByteBuffer in) {
+		return getFrameLength(in, 0 /* offset */);
+	}
+
+	/**
+	 * Gets the length of a frame in a buffer.
+	 *
+	 * @param in
+	 *            buffer in write mode
+	 * @param offset
+	 *            the offset of the frame
+	 * @return The frame length, <code>0</code> if the MBAP header is
+	 *         incomplete or <code>-1</code> if the MBAP header is invalid
+	 */
+	static int getFrameLength(ByteBuffer in, int offset) {
+		if (in.position() < offset + MBAP_HEADER_LENGTH) {
+			return 0;
+		}
+		int protocolId = in.getShort(offset + 2) & 0xFFFF;
+		int length = in.getShort(offset + 4) & 0xFFFF;
+		if (protocolId != 0 || length < 2 || length > MAX_MBAP_LENGTH) {
+			return -1;
+		}
+		return 6 + length;
+	}
+
+	/**
+	 * Processes the complete requests in the input buffer of a connection in
+	 * order and writes the responses to the output buffer, so they are sent
+	 * with a single write. The processed requests are removed from the input
+	 * buffer.
+	 */
+	private void process(Connection connection) {
+		ByteBuffer in = connection.in;
+		ByteBuffer out = connection.out;
+		out.clear();
+		int offset = 0;
+		int frameLength;
+		// while a complete request is available and the response fits into
+		// the output buffer
+		while ((frameLength = getFrameLength(in, offset)) > 0 && offset + frameLength <= in.position()
+				&& out.remaining() >= MAX_ADU_LENGTH) {
+			ByteBuffer pdu = in.duplicate();
+			pdu.limit(offset + frameLength);
+			pdu.position(offset + MBAP_HEADER_LENGTH);
+			int responseOffset = out.position();
+			// copy transaction identifier, protocol identifier, length and
+			// unit identifier
+			for (int i = 0; i < MBAP_HEADER_LENGTH; i++) {
+				out.put(in.get(offset + i));
+			}
+			tracer.begin(connection.receiveTime);
+			processPdu(pdu, out, connection.timeStamp);
+			// set length
+			out.putShort(responseOffset + 4, (short) (out.position() - responseOffset - 6));
+			byte responseFunctionCode = out.get(responseOffset + MBAP_HEADER_LENGTH);
+			int exceptionCode = 0;
+			if ((responseFunctionCode & 0x80) != 0) {
+				exceptionCode = out.get(responseOffset + MBAP_HEADER_LENGTH + 1);
+				metrics.recordExceptionReply(exceptionCode);
+			}
+			metrics.recordRequest((short) (responseFunctionCode & 0x7F), connection.receiveTime);
+			tracer.end(exceptionCode);
+			offset += frameLength;
+		}
+		out.flip();
+		// remove the processed requests from the input buffer
+		in.flip();
+		in.position(offset);
+		in.compact();
+	}
+
+	/**
+	 * Processes the PDU of a request and writes the PDU of the response.
+	 *
+	 * @param pdu
+	 *            the PDU of the request starting with the function code
+	 * @param out
+	 * @param timeStamp
+	 */
+	void processPdu(ByteBuffer pdu, ByteBuffer out, Date timeStamp) {
+		int responseOffset = out.position();
+		short functionCode = (short) (pdu.get() & 0xFF);
+		if (!isSlaveProcessorConnected) {
+			log.log(Level.SEVERE, "Discarding request due to failed initialization of backend");
+			putException(out, functionCode, EXCEPTION_SLAVE_OR_SERVER_FAILURE);
+			return;
+		}
+		FieldType type;
+		boolean isRead;
+		int maxQuantity;
+		switch (functionCode) {
+		case FunctionCode.READ_COILS:
+			type = FieldType.COILS;
+			isRead = true;
+			maxQuantity = MAX_READ_BITS;
+			break;
+		case FunctionCode.READ_DISCRETE_INPUTS:
+			type = FieldType.DISCRETE_INPUTS;
+			isRead = true;
+			maxQuantity = MAX_READ_BITS;
+			break;
+		case FunctionCode.READ_HOLDING_REGISTERS:
+			type = FieldType.HOLDING_REGISTERS;
+			isRead = true;
+			maxQuantity = MAX_READ_REGISTERS;
+			break;
+		case FunctionCode.READ_INPUT_REGISTERS:
+			type = FieldType.INPUT_REGISTERS;
+			isRead = true;
+			maxQuantity = MAX_READ_REGISTERS;
+			break;
+		case FunctionCode.WRITE_SINGLE_COIL:
+		case FunctionCode.WRITE_MULTIPLE_COILS:
+			type = FieldType.COILS;
+			isRead = false;
+			maxQuantity = MAX_WRITE_BITS;
+			break;
+		case FunctionCode.WRITE_SINGLE_REGISTER:
+		case FunctionCode.WRITE_MULTIPLE_REGISTERS:
+			type = FieldType.HOLDING_REGISTERS;
+			isRead = false;
+			maxQuantity = MAX_WRITE_REGISTERS;
+			break;
+		default:
+			putException(out, functionCode, EXCEPTION_ILLEGAL_FUNCTION);
+			return;
+		}
+		if (pdu.remaining() < 4) {
+			putException(out, functionCode, EXCEPTION_ILLEGAL_DATA_VALUE);
+			return;
+		}
+		int address = pdu.getShort() & 0xFFFF;
+		int quantity = 1;
+		int singleValue = 0;
+		switch (functionCode) {
+		case FunctionCode.WRITE_SINGLE_COIL:
+			singleValue = pdu.getShort() & 0xFFFF;
+			if (singleValue != 0xFF00 && singleValue != 0x0000) {
+				putException(out, functionCode, EXCEPTION_ILLEGAL_DATA_VALUE);
+				return;
+			}
+			break;
+		case FunctionCode.WRITE_SINGLE_REGISTER:
+			singleValue = pdu.getShort() & 0xFFFF;
+			break;
+		case FunctionCode.WRITE_MULTIPLE_COILS:
+		case FunctionCode.WRITE_MULTIPLE_REGISTERS:
+			quantity = pdu.getShort() & 0xFFFF;
+			int byteCount = pdu.hasRemaining() ? pdu.get() & 0xFF : -1;
+			int expectedByteCount = functionCode == FunctionCode.WRITE_MULTIPLE_COILS ? (quantity + 7) / 8
+					: quantity * 2;
+			if (quantity < 1 || quantity > maxQuantity || byteCount != expectedByteCount
+					|| pdu.remaining() < byteCount) {
+				putException(out, functionCode, EXCEPTION_ILLEGAL_DATA_VALUE);
+				return;
+			}
+			break;
+		default: // read
+			quantity = pdu.getShort() & 0xFFFF;
+			if (quantity < 1 || quantity > maxQuantity) {
+				putException(out, functionCode, EXCEPTION_ILLEGAL_DATA_VALUE);
+				return;
+			}
+		}
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, (isRead ? "Reading" : "Writing") + " data for functionCode=" + functionCode
+					+ ", address=" + address + ", addressQuantity=" + quantity);
+		}
+		tracer.setRequest(functionCode, address, quantity);
+		RegisterMapping mapping;
+		try {
+			mapping = slaveProcessor.acquireMapping(functionCode, address, quantity);
+		} catch (RuntimeException e) {
+			log.log(Level.SEVERE, "Cannot acquire mapping for functionCode=" + functionCode + ",address=" + address
+					+ ",quantity=" + quantity, e);
+			putException(out, functionCode, EXCEPTION_SLAVE_OR_SERVER_FAILURE);
+			return;
+		}
+		try {
+			if (address + quantity > mapping.getSize(type)) {
+				putException(out, functionCode, EXCEPTION_ILLEGAL_DATA_ADDRESS);
+				return;
+			}
+			BufferRegisterMapping bufferMapping = (BufferRegisterMapping) mapping;
+			if (isRead) {
+				// update data
+				try {
+					slaveProcessor.read(functionCode, address, quantity, mapping);
+				} catch (ModbusSlaveException e) {
+					log.log(Level.SEVERE, "Cannot read data for functionCode=" + functionCode + ",address=" + address
+							+ ",quantity=" + quantity, e);
+					putException(out, functionCode, EXCEPTION_SLAVE_OR_SERVER_FAILURE);
+					return;
+				}
+				out.put((byte) functionCode);
+				if (type == FieldType.COILS || type == FieldType.DISCRETE_INPUTS) {
+					out.put((byte) ((quantity + 7) / 8));
+					bufferMapping.packBits(type, address, quantity, out);
+				} else {
+					out.put((byte) (quantity * 2));
+					bufferMapping.copyRegisters(type, address, quantity, out);
+				}
+				return;
+			}
+			// set data to the mapping and send the response
+			out.put((byte) functionCode);
+			out.putShort((short) address);
+			switch (functionCode) {
+			case FunctionCode.WRITE_SINGLE_COIL:
+				bufferMapping.setBits(type, address, new byte[] { (byte) (singleValue == 0xFF00 ? 1 : 0) },
+						0 /* srcOffset */, 1);
+				out.putShort((short) singleValue);
+				break;
+			case FunctionCode.WRITE_SINGLE_REGISTER:
+				bufferMapping.setRegisters(type, address, new short[] { (short) singleValue }, 0 /* srcOffset */, 1);
+				out.putShort((short) singleValue);
+				break;
+			case FunctionCode.WRITE_MULTIPLE_COILS:
+				bufferMapping.unpackBits(type, address, quantity, pdu);
+				out.putShort((short) quantity);
+				break;
+			default: // WRITE_MULTIPLE_REGISTERS
+				bufferMapping.putRegisters(type, address, quantity, pdu);
+				out.putShort((short) quantity);
+			}
+			// update data
+			try {
+				slaveProcessor.write(functionCode, address, quantity, timeStamp, mapping);
+			} catch (ModbusSlaveException e) {
+				log.log(Level.SEVERE, "Cannot write data for functionCode=" + functionCode + ",address=" + address
+						+ ",quantity=" + quantity, e);
+			}
+		} catch (ModbusSlaveException | RuntimeException e) {
+			log.log(Level.SEVERE, "Cannot process request for functionCode=" + functionCode + ",address=" + address
+					+ ",quantity=" + quantity, e);
+			out.position(responseOffset);
+			putException(out, functionCode, EXCEPTION_SLAVE_OR_SERVER_FAILURE);
+		} finally {
+			slaveProcessor.releaseMapping();
+		}
+	}
+
+	private void putException(ByteBuffer out, short functionCode, byte exceptionCode) {
+		out.put((byte) (functionCode | 0x80));
+		out.put(exceptionCode);
+	}
+
+	@Override
+	public RegisterMapping createMapping(int coils, int discreteInputs, int holdingRegisters, int inputRegisters) {
+		return new BufferRegisterMapping(coils, discreteInputs, holdingRegisters, inputRegisters);
+	}
+
+	@Override
+	public void destroyMapping(RegisterMapping mapping) {
+		// the buffers are released by the garbage collector
+	}
+
+	@Override
+	public boolean resizeMapping(RegisterMapping mapping, int coils, int discreteInputs, int holdingRegisters,
+			int inputRegisters, int validAddressQuantity) {
+		((BufferRegisterMapping) mapping).resize(coils, discreteInputs, holdingRegisters, inputRegisters,
+				validAddressQuantity);
+		return true;
+	}
+
+	@Override
+	public void setFloat(float value, short[] destRegisters, int destOffset) {
+		// same register order as the native library (low word first)
+		int bits = Float.floatToIntBits(value);
+		destRegisters[destOffset] = (short) bits;
+		destRegisters[destOffset + 1] = (short) (bits >>> 16);
+	}
+
+	@Override
+	public float getFloat(short[] srcRegisters, int srcOffset) {
+		return Float.intBitsToFloat(
+				(srcRegisters[srcOffset] & 0xFFFF) | (srcRegisters[srcOffset + 1] & 0xFFFF) << 16);
+	}
+}
@@ -0,0 +1,251 @@
+package havis.app.modbus.reader.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes field values to registers and bits and decodes them. The encoders
+ * write directly to the given arrays and fill the remaining addresses with
+ * 0.
+ * <p>
+ * Each thread has its own codec with scratch arrays which are reused for
+ * each field, so encoding does not allocate memory. Decoding only allocates
+ * the decoded value. A scratch array is valid until the next call of the
+ * same getter by the same thread.
+ * </p>
+ */
+public final class RegisterCodec {
+
+	private static final ThreadLocal<RegisterCodec> codecs = new ThreadLocal<RegisterCodec>() {
+		@Override
+		protected RegisterCodec initialValue() {
+			return new RegisterCodec();
+		}
+	};
+
+	private short[] registers = new short[0];
+	private byte[] bits = new byte[0];
+	private byte[] bytes = new byte[0];
+
+	private RegisterCodec() {
+	}
+
+	/**
+	 * @return The codec of the current thread
+	 */
+	public static RegisterCodec get() {
+		return codecs.get();
+	}
+
+	/**
+	 * Gets scratch registers. The content is undefined.
+	 *
+	 * @param quantity
+	 * @return An array with at least <code>quantity</code> registers
+	 */
+	public short[] getRegisters(int quantity) {
+		if (registers.length < quantity) {
+			registers = new short[Math.max(quantity, registers.length * 2)];
+		}
+		return registers;
+	}
+
+	/**
+	 * Gets scratch bits (one byte per bit). The content is undefined.
+	 *
+	 * @param quantity
+	 * @return An array with at least <code>quantity</code> bits
+	 */
+	public byte[] getBits(int quantity) {
+		if (bits.length < quantity) {
+			bits = new byte[Math.max(quantity, bits.length * 2)];
+		}
+		return bits;
+	}
+
+	private byte[] getBytes(int length) {
+		if (bytes.length < length) {
+			bytes = new byte[Math.max(length, bytes.length * 2)];
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes boolean values to bits (0 or 1).
+	 *
+	 * @param values
+	 *            the values or <code>null</code>
+	 * @param dest
+	 * @param quantity
+	 */
+	public static void encodeBits(boolean[] values, byte[] dest, int quantity) {
+		for (int i = 0; i < quantity; i++) {
+			dest[i] = (values != null && i < values.length && values[i]) ? (byte) 1 : (byte) 0;
+		}
+	}
+
+	/**
+	 * Decodes bits (0 or 1) to boolean values.
+	 *
+	 * @param src
+	 * @param quantity
+	 * @return The values
+	 */
+	public static boolean[] decodeBits(byte[] src, int quantity) {
+		boolean[] ret = new boolean[quantity];
+		for (int i = 0; i < quantity; i++) {
+			ret[i] = src[i] == 1;
+		}
+		return ret;
+	}
+
+	/**
+	 * Encodes bytes to registers in big endian order.
+	 *
+	 * @param src
+	 *            the bytes or <code>null</code>
+	 * @param srcLength
+	 *            the count of bytes to encode
+	 * @param dest
+	 * @param quantity
+	 */
+	public static void encodeBytes(byte[] src, int srcLength, short[] dest, int quantity) {
+		if (src == null) {
+			srcLength = 0;
+		}
+		for (int i = 0; i < quantity; i++) {
+			int j = i * 2;
+			byte b1 = j < srcLength ? src[j] : 0;
+			byte b2 = j + 1 < srcLength ? src[j + 1] : 0;
+			dest[i] = (short) (b1 << 8 | b2 & 0x00FF);
+		}
+	}
+
+	/**
+	 * Decodes registers in big endian order to bytes.
+	 *
+	 * @param src
+	 * @param quantity
+	 * @param dest
+	 *            an array with at least <code>quantity * 2</code> bytes
+	 */
+	public static void decodeBytes(short[] src, int quantity, byte[] dest) {
+		for (int i = 0; i < quantity; i++) {
+			dest[i * 2] = (byte) (src[i] >> 8);
+			dest[i * 2 + 1] = (byte) src[i];
+		}
+	}
+
+	/**
+	 * Decodes registers in big endian order to bytes.
+	 *
+	 * @param src
+	 * @param quantity
+	 * @return The bytes
+	 */
+	public static byte[] decodeBytes(short[] src, int quantity) {
+		byte[] ret = new byte[quantity * 2];
+		decodeBytes(src, quantity, ret);
+		return ret;
+	}
+
+	/**
+	 * @param values
+	 *            the values or <code>null</code>
+	 * @param dest
+	 * @param quantity
+	 */
+	public static void encodeShorts(short[] values, short[] dest, int quantity) {
+		int length = values == null ? 0 : Math.min(values.length, quantity);
+		if (length > 0) {
+			System.arraycopy(values, 0, dest, 0, length);
+		}
+		Arrays.fill(dest, length, quantity, (short) 0);
+	}
+
+	public static short[] decodeShorts(short[] src, int quantity) {
+		return Arrays.copyOf(src, quantity);
+	}
+
+	/**
+	 * @param values
+	 *            the unsigned values or <code>null</code>
+	 * @param dest
+	 * @param quantity
+	 */
+	public static void encodeUShorts(int[] values, short[] dest, int quantity) {
+		int length = values == null ? 0 : Math.min(values.length, quantity);
+		for (int i = 0; i < length; i++) {
+			dest[i] = (short) values[i];
+		}
+		Arrays.fill(dest, length, quantity, (short) 0);
+	}
+
+	public static int[] decodeUShorts(short[] src, int quantity) {
+		int[] ret = new int[quantity];
+		for (int i = 0; i < quantity; i++) {
+			ret[i] = src[i] & 0xFFFF;
+		}
+		return ret;
+	}
+
+	/**
+	 * Encodes the concatenated values in UTF-8 to registers in big endian
+	 * order. The bytes of ASCII characters are encoded without an
+	 * intermediate array.
+	 *
+	 * @param values
+	 *            the values or <code>null</code>
+	 * @param dest
+	 * @param quantity
+	 */
+	public void encodeString(String[] values, short[] dest, int quantity) {
+		int maxLength = quantity * 2;
+		byte[] b = getBytes(maxLength);
+		int length = 0;
+		for (int i = 0; values != null && i < values.length && length < maxLength; i++) {
+			String value = values[i];
+			if (value == null) {
+				continue;
+			}
+			int j = 0;
+			for (; j < value.length() && length < maxLength; j++) {
+				char c = value.charAt(j);
+				if (c >= 0x80) {
+					break;
+				}
+				b[length++] = (byte) c;
+			}
+			// if a non ASCII character has been found
+			if (j < value.length() && length < maxLength) {
+				byte[] encoded = value.substring(j).getBytes(StandardCharsets.UTF_8);
+				int count = Math.min(encoded.length, maxLength - length);
+				System.arraycopy(encoded, 0, b, length, count);
+				length += count;
+			}
+		}
+		encodeBytes(b, length, dest, quantity);
+	}
+
+	/**
+	 * Decodes registers in big endian order to an UTF-8 string.
+	 *
+	 * @param src
+	 * @param quantity
+	 * @param isZeroTerminated
+	 *            whether the string ends with the first 0x00 byte
+	 * @return The string
+	 */
+	public String decodeString(short[] src, int quantity, boolean isZeroTerminated) {
+		byte[] b = getBytes(quantity * 2);
+		decodeBytes(src, quantity, b);
+		int length = quantity * 2;
+		if (isZeroTerminated) {
+			length = 0;
+			while (length < quantity * 2 && b[length] != 0x00) {
+				length++;
+			}
+		}
+		return new String(b, 0, length, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,87 @@
+package havis.app.modbus.reader.core;
+
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+
+/**
+ * The register tables of a slave (coils, discrete inputs, holding registers
+ * and input registers). A mapping is created by the slave and is provided by
+ * {@link SlaveProcessor#acquireMapping()}. The processor accesses the tables
+ * with one call per field. Whether a call copies the values in bulk depends
+ * on the implementation.
+ * <p>
+ * A mapping is not thread safe. It must only be used while it is acquired.
+ * </p>
+ */
+public interface RegisterMapping {
+
+	/**
+	 * @param type
+	 * @return The count of addresses of a table
+	 */
+	int getSize(FieldType type);
+
+	/**
+	 * Copies bits to the coils or discrete inputs.
+	 * 
+	 * @param type
+	 *            {@link FieldType#COILS} or {@link FieldType#DISCRETE_INPUTS}
+	 * @param address
+	 *            the first address in the table
+	 * @param src
+	 *            the bits (0 or 1)
+	 * @param srcOffset
+	 * @param quantity
+	 * @throws ModbusSlaveException
+	 *             if the addresses do not exist in the table
+	 */
+	void setBits(FieldType type, int address, byte[] src, int srcOffset, int quantity) throws ModbusSlaveException;
+
+	/**
+	 * Copies bits from the coils or discrete inputs.
+	 * 
+	 * @param type
+	 *            {@link FieldType#COILS} or {@link FieldType#DISCRETE_INPUTS}
+	 * @param address
+	 *            the first address in the table
+	 * @param dest
+	 * @param destOffset
+	 * @param quantity
+	 * @throws ModbusSlaveException
+	 *             if the addresses do not exist in the table
+	 */
+	void getBits(FieldType type, int address, byte[] dest, int destOffset, int quantity) throws ModbusSlaveException;
+
+	/**
+	 * Copies registers to the holding registers or input registers.
+	 * 
+	 * @param type
+	 *            {@link FieldType#HOLDING_REGISTERS} or
+	 *            {@link FieldType#INPUT_REGISTERS}
+	 * @param address
+	 *            the first address in the table
+	 * @param src
+	 * @param srcOffset
+	 * @param quantity
+	 * @throws ModbusSlaveException
+	 *             if the addresses do not exist in the table
+	 */
+	void setRegisters(FieldType type, int address, short[] src, int srcOffset, int quantity)
+			throws ModbusSlaveException;
+
+	/**
+	 * Copies registers from the holding registers or input registers.
+	 * 
+	 * @param type
+	 *            {@link FieldType#HOLDING_REGISTERS} or
+	 *            {@link FieldType#INPUT_REGISTERS}
+	 * @param address
+	 *            the first address in the table
+	 * @param dest
+	 * @param destOffset
+	 * @param quantity
+	 * @throws ModbusSlaveException
+	 *             if the addresses do not exist in the table
+	 */
+	void getRegisters(FieldType type, int address, short[] dest, int destOffset, int quantity)
+			throws ModbusSlaveException;
+}
@@ -0,0 +1,180 @@
+package havis.app.modbus.reader.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The trace of a request. A trace is recorded by the thread which processes
+ * the request and is published by {@link RequestTracer#end(int)}.
+ */
+public final class RequestTrace {
+
+	/**
+	 * A stage of the processing of a request. The spans of the same stage and
+	 * detail are merged (eg. the encoding of each field): the duration is the
+	 * sum of the durations of the merged spans.
+	 */
+	public static final class Span {
+		private final String stage;
+		private final String detail;
+		private final long offset;
+		private long duration;
+		private int count = 1;
+
+		Span(String stage, String detail, long offset, long duration) {
+			this.stage = stage;
+			this.detail = detail;
+			this.offset = offset;
+			this.duration = duration;
+		}
+
+		/**
+		 * @return The name of the stage (eg. "inventory")
+		 */
+		public String getStage() {
+			return stage;
+		}
+
+		/**
+		 * @return The detail of the stage (eg. the field type) or
+		 *         <code>null</code>
+		 */
+		public String getDetail() {
+			return detail;
+		}
+
+		/**
+		 * @return The start of the (first) span relative to the receipt of
+		 *         the request in &micro;s
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return The duration in &micro;s
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		/**
+		 * @return The count of merged spans
+		 */
+		public int getCount() {
+			return count;
+		}
+	}
+
+	private final long time;
+	private final long receiveTime;
+	private final int maxSpanCount;
+	private final List<Span> spans = new ArrayList<>();
+	private int droppedSpanCount;
+	private short functionCode = -1;
+	private int address = -1;
+	private int quantity;
+	private long duration;
+	private int exceptionCode;
+
+	/**
+	 * @param receiveTime
+	 *            the time of the receipt of the request in ns (
+	 *            {@link System#nanoTime()})
+	 * @param maxSpanCount
+	 */
+	RequestTrace(long receiveTime, int maxSpanCount) {
+		time = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - receiveTime);
+		this.receiveTime = receiveTime;
+		this.maxSpanCount = maxSpanCount;
+	}
+
+	void setRequest(short functionCode, int address, int quantity) {
+		this.functionCode = functionCode;
+		this.address = address;
+		this.quantity = quantity;
+	}
+
+	void addSpan(String stage, String detail, long start, long end) {
+		long duration = TimeUnit.NANOSECONDS.toMicros(end - start);
+		for (Span span : spans) {
+			if (span.stage.equals(stage) && (detail == null ? span.detail == null : detail.equals(span.detail))) {
+				span.duration += duration;
+				span.count++;
+				return;
+			}
+		}
+		if (spans.size() == maxSpanCount) {
+			droppedSpanCount++;
+			return;
+		}
+		spans.add(new Span(stage, detail, TimeUnit.NANOSECONDS.toMicros(start - receiveTime), duration));
+	}
+
+	void end(long end, int exceptionCode) {
+		duration = TimeUnit.NANOSECONDS.toMicros(end - receiveTime);
+		this.exceptionCode = exceptionCode;
+	}
+
+	long getReceiveTime() {
+		return receiveTime;
+	}
+
+	/**
+	 * @return The time of the receipt of the request in ms since the epoch
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return The function code or -1 if the request could not be parsed
+	 */
+	public short getFunctionCode() {
+		return functionCode;
+	}
+
+	/**
+	 * @return The start address or -1 if the request could not be parsed
+	 */
+	public int getAddress() {
+		return address;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	/**
+	 * @return The duration between the receipt of the request and the reply
+	 *         in &micro;s
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return The exception code of the reply or 0
+	 */
+	public int getExceptionCode() {
+		return exceptionCode;
+	}
+
+	/**
+	 * @return The spans in the order of the ends of their first occurrences,
+	 *         so nested spans precede the enclosing ones
+	 */
+	public List<Span> getSpans() {
+		return Collections.unmodifiableList(spans);
+	}
+
+	/**
+	 * @return The count of spans which have been dropped because the max.
+	 *         count of spans has been reached
+	 */
+	public int getDroppedSpanCount() {
+		return droppedSpanCount;
+	}
+}
@@ -0,0 +1,151 @@
+package havis.app.modbus.reader.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Traces the stages of requests. A trace is started by the slave engine when
+ * a request has been received and is bound to the processing thread. The
+ * stages are recorded as spans by the slave processor, the module and the
+ * connector. Traces of requests which have exceeded a threshold are kept in a
+ * ring buffer of the latest slow requests.
+ * <p>
+ * A disabled tracer does not allocate memory or read the clock. Callers get
+ * the start of a span with {@link #start()}, which returns 0 if tracing is
+ * disabled.
+ * </p>
+ */
+public final class RequestTracer {
+
+	// max. count of spans per trace
+	private static final int MAX_SPAN_COUNT = 128;
+
+	private final boolean isEnabled;
+	private final long threshold;
+	private final AtomicReferenceArray<RequestTrace> traces;
+	private final AtomicLong traceCount = new AtomicLong();
+	private final ThreadLocal<RequestTrace> current = new ThreadLocal<>();
+
+	/**
+	 * Creates a disabled tracer.
+	 */
+	public RequestTracer() {
+		this(-1 /* threshold */, 0 /* capacity */);
+	}
+
+	/**
+	 * @param threshold
+	 *            the min. duration in ms of the requests which are kept (-1:
+	 *            tracing is disabled)
+	 * @param capacity
+	 *            the max. count of kept traces
+	 */
+	public RequestTracer(int threshold, int capacity) {
+		isEnabled = threshold >= 0 && capacity > 0;
+		this.threshold = TimeUnit.MILLISECONDS.toNanos(threshold);
+		traces = new AtomicReferenceArray<>(isEnabled ? capacity : 0);
+	}
+
+	public boolean isEnabled() {
+		return isEnabled;
+	}
+
+	/**
+	 * Starts the trace of a request for the current thread.
+	 *
+	 * @param receiveTime
+	 *            the time of the receipt of the request in ns (
+	 *            {@link System#nanoTime()})
+	 */
+	public void begin(long receiveTime) {
+		if (isEnabled) {
+			current.set(new RequestTrace(receiveTime, MAX_SPAN_COUNT));
+		}
+	}
+
+	/**
+	 * Sets the parsed request to the trace of the current thread.
+	 *
+	 * @param functionCode
+	 * @param address
+	 * @param quantity
+	 */
+	public void setRequest(short functionCode, int address, int quantity) {
+		if (isEnabled) {
+			RequestTrace trace = current.get();
+			if (trace != null) {
+				trace.setRequest(functionCode, address, quantity);
+			}
+		}
+	}
+
+	/**
+	 * @return The start of a span in ns ({@link System#nanoTime()}) or 0 if
+	 *         tracing is disabled
+	 */
+	public long start() {
+		return isEnabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Adds a span to the trace of the current thread. The span is ignored if
+	 * no trace has been started for the current thread (eg. for inventories
+	 * in the background).
+	 *
+	 * @param stage
+	 *            the name of the stage
+	 * @param detail
+	 *            the detail of the stage or <code>null</code>
+	 * @param start
+	 *            the start of the span in ns ({@link System#nanoTime()})
+	 */
+	public void span(String stage, String detail, long start) {
+		if (isEnabled) {
+			RequestTrace trace = current.get();
+			if (trace != null) {
+				trace.addSpan(stage, detail, start, System.nanoTime());
+			}
+		}
+	}
+
+	/**
+	 * Ends the trace of the current thread. The trace is kept if the request
+	 * has exceeded the threshold.
+	 *
+	 * @param exceptionCode
+	 *            the exception code of the reply or 0
+	 */
+	public void end(int exceptionCode) {
+		if (isEnabled) {
+			RequestTrace trace = current.get();
+			if (trace == null) {
+				return;
+			}
+			current.remove();
+			long end = System.nanoTime();
+			trace.end(end, exceptionCode);
+			if (end - trace.getReceiveTime() >= threshold) {
+				traces.set((int) (traceCount.getAndIncrement() % traces.length()), trace);
+			}
+		}
+	}
+
+	/**
+	 * @return The kept traces, the latest trace first
+	 */
+	public List<RequestTrace> getTraces() {
+		List<RequestTrace> ret = new ArrayList<>();
+		long count = traceCount.get();
+		for (long i = count - 1; i >= 0 && i >= count - traces.length(); i--) {
+			RequestTrace trace = traces.get((int) (i % traces.length()));
+			// the slot may not have been set yet
+			if (trace != null) {
+				ret.add(trace);
+			}
+		}
+		return ret;
+	}
+}
@@ -1,15 +1,75 @@
 package havis.app.modbus.reader.core;
 
-import havis.util.modbus.ModbusMapping;
-import havis.util.modbus.UInt16Array;
-
+/**
+ * A modbus TCP slave engine. The engine is selected with the configuration
+ * property <code>engine</code> and is driven by {@link ModbusSlave}.
+ */
 interface Slave {
 
-	ModbusMapping createMapping(int coils, int discreteInputs, int holdingRegisters, int inputRegisters);
+	/**
+	 * Opens the server socket.
+	 * 
+	 * @param port
+	 * @param maxConnectionCount
+	 *            the max. amount of client connections
+	 * @param workerCount
+	 *            the amount of workers processing requests in parallel
+	 * @param openCloseTimeout
+	 *            time out in ms for opening/closing the back end
+	 * @param slaveProcessor
+	 * @throws ModbusSlaveException
+	 */
+	void open(String port, int maxConnectionCount, int workerCount, int openCloseTimeout,
+			SlaveProcessor slaveProcessor) throws ModbusSlaveException;
+
+	/**
+	 * Processes incoming connections and requests until the slave is closed.
+	 */
+	void run();
+
+	/**
+	 * Closes the server socket and waits until {@link #run()} has finished.
+	 * 
+	 * @throws ModbusSlaveException
+	 */
+	void close() throws ModbusSlaveException;
+
+	RegisterMapping createMapping(int coils, int discreteInputs, int holdingRegisters, int inputRegisters);
+
+	void destroyMapping(RegisterMapping mapping);
 
-	void destroyMapping(ModbusMapping mapping);
+	/**
+	 * Resizes a mapping in place. The addresses below
+	 * <code>validAddressQuantity</code> keep their contents. The mapping must
+	 * not be used by others while it is resized.
+	 * 
+	 * @param mapping
+	 * @param coils
+	 * @param discreteInputs
+	 * @param holdingRegisters
+	 * @param inputRegisters
+	 * @param validAddressQuantity
+	 * @return <code>false</code> if the engine cannot resize the mapping and a
+	 *         new mapping must be created
+	 */
+	boolean resizeMapping(RegisterMapping mapping, int coils, int discreteInputs, int holdingRegisters,
+			int inputRegisters, int validAddressQuantity);
 
-	void setFloat(float value, UInt16Array destRegisters);
+	/**
+	 * Converts a float value to 2 registers.
+	 * 
+	 * @param value
+	 * @param destRegisters
+	 * @param destOffset
+	 */
+	void setFloat(float value, short[] destRegisters, int destOffset);
 
-	float getFloat(UInt16Array destRegisters);
+	/**
+	 * Converts 2 registers to a float value.
+	 * 
+	 * @param srcRegisters
+	 * @param srcOffset
+	 * @return The float value
+	 */
+	float getFloat(short[] srcRegisters, int srcOffset);
 }
@@ -0,0 +1,271 @@
+package havis.app.modbus.reader.core;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a slave. The metrics are recorded by the slave engine, the
+ * slave processor and the module with lock free counters and histograms,
+ * so recording does not block the processing of requests.
+ * <p>
+ * All durations are recorded in &micro;s.
+ * </p>
+ */
+public final class SlaveMetrics {
+
+	// function codes and exception codes are 7 bit values
+	private static final int MAX_CODE_COUNT = 0x80;
+
+	private final long startTime = System.nanoTime();
+	// function code -> latency between the receipt of a request and the
+	// reply (created on demand)
+	private final AtomicReferenceArray<MetricsHistogram> requestLatencies = new AtomicReferenceArray<>(
+			MAX_CODE_COUNT);
+	private final MetricsHistogram requestLatenciesTotal = new MetricsHistogram();
+	// exception code -> count of exception replies (created on demand)
+	private final AtomicReferenceArray<LongAdder> exceptionReplies = new AtomicReferenceArray<>(MAX_CODE_COUNT);
+	private final AtomicInteger activeConnections = new AtomicInteger();
+	private final LongAdder acceptedConnections = new LongAdder();
+	private final LongAdder rejectedConnections = new LongAdder();
+	private final MetricsHistogram mappingLockWaits = new MetricsHistogram();
+	private final MetricsHistogram structureLockWaits = new MetricsHistogram();
+	// operation type -> duration of the device operations
+	private final ConcurrentMap<String, MetricsHistogram> deviceOperations = new ConcurrentHashMap<>();
+	private final MetricsHistogram deviceOperationsTotal = new MetricsHistogram();
+	private final MetricsHistogram inventoryTagCounts = new MetricsHistogram();
+	private final RequestTracer tracer;
+
+	/**
+	 * Creates metrics without tracing.
+	 */
+	public SlaveMetrics() {
+		this(new RequestTracer());
+	}
+
+	/**
+	 * @param tracer
+	 *            the tracer of the stages of slow requests
+	 */
+	public SlaveMetrics(RequestTracer tracer) {
+		this.tracer = tracer;
+	}
+
+	/**
+	 * @param start
+	 *            the start time in ns ({@link System#nanoTime()})
+	 * @return The time elapsed since the start in &micro;s
+	 */
+	public static long getMicrosSince(long start) {
+		return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+	}
+
+	/**
+	 * Records a processed request.
+	 *
+	 * @param functionCode
+	 * @param receiveTime
+	 *            the time of the receipt of the request in ns (
+	 *            {@link System#nanoTime()})
+	 */
+	public void recordRequest(short functionCode, long receiveTime) {
+		long latency = getMicrosSince(receiveTime);
+		getOrCreate(requestLatencies, functionCode & (MAX_CODE_COUNT - 1)).record(latency);
+		requestLatenciesTotal.record(latency);
+	}
+
+	/**
+	 * Records an exception reply.
+	 *
+	 * @param exceptionCode
+	 */
+	public void recordExceptionReply(int exceptionCode) {
+		int index = exceptionCode & (MAX_CODE_COUNT - 1);
+		LongAdder ret = exceptionReplies.get(index);
+		if (ret == null) {
+			exceptionReplies.compareAndSet(index, null, new LongAdder());
+			ret = exceptionReplies.get(index);
+		}
+		ret.increment();
+	}
+
+	public void recordConnectionAccepted() {
+		acceptedConnections.increment();
+		activeConnections.incrementAndGet();
+	}
+
+	public void recordConnectionRejected() {
+		rejectedConnections.increment();
+	}
+
+	public void recordConnectionClosed() {
+		activeConnections.decrementAndGet();
+	}
+
+	/**
+	 * Records the time a request has waited for the locks of the mapping.
+	 *
+	 * @param start
+	 *            the start of the wait in ns ({@link System#nanoTime()})
+	 */
+	public void recordMappingLockWait(long start) {
+		mappingLockWaits.record(getMicrosSince(start));
+	}
+
+	/**
+	 * Records the time a request has waited for the lock of the field
+	 * structure.
+	 *
+	 * @param start
+	 *            the start of the wait in ns ({@link System#nanoTime()})
+	 */
+	public void recordStructureLockWait(long start) {
+		structureLockWaits.record(getMicrosSince(start));
+	}
+
+	/**
+	 * Records the duration of a device operation.
+	 *
+	 * @param operationType
+	 *            the type of the operation (eg. "inventory")
+	 * @param start
+	 *            the start of the operation in ns ({@link System#nanoTime()})
+	 */
+	public void recordDeviceOperation(String operationType, long start) {
+		long duration = getMicrosSince(start);
+		MetricsHistogram histogram = deviceOperations.get(operationType);
+		if (histogram == null) {
+			deviceOperations.putIfAbsent(operationType, new MetricsHistogram());
+			histogram = deviceOperations.get(operationType);
+		}
+		histogram.record(duration);
+		deviceOperationsTotal.record(duration);
+	}
+
+	/**
+	 * Records the count of tags which have been found by an inventory.
+	 *
+	 * @param tagCount
+	 */
+	public void recordInventory(int tagCount) {
+		inventoryTagCounts.record(tagCount);
+	}
+
+	private static MetricsHistogram getOrCreate(AtomicReferenceArray<MetricsHistogram> histograms, int index) {
+		MetricsHistogram ret = histograms.get(index);
+		if (ret == null) {
+			histograms.compareAndSet(index, null, new MetricsHistogram());
+			ret = histograms.get(index);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return The time since the creation of the metrics in ms
+	 */
+	public long getUptime() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * @return Function code -> latency between the receipt of a request and
+	 *         the reply
+	 */
+	public Map<Short, MetricsHistogram> getRequestLatencies() {
+		Map<Short, MetricsHistogram> ret = new TreeMap<>();
+		for (int i = 0; i < MAX_CODE_COUNT; i++) {
+			MetricsHistogram histogram = requestLatencies.get(i);
+			if (histogram != null) {
+				ret.put((short) i, histogram);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return The latency of the requests of all function codes
+	 */
+	public MetricsHistogram getRequestLatenciesTotal() {
+		return requestLatenciesTotal;
+	}
+
+	/**
+	 * @return The count of all processed requests
+	 */
+	public long getRequestCount() {
+		return requestLatenciesTotal.getCount();
+	}
+
+	/**
+	 * @return Exception code -> count of exception replies
+	 */
+	public Map<Integer, Long> getExceptionReplies() {
+		Map<Integer, Long> ret = new TreeMap<>();
+		for (int i = 0; i < MAX_CODE_COUNT; i++) {
+			LongAdder count = exceptionReplies.get(i);
+			if (count != null) {
+				ret.put(i, count.sum());
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return The count of all exception replies
+	 */
+	public long getExceptionReplyCount() {
+		long ret = 0;
+		for (long count : getExceptionReplies().values()) {
+			ret += count;
+		}
+		return ret;
+	}
+
+	public int getActiveConnections() {
+		return activeConnections.get();
+	}
+
+	public long getAcceptedConnections() {
+		return acceptedConnections.sum();
+	}
+
+	public long getRejectedConnections() {
+		return rejectedConnections.sum();
+	}
+
+	public MetricsHistogram getMappingLockWaits() {
+		return mappingLockWaits;
+	}
+
+	public MetricsHistogram getStructureLockWaits() {
+		return structureLockWaits;
+	}
+
+	/**
+	 * @return Operation type -> duration of the device operations
+	 */
+	public Map<String, MetricsHistogram> getDeviceOperations() {
+		return Collections.unmodifiableMap(new TreeMap<>(deviceOperations));
+	}
+
+	/**
+	 * @return The duration of all device operations
+	 */
+	public MetricsHistogram getDeviceOperationsTotal() {
+		return deviceOperationsTotal;
+	}
+
+	public MetricsHistogram getInventoryTagCounts() {
+		return inventoryTagCounts;
+	}
+
+	public RequestTracer getTracer() {
+		return tracer;
+	}
+}
@@ -3,7 +3,7 @@ package havis.app.modbus.reader.core;
 import java.util.Date;
 
 import havis.app.modbus.reader.api.Field;
-import havis.util.modbus.ModbusMapping;
+import havis.app.modbus.reader.api.FieldValue;
 
 /**
  * A slave processor is provided by {@link ModbusSlave#open()} and is used
@@ -38,17 +38,78 @@ public interface SlaveProcessor {
 	 */
 	FieldProperties getFieldProperties(FieldProperties startFieldProps, Integer selectAddress, Field selectField);
 
+	/**
+	 * Gets the field properties of a field identifier of the backend module
+	 * with a group index (eg. the index of a tag). A connection must have been
+	 * created before with {@link #connect()}.
+	 * 
+	 * @param field
+	 * @param fieldGroupIndex
+	 * @return The field properties or <code>null</code> if the field does not
+	 *         exist
+	 */
+	FieldProperties getFieldProperties(Field field, int fieldGroupIndex);
+
+	/**
+	 * Gets the properties of all fields of an address range with a single
+	 * lookup. A connection must have been created before with
+	 * {@link #connect()}.
+	 * 
+	 * @param address
+	 * @param addressQuantity
+	 * @return The field properties in address order. The array is empty if the
+	 *         address does not exist.
+	 */
+	FieldProperties[] getFieldProperties(int address, int addressQuantity);
+
+	/**
+	 * Gets the current values of config fields without a connection to the
+	 * backend. If the backend module is open, the values are read from the
+	 * module. Otherwise the stored values are returned, so the module is not
+	 * opened. The values of fields which access the device are not read.
+	 * 
+	 * @param fields
+	 * @return The values of the first group of the fields. A value is
+	 *         <code>null</code> if it does not exist.
+	 * @throws ModbusSlaveException
+	 */
+	FieldValue[] getConfigFieldValues(Field... fields) throws ModbusSlaveException;
+
 	/**
 	 * Acquires the mapping for reading or writing of values with
-	 * {@link #read(short, int, int, ModbusMapping)} /
-	 * {@link #write(short, int, int, Date, ModbusMapping)}. A connection must
+	 * {@link #read(short, int, int, RegisterMapping)} /
+	 * {@link #write(short, int, int, Date, RegisterMapping)}. A connection must
 	 * have been created before with {@link #connect()}. The mapping must be
 	 * released with {@link #releaseMapping()}.
 	 */
-	ModbusMapping acquireMapping();
+	RegisterMapping acquireMapping();
+
+	/**
+	 * Acquires the mapping for a request. Only the regions of the addressed
+	 * fields are locked: fields kept in memory by the backend module, config
+	 * fields and fields which access the device. A region is shared with other
+	 * requests if the request only reads fields which do not access the
+	 * device. Otherwise the region is acquired exclusively.
+	 * <p>
+	 * The request pins the current version of the mapping. A request which
+	 * writes config fields publishes a new version, which is returned by
+	 * {@link #write(short, int, int, Date, RegisterMapping)}. Other requests
+	 * finish their replies against the version they have started with. The
+	 * mapping must be released with {@link #releaseMapping()}.
+	 * </p>
+	 * 
+	 * @param functionCode
+	 *            see {@link FunctionCode}
+	 * @param address
+	 * @param addressQuantity
+	 * @return The mapping
+	 */
+	RegisterMapping acquireMapping(short functionCode, int address, int addressQuantity);
 
 	/**
-	 * Releases the mapping returned by {@link #acquireMapping()}.
+	 * Releases the mapping which has been acquired last by the current thread
+	 * with {@link #acquireMapping()} or
+	 * {@link #acquireMapping(short, int, int)}.
 	 */
 	void releaseMapping();
 
@@ -65,7 +126,7 @@ public interface SlaveProcessor {
 	 * @param mapping
 	 * @throws ModbusSlaveException
 	 */
-	void read(short functionCode, int address, int addressQuantity, ModbusMapping mapping) throws ModbusSlaveException;
+	void read(short functionCode, int address, int addressQuantity, RegisterMapping mapping) throws ModbusSlaveException;
 
 	/**
 	 * Writes values from the mapping to the backend.
@@ -85,6 +146,14 @@ public interface SlaveProcessor {
 	 * @return
 	 * @throws ModbusSlaveException
 	 */
-	ModbusMapping write(short functionCode, int address, int addressQuantity, Date timeStamp, ModbusMapping mapping)
+	RegisterMapping write(short functionCode, int address, int addressQuantity, Date timeStamp, RegisterMapping mapping)
 			throws ModbusSlaveException;
+
+	/**
+	 * Gets the metrics of the slave. The metrics are recorded by the slave
+	 * engine, the processor and the backend module.
+	 * 
+	 * @return The metrics
+	 */
+	SlaveMetrics getMetrics();
 }
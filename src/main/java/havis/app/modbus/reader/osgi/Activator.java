@@ -45,6 +45,7 @@ public class Activator implements BundleActivator {
 	private final static Logger log = Logger.getLogger(Activator.class.getName());
 
 	private ServiceRegistration<Application> app;
+	private volatile RESTApplication restApplication;
 
 	private static final String BUNDLE_PROP_FILE = "bundle.properties";
 	private static final String BUNDLE_PROP_PREFIX = "havis.app.modbus.reader.";
@@ -93,7 +94,8 @@ public class Activator implements BundleActivator {
 			public void run() {
 				try {
 					SlaveProcessor slaveProcessor = modbusSlave.open();
-					app = context.registerService(Application.class, new RESTApplication(slaveProcessor), null);
+					restApplication = new RESTApplication(slaveProcessor);
+					app = context.registerService(Application.class, restApplication, null);
 					modbusSlave.run();
 				} catch (Throwable e) {
 					log.log(Level.SEVERE, "Execution of modbus slave failed", e);
@@ -104,6 +106,16 @@ public class Activator implements BundleActivator {
 
 	@Override
 	public void stop(BundleContext context) throws Exception {
+		// disconnect the session of the REST service before the modbus
+		// service is stopped
+		if (restApplication != null) {
+			try {
+				restApplication.close();
+			} catch (Exception e) {
+				log.log(Level.SEVERE, "Cannot close REST service", e);
+			}
+			restApplication = null;
+		}
 		// stop the modbus service
 		if (modbusSlaveFuture != null) {
 			try {
@@ -1,24 +1,32 @@
 package havis.app.modbus.reader.rest;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 
 import javax.annotation.security.PermitAll;
 import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import havis.app.modbus.reader.ModbusReaderConfiguration;
 import havis.app.modbus.reader.ModbusReaderException;
 import havis.app.modbus.reader.core.SlaveProcessor;
 import havis.app.modbus.reader.rest.data.DeviceInfo;
+import havis.app.modbus.reader.rest.data.Metrics;
 import havis.app.modbus.reader.rest.data.RuntimeConfiguration;
 import havis.app.modbus.reader.rest.data.RuntimeRegisterItem;
+import havis.app.modbus.reader.rest.data.RuntimeRegisterPage;
+import havis.app.modbus.reader.rest.data.Trace;
 
 @Path("app/modbusreader")
 public class ModbusReaderService {
@@ -29,6 +37,16 @@ public class ModbusReaderService {
 		config = new ModbusReaderConfiguration(slaveProcessor);
 	}
 
+	/**
+	 * Disconnects the backend session of the service. Must be called before
+	 * the slave is closed.
+	 * 
+	 * @throws ModbusReaderException
+	 */
+	public void close() throws ModbusReaderException {
+		config.close();
+	}
+
 	@PermitAll
 	@GET
 	@Path("device/info")
@@ -60,18 +78,83 @@ public class ModbusReaderService {
 	public List<RuntimeRegisterItem> getRuntime() throws ModbusReaderException {
 		return config.getRuntime();
 	}
+
+	@PermitAll
+	@GET
+	@Path("runtime/page")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public RuntimeRegisterPage getRuntimePage(@QueryParam("offset") @DefaultValue("0") int offset,
+			@QueryParam("limit") @DefaultValue("0") int limit) throws ModbusReaderException {
+		return config.getRuntimePage(offset, limit);
+	}
 	
+	@PermitAll
+	@GET
+	@Path("metrics")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Metrics getMetrics() {
+		return config.getMetrics();
+	}
+
+	@PermitAll
+	@GET
+	@Path("traces")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public List<Trace> getTraces() {
+		return config.getTraces();
+	}
+
+	/**
+	 * Exports the runtime register. The rows are streamed to the response
+	 * without a content length, so the response is sent chunked.
+	 * 
+	 * @param format
+	 *            "tsv" (default) or "csv"
+	 * @param gzip
+	 *            whether the export is compressed with gzip
+	 * @return The export as attachment, status 400 if the format is unknown
+	 * @throws ModbusReaderException
+	 */
 	@PermitAll
 	@GET
 	@Path("runtime/export")
 	@Produces({ MediaType.APPLICATION_OCTET_STREAM })
-	public Response exportRuntime() throws ModbusReaderException {
-		String result = config.getRuntimeExport();
-		String filename = String.format("RuntimeRegister_%s.txt", new SimpleDateFormat("yyyyMMdd").format(new Date()));
-		byte[] data = result.getBytes();
-		return Response.ok(result, MediaType.APPLICATION_OCTET_STREAM)
+	public Response exportRuntime(@QueryParam("format") @DefaultValue("tsv") String format,
+			@QueryParam("gzip") @DefaultValue("false") final boolean gzip) throws ModbusReaderException {
+		final char separator;
+		String filename = String.format("RuntimeRegister_%s", new SimpleDateFormat("yyyyMMdd").format(new Date()));
+		String contentType;
+		switch (format.toLowerCase()) {
+		case "tsv":
+			separator = '\t';
+			filename += ".txt";
+			contentType = "text/plain; charset=utf-8";
+			break;
+		case "csv":
+			separator = ',';
+			filename += ".csv";
+			contentType = "text/csv; charset=utf-8";
+			break;
+		default:
+			return Response.status(Response.Status.BAD_REQUEST)
+					.entity("Unknown export format '" + format + "'").type(MediaType.TEXT_PLAIN).build();
+		}
+		if (gzip) {
+			filename += ".gz";
+			contentType = "application/gzip";
+		}
+		// get the layout before the response is committed, so errors can be
+		// reported
+		final List<RuntimeRegisterItem> rt = config.getRuntime();
+		StreamingOutput output = new StreamingOutput() {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				config.writeRuntimeExport(rt, separator, gzip, out);
+			}
+		};
+		return Response.ok(output, MediaType.APPLICATION_OCTET_STREAM)
 				.header("Content-Disposition", "attachment; filename=\"" + filename + "\"")
-				.header("Content-Type", "text/plain; charset=utf-8").header("Content-Length", data.length).build();
+				.header("Content-Type", contentType).build();
 	}
 	
 	
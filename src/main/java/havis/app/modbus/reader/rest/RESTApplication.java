@@ -7,6 +7,7 @@ import java.util.Set;
 
 import javax.ws.rs.core.Application;
 
+import havis.app.modbus.reader.ModbusReaderException;
 import havis.app.modbus.reader.core.SlaveProcessor;
 import havis.app.modbus.reader.rest.provider.ModbusReaderExceptionMapper;
 
@@ -17,12 +18,24 @@ public class RESTApplication extends Application {
 	private Set<Object> singletons = new HashSet<Object>();
 	private Set<Class<?>> empty = new HashSet<Class<?>>();
 	private Map<String, Object> properties = new HashMap<>();
+	private ModbusReaderService service;
 
 	public RESTApplication(SlaveProcessor slaveProcessor) {
-		singletons.add(new ModbusReaderService(slaveProcessor));
+		service = new ModbusReaderService(slaveProcessor);
+		singletons.add(service);
 		properties.put(PROVIDERS, new Class<?>[] { ModbusReaderExceptionMapper.class });
 	}
 
+	/**
+	 * Disconnects the backend session of the service. Must be called before
+	 * the slave is closed.
+	 * 
+	 * @throws ModbusReaderException
+	 */
+	public void close() throws ModbusReaderException {
+		service.close();
+	}
+
 	@Override
 	public Set<Class<?>> getClasses() {
 		return empty;
@@ -5,13 +5,17 @@ import java.util.List;
 import javax.ws.rs.GET;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
+import javax.ws.rs.QueryParam;
 
 import org.fusesource.restygwt.client.MethodCallback;
 import org.fusesource.restygwt.client.RestService;
 
 import havis.app.modbus.reader.rest.data.DeviceInfo;
+import havis.app.modbus.reader.rest.data.Metrics;
 import havis.app.modbus.reader.rest.data.RuntimeConfiguration;
 import havis.app.modbus.reader.rest.data.RuntimeRegisterItem;
+import havis.app.modbus.reader.rest.data.RuntimeRegisterPage;
+import havis.app.modbus.reader.rest.data.Trace;
 
 @Path("../rest/app/modbusreader")
 public interface ModbusReaderServiceAsync extends RestService {
@@ -31,4 +35,17 @@ public interface ModbusReaderServiceAsync extends RestService {
 	@GET
 	@Path("runtime")
 	void getRuntime(MethodCallback<List<RuntimeRegisterItem>> callback);
+
+	@GET
+	@Path("runtime/page")
+	void getRuntimePage(@QueryParam("offset") int offset, @QueryParam("limit") int limit,
+			MethodCallback<RuntimeRegisterPage> callback);
+
+	@GET
+	@Path("metrics")
+	void getMetrics(MethodCallback<Metrics> callback);
+
+	@GET
+	@Path("traces")
+	void getTraces(MethodCallback<List<Trace>> callback);
 }
\ No newline at end of file
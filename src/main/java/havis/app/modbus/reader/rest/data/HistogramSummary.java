@@ -0,0 +1,61 @@
+package havis.app.modbus.reader.rest.data;
+
+/**
+ * Summary of a histogram of the metrics (eg. durations in &micro;s).
+ */
+public class HistogramSummary {
+	private long count;
+	private double mean;
+	private long p50;
+	private long p90;
+	private long p99;
+	private long max;
+
+	public long getCount() {
+		return count;
+	}
+
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public void setMean(double mean) {
+		this.mean = mean;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public void setP50(long p50) {
+		this.p50 = p50;
+	}
+
+	public long getP90() {
+		return p90;
+	}
+
+	public void setP90(long p90) {
+		this.p90 = p90;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public void setP99(long p99) {
+		this.p99 = p99;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public void setMax(long max) {
+		this.max = max;
+	}
+}
@@ -0,0 +1,105 @@
+package havis.app.modbus.reader.rest.data;
+
+import java.util.Map;
+
+/**
+ * Metrics of the modbus slave. The durations are provided in &micro;s.
+ */
+public class Metrics {
+	private long uptime;
+	private int activeConnections;
+	private long acceptedConnections;
+	private long rejectedConnections;
+	// function code -> latency between the receipt of a request and the reply
+	private Map<String, HistogramSummary> requests;
+	// exception code -> count of exception replies
+	private Map<String, Long> exceptionReplies;
+	private HistogramSummary mappingLockWaits;
+	private HistogramSummary structureLockWaits;
+	// operation type -> duration of the RF device operations
+	private Map<String, HistogramSummary> deviceOperations;
+	private HistogramSummary inventoryTagCounts;
+
+	/**
+	 * @return The time since the start of the slave in ms
+	 */
+	public long getUptime() {
+		return uptime;
+	}
+
+	public void setUptime(long uptime) {
+		this.uptime = uptime;
+	}
+
+	public int getActiveConnections() {
+		return activeConnections;
+	}
+
+	public void setActiveConnections(int activeConnections) {
+		this.activeConnections = activeConnections;
+	}
+
+	public long getAcceptedConnections() {
+		return acceptedConnections;
+	}
+
+	public void setAcceptedConnections(long acceptedConnections) {
+		this.acceptedConnections = acceptedConnections;
+	}
+
+	public long getRejectedConnections() {
+		return rejectedConnections;
+	}
+
+	public void setRejectedConnections(long rejectedConnections) {
+		this.rejectedConnections = rejectedConnections;
+	}
+
+	public Map<String, HistogramSummary> getRequests() {
+		return requests;
+	}
+
+	public void setRequests(Map<String, HistogramSummary> requests) {
+		this.requests = requests;
+	}
+
+	public Map<String, Long> getExceptionReplies() {
+		return exceptionReplies;
+	}
+
+	public void setExceptionReplies(Map<String, Long> exceptionReplies) {
+		this.exceptionReplies = exceptionReplies;
+	}
+
+	public HistogramSummary getMappingLockWaits() {
+		return mappingLockWaits;
+	}
+
+	public void setMappingLockWaits(HistogramSummary mappingLockWaits) {
+		this.mappingLockWaits = mappingLockWaits;
+	}
+
+	public HistogramSummary getStructureLockWaits() {
+		return structureLockWaits;
+	}
+
+	public void setStructureLockWaits(HistogramSummary structureLockWaits) {
+		this.structureLockWaits = structureLockWaits;
+	}
+
+	public Map<String, HistogramSummary> getDeviceOperations() {
+		return deviceOperations;
+	}
+
+	public void setDeviceOperations(Map<String, HistogramSummary> deviceOperations) {
+		this.deviceOperations = deviceOperations;
+	}
+
+	public HistogramSummary getInventoryTagCounts() {
+		return inventoryTagCounts;
+	}
+
+	public void setInventoryTagCounts(HistogramSummary inventoryTagCounts) {
+		this.inventoryTagCounts = inventoryTagCounts;
+	}
+}
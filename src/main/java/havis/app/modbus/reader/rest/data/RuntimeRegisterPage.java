@@ -0,0 +1,42 @@
+package havis.app.modbus.reader.rest.data;
+
+import java.util.List;
+
+/**
+ * A page of the runtime register
+ */
+public class RuntimeRegisterPage {
+	private int offset;
+	private int total;
+	private List<RuntimeRegisterItem> items;
+
+	/**
+	 * @return The index of the first item of the page
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	public void setOffset(int offset) {
+		this.offset = offset;
+	}
+
+	/**
+	 * @return The count of all items of the runtime register
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	public void setTotal(int total) {
+		this.total = total;
+	}
+
+	public List<RuntimeRegisterItem> getItems() {
+		return items;
+	}
+
+	public void setItems(List<RuntimeRegisterItem> items) {
+		this.items = items;
+	}
+}
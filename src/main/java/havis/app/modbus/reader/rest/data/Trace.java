@@ -0,0 +1,99 @@
+package havis.app.modbus.reader.rest.data;
+
+import java.util.List;
+
+/**
+ * Trace of a slow request. The durations are provided in &micro;s.
+ */
+public class Trace {
+	private long time;
+	private int functionCode;
+	private int address;
+	private int quantity;
+	private long duration;
+	private int exceptionCode;
+	private List<TraceSpan> spans;
+	private int droppedSpanCount;
+
+	/**
+	 * @return The time of the receipt of the request in ms since the epoch
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public void setTime(long time) {
+		this.time = time;
+	}
+
+	/**
+	 * @return The function code or -1 if the request could not be parsed
+	 */
+	public int getFunctionCode() {
+		return functionCode;
+	}
+
+	public void setFunctionCode(int functionCode) {
+		this.functionCode = functionCode;
+	}
+
+	/**
+	 * @return The start address or -1 if the request could not be parsed
+	 */
+	public int getAddress() {
+		return address;
+	}
+
+	public void setAddress(int address) {
+		this.address = address;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+
+	/**
+	 * @return The duration between the receipt of the request and the reply
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	/**
+	 * @return The exception code of the reply or 0
+	 */
+	public int getExceptionCode() {
+		return exceptionCode;
+	}
+
+	public void setExceptionCode(int exceptionCode) {
+		this.exceptionCode = exceptionCode;
+	}
+
+	public List<TraceSpan> getSpans() {
+		return spans;
+	}
+
+	public void setSpans(List<TraceSpan> spans) {
+		this.spans = spans;
+	}
+
+	/**
+	 * @return The count of spans which have been dropped
+	 */
+	public int getDroppedSpanCount() {
+		return droppedSpanCount;
+	}
+
+	public void setDroppedSpanCount(int droppedSpanCount) {
+		this.droppedSpanCount = droppedSpanCount;
+	}
+}
@@ -0,0 +1,67 @@
+package havis.app.modbus.reader.rest.data;
+
+/**
+ * A stage of a traced request. The durations are provided in &micro;s.
+ */
+public class TraceSpan {
+	private String stage;
+	private String detail;
+	private long offset;
+	private long duration;
+	private int count;
+
+	/**
+	 * @return The name of the stage (eg. "inventory")
+	 */
+	public String getStage() {
+		return stage;
+	}
+
+	public void setStage(String stage) {
+		this.stage = stage;
+	}
+
+	/**
+	 * @return The detail of the stage (eg. the field type) or <code>null</code>
+	 */
+	public String getDetail() {
+		return detail;
+	}
+
+	public void setDetail(String detail) {
+		this.detail = detail;
+	}
+
+	/**
+	 * @return The start of the (first) span relative to the receipt of the request
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	public void setOffset(long offset) {
+		this.offset = offset;
+	}
+
+	/**
+	 * @return The sum of the durations of the merged spans
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	/**
+	 * @return The count of merged spans of the same stage and detail
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+}
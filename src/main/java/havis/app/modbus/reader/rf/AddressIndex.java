@@ -0,0 +1,199 @@
+package havis.app.modbus.reader.rf;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+import havis.app.modbus.reader.rf.RfConstants.RfFieldType;
+
+/**
+ * Immutable address index of the expanded fields. The index is created by
+ * {@link RfModule#expandFields()} and provides the start address, address
+ * quantity and group index of each expanded field.
+ * <p>
+ * A field is found by its address with a binary search over the start
+ * addresses and by its field type and group index with a direct lookup.
+ * </p>
+ */
+class AddressIndex {
+
+	static final AddressIndex EMPTY = new AddressIndex(new RfFieldType[0], new int[0], new int[0]);
+
+	private final int startAddress;
+	private final RfFieldType[] fields;
+	private final int[] fieldGroupIndices;
+	private final int[] startAddresses;
+	private final int[] addressQuantities;
+	private final int endAddress;
+	// field type -> address after the last field of the type
+	private final int[] typeEndAddresses = new int[FieldType.values().length];
+	// field -> expanded field indices (ascending, the position is the group
+	// index)
+	private final Map<RfFieldType, int[]> expandedFieldIndices = new EnumMap<>(RfFieldType.class);
+
+	/**
+	 * @param fields
+	 *            the expanded fields
+	 * @param fieldGroupIndices
+	 *            the group index of each expanded field
+	 * @param addressQuantities
+	 *            the address quantity of each expanded field
+	 */
+	AddressIndex(RfFieldType[] fields, int[] fieldGroupIndices, int[] addressQuantities) {
+		this(0 /* startAddress */, fields, fieldGroupIndices, addressQuantities);
+	}
+
+	/**
+	 * @param startAddress
+	 *            the address of the first expanded field
+	 * @param fields
+	 *            the expanded fields
+	 * @param fieldGroupIndices
+	 *            the group index of each expanded field
+	 * @param addressQuantities
+	 *            the address quantity of each expanded field
+	 */
+	AddressIndex(int startAddress, RfFieldType[] fields, int[] fieldGroupIndices, int[] addressQuantities) {
+		this.startAddress = startAddress;
+		this.fields = fields;
+		this.fieldGroupIndices = fieldGroupIndices;
+		this.addressQuantities = addressQuantities;
+		startAddresses = new int[fields.length];
+		int address = startAddress;
+		Map<RfFieldType, Integer> counts = new EnumMap<>(RfFieldType.class);
+		for (int i = 0; i < fields.length; i++) {
+			startAddresses[i] = address;
+			address += addressQuantities[i];
+			typeEndAddresses[RfConstants.FIELD_PROPERTIES.get(fields[i]).type.ordinal()] = address;
+			Integer count = counts.get(fields[i]);
+			counts.put(fields[i], count == null ? 1 : count + 1);
+		}
+		endAddress = address;
+		for (Entry<RfFieldType, Integer> count : counts.entrySet()) {
+			expandedFieldIndices.put(count.getKey(), new int[count.getValue()]);
+		}
+		counts.clear();
+		for (int i = 0; i < fields.length; i++) {
+			Integer count = counts.get(fields[i]);
+			int position = count == null ? 0 : count;
+			expandedFieldIndices.get(fields[i])[position] = i;
+			counts.put(fields[i], position + 1);
+		}
+	}
+
+	/**
+	 * Creates an index from lists which have been collected while expanding
+	 * the fields.
+	 *
+	 * @param fields
+	 * @param fieldGroupIndices
+	 * @param addressQuantities
+	 * @return The index
+	 */
+	static AddressIndex create(List<RfFieldType> fields, List<Integer> fieldGroupIndices,
+			List<Integer> addressQuantities) {
+		int[] groupIndices = new int[fieldGroupIndices.size()];
+		int[] quantities = new int[addressQuantities.size()];
+		for (int i = 0; i < groupIndices.length; i++) {
+			groupIndices[i] = fieldGroupIndices.get(i);
+			quantities[i] = addressQuantities.get(i);
+		}
+		return new AddressIndex(fields.toArray(new RfFieldType[fields.size()]), groupIndices, quantities);
+	}
+
+	/**
+	 * @return The count of expanded fields
+	 */
+	int size() {
+		return fields.length;
+	}
+
+	/**
+	 * @return The address after the last field
+	 */
+	int getEndAddress() {
+		return endAddress;
+	}
+
+	/**
+	 * @param type
+	 * @return The address after the last field of a field type or
+	 *         <code>0</code> if no field of the type exists
+	 */
+	int getEndAddress(FieldType type) {
+		return typeEndAddresses[type.ordinal()];
+	}
+
+	RfFieldType getField(int expandedFieldIndex) {
+		return fields[expandedFieldIndex];
+	}
+
+	int getFieldGroupIndex(int expandedFieldIndex) {
+		return fieldGroupIndices[expandedFieldIndex];
+	}
+
+	int getStartAddress(int expandedFieldIndex) {
+		return startAddresses[expandedFieldIndex];
+	}
+
+	int getAddressQuantity(int expandedFieldIndex) {
+		return addressQuantities[expandedFieldIndex];
+	}
+
+	/**
+	 * Finds the expanded field which contains an address.
+	 *
+	 * @param address
+	 * @return The expanded field index or <code>-1</code> if the address does
+	 *         not exist
+	 */
+	int find(int address) {
+		if (address < startAddress || address >= endAddress) {
+			return -1;
+		}
+		// fields with an address quantity of 0 are not expanded => the start
+		// addresses are strictly ascending
+		int i = Arrays.binarySearch(startAddresses, address);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	/**
+	 * Finds the first expanded field of a field type starting at an expanded
+	 * field index.
+	 *
+	 * @param field
+	 * @param startExpandedFieldIndex
+	 * @return The expanded field index or <code>-1</code> if the field does
+	 *         not exist
+	 */
+	int find(RfFieldType field, int startExpandedFieldIndex) {
+		int[] indices = expandedFieldIndices.get(field);
+		if (indices == null) {
+			return -1;
+		}
+		int i = Arrays.binarySearch(indices, startExpandedFieldIndex);
+		if (i < 0) {
+			i = -i - 1;
+		}
+		return i < indices.length ? indices[i] : -1;
+	}
+
+	/**
+	 * Gets the expanded field of a field type with a group index.
+	 *
+	 * @param field
+	 * @param fieldGroupIndex
+	 * @return The expanded field index or <code>-1</code> if the field does
+	 *         not exist
+	 */
+	int get(RfFieldType field, int fieldGroupIndex) {
+		int[] indices = expandedFieldIndices.get(field);
+		if (indices == null || fieldGroupIndex < 0 || fieldGroupIndex >= indices.length) {
+			return -1;
+		}
+		return indices[fieldGroupIndex];
+	}
+}
@@ -3,6 +3,8 @@ package havis.app.modbus.reader.rf;
 import havis.app.modbus.reader.api.FieldValue;
 import havis.app.modbus.reader.api.ModuleException;
 import havis.app.modbus.reader.common.ServiceFactory;
+import havis.app.modbus.reader.core.RequestTracer;
+import havis.app.modbus.reader.core.SlaveMetrics;
 import havis.app.modbus.reader.rf.RfConstants.RfErrorCode;
 import havis.app.modbus.reader.rf.RfConstants.RfFieldType;
 import havis.device.rf.RFConsumer;
@@ -24,6 +26,7 @@ import havis.device.rf.tag.operation.ReadOperation;
 import havis.device.rf.tag.operation.TagOperation;
 import havis.device.rf.tag.operation.WriteOperation;
 import havis.device.rf.tag.result.CustomResult;
+import havis.device.rf.tag.result.OperationResult;
 import havis.device.rf.tag.result.ReadResult;
 import havis.device.rf.tag.result.WriteResult;
 
@@ -32,29 +35,131 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 class RfConnector {
 	private static final int MAX_WORDS_READ = 255;
 	private static final int MAX_WORDS_WRITE = 122;
+	// operation identifiers of the bank reads executed with an inventory
+	private static final String INVENTORY_TID_BANK_OPERATION_ID = "g01";
+	private static final String INVENTORY_RESERVED_BANK_OPERATION_ID = "g03";
+	private static final String INVENTORY_USER_BANK_OPERATION_ID = "g04";
+	// bits of the memory selector
+	private static final short MEMORY_SELECTOR_KILL_PWD = 1;
+	private static final short MEMORY_SELECTOR_ACCESS_PWD = 2;
+
+	// operation types of the metrics
+	private static final String OPERATION_INVENTORY = "inventory";
+	private static final String OPERATION_READ = "read";
+	private static final String OPERATION_WRITE = "write";
+	private static final String OPERATION_CUSTOM = "custom";
+	// names of the memory banks for the traces of requests
+	private static final String[] BANK_NAMES = { "reserved", "epc", "tid", "user" };
 
 	private static final Logger log = Logger.getLogger(RfConnector.class.getName());
 
+	// fields which are provided by the inventory snapshot in continuous
+	// inventory mode
+	private static final Set<RfFieldType> SNAPSHOT_FIELDS = Collections.unmodifiableSet(EnumSet.of(
+			RfFieldType.TAG_COUNT, RfFieldType.CRC, RfFieldType.PC, RfFieldType.EPC, RfFieldType.XPC,
+			RfFieldType.LAST_ERROR));
+
 	class ExTagData {
 		TagData td;
 		int customCmdLength;
 		byte[] customCmd;
+		// bank data read with the inventory (null if not read or the read
+		// failed)
+		byte[] killPwd;
+		byte[] accessPwd;
+		byte[] tidBank;
+		byte[] userBank;
+	}
+
+	/**
+	 * Immutable result of a background inventory.
+	 */
+	private static class InventorySnapshot {
+		final List<TagData> tagData;
+		// time stamp of the end of the inventory in ns
+		final long timeStamp;
+		// error of a failed inventory
+		final String errorMessage;
+		final RfErrorCode errorCode;
+
+		InventorySnapshot(List<TagData> tagData, long timeStamp, String errorMessage, RfErrorCode errorCode) {
+			this.tagData = Collections.unmodifiableList(tagData);
+			this.timeStamp = timeStamp;
+			this.errorMessage = errorMessage;
+			this.errorCode = errorCode;
+		}
+	}
+
+	/**
+	 * Executes inventories continuously with the current inventory parameters
+	 * and publishes the results as snapshots.
+	 */
+	private class InventoryWorker implements Runnable {
+
+		@Override
+		public void run() {
+			if (log.isLoggable(Level.INFO)) {
+				log.log(Level.INFO, "Starting continuous inventory with an interval of "
+						+ continuousInventoryInterval + "ms");
+			}
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					long start = System.nanoTime();
+					InventorySnapshot snapshot;
+					serviceLock.lockInterruptibly();
+					try {
+						List<TagData> td = inventory(antennaMask, selectionMasks, tagsInField);
+						snapshot = new InventorySnapshot(td, System.nanoTime(), null /* errorMessage */,
+								RfErrorCode.NONE);
+					} catch (RfModuleException e) {
+						snapshot = new InventorySnapshot(new ArrayList<TagData>(), System.nanoTime(),
+								e.getMessage(), e.getErrorCode());
+					} catch (ModuleException e) {
+						log.log(Level.SEVERE, "Continuous inventory failed", e);
+						snapshot = new InventorySnapshot(new ArrayList<TagData>(), System.nanoTime(),
+								e.getMessage(), RfErrorCode.NON_SPECIFIC_READER_ERROR);
+					} finally {
+						serviceLock.unlock();
+					}
+					inventorySnapshot = snapshot;
+					inventoryCount.incrementAndGet();
+					long delay = continuousInventoryInterval * 1000000L - (System.nanoTime() - start);
+					if (delay > 0) {
+						TimeUnit.NANOSECONDS.sleep(delay);
+					}
+				}
+			} catch (InterruptedException e) {
+				// stopped
+			}
+			if (log.isLoggable(Level.INFO)) {
+				log.log(Level.INFO, "Stopped continuous inventory");
+			}
+		}
 	}
 
 	class SelectionMask {
-		int bank;
-		int bitLength;
-		int bitOffset;
-		byte[] data;
+		volatile int bank;
+		volatile int bitLength;
+		volatile int bitOffset;
+		volatile byte[] data;
 
 		@Override
 		public String toString() {
@@ -70,17 +175,74 @@ class RfConnector {
 	private String majorMinorRevision;
 	private int tagsInField;
 	private int tidLength;
-	private int selectionMaskCount;
-	private List<SelectionMask> selectionMasks = new ArrayList<>();
+	private short memorySelector;
+	private int userLength;
+	// the list is replaced when the count changes, so the selection masks are
+	// read without the service lock
+	private volatile List<SelectionMask> selectionMasks = Collections.emptyList();
 	private short antennaMask;
 	private int accessPassword;
-	private RfConstants.RfErrorCode lastError;
+	private volatile RfConstants.RfErrorCode lastError;
 	private List<TagData> tagData = new ArrayList<>();
 	// tagData index -> extended tag data
 	private Map<Integer, ExTagData> exTagData = new HashMap<>();
+	// memory words read from the tags of the current inventory
+	private final TagMemoryCache tagMemoryCache = new TagMemoryCache();
+	// capabilities and configurations of the device (a configuration is
+	// removed when it is written)
+	private final Map<CapabilityType, Capabilities> capabilities = new EnumMap<>(CapabilityType.class);
+	private final Map<ConfigurationType, Map<Short, Configuration>> configurations = new EnumMap<>(
+			ConfigurationType.class);
+	// transmit power index -> transmit power
+	private Map<Short, Short> transmitPowers;
+	// transmit power -> transmit power index
+	private Map<Short, Short> transmitPowerIndices;
+	// max. age of an inventory result in ms which is returned for TAG_COUNT
+	// without executing a new inventory (0: no caching)
+	private final int inventoryCacheTime;
+	// time stamp of the cached inventory result in ns or null if no valid
+	// result exists
+	private Long inventoryTimeStamp;
+	// min. time in ms between the starts of two background inventories (0:
+	// no continuous inventory)
+	private final int continuousInventoryInterval;
+	private ExecutorService inventoryThreadPool;
+	private volatile InventorySnapshot inventorySnapshot;
+	private final AtomicLong inventoryCount = new AtomicLong();
+	// serializes the access to the service and to the inventory parameters
+	// between the requests and the background inventory
+	private final Lock serviceLock = new ReentrantLock();
+	private final SlaveMetrics metrics;
+	private final RequestTracer tracer;
 
 	RfConnector(ServiceFactory<RFDevice> rfDeviceServiceFactory) {
+		this(rfDeviceServiceFactory, 0 /* inventoryCacheTime */, 0 /* continuousInventoryInterval */,
+				new SlaveMetrics());
+	}
+
+	/**
+	 * @param rfDeviceServiceFactory
+	 * @param inventoryCacheTime
+	 *            the max. age of an inventory result in ms which is returned
+	 *            for TAG_COUNT without executing a new inventory (0: no
+	 *            caching)
+	 * @param continuousInventoryInterval
+	 *            the min. time in ms between the starts of two inventories
+	 *            which are executed continuously in the background (0: no
+	 *            continuous inventory). TAG_COUNT, CRC, PC, EPC and XPC are
+	 *            read from the latest complete inventory without waiting for
+	 *            the RF device.
+	 * @param metrics
+	 *            the metrics which record the durations of the device
+	 *            operations and trace them for the current request
+	 */
+	RfConnector(ServiceFactory<RFDevice> rfDeviceServiceFactory, int inventoryCacheTime,
+			int continuousInventoryInterval, SlaveMetrics metrics) {
 		this.rfDeviceServiceFactory = rfDeviceServiceFactory;
+		this.metrics = metrics;
+		tracer = metrics.getTracer();
+		this.inventoryCacheTime = inventoryCacheTime;
+		this.continuousInventoryInterval = continuousInventoryInterval;
 	}
 
 	void open(int timeout) throws ModuleException {
@@ -118,16 +280,60 @@ class RfConnector {
 		majorMinorRevision = "";
 		tagsInField = 0;
 		tidLength = 0;
-		selectionMaskCount = 0;
-		selectionMasks.clear();
+		memorySelector = 0;
+		userLength = 0;
+		selectionMasks = Collections.emptyList();
 		antennaMask = 0;
 		accessPassword = 0;
 		lastError = RfConstants.RfErrorCode.NONE;
-		tagData.clear();
+		tagData = new ArrayList<>();
 		exTagData.clear();
+		tagMemoryCache.clear();
+		inventoryTimeStamp = null;
+		inventorySnapshot = new InventorySnapshot(new ArrayList<TagData>(), System.nanoTime(),
+				null /* errorMessage */, RfErrorCode.NONE);
+		inventoryCount.set(0);
+		loadDeviceConfiguration();
+		if (continuousInventoryInterval > 0) {
+			inventoryThreadPool = Executors.newSingleThreadExecutor();
+			inventoryThreadPool.submit(new InventoryWorker());
+		}
 	}
 
-	void close() throws ModuleException {
+	/**
+	 * Fills the cache of the capabilities and configurations which are
+	 * provided by the device config fields. Failures are logged and the
+	 * values are fetched again when they are read.
+	 */
+	private void loadDeviceConfiguration() {
+		capabilities.clear();
+		configurations.clear();
+		transmitPowers = null;
+		transmitPowerIndices = null;
+		try {
+			getCapabilities(CapabilityType.DEVICE_CAPABILITIES);
+			loadTransmitPowerTable();
+			for (short antennaId = 1; antennaId <= 2; antennaId++) {
+				getConfiguration(ConfigurationType.ANTENNA_PROPERTIES, antennaId);
+				getConfiguration(ConfigurationType.ANTENNA_CONFIGURATION, antennaId);
+			}
+		} catch (ModuleException e) {
+			log.log(Level.WARNING, "Cannot load the device configuration", e);
+		}
+	}
+
+	void close(int timeout) throws ModuleException {
+		if (inventoryThreadPool != null) {
+			inventoryThreadPool.shutdownNow();
+			try {
+				if (!inventoryThreadPool.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+					log.log(Level.SEVERE, "Cannot stop continuous inventory within " + timeout + "ms");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			inventoryThreadPool = null;
+		}
 		if (service != null) {
 			try {
 				if (log.isLoggable(Level.INFO)) {
@@ -141,7 +347,66 @@ class RfConnector {
 		service = null;
 	}
 
+	/**
+	 * @return <code>true</code> if inventories are executed continuously in
+	 *         the background
+	 */
+	boolean isContinuousInventory() {
+		return continuousInventoryInterval > 0;
+	}
+
+	/**
+	 * @return The age of the latest inventory snapshot in ms or
+	 *         <code>-1</code> if inventories are not executed continuously
+	 */
+	long getInventorySnapshotAge() {
+		InventorySnapshot snapshot = inventorySnapshot;
+		if (!isContinuousInventory() || snapshot == null) {
+			return -1;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - snapshot.timeStamp);
+	}
+
+	/**
+	 * @return The count of inventories which have been executed in the
+	 *         background since opening the connector
+	 */
+	long getInventoryCount() {
+		return inventoryCount.get();
+	}
+
 	FieldValue getFieldValue(RfField field, int fieldGroupIndex) throws ModuleException {
+		// fields which are kept in memory and the fields of the inventory
+		// snapshot are read without waiting for the device (writers of the
+		// fields are excluded by the slave processor)
+		boolean isLocked = RfConstants.DEVICE_FIELDS.contains(field.getType())
+				&& !(isContinuousInventory() && SNAPSHOT_FIELDS.contains(field.getType()));
+		if (isLocked) {
+			long start = tracer.start();
+			serviceLock.lock();
+			tracer.span("serviceLock", null /* detail */, start);
+		}
+		try {
+			return getValue(field, fieldGroupIndex);
+		} finally {
+			if (isLocked) {
+				serviceLock.unlock();
+			}
+		}
+	}
+
+	void setFieldValue(RfField field, int fieldGroupIndex, FieldValue value) throws ModuleException {
+		long start = tracer.start();
+		serviceLock.lock();
+		tracer.span("serviceLock", null /* detail */, start);
+		try {
+			setValue(field, fieldGroupIndex, value);
+		} finally {
+			serviceLock.unlock();
+		}
+	}
+
+	private FieldValue getValue(RfField field, int fieldGroupIndex) throws ModuleException {
 		RfConstants.RfErrorCode errorCode = RfConstants.RfErrorCode.NONE;
 		try {
 			switch (field.getType()) {
@@ -222,7 +487,7 @@ class RfConnector {
 				// field size (see RfModule)
 				return null;
 			case SELECTION_MASK_COUNT:
-				return new FieldValue(new int[] { selectionMaskCount });
+				return new FieldValue(new int[] { selectionMasks.size() });
 			case SELECTION_MASK_MAX_LENGTH:
 			case CUSTOM_COMMAND_MAX_LENGTH:
 				// field sizes (see RfModule)
@@ -231,26 +496,38 @@ class RfConnector {
 			}
 
 			// runtime
-			switch (field.getType()) {
-			case SELECTION_MASK_BANK:
-			case SELECTION_MASK_LENGTH:
-			case SELECTION_MASK_OFFSET:
-			case SELECTION_MASK:
-				if (fieldGroupIndex >= selectionMaskCount) {
-					throw new RfModuleException("Reading field " + field + ": Max. selection mask count exceeded: "
-							+ (fieldGroupIndex + 1) + "/" + selectionMaskCount,
-							RfConstants.RfErrorCode.NON_SPECIFIC_READER_ERROR);
-				}
-			default:
-			}
-
 			switch (field.getType()) {
 			case TAG_COUNT: // used field values: ANTENNA_MASK,
 				// SELECTION_MASK_BANK, SELECTION_MASK_LENGTH,
 				// SELECTION_MASK_OFFSET, SELECTION_MASK,
 				// TAGS_IN_FIELD
-				tagData = inventory(antennaMask, selectionMasks, tagsInField);
-				exTagData.clear();
+				if (isContinuousInventory()) {
+					InventorySnapshot snapshot = inventorySnapshot;
+					if (snapshot.errorCode != RfErrorCode.NONE) {
+						throw new RfModuleException(snapshot.errorMessage, snapshot.errorCode);
+					}
+					// the following tag field reads use the tags of this
+					// snapshot
+					tagData = snapshot.tagData;
+					exTagData.clear();
+					tagMemoryCache.clear();
+					if (log.isLoggable(Level.FINE)) {
+						log.log(Level.FINE, "Using inventory snapshot with " + tagData.size() + " tags, age "
+								+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - snapshot.timeStamp) + "ms");
+					}
+				} else if (isInventoryCached()) {
+					if (log.isLoggable(Level.FINE)) {
+						log.log(Level.FINE, "Using cached inventory result with " + tagData.size() + " tags");
+					}
+				} else {
+					inventoryTimeStamp = null;
+					tagData = inventory(antennaMask, selectionMasks, tagsInField);
+					exTagData.clear();
+					tagMemoryCache.clear();
+					if (inventoryCacheTime > 0) {
+						inventoryTimeStamp = System.nanoTime();
+					}
+				}
 				// return tag count
 				return new FieldValue(new int[] { tagData.size() });
 			case LAST_ERROR:
@@ -260,13 +537,13 @@ class RfConnector {
 			case ANTENNA_MASK:
 				return new FieldValue(new short[] { antennaMask });
 			case SELECTION_MASK_BANK:
-				return new FieldValue(new int[] { selectionMasks.get(fieldGroupIndex).bank });
+				return new FieldValue(new int[] { getSelectionMask(field, fieldGroupIndex, "Reading").bank });
 			case SELECTION_MASK_LENGTH:
-				return new FieldValue(new int[] { selectionMasks.get(fieldGroupIndex).bitLength });
+				return new FieldValue(new int[] { getSelectionMask(field, fieldGroupIndex, "Reading").bitLength });
 			case SELECTION_MASK_OFFSET:
-				return new FieldValue(new int[] { selectionMasks.get(fieldGroupIndex).bitOffset });
+				return new FieldValue(new int[] { getSelectionMask(field, fieldGroupIndex, "Reading").bitOffset });
 			case SELECTION_MASK:
-				return new FieldValue(selectionMasks.get(fieldGroupIndex).data);
+				return new FieldValue(getSelectionMask(field, fieldGroupIndex, "Reading").data);
 			default:
 			}
 
@@ -282,8 +559,14 @@ class RfConnector {
 				// unsupported
 				return null;
 			case KILL_PWD: // used field values: TAG_COUNT, ACCESS_PASSWORD
+				if (exTd.killPwd != null) {
+					return new FieldValue(exTd.killPwd);
+				}
 				return new FieldValue(read(exTd.td.getAntennaID(), exTd.td.getEpc(), (short) 0 /* bank */, (short) 0 /* wordOffset */, (short) 2 /* wordCount */, accessPassword));
 			case ACCESS_PWD: // dependencies: TAG_COUNT, ACCESS_PASSWORD
+				if (exTd.accessPwd != null) {
+					return new FieldValue(exTd.accessPwd);
+				}
 				return new FieldValue(read(exTd.td.getAntennaID(), exTd.td.getEpc(), (short) 0 /* bank */, (short) 2 /* wordOffset */, (short) 2 /* wordCount */, accessPassword));
 			case CRC: // used field values: TAG_COUNT
 				return new FieldValue(new int[] { DataTypeConverter.ushort(exTd.td.getCrc()) });
@@ -295,8 +578,15 @@ class RfConnector {
 				int xpc = exTd.td.getXpc();
 				return new FieldValue(new int[] { xpc >> 16, xpc & 0xFFFF });
 			case TID_BANK: // used field values: TAG_COUNT, ACCESS_PASSWORD
+				if (exTd.tidBank != null && exTd.tidBank.length >= tidLength * 2) {
+					return new FieldValue(Arrays.copyOf(exTd.tidBank, tidLength * 2));
+				}
 				return new FieldValue(read(exTd.td.getAntennaID(), exTd.td.getEpc(), (short) 2 /* bank */, (short) 0 /* wordOffset */, (short) tidLength /* wordCount */, accessPassword));
 			case USER_BANK: // used field values: TAG_COUNT, ACCESS_PASSWORD
+				byte[] userBank = getUserBank(exTd, field.getOffset(), field.getLength());
+				if (userBank != null) {
+					return new FieldValue(userBank);
+				}
 				return new FieldValue(shiftData(read(exTd.td.getAntennaID(), exTd.td.getEpc(), (short) 3 /* bank */,
 						(short) field.getOffset(), (short) field.getLength(), accessPassword), (short) field.getOffset(), (short) 0 /* we don't know the register length here */));
 			case CUSTOM_COMMAND_LENGTH: // used field values: TAG_COUNT
@@ -320,11 +610,28 @@ class RfConnector {
 		}
 	}
 
-	void setFieldValue(RfField field, int fieldGroupIndex, FieldValue value) throws ModuleException {
+	private void setValue(RfField field, int fieldGroupIndex, FieldValue value) throws ModuleException {
 		if (value == null) {
 			return;
 		}
 		RfErrorCode errorCode = RfErrorCode.NONE;
+		switch (field.getType()) {
+		// parameters of an inventory
+		case ANTENNA_MASK:
+		case SELECTION_MASK_COUNT:
+		case SELECTION_MASK_BANK:
+		case SELECTION_MASK_LENGTH:
+		case SELECTION_MASK_OFFSET:
+		case SELECTION_MASK:
+		case TAGS_IN_FIELD:
+		case MEMORY_SELECTOR:
+		case TID_LENGTH:
+		case USER_LENGTH:
+		case ACCESS_PASSWORD:
+			inventoryTimeStamp = null;
+			break;
+		default:
+		}
 		try {
 			switch (field.getType()) {
 			// device info
@@ -382,6 +689,11 @@ class RfConnector {
 				}
 				return;
 			case MEMORY_SELECTOR:
+				// field sizes (see RfModule), bank reads of the inventory
+				if (value.getShortValue().length > 0) {
+					memorySelector = value.getShortValue()[0];
+				}
+				return;
 			case EPC_LENGTH:
 				// field sizes (see RfModule)
 				return;
@@ -391,15 +703,19 @@ class RfConnector {
 				}
 				return;
 			case USER_LENGTH:
-				// field size (see RfModule)
+				// field size (see RfModule), bank read of the inventory
+				if (value.getUShortValue().length > 0) {
+					userLength = value.getUShortValue()[0];
+				}
 				return;
 			case SELECTION_MASK_COUNT:
 				if (value.getUShortValue().length > 0) {
-					selectionMaskCount = value.getUShortValue()[0];
-					selectionMasks.clear();
+					int selectionMaskCount = value.getUShortValue()[0];
+					List<SelectionMask> masks = new ArrayList<>(selectionMaskCount);
 					for (int i = 0; i < selectionMaskCount; i++) {
-						selectionMasks.add(new SelectionMask());
+						masks.add(new SelectionMask());
 					}
+					selectionMasks = masks;
 				}
 				return;
 			case SELECTION_MASK_MAX_LENGTH:
@@ -410,19 +726,6 @@ class RfConnector {
 			}
 
 			// runtime
-			switch (field.getType()) {
-			case SELECTION_MASK_BANK:
-			case SELECTION_MASK_LENGTH:
-			case SELECTION_MASK_OFFSET:
-			case SELECTION_MASK:
-				if (fieldGroupIndex >= selectionMaskCount) {
-					throw new RfModuleException("Reading field " + field + ": Max. selection mask count exceeded: "
-							+ (fieldGroupIndex + 1) + "/" + selectionMaskCount,
-							RfConstants.RfErrorCode.NON_SPECIFIC_READER_ERROR);
-				}
-			default:
-			}
-
 			switch (field.getType()) {
 			case LAST_ERROR:
 				// read only
@@ -432,6 +735,9 @@ class RfConnector {
 				if (shortValue.length > 1) {
 					accessPassword = shortValue[0] << 16 | shortValue[1];
 				}
+				// the cached words may have been read with the previous
+				// password
+				tagMemoryCache.clear();
 				return;
 			case ANTENNA_MASK:
 				if (value.getShortValue().length > 0) {
@@ -440,22 +746,22 @@ class RfConnector {
 				return;
 			case SELECTION_MASK_BANK:
 				if (value.getUShortValue().length > 0) {
-					selectionMasks.get(fieldGroupIndex).bank = value.getUShortValue()[0];
+					getSelectionMask(field, fieldGroupIndex, "Writing").bank = value.getUShortValue()[0];
 				}
 				return;
 			case SELECTION_MASK_LENGTH:
 				if (value.getUShortValue().length > 0) {
-					selectionMasks.get(fieldGroupIndex).bitLength = value.getUShortValue()[0];
+					getSelectionMask(field, fieldGroupIndex, "Writing").bitLength = value.getUShortValue()[0];
 				}
 				return;
 			case SELECTION_MASK_OFFSET:
 				if (value.getUShortValue().length > 0) {
-					selectionMasks.get(fieldGroupIndex).bitOffset = value.getUShortValue()[0];
+					getSelectionMask(field, fieldGroupIndex, "Writing").bitOffset = value.getUShortValue()[0];
 				}
 				return;
 			case SELECTION_MASK:
 				if (value.getByteValue().length > 0) {
-					selectionMasks.get(fieldGroupIndex).data = value.getByteValue();
+					getSelectionMask(field, fieldGroupIndex, "Writing").data = value.getByteValue();
 				}
 				return;
 			default:
@@ -473,9 +779,11 @@ class RfConnector {
 				// unsupported
 				return;
 			case KILL_PWD: // used field values: TAG_COUNT, ACCESS_PASSWORD
+				exTd.killPwd = null;
 				write(exTd.td.getAntennaID(), exTd.td.getEpc(), (short) 0 /* bank */, (short) 0 /* wordOffset */, value.getByteValue(), accessPassword);
 				return;
 			case ACCESS_PWD: // used field values: TAG_COUNT, ACCESS_PASSWORD
+				exTd.accessPwd = null;
 				write(exTd.td.getAntennaID(), exTd.td.getEpc(), (short) 0 /* bank */, (short) 2 /* wordOffset */, value.getByteValue(), accessPassword);
 				return;
 			case CRC: // used field values: TAG_COUNT, ACCESS_PASSWORD
@@ -513,9 +821,11 @@ class RfConnector {
 				}
 				return;
 			case TID_BANK: // used field values: TAG_COUNT, ACCESS_PASSWORD
+				exTd.tidBank = null;
 				write(exTd.td.getAntennaID(), exTd.td.getEpc(), (short) 2 /* bank */, (short) 0 /* wordOffset */, value.getByteValue(), accessPassword);
 				return;
 			case USER_BANK: // used field values: TAG_COUNT, ACCESS_PASSWORD
+				exTd.userBank = null;
 				write(exTd.td.getAntennaID(), exTd.td.getEpc(), (short) 3 /* bank */, (short) field.getOffset(), shiftData(value.getByteValue(), (short) (field.getOffset() * -1), (short) field.getLength()), accessPassword);
 				return;
 			case CUSTOM_COMMAND_LENGTH:
@@ -547,17 +857,94 @@ class RfConnector {
 		}
 	}
 
+	/**
+	 * @return <code>true</code> if the last inventory result is younger than
+	 *         the inventory cache time
+	 */
+	private boolean isInventoryCached() {
+		return inventoryTimeStamp != null
+				&& System.nanoTime() - inventoryTimeStamp < inventoryCacheTime * 1000000L;
+	}
+
 	private ExTagData getExTagData(int fieldGroupIndex) {
 		TagData td = tagData.get(fieldGroupIndex);
 		ExTagData exTd = exTagData.get(fieldGroupIndex);
 		if (exTd == null) {
 			exTd = new ExTagData();
 			exTd.td = td;
+			setBankData(exTd);
 			exTagData.put(fieldGroupIndex, exTd);
 		}
 		return exTd;
 	}
 
+	/**
+	 * Sets the bank data of the successful bank reads which have been executed
+	 * with the inventory.
+	 * 
+	 * @param exTd
+	 */
+	private void setBankData(ExTagData exTd) {
+		if (exTd.td.getResultList() == null) {
+			return;
+		}
+		for (OperationResult result : exTd.td.getResultList()) {
+			if (!(result instanceof ReadResult)
+					|| ((ReadResult) result).getResult() != ReadResult.Result.SUCCESS) {
+				continue;
+			}
+			byte[] data = ((ReadResult) result).getReadData();
+			if (data == null) {
+				continue;
+			}
+			switch (result.getOperationId()) {
+			case INVENTORY_TID_BANK_OPERATION_ID:
+				exTd.tidBank = data;
+				break;
+			case INVENTORY_RESERVED_BANK_OPERATION_ID:
+				// the reserved bank has been read from the first selected
+				// password
+				int offset = 0;
+				if ((memorySelector & MEMORY_SELECTOR_KILL_PWD) != 0 && data.length >= 4) {
+					exTd.killPwd = Arrays.copyOfRange(data, 0, 4);
+					offset = 4;
+				}
+				if ((memorySelector & MEMORY_SELECTOR_ACCESS_PWD) != 0 && data.length >= offset + 4) {
+					exTd.accessPwd = Arrays.copyOfRange(data, offset, offset + 4);
+				}
+				break;
+			case INVENTORY_USER_BANK_OPERATION_ID:
+				exTd.userBank = data;
+				break;
+			default:
+			}
+		}
+	}
+
+	/**
+	 * Gets a part of the user bank from the data read with the inventory. Like
+	 * a direct read the data is prepended by the word offset.
+	 * 
+	 * @param exTd
+	 * @param wordOffset
+	 * @param wordCount
+	 *            the word count or 0 for the rest of the bank
+	 * @return The data or <code>null</code> if the part has not been read with
+	 *         the inventory
+	 */
+	private byte[] getUserBank(ExTagData exTd, int wordOffset, int wordCount) {
+		if (exTd.userBank == null) {
+			return null;
+		}
+		int length = wordCount > 0 ? (wordOffset + wordCount) * 2 : exTd.userBank.length;
+		if (wordOffset * 2 >= length || length > exTd.userBank.length) {
+			return null;
+		}
+		byte[] ret = Arrays.copyOf(exTd.userBank, length);
+		Arrays.fill(ret, 0, wordOffset * 2, (byte) 0);
+		return ret;
+	}
+
 	private List<Short> getAntennaIds(short antennaMask) {
 		List<Short> ret = new ArrayList<>();
 		if (antennaMask == 0) {
@@ -586,6 +973,28 @@ class RfConnector {
 		return filter;
 	}
 
+	/**
+	 * Gets a selection mask. The list of the selection masks is read once,
+	 * because it is replaced when the count changes.
+	 * 
+	 * @param field
+	 * @param fieldGroupIndex
+	 * @param operation
+	 *            the operation for the error message ("Reading" or "Writing")
+	 * @return The selection mask
+	 * @throws RfModuleException
+	 *             if the selection mask does not exist
+	 */
+	private SelectionMask getSelectionMask(RfField field, int fieldGroupIndex, String operation)
+			throws RfModuleException {
+		List<SelectionMask> masks = selectionMasks;
+		if (fieldGroupIndex >= masks.size()) {
+			throw new RfModuleException(operation + " field " + field + ": Max. selection mask count exceeded: "
+					+ (fieldGroupIndex + 1) + "/" + masks.size(), RfConstants.RfErrorCode.NON_SPECIFIC_READER_ERROR);
+		}
+		return masks.get(fieldGroupIndex);
+	}
+
 	private List<Filter> createSelectionMaskFilter(List<SelectionMask> selectionMasks) {
 		List<Filter> ret = new ArrayList<>();
 		for (SelectionMask selectionMask : selectionMasks) {
@@ -632,9 +1041,30 @@ class RfConnector {
 				readTidBank.setOffset((short) 0);
 				readTidBank.setLength((short) 0); // whole bank
 				readTidBank.setPassword(accessPassword);
-				readTidBank.setOperationId("g01");
+				readTidBank.setOperationId(INVENTORY_TID_BANK_OPERATION_ID);
 				tagOperations.add(readTidBank);
 			}
+			// read selected passwords with a single operation
+			boolean isKillPwdSelected = (memorySelector & MEMORY_SELECTOR_KILL_PWD) != 0;
+			boolean isAccessPwdSelected = (memorySelector & MEMORY_SELECTOR_ACCESS_PWD) != 0;
+			if (isKillPwdSelected || isAccessPwdSelected) {
+				ReadOperation readReservedBank = new ReadOperation();
+				readReservedBank.setBank((short) 0); // reserved
+				readReservedBank.setOffset((short) (isKillPwdSelected ? 0 : 2));
+				readReservedBank.setLength((short) (isKillPwdSelected && isAccessPwdSelected ? 4 : 2));
+				readReservedBank.setPassword(accessPassword);
+				readReservedBank.setOperationId(INVENTORY_RESERVED_BANK_OPERATION_ID);
+				tagOperations.add(readReservedBank);
+			}
+			if (userLength > 0 && userLength <= MAX_WORDS_READ) {
+				ReadOperation readUserBank = new ReadOperation();
+				readUserBank.setBank((short) 3); // user
+				readUserBank.setOffset((short) 0);
+				readUserBank.setLength((short) userLength);
+				readUserBank.setPassword(accessPassword);
+				readUserBank.setOperationId(INVENTORY_USER_BANK_OPERATION_ID);
+				tagOperations.add(readUserBank);
+			}
 			if (log.isLoggable(Level.INFO)) {
 				log.log(Level.INFO, "Starting inventory");
 			}
@@ -642,18 +1072,26 @@ class RfConnector {
 				log.log(Level.FINE, "  antennaIds=" + antennaIds + ", selectionMasks=" + selectionMasks);
 			}
 			// execute an inventory
-			ret = service.execute(antennaIds, createSelectionMaskFilter(selectionMasks), tagOperations);
+			long start = System.nanoTime();
+			try {
+				ret = service.execute(antennaIds, createSelectionMaskFilter(selectionMasks), tagOperations);
+			} finally {
+				metrics.recordDeviceOperation(OPERATION_INVENTORY, start);
+				tracer.span(OPERATION_INVENTORY, null /* detail */, start);
+			}
 		} catch (Exception e) {
 			throw new ModuleException("Cannot execute RF service", e);
 		}
+		metrics.recordInventory(ret == null ? 0 : ret.size());
 		if (ret == null) {
 			ret = new ArrayList<>();
 		} else if (ret.size() > tagsInField) {
 			throw new RfModuleException(
-					"Inventory failed: Max. tag count exceeded: " + tagData.size() + "/" + tagsInField,
+					"Inventory failed: Max. tag count exceeded: " + ret.size() + "/" + tagsInField,
 					RfConstants.RfErrorCode.TAGS_IN_FIELD_EXCEEDED);
 		}
 		// sort tags by EPC
+		long start = tracer.start();
 		Collections.sort(ret, new Comparator<TagData>() {
 
 			@Override
@@ -661,6 +1099,7 @@ class RfConnector {
 				return RfConnector.compare(a.getEpc(), b.getEpc());
 			}
 		});
+		tracer.span("sort", null /* detail */, start);
 		return ret;
 	}
 
@@ -674,8 +1113,39 @@ class RfConnector {
 		return a.length - b.length;
 	}
 
+	/**
+	 * Reads data from a tag. Words which have already been read from the tag
+	 * since the last inventory are served from the tag memory cache. The
+	 * missing words are read with a single read.
+	 */
 	private byte[] read(short antennaId, byte[] epc, short bank, short wordOffset, short wordCount, int accessPassword)
 			throws ModuleException {
+		if (wordCount <= 0) {
+			// the length is unknown
+			byte[] data = readTag(antennaId, epc, bank, wordOffset, wordCount, accessPassword);
+			if (data != null) {
+				tagMemoryCache.put(epc, bank, wordOffset, data);
+			}
+			return data;
+		}
+		int[] missingRange = tagMemoryCache.getMissingRange(epc, bank, wordOffset, wordCount);
+		if (missingRange != null) {
+			byte[] data = readTag(antennaId, epc, bank, (short) missingRange[0], (short) missingRange[1],
+					accessPassword);
+			if (data != null) {
+				tagMemoryCache.put(epc, bank, missingRange[0], data);
+			}
+		} else if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Using cached data of epc=" + Arrays.toString(epc) + ", bank=" + bank
+					+ ", wordOffset=" + wordOffset + ", wordCount=" + wordCount);
+		}
+		byte[] ret = tagMemoryCache.get(epc, bank, wordOffset, wordCount);
+		// if the tag returned less data than requested
+		return ret != null ? ret : readTag(antennaId, epc, bank, wordOffset, wordCount, accessPassword);
+	}
+
+	private byte[] readTag(short antennaId, byte[] epc, short bank, short wordOffset, short wordCount,
+			int accessPassword) throws ModuleException {
 		if (wordCount > MAX_WORDS_READ) {
 			throw new RfModuleException("Reader is unable to read more than " + MAX_WORDS_READ + " words at once", RfErrorCode.NON_SPECIFIC_READER_ERROR);
 		}
@@ -700,8 +1170,14 @@ class RfConnector {
 								+ ", wordOffset=" + wordOffset + ", wordCount=" + wordCount + ", accessPassword="
 								+ (accessPassword == 0 ? "0" : "***"));
 			}
-			result = service.execute(Arrays.asList(new Short[] { antennaId }), Arrays.asList(new Filter[] { filter }),
-					Arrays.asList(new TagOperation[] { op }));
+			long start = System.nanoTime();
+			try {
+				result = service.execute(Arrays.asList(new Short[] { antennaId }),
+						Arrays.asList(new Filter[] { filter }), Arrays.asList(new TagOperation[] { op }));
+			} finally {
+				metrics.recordDeviceOperation(OPERATION_READ, start);
+				tracer.span(OPERATION_READ, bank >= 0 && bank < BANK_NAMES.length ? BANK_NAMES[bank] : null, start);
+			}
 		} catch (Exception e) {
 			throw new ModuleException("Cannot read data", e);
 		}
@@ -765,6 +1241,12 @@ class RfConnector {
 		if (data != null && (data.length / 2) > MAX_WORDS_WRITE) {
 			throw new RfModuleException("Reader is unable to write more than " + MAX_WORDS_WRITE + " words at once", RfErrorCode.NON_SPECIFIC_READER_ERROR);
 		}
+		if (bank == 1) {
+			// the EPC may change
+			tagMemoryCache.remove(epc);
+		} else if (data != null) {
+			tagMemoryCache.remove(epc, bank, wordOffset, (data.length + 1) / 2);
+		}
 
 		// create EPC filter
 		Filter filter = createEpcFilter(epc);
@@ -786,8 +1268,14 @@ class RfConnector {
 								+ ", wordOffset=" + wordOffset + ", data=" + Arrays.toString(data) + ", accessPassword="
 								+ (accessPassword == 0 ? "0" : "***"));
 			}
-			result = service.execute(Arrays.asList(new Short[] { antennaId }), Arrays.asList(new Filter[] { filter }),
-					Arrays.asList(new TagOperation[] { op }));
+			long start = System.nanoTime();
+			try {
+				result = service.execute(Arrays.asList(new Short[] { antennaId }),
+						Arrays.asList(new Filter[] { filter }), Arrays.asList(new TagOperation[] { op }));
+			} finally {
+				metrics.recordDeviceOperation(OPERATION_WRITE, start);
+				tracer.span(OPERATION_WRITE, bank >= 0 && bank < BANK_NAMES.length ? BANK_NAMES[bank] : null, start);
+			}
 		} catch (Exception e) {
 			throw new ModuleException("Cannot write data", e);
 		}
@@ -827,6 +1315,8 @@ class RfConnector {
 
 	private byte[] execCustomCmd(short antennaId, byte[] epc, byte[] data, short bitCount, int accessPassword)
 			throws ModuleException {
+		// a custom command may change the memory of the tag
+		tagMemoryCache.remove(epc);
 		// create EPC filter
 		Filter filter = createEpcFilter(epc);
 		List<TagOperation> tagOperations = new ArrayList<>();
@@ -866,8 +1356,14 @@ class RfConnector {
 						"  antennaId=" + antennaId + ", epc=" + Arrays.toString(epc) + ", data=" + Arrays.toString(data)
 								+ "bitCount=" + bitCount + ", accessPassword=" + (accessPassword == 0 ? "0" : "***"));
 			}
-			result = service.execute(Arrays.asList(new Short[] { antennaId }), Arrays.asList(new Filter[] { filter }),
-					tagOperations);
+			long start = System.nanoTime();
+			try {
+				result = service.execute(Arrays.asList(new Short[] { antennaId }),
+						Arrays.asList(new Filter[] { filter }), tagOperations);
+			} finally {
+				metrics.recordDeviceOperation(OPERATION_CUSTOM, start);
+				tracer.span(OPERATION_CUSTOM, null /* detail */, start);
+			}
 		} catch (Exception e) {
 			throw new ModuleException("Cannot execute custom command", e);
 		}
@@ -908,6 +1404,10 @@ class RfConnector {
 	}
 
 	private Capabilities getCapabilities(CapabilityType type) throws ModuleException {
+		Capabilities ret = capabilities.get(type);
+		if (ret != null) {
+			return ret;
+		}
 		List<Capabilities> caps = null;
 		try {
 			if (log.isLoggable(Level.INFO)) {
@@ -920,10 +1420,21 @@ class RfConnector {
 		if (caps == null || caps.isEmpty()) {
 			throw new ModuleException("Cannot get capabilities of type " + type + ": Missing result");
 		}
-		return caps.get(0);
+		ret = caps.get(0);
+		capabilities.put(type, ret);
+		return ret;
 	}
 
 	private Configuration getConfiguration(ConfigurationType type, short antennaId) throws ModuleException {
+		Map<Short, Configuration> antennaConfs = configurations.get(type);
+		if (antennaConfs == null) {
+			antennaConfs = new HashMap<>();
+			configurations.put(type, antennaConfs);
+		}
+		Configuration ret = antennaConfs.get(antennaId);
+		if (ret != null) {
+			return ret;
+		}
 		List<Configuration> confs = null;
 		try {
 			if (log.isLoggable(Level.INFO)) {
@@ -940,7 +1451,48 @@ class RfConnector {
 			throw new ModuleException(
 					"Cannot get configuration of type " + type + " for antenna " + antennaId + ": Missing result");
 		}
-		return confs.get(0);
+		ret = confs.get(0);
+		antennaConfs.put(antennaId, ret);
+		return ret;
+	}
+
+	/**
+	 * Removes a configuration from the cache after it has been written.
+	 * 
+	 * @param type
+	 * @param antennaId
+	 */
+	private void removeConfiguration(ConfigurationType type, short antennaId) {
+		Map<Short, Configuration> antennaConfs = configurations.get(type);
+		if (antennaConfs != null) {
+			antennaConfs.remove(antennaId);
+		}
+	}
+
+	/**
+	 * Creates the maps between the transmit power indices and the transmit
+	 * powers from the transmit power table.
+	 */
+	private void loadTransmitPowerTable() throws ModuleException {
+		if (transmitPowers != null) {
+			return;
+		}
+		RegulatoryCapabilities regulatoryCaps = (RegulatoryCapabilities) getCapabilities(
+				CapabilityType.REGULATORY_CAPABILITIES);
+		if (log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, "Received " + CapabilityType.REGULATORY_CAPABILITIES);
+		}
+		Map<Short, Short> powers = new HashMap<>();
+		Map<Short, Short> indices = new HashMap<>();
+		for (TransmitPowerTableEntry entry : regulatoryCaps.getTransmitPowerTable().getEntryList()) {
+			powers.put(entry.getIndex(), entry.getTransmitPower());
+			// keep the first index of a transmit power like a linear search
+			if (!indices.containsKey(entry.getTransmitPower())) {
+				indices.put(entry.getTransmitPower(), entry.getIndex());
+			}
+		}
+		transmitPowers = powers;
+		transmitPowerIndices = indices;
 	}
 
 	private Short getTransmitPower(short antennaId) throws ModuleException {
@@ -955,22 +1507,15 @@ class RfConnector {
 		// if a transmit power index exists
 		if (antennaConf.getTransmitPower() != null) {
 			// get transmit power table
-			RegulatoryCapabilities regulatoryCaps = (RegulatoryCapabilities) getCapabilities(
-					CapabilityType.REGULATORY_CAPABILITIES);
-			if (log.isLoggable(Level.INFO)) {
-				log.log(Level.INFO, "Received " + CapabilityType.REGULATORY_CAPABILITIES);
-			}
-			// for each entry
-			for (TransmitPowerTableEntry entry : regulatoryCaps.getTransmitPowerTable().getEntryList()) {
-				// if entry has the transmit power index
-				if (entry.getIndex() == antennaConf.getTransmitPower()) {
-					if (log.isLoggable(Level.FINE)) {
-						log.log(Level.FINE, "  transmitPowerIndex=" + entry.getIndex() + ", transmitPower="
-								+ entry.getTransmitPower());
-					}
-					// return the transmit power (in dBm)
-					return entry.getTransmitPower();
+			loadTransmitPowerTable();
+			Short transmitPower = transmitPowers.get(antennaConf.getTransmitPower());
+			if (transmitPower != null) {
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "  transmitPowerIndex=" + antennaConf.getTransmitPower() + ", transmitPower="
+							+ transmitPower);
 				}
+				// return the transmit power (in dBm)
+				return transmitPower;
 			}
 			throw new ModuleException("Cannot get transmit power for index " + antennaConf.getTransmitPower()
 					+ " and antenna " + antennaId);
@@ -980,23 +1525,15 @@ class RfConnector {
 
 	private void setTransmitPower(short antennaId, short value) throws ModuleException {
 		// get transmit power table
-		RegulatoryCapabilities regulatoryCaps = (RegulatoryCapabilities) getCapabilities(
-				CapabilityType.REGULATORY_CAPABILITIES);
-		if (log.isLoggable(Level.INFO)) {
-			log.log(Level.INFO, "Received " + CapabilityType.REGULATORY_CAPABILITIES);
-		}
-		// for each entry
-		for (TransmitPowerTableEntry entry : regulatoryCaps.getTransmitPowerTable().getEntryList()) {
-			// if entry has the transmit power
-			if (entry.getTransmitPower() == value) {
-				if (log.isLoggable(Level.FINE)) {
-					log.log(Level.FINE,
-							"  transmitPowerIndex=" + entry.getIndex() + ", transmitPower=" + entry.getTransmitPower());
-				}
-				// set transmit power index
-				setAntennaConfiguration(antennaId, entry.getIndex());
-				return;
+		loadTransmitPowerTable();
+		Short transmitPowerIndex = transmitPowerIndices.get(value);
+		if (transmitPowerIndex != null) {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "  transmitPowerIndex=" + transmitPowerIndex + ", transmitPower=" + value);
 			}
+			// set transmit power index
+			setAntennaConfiguration(antennaId, transmitPowerIndex);
+			return;
 		}
 		throw new ModuleException("Cannot get index for transmit power " + value + " and antenna " + antennaId);
 	}
@@ -1011,6 +1548,8 @@ class RfConnector {
 			log.log(Level.FINE, "  isConnected=" + props.isConnected());
 		}
 		if (props.isConnected() != isConnected) {
+			// the cached properties are modified
+			removeConfiguration(ConfigurationType.ANTENNA_PROPERTIES, antennaId);
 			try {
 				props.setConnected(isConnected);
 				if (log.isLoggable(Level.INFO)) {
@@ -1028,6 +1567,7 @@ class RfConnector {
 	}
 
 	private void setAntennaConfiguration(short antennaId, short transmitPowerIndex) throws ModuleException {
+		removeConfiguration(ConfigurationType.ANTENNA_CONFIGURATION, antennaId);
 		try {
 			AntennaConfiguration conf = new AntennaConfiguration();
 			conf.setId(antennaId);
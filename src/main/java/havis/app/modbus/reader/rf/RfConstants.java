@@ -1,7 +1,10 @@
 package havis.app.modbus.reader.rf;
 
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import havis.app.modbus.reader.api.Field;
 import havis.app.modbus.reader.core.FieldProperties.FieldDataType;
@@ -58,7 +61,18 @@ public class RfConstants {
 		TID_BANK(58), //
 		USER_BANK(59), //
 		CUSTOM_COMMAND_LENGTH(60), //
-		CUSTOM_COMMAND_DATA(61);
+		CUSTOM_COMMAND_DATA(61), //
+		// diagnostics
+		REQUEST_COUNT(70), //
+		EXCEPTION_REPLY_COUNT(71), //
+		CONNECTION_COUNT(72), //
+		REQUEST_LATENCY_P50(73), //
+		REQUEST_LATENCY_P99(74), //
+		REQUEST_LATENCY_MAX(75), //
+		LOCK_WAIT_P99(76), //
+		DEVICE_OPERATION_P99(77), //
+		INVENTORY_TAG_COUNT_MAX(78), //
+		UPTIME(79);
 
 		private Field field;
 
@@ -157,6 +171,53 @@ public class RfConstants {
 			RfFieldType.CUSTOM_COMMAND_LENGTH, //
 			RfFieldType.CUSTOM_COMMAND_DATA };
 
+	/**
+	 * Fields whose values are provided by the metrics of the slave. The
+	 * values with two registers are unsigned 32 bit values (high word
+	 * first). The durations are provided in &micro;s, the uptime in s.
+	 */
+	static final Set<RfFieldType> DIAGNOSTIC_FIELDS = Collections.unmodifiableSet(EnumSet.range(
+			RfFieldType.REQUEST_COUNT, RfFieldType.UPTIME));
+
+	/**
+	 * The address of the first diagnostic field. The diagnostic fields are
+	 * not part of {@link #FIELDS}. They are placed in the order of
+	 * {@link #DIAGNOSTIC_FIELDS} at the end of the address space, so their
+	 * addresses neither depend on the runtime configuration nor shift the
+	 * addresses of the expanded fields.
+	 */
+	static final int DIAGNOSTIC_ADDRESS = 0xFF00;
+
+	/**
+	 * Fields whose values are read from the Rf device or from the results of
+	 * the last inventory. Reading them must be serialized.
+	 */
+	static final Set<RfFieldType> DEVICE_FIELDS = Collections.unmodifiableSet(EnumSet.of(
+			// device config
+			RfFieldType.COMMUNICATION_STANDARD, //
+			RfFieldType.NUMBER_OF_ANTENNAS, //
+			RfFieldType.ANTENNA_ONE_CONNECTED, //
+			RfFieldType.ANTENNA_TWO_CONNECTED, //
+			RfFieldType.ANTENNA_ONE_TRANSMIT_POWER, //
+			RfFieldType.ANTENNA_TWO_TRANSMIT_POWER, //
+
+			// runtime
+			RfFieldType.TAG_COUNT, //
+
+			// runtime tag
+			RfFieldType.LOCK_OPERATION, //
+			RfFieldType.KILL_OPERATION, //
+			RfFieldType.KILL_PWD, //
+			RfFieldType.ACCESS_PWD, //
+			RfFieldType.CRC, //
+			RfFieldType.PC, //
+			RfFieldType.EPC, //
+			RfFieldType.XPC, //
+			RfFieldType.TID_BANK, //
+			RfFieldType.USER_BANK, //
+			RfFieldType.CUSTOM_COMMAND_LENGTH, //
+			RfFieldType.CUSTOM_COMMAND_DATA));
+
 	static final class RfFieldProperties {
 		public FieldType type;
 		public FieldDataType dataType;
@@ -256,6 +317,28 @@ public class RfConstants {
 					FieldDataType.USHORT, 1, false));
 			put(RfFieldType.CUSTOM_COMMAND_DATA, new RfFieldProperties(FieldType.HOLDING_REGISTERS, //
 					FieldDataType.BYTE, 0, false));
+
+			// diagnostics
+			put(RfFieldType.REQUEST_COUNT, new RfFieldProperties(FieldType.INPUT_REGISTERS, //
+					FieldDataType.USHORT, 2, false));
+			put(RfFieldType.EXCEPTION_REPLY_COUNT, new RfFieldProperties(FieldType.INPUT_REGISTERS, //
+					FieldDataType.USHORT, 2, false));
+			put(RfFieldType.CONNECTION_COUNT, new RfFieldProperties(FieldType.INPUT_REGISTERS, //
+					FieldDataType.USHORT, 1, false));
+			put(RfFieldType.REQUEST_LATENCY_P50, new RfFieldProperties(FieldType.INPUT_REGISTERS, //
+					FieldDataType.USHORT, 2, false));
+			put(RfFieldType.REQUEST_LATENCY_P99, new RfFieldProperties(FieldType.INPUT_REGISTERS, //
+					FieldDataType.USHORT, 2, false));
+			put(RfFieldType.REQUEST_LATENCY_MAX, new RfFieldProperties(FieldType.INPUT_REGISTERS, //
+					FieldDataType.USHORT, 2, false));
+			put(RfFieldType.LOCK_WAIT_P99, new RfFieldProperties(FieldType.INPUT_REGISTERS, //
+					FieldDataType.USHORT, 2, false));
+			put(RfFieldType.DEVICE_OPERATION_P99, new RfFieldProperties(FieldType.INPUT_REGISTERS, //
+					FieldDataType.USHORT, 2, false));
+			put(RfFieldType.INVENTORY_TAG_COUNT_MAX, new RfFieldProperties(FieldType.INPUT_REGISTERS, //
+					FieldDataType.USHORT, 1, false));
+			put(RfFieldType.UPTIME, new RfFieldProperties(FieldType.INPUT_REGISTERS, //
+					FieldDataType.USHORT, 2, false));
 		}
 	};
 }
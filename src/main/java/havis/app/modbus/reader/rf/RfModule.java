@@ -6,65 +6,251 @@ import havis.app.modbus.reader.api.Module;
 import havis.app.modbus.reader.api.ModuleException;
 import havis.app.modbus.reader.common.ServiceFactory;
 import havis.app.modbus.reader.core.FieldProperties;
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+import havis.app.modbus.reader.core.RequestTracer;
+import havis.app.modbus.reader.core.SlaveMetrics;
 import havis.app.modbus.reader.rf.RfConstants.RfFieldType;
 import havis.device.rf.RFDevice;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class RfModule implements Module {
 	private static final Logger log = Logger.getLogger(RfModule.class.getName());
 
-	private class RfFieldProperties extends FieldProperties {
-		private Integer expandedFieldIndex;
+	private static class RfFieldProperties extends FieldProperties {
+		private int expandedFieldIndex;
 
 		private RfFieldProperties(int address, Field[] scannedFields) {
 			super(address, scannedFields);
 		}
 	}
 
+	// the diagnostic fields at their fixed addresses
+	private static final AddressIndex DIAGNOSTIC_INDEX = createDiagnosticIndex();
+
 	private final ServiceFactory<RFDevice> rfDeviceServiceFactory;
 	private RfConnector rfConnector;
-	private List<RfFieldType> expandedFields = new ArrayList<>();
-	private List<Integer> fieldGroupIndices = new ArrayList<>();
-	private final Map<RfFieldType, FieldValue> fieldValues = new HashMap<>();
+	private int inventoryCacheTime;
+	private int continuousInventoryInterval;
+	private volatile AddressIndex addressIndex = AddressIndex.EMPTY;
+	// the values of the config fields which determine the expansion. The map
+	// is replaced on each change, so readers get a consistent snapshot
+	// without locking.
+	private volatile Map<RfFieldType, FieldValue> fieldValues = new EnumMap<>(RfFieldType.class);
+	private SlaveMetrics metrics = new SlaveMetrics();
 
 	public RfModule(ServiceFactory<RFDevice> rfDeviceServiceFactory) {
 		this.rfDeviceServiceFactory = rfDeviceServiceFactory;
 	}
 
+	private static AddressIndex createDiagnosticIndex() {
+		RfFieldType[] fields = RfConstants.DIAGNOSTIC_FIELDS.toArray(new RfFieldType[0]);
+		int[] addressQuantities = new int[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			addressQuantities[i] = RfConstants.FIELD_PROPERTIES.get(fields[i]).addressQuantity;
+		}
+		return new AddressIndex(RfConstants.DIAGNOSTIC_ADDRESS, fields, new int[fields.length] /* fieldGroupIndices */,
+				addressQuantities);
+	}
+
+	@Override
+	public void configure(Properties configProps) throws ModuleException {
+		String inventoryCacheTimeStr = configProps.getProperty("inventoryCacheMs");
+		if (inventoryCacheTimeStr == null || inventoryCacheTimeStr.isEmpty()) {
+			inventoryCacheTimeStr = "0";
+		}
+		try {
+			inventoryCacheTime = Integer.parseInt(inventoryCacheTimeStr);
+		} catch (NumberFormatException e) {
+			throw new ModuleException(
+					"Cannot parse configuration property 'inventoryCacheMs': " + inventoryCacheTimeStr);
+		}
+		if (inventoryCacheTime < 0) {
+			throw new ModuleException("Invalid configuration property 'inventoryCacheMs': " + inventoryCacheTimeStr);
+		}
+		String continuousInventoryIntervalStr = configProps.getProperty("continuousInventoryInterval");
+		if (continuousInventoryIntervalStr == null || continuousInventoryIntervalStr.isEmpty()) {
+			continuousInventoryIntervalStr = "0";
+		}
+		try {
+			continuousInventoryInterval = Integer.parseInt(continuousInventoryIntervalStr);
+		} catch (NumberFormatException e) {
+			throw new ModuleException("Cannot parse configuration property 'continuousInventoryInterval': "
+					+ continuousInventoryIntervalStr);
+		}
+		if (continuousInventoryInterval < 0) {
+			throw new ModuleException(
+					"Invalid configuration property 'continuousInventoryInterval': " + continuousInventoryIntervalStr);
+		}
+	}
+
+	@Override
+	public void setMetrics(SlaveMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	@Override
 	public void open(int timeout) throws ModuleException {
-		rfConnector = new RfConnector(rfDeviceServiceFactory);
+		rfConnector = new RfConnector(rfDeviceServiceFactory, inventoryCacheTime, continuousInventoryInterval,
+				metrics);
 		rfConnector.open(timeout);
 	}
 
 	@Override
 	public void close(int timeout) throws ModuleException {
-		rfConnector.close();
+		rfConnector.close(timeout);
+	}
+
+	/**
+	 * @return The age of the latest inventory snapshot in ms or
+	 *         <code>-1</code> if inventories are not executed continuously
+	 */
+	public long getInventorySnapshotAge() {
+		RfConnector connector = rfConnector;
+		return connector == null ? -1 : connector.getInventorySnapshotAge();
+	}
+
+	/**
+	 * @return The count of inventories which have been executed in the
+	 *         background since opening the module
+	 */
+	public long getInventoryCount() {
+		RfConnector connector = rfConnector;
+		return connector == null ? 0 : connector.getInventoryCount();
 	}
 
 	@Override
 	public void expandFields() {
-		expandedFields.clear();
-		fieldGroupIndices.clear();
+		addressIndex = expandFields(fieldValues, 0 /* startFieldIndex */, AddressIndex.EMPTY, 0 /* prefixSize */);
+	}
+
+	/**
+	 * Gets the properties of the fields which are expanded for the values of
+	 * the runtime config fields, without a module instance. The fields are
+	 * expanded in the same way as by {@link #expandFields()}.
+	 * 
+	 * @param configFieldValues
+	 *            the values of the runtime config fields which determine the
+	 *            expansion ({@link RfFieldType#TAGS_IN_FIELD} to
+	 *            {@link RfFieldType#CUSTOM_COMMAND_MAX_LENGTH})
+	 * @return The properties of the expanded fields in address order followed
+	 *         by the diagnostic fields
+	 */
+	public static FieldProperties[] getFieldProperties(Map<Field, FieldValue> configFieldValues) {
+		Map<RfFieldType, FieldValue> values = new EnumMap<>(RfFieldType.class);
+		for (Entry<Field, FieldValue> entry : configFieldValues.entrySet()) {
+			values.put(RfFieldType.get(entry.getKey()), entry.getValue());
+		}
+		AddressIndex index = expandFields(values, 0 /* startFieldIndex */, AddressIndex.EMPTY, 0 /* prefixSize */);
+		FieldProperties[] ret = new FieldProperties[index.size() + DIAGNOSTIC_INDEX.size()];
+		for (int i = 0; i < index.size(); i++) {
+			ret[i] = createFieldProperties(index, i, index.getField(i).getField(), null /* scannedFields */);
+		}
+		for (int i = 0; i < DIAGNOSTIC_INDEX.size(); i++) {
+			ret[index.size() + i] = createFieldProperties(DIAGNOSTIC_INDEX, i, DIAGNOSTIC_INDEX.getField(i).getField(),
+					null /* scannedFields */);
+		}
+		return ret;
+	}
+
+	@Override
+	public int expandFields(Field changedField) {
+		RfFieldType startField;
+		switch (RfFieldType.get(changedField)) {
+		case SELECTION_MASK_COUNT:
+		case SELECTION_MASK_MAX_LENGTH:
+			startField = RfFieldType.SELECTION_MASK_BANK;
+			break;
+		case TAGS_IN_FIELD:
+		case MEMORY_SELECTOR:
+		case EPC_LENGTH:
+		case TID_LENGTH:
+		case USER_LENGTH:
+		case CUSTOM_COMMAND_MAX_LENGTH:
+			startField = RfFieldType.LOCK_OPERATION;
+			break;
+		default:
+			// the layout does not depend on the field
+			return addressIndex.getEndAddress();
+		}
+		AddressIndex previous = addressIndex;
+		int startFieldIndex = Arrays.asList(RfConstants.FIELDS).indexOf(startField);
+		// the expanded fields before the first block field keep their
+		// addresses
+		int prefixSize = previous.size();
+		for (int fieldIndex = startFieldIndex; fieldIndex < RfConstants.FIELDS.length; fieldIndex++) {
+			int i = previous.find(RfConstants.FIELDS[fieldIndex], 0 /* startExpandedFieldIndex */);
+			if (i >= 0 && i < prefixSize) {
+				prefixSize = i;
+			}
+		}
+		addressIndex = expandFields(fieldValues, startFieldIndex, previous, prefixSize);
+		// get the first expanded field which has been changed
+		AddressIndex index = addressIndex;
+		int size = Math.min(previous.size(), index.size());
+		for (int i = prefixSize; i < size; i++) {
+			if (previous.getField(i) != index.getField(i)
+					|| previous.getFieldGroupIndex(i) != index.getFieldGroupIndex(i)
+					|| previous.getAddressQuantity(i) != index.getAddressQuantity(i)) {
+				return index.getStartAddress(i);
+			}
+		}
+		return size < index.size() ? index.getStartAddress(size) : index.getEndAddress();
+	}
+
+	@Override
+	public int getEndAddress(FieldType type) {
+		return Math.max(addressIndex.getEndAddress(type), DIAGNOSTIC_INDEX.getEndAddress(type));
+	}
+
+	/**
+	 * Expands the fields starting with a field of {@link RfConstants#FIELDS}.
+	 * The expanded fields before are taken from an existing index.
+	 * 
+	 * @param fieldValues
+	 *            the values of the config fields which determine the
+	 *            expansion
+	 * @param startFieldIndex
+	 *            the index of the first field in {@link RfConstants#FIELDS}
+	 *            which is expanded. It must not be part of a block.
+	 * @param prefixIndex
+	 * @param prefixSize
+	 *            the count of expanded fields taken from the existing index
+	 * @return The index of the expanded fields
+	 */
+	private static AddressIndex expandFields(Map<RfFieldType, FieldValue> fieldValues, int startFieldIndex,
+			AddressIndex prefixIndex, int prefixSize) {
+		List<RfFieldType> expandedFields = new ArrayList<>();
+		List<Integer> fieldGroupIndices = new ArrayList<>();
+		List<Integer> addressQuantities = new ArrayList<>();
+		for (int i = 0; i < prefixSize; i++) {
+			expandedFields.add(prefixIndex.getField(i));
+			fieldGroupIndices.add(prefixIndex.getFieldGroupIndex(i));
+			addressQuantities.add(prefixIndex.getAddressQuantity(i));
+		}
+		int address = prefixSize < prefixIndex.size() ? prefixIndex.getStartAddress(prefixSize)
+				: prefixIndex.getEndAddress();
 		if (log.isLoggable(Level.FINE)) {
-			log.log(Level.FINE, "Expanded fields:");
+			log.log(Level.FINE, "Expanded fields from " + address + ":");
 		}
 		// field -> group index
 		Map<RfFieldType, Integer> groupIndices = new HashMap<>();
 		int blockStartIndex = 0;
 		int blockCount = 0;
-		FieldProperties fieldProps = null;
-		for (int fieldIndex = 0; fieldIndex < RfConstants.FIELDS.length; fieldIndex++) {
+		for (int fieldIndex = startFieldIndex; fieldIndex < RfConstants.FIELDS.length; fieldIndex++) {
 			RfFieldType field = RfConstants.FIELDS[fieldIndex];
-			int fieldCount = getFieldCount(field);
+			int fieldCount = getFieldCount(fieldValues, field);
 			// get field address quantity BEFORE field index is changed
-			int fieldAddressQuantity = getFieldAddressQuantity(field);
+			int fieldAddressQuantity = getFieldAddressQuantity(fieldValues, field);
 			// processing of a block must be started/finished even if the
 			// first/last field does is not used or its address quantity is 0
 			switch (field) {
@@ -88,6 +274,7 @@ public class RfModule implements Module {
 			}
 			if (fieldCount > 0 && fieldAddressQuantity > 0) {
 				expandedFields.add(field);
+				addressQuantities.add(fieldAddressQuantity);
 				Integer groupIndex = null;
 				if (fieldCount > 1) {
 					groupIndex = groupIndices.get(field);
@@ -100,14 +287,19 @@ public class RfModule implements Module {
 					fieldGroupIndices.add(0);
 				}
 				if (log.isLoggable(Level.FINE)) {
-					fieldProps = getFieldProperties(fieldProps, null /* selectAddress */, field.getField(), false /* enableLogging */);
-					log.log(Level.FINE, " " + fieldProps.getAddress() + " -> " + field + (fieldCount > 1 ? "[" + groupIndex + "]" : ""));
-					if (fieldIndex + 1 == RfConstants.FIELDS.length) {
-						log.log(Level.FINE, " " + (fieldProps.getAddress() + fieldProps.getAddressQuantity()));
-					}
+					log.log(Level.FINE, " " + address + " -> " + field + (fieldCount > 1 ? "[" + groupIndex + "]" : ""));
 				}
+				address += fieldAddressQuantity;
 			}
 		}
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, " " + address);
+		}
+		if (address > RfConstants.DIAGNOSTIC_ADDRESS && log.isLoggable(Level.WARNING)) {
+			log.log(Level.WARNING, "The expanded fields end at " + address
+					+ " and hide the diagnostic fields starting at " + RfConstants.DIAGNOSTIC_ADDRESS);
+		}
+		return AddressIndex.create(expandedFields, fieldGroupIndices, addressQuantities);
 	}
 
 	/**
@@ -126,6 +318,63 @@ public class RfModule implements Module {
 		return getFieldProperties(startFieldProps, selectAddress, selectField, true /* enableLogging */);
 	}
 
+	@Override
+	public FieldProperties getFieldProperties(Field field, int fieldGroupIndex) {
+		RfFieldType fieldType = RfFieldType.get(field);
+		AddressIndex index = RfConstants.DIAGNOSTIC_FIELDS.contains(fieldType) ? DIAGNOSTIC_INDEX : addressIndex;
+		int i = index.get(fieldType, fieldGroupIndex);
+		if (i < 0) {
+			return null;
+		}
+		return createFieldProperties(index, i, index.getField(i).getField(), null /* scannedFields */);
+	}
+
+	@Override
+	public FieldProperties[] getFieldProperties(int address, int addressQuantity) {
+		AddressIndex index = addressIndex;
+		int startIndex = index.find(address);
+		// the expanded fields hide the diagnostic fields if they overlap
+		if (startIndex < 0 && address >= RfConstants.DIAGNOSTIC_ADDRESS) {
+			index = DIAGNOSTIC_INDEX;
+			startIndex = index.find(address);
+		}
+		// if address does not exist
+		if (startIndex < 0) {
+			return new FieldProperties[0];
+		}
+		int endIndex = startIndex;
+		int endAddress = address;
+		if (addressQuantity > 1) {
+			endAddress = address + addressQuantity - 1;
+			endIndex = index.find(endAddress);
+			if (endIndex < 0) {
+				// the range exceeds the last field
+				endIndex = index.size() - 1;
+				endAddress = index.getEndAddress() - 1;
+			}
+		}
+		FieldProperties[] ret = new FieldProperties[endIndex - startIndex + 1];
+		for (int i = startIndex; i <= endIndex; i++) {
+			Field field = index.getField(i).getField();
+			int fieldStartAddress = index.getStartAddress(i);
+			// enrich the first and last field with offset and length
+			int offset = i == startIndex ? address - fieldStartAddress : 0;
+			int length = 0; // we don't know
+			if (i == endIndex && addressQuantity > 1) {
+				length = (endAddress - fieldStartAddress) + 1 - offset;
+			}
+			if (i == startIndex || i == endIndex) {
+				field = new RfField(field, offset, length);
+			}
+			ret[i - startIndex] = createFieldProperties(index, i, field, null /* scannedFields */);
+		}
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Found " + address + "+" + addressQuantity + " -> " + ret.length + " field(s) from "
+					+ index.getField(startIndex));
+		}
+		return ret;
+	}
+
 	@Override
 	public FieldValue getFieldValue(Field field, int fieldGroupIndex) throws ModuleException {
 		RfField f;
@@ -134,11 +383,20 @@ public class RfModule implements Module {
 		else
 			f = new RfField(field);
 
-		FieldValue ret = rfConnector.getFieldValue(f, fieldGroupIndex);
-		if (ret == null) {
-			ret = fieldValues.get(f.getType());
+		if (RfConstants.DIAGNOSTIC_FIELDS.contains(f.getType())) {
+			return getDiagnosticValue(f.getType());
+		}
+		RequestTracer tracer = metrics.getTracer();
+		long start = tracer.start();
+		try {
+			FieldValue ret = rfConnector.getFieldValue(f, fieldGroupIndex);
+			if (ret == null) {
+				ret = fieldValues.get(f.getType());
+			}
+			return ret;
+		} finally {
+			tracer.span("field", String.valueOf(f.getType()), start);
 		}
-		return ret;
 	}
 
 	@Override
@@ -159,106 +417,180 @@ public class RfModule implements Module {
 		case SELECTION_MASK_COUNT:
 		case SELECTION_MASK_MAX_LENGTH:
 		case CUSTOM_COMMAND_MAX_LENGTH:
-			fieldValues.put(f.getType(), value);
+			putFieldValue(f.getType(), value);
 			break;
 		default:
 		}
 	}
 
+	/**
+	 * Publishes a copy of the config field values with a changed value.
+	 * 
+	 * @param field
+	 * @param value
+	 */
+	private synchronized void putFieldValue(RfFieldType field, FieldValue value) {
+		Map<RfFieldType, FieldValue> values = new EnumMap<>(fieldValues);
+		values.put(field, value);
+		fieldValues = values;
+	}
+
+	/**
+	 * Gets the value of a diagnostic field from the metrics. Values which
+	 * exceed the registers of the field are saturated.
+	 * 
+	 * @param field
+	 * @return The value
+	 */
+	private FieldValue getDiagnosticValue(RfFieldType field) {
+		long value;
+		switch (field) {
+		case REQUEST_COUNT:
+			value = metrics.getRequestCount();
+			break;
+		case EXCEPTION_REPLY_COUNT:
+			value = metrics.getExceptionReplyCount();
+			break;
+		case CONNECTION_COUNT:
+			value = metrics.getActiveConnections();
+			break;
+		case REQUEST_LATENCY_P50:
+			value = metrics.getRequestLatenciesTotal().getValueAtPercentile(50);
+			break;
+		case REQUEST_LATENCY_P99:
+			value = metrics.getRequestLatenciesTotal().getValueAtPercentile(99);
+			break;
+		case REQUEST_LATENCY_MAX:
+			value = metrics.getRequestLatenciesTotal().getMax();
+			break;
+		case LOCK_WAIT_P99:
+			value = metrics.getMappingLockWaits().getValueAtPercentile(99);
+			break;
+		case DEVICE_OPERATION_P99:
+			value = metrics.getDeviceOperationsTotal().getValueAtPercentile(99);
+			break;
+		case INVENTORY_TAG_COUNT_MAX:
+			value = metrics.getInventoryTagCounts().getMax();
+			break;
+		default: // UPTIME
+			value = metrics.getUptime() / 1000;
+		}
+		if (RfConstants.FIELD_PROPERTIES.get(field).addressQuantity == 1) {
+			return new FieldValue(new int[] { (int) Math.min(value, 0xFFFF) });
+		}
+		value = Math.min(value, 0xFFFFFFFFL);
+		return new FieldValue(new int[] { (int) (value >>> 16), (int) (value & 0xFFFF) });
+	}
+
 	private FieldProperties getFieldProperties(FieldProperties startFieldProps, Integer selectAddress, Field selectField, boolean enableLogging) {
+		AddressIndex index = addressIndex;
 		RfFieldType selectRfField = RfFieldType.get(selectField);
 
-		int address = 0;
 		int startExpandedFieldIndex = 0;
 		if (startFieldProps != null) {
-			address = startFieldProps.getAddress();
 			startExpandedFieldIndex = ((RfFieldProperties) startFieldProps).expandedFieldIndex;
 		}
-		int startAddress = address;
-		for (int i = startExpandedFieldIndex; i < expandedFields.size(); i++) {
-			RfFieldType field = expandedFields.get(i);
+		// get the first expanded field which applies to one of the conditions
+		int i = -1;
+		if (selectField != null) {
+			i = index.find(selectRfField, startExpandedFieldIndex);
+		}
+		if (selectAddress != null) {
+			int addressIndex = index.find(selectAddress.intValue());
+			if (addressIndex >= startExpandedFieldIndex && (i < 0 || addressIndex < i)) {
+				i = addressIndex;
+			}
+		}
+		if (i >= 0) {
+			RfFieldType field = index.getField(i);
+			int address = index.getStartAddress(i);
 			// field length
-			int fieldAddressQuantity = getFieldAddressQuantity(field);
+			int fieldAddressQuantity = index.getAddressQuantity(i);
 
-			if (selectField != null && field == selectRfField || selectAddress != null && selectAddress.intValue() >= address && selectAddress.intValue() < address + fieldAddressQuantity) {
-
-				// if the address points to current field
-				if (enableLogging && log.isLoggable(Level.FINE)) {
-					if (selectAddress != null) {
-						log.log(Level.FINE, "Found " + selectAddress + " -> " + field);
-					} else {
-						log.log(Level.FINE, "Found " + selectRfField + " -> " + address);
-					}
+			// if the address points to current field
+			if (enableLogging && log.isLoggable(Level.FINE)) {
+				if (selectAddress != null) {
+					log.log(Level.FINE, "Found " + selectAddress + " -> " + field);
+				} else {
+					log.log(Level.FINE, "Found " + selectRfField + " -> " + address);
 				}
-				if (enableLogging && log.isLoggable(Level.FINER)) {
-					RfFieldType startField = expandedFields.get(startExpandedFieldIndex);
-					if (selectAddress != null) {
-						log.log(Level.FINER, "  started with " + startAddress + " -> " + startField);
-					} else {
-						log.log(Level.FINER, "  started with " + startField + " -> " + startAddress);
-					}
+			}
+			if (enableLogging && log.isLoggable(Level.FINER) && startExpandedFieldIndex < index.size()) {
+				RfFieldType startField = index.getField(startExpandedFieldIndex);
+				int startAddress = index.getStartAddress(startExpandedFieldIndex);
+				if (selectAddress != null) {
+					log.log(Level.FINER, "  started with " + startAddress + " -> " + startField);
+				} else {
+					log.log(Level.FINER, "  started with " + startField + " -> " + startAddress);
 				}
+			}
 
-				Field current = field.getField();
-				if (selectAddress != null) {
-					// if the field is addressed, enrich with offset and length
-					int offset;
-					int length;
-					if (startFieldProps != null && selectAddress != null) {
-						// this is an end address
-						int lengthFromZero = (selectAddress.intValue() - address) + 1;
-						int otherOffset = ((RfField) startFieldProps.getField()).getOffset();
-						if (startFieldProps.getField().equals(field.getField())) {
-							// in the same field, use other offset
-							offset = otherOffset;
-						} else {
-							// another field, start from 0
-							offset = 0;
-						}
-						length = lengthFromZero - offset;
+			Field current = field.getField();
+			if (selectAddress != null) {
+				// if the field is addressed, enrich with offset and length
+				int offset;
+				int length;
+				if (startFieldProps != null && selectAddress != null) {
+					// this is an end address
+					int lengthFromZero = (selectAddress.intValue() - address) + 1;
+					int otherOffset = ((RfField) startFieldProps.getField()).getOffset();
+					if (startFieldProps.getField().equals(field.getField())) {
+						// in the same field, use other offset
+						offset = otherOffset;
 					} else {
-						length = 0; // we don't know
-						// this is a start address
-						offset = selectAddress.intValue() - address;
+						// another field, start from 0
+						offset = 0;
 					}
-					current = new RfField(current, offset, length);
+					length = lengthFromZero - offset;
+				} else {
+					length = 0; // we don't know
+					// this is a start address
+					offset = selectAddress.intValue() - address;
 				}
+				current = new RfField(current, offset, length);
+			}
 
-				Field[] scannedFields = new Field[i - startExpandedFieldIndex + 1];
-				for (int j = 0; j < scannedFields.length; j++) {
-					Field f = expandedFields.get(j + startExpandedFieldIndex).getField();
-					if (f.equals(current))
-						f = current;
-					else if (startFieldProps != null && f.equals(startFieldProps.getField()))
-						f = startFieldProps.getField();
-
-					scannedFields[j] = f;
-				}
+			Field[] scannedFields = new Field[i - startExpandedFieldIndex + 1];
+			for (int j = 0; j < scannedFields.length; j++) {
+				Field f = index.getField(j + startExpandedFieldIndex).getField();
+				if (f.equals(current))
+					f = current;
+				else if (startFieldProps != null && f.equals(startFieldProps.getField()))
+					f = startFieldProps.getField();
 
-				RfFieldProperties ret = new RfFieldProperties(address, scannedFields);
-				ret.expandedFieldIndex = i;
-				ret.setField(current);
-				ret.setAddressQuantity(fieldAddressQuantity);
-				ret.setType(RfConstants.FIELD_PROPERTIES.get(field).type);
-				ret.setDataType(RfConstants.FIELD_PROPERTIES.get(field).dataType);
-				ret.setFieldGroupIndex(fieldGroupIndices.get(i));
-				ret.setConfigField(RfConstants.FIELD_PROPERTIES.get(field).isConfigField);
-				return ret;
+				scannedFields[j] = f;
 			}
-			address += fieldAddressQuantity;
+			return createFieldProperties(index, i, current, scannedFields);
 		}
-		Field[] scannedFields = new Field[expandedFields.size() - startExpandedFieldIndex];
+		Field[] scannedFields = new Field[index.size() - startExpandedFieldIndex];
 		for (int j = 0; j < scannedFields.length; j++) {
-			Field f = expandedFields.get(j + startExpandedFieldIndex).getField();
+			Field f = index.getField(j + startExpandedFieldIndex).getField();
 			if (startFieldProps != null && f.equals(startFieldProps.getField()))
 				f = startFieldProps.getField();
 
 			scannedFields[j] = f;
 		}
-		return new RfFieldProperties(address, scannedFields);
+		RfFieldProperties ret = new RfFieldProperties(index.getEndAddress(), scannedFields);
+		ret.expandedFieldIndex = index.size();
+		return ret;
+	}
+
+	private static RfFieldProperties createFieldProperties(AddressIndex index, int expandedFieldIndex, Field field,
+			Field[] scannedFields) {
+		RfFieldType fieldType = index.getField(expandedFieldIndex);
+		RfFieldProperties ret = new RfFieldProperties(index.getStartAddress(expandedFieldIndex), scannedFields);
+		ret.expandedFieldIndex = expandedFieldIndex;
+		ret.setField(field);
+		ret.setAddressQuantity(index.getAddressQuantity(expandedFieldIndex));
+		ret.setType(RfConstants.FIELD_PROPERTIES.get(fieldType).type);
+		ret.setDataType(RfConstants.FIELD_PROPERTIES.get(fieldType).dataType);
+		ret.setFieldGroupIndex(index.getFieldGroupIndex(expandedFieldIndex));
+		ret.setConfigField(RfConstants.FIELD_PROPERTIES.get(fieldType).isConfigField);
+		ret.setDeviceField(RfConstants.DEVICE_FIELDS.contains(fieldType));
+		return ret;
 	}
 
-	private int getFieldAddressQuantity(RfFieldType field) {
+	private static int getFieldAddressQuantity(Map<RfFieldType, FieldValue> fieldValues, RfFieldType field) {
 		switch (field) {
 		case SELECTION_MASK:
 			return fieldValues.get(RfFieldType.SELECTION_MASK_MAX_LENGTH).getUShortValue()[0];
@@ -275,7 +607,7 @@ public class RfModule implements Module {
 		}
 	}
 
-	private int getFieldCount(RfFieldType field) {
+	private static int getFieldCount(Map<RfFieldType, FieldValue> fieldValues, RfFieldType field) {
 		switch (field) {
 		case SELECTION_MASK_BANK:
 		case SELECTION_MASK_LENGTH:
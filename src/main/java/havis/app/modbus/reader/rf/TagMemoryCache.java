@@ -0,0 +1,154 @@
+package havis.app.modbus.reader.rf;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Cache of the memory words which have been read from the tags of an
+ * inventory. The words are stored per EPC and bank.
+ * <p>
+ * The cache is not thread safe.
+ * </p>
+ */
+class TagMemoryCache {
+
+	private static class Key {
+		private final byte[] epc;
+		private final short bank;
+
+		Key(byte[] epc, short bank) {
+			this.epc = epc;
+			this.bank = bank;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Arrays.hashCode(epc) + bank;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) obj;
+			return bank == key.bank && Arrays.equals(epc, key.epc);
+		}
+	}
+
+	private static class BankData {
+		private byte[] data = new byte[0];
+		// words with valid data
+		private final BitSet words = new BitSet();
+	}
+
+	private final Map<Key, BankData> banks = new HashMap<>();
+
+	/**
+	 * Gets words of a bank.
+	 *
+	 * @param epc
+	 * @param bank
+	 * @param wordOffset
+	 * @param wordCount
+	 * @return The data or <code>null</code> if at least one word is missing
+	 */
+	byte[] get(byte[] epc, short bank, int wordOffset, int wordCount) {
+		BankData bankData = banks.get(new Key(epc, bank));
+		if (bankData == null || wordCount <= 0
+				|| bankData.words.nextClearBit(wordOffset) < wordOffset + wordCount) {
+			return null;
+		}
+		return Arrays.copyOfRange(bankData.data, wordOffset * 2, (wordOffset + wordCount) * 2);
+	}
+
+	/**
+	 * Gets the range of words which must be read from a tag to complete a
+	 * range of a bank. The range starts with the first missing word and ends
+	 * with the last missing word, so the missing words can be read with a
+	 * single read.
+	 *
+	 * @param epc
+	 * @param bank
+	 * @param wordOffset
+	 * @param wordCount
+	 * @return The word offset and word count of the missing range or
+	 *         <code>null</code> if no word is missing
+	 */
+	int[] getMissingRange(byte[] epc, short bank, int wordOffset, int wordCount) {
+		BankData bankData = banks.get(new Key(epc, bank));
+		if (bankData == null) {
+			return new int[] { wordOffset, wordCount };
+		}
+		int start = bankData.words.nextClearBit(wordOffset);
+		int end = wordOffset + wordCount;
+		if (start >= end) {
+			return null;
+		}
+		int last = bankData.words.previousClearBit(end - 1);
+		return new int[] { start, last - start + 1 };
+	}
+
+	/**
+	 * Adds words of a bank.
+	 *
+	 * @param epc
+	 * @param bank
+	 * @param wordOffset
+	 * @param data
+	 *            the data, a trailing odd byte is ignored
+	 */
+	void put(byte[] epc, short bank, int wordOffset, byte[] data) {
+		int wordCount = data.length / 2;
+		if (wordCount == 0) {
+			return;
+		}
+		Key key = new Key(epc.clone(), bank);
+		BankData bankData = banks.get(key);
+		if (bankData == null) {
+			bankData = new BankData();
+			banks.put(key, bankData);
+		}
+		int length = (wordOffset + wordCount) * 2;
+		if (bankData.data.length < length) {
+			bankData.data = Arrays.copyOf(bankData.data, length);
+		}
+		System.arraycopy(data, 0, bankData.data, wordOffset * 2, wordCount * 2);
+		bankData.words.set(wordOffset, wordOffset + wordCount);
+	}
+
+	/**
+	 * Removes words of a bank.
+	 *
+	 * @param epc
+	 * @param bank
+	 * @param wordOffset
+	 * @param wordCount
+	 */
+	void remove(byte[] epc, short bank, int wordOffset, int wordCount) {
+		BankData bankData = banks.get(new Key(epc, bank));
+		if (bankData != null && wordCount > 0) {
+			bankData.words.clear(wordOffset, wordOffset + wordCount);
+		}
+	}
+
+	/**
+	 * Removes all banks of a tag.
+	 *
+	 * @param epc
+	 */
+	void remove(byte[] epc) {
+		for (Iterator<Key> it = banks.keySet().iterator(); it.hasNext();) {
+			if (Arrays.equals(it.next().epc, epc)) {
+				it.remove();
+			}
+		}
+	}
+
+	void clear() {
+		banks.clear();
+	}
+}
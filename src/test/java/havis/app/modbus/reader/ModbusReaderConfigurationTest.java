@@ -0,0 +1,307 @@
+package havis.app.modbus.reader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import havis.app.modbus.reader.api.Field;
+import havis.app.modbus.reader.api.FieldValue;
+import havis.app.modbus.reader.core.FieldProperties;
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+import havis.app.modbus.reader.core.ModbusSlaveException;
+import havis.app.modbus.reader.core.RegisterMapping;
+import havis.app.modbus.reader.core.SlaveMetrics;
+import havis.app.modbus.reader.core.SlaveProcessor;
+import havis.app.modbus.reader.rest.data.RuntimeConfiguration;
+import havis.app.modbus.reader.rest.data.RuntimeRegisterItem;
+import havis.app.modbus.reader.rest.data.RuntimeRegisterPage;
+import havis.app.modbus.reader.rest.data.Type;
+import havis.app.modbus.reader.rf.RfConstants.RfFieldType;
+
+public class ModbusReaderConfigurationTest {
+
+	// the address of the first diagnostic field
+	private static final int DIAGNOSTIC_ADDRESS = 0xFF00;
+
+	private short[] holdingRegisters;
+	private int connectCount;
+	private ModbusReaderConfiguration config;
+
+	/**
+	 * The holding registers of the fields. The address of a runtime config
+	 * field is its identifier.
+	 */
+	private class TestMapping implements RegisterMapping {
+
+		@Override
+		public int getSize(FieldType type) {
+			return type == FieldType.HOLDING_REGISTERS ? holdingRegisters.length : 0;
+		}
+
+		@Override
+		public void setBits(FieldType type, int address, byte[] src, int srcOffset, int quantity) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void getBits(FieldType type, int address, byte[] dest, int destOffset, int quantity) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setRegisters(FieldType type, int address, short[] src, int srcOffset, int quantity) {
+			System.arraycopy(src, srcOffset, holdingRegisters, address, quantity);
+		}
+
+		@Override
+		public void getRegisters(FieldType type, int address, short[] dest, int destOffset, int quantity) {
+			System.arraycopy(holdingRegisters, address, dest, destOffset, quantity);
+		}
+	}
+
+	/**
+	 * Provides the runtime config fields. The layout of the other fields is
+	 * not provided, so it must be computed from the runtime configuration.
+	 */
+	private class TestProcessor implements SlaveProcessor {
+		private final RegisterMapping mapping = new TestMapping();
+
+		@Override
+		public void connect() throws ModbusSlaveException {
+			connectCount++;
+		}
+
+		@Override
+		public void disconnect() throws ModbusSlaveException {
+		}
+
+		@Override
+		public FieldProperties getFieldProperties(FieldProperties startFieldProps, Integer selectAddress,
+				Field selectField) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public FieldProperties getFieldProperties(Field field, int fieldGroupIndex) {
+			FieldProperties ret = new FieldProperties(field.getId(), new Field[0]);
+			ret.setField(field);
+			ret.setAddressQuantity(1);
+			ret.setType(FieldType.HOLDING_REGISTERS);
+			ret.setFieldGroupIndex(fieldGroupIndex);
+			return ret;
+		}
+
+		@Override
+		public FieldProperties[] getFieldProperties(int address, int addressQuantity) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public FieldValue[] getConfigFieldValues(Field... fields) throws ModbusSlaveException {
+			FieldValue[] ret = new FieldValue[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				ret[i] = new FieldValue(new int[] { holdingRegisters[fields[i].getId()] & 0xFFFF });
+			}
+			return ret;
+		}
+
+		@Override
+		public RegisterMapping acquireMapping() {
+			return mapping;
+		}
+
+		@Override
+		public RegisterMapping acquireMapping(short functionCode, int address, int addressQuantity) {
+			return mapping;
+		}
+
+		@Override
+		public void releaseMapping() {
+		}
+
+		@Override
+		public void read(short functionCode, int address, int addressQuantity, RegisterMapping mapping)
+				throws ModbusSlaveException {
+		}
+
+		@Override
+		public RegisterMapping write(short functionCode, int address, int addressQuantity, Date timeStamp,
+				RegisterMapping mapping) throws ModbusSlaveException {
+			return mapping;
+		}
+
+		@Override
+		public SlaveMetrics getMetrics() {
+			return null;
+		}
+	}
+
+	@Before
+	public void init() {
+		holdingRegisters = new short[RfFieldType.CUSTOM_COMMAND_MAX_LENGTH.getField().getId() + 1];
+		holdingRegisters[RfFieldType.TAGS_IN_FIELD.getField().getId()] = 1;
+		holdingRegisters[RfFieldType.EPC_LENGTH.getField().getId()] = 6;
+		config = new ModbusReaderConfiguration(new TestProcessor(), 0 /* sessionIdleTimeout */);
+	}
+
+	private void setTagsInField(int tagsInField) throws Exception {
+		RuntimeConfiguration rc = config.getRuntimeConfiguration();
+		rc.setTagsInField(tagsInField);
+		config.setRuntimeConfiguration(rc);
+		connectCount = 0;
+	}
+
+	private static void assertItem(RuntimeRegisterItem item, int address, int length, Type type) {
+		Assert.assertEquals(String.format("0x%04X", address), item.getAddressHex());
+		Assert.assertEquals(String.valueOf(address), item.getAddressDez());
+		Assert.assertEquals(length, item.getLength());
+		Assert.assertEquals(type, item.getType());
+	}
+
+	@Test
+	public void compute() {
+		RuntimeConfiguration rc = new RuntimeConfiguration();
+		rc.setTagsInField(2);
+		rc.setMemorySelector((short) 31);
+		rc.setEpcLength(6);
+		rc.setTidLength(6);
+		rc.setUserLength(20);
+		rc.setSelectionMaskCount(2);
+		rc.setSelectionMaskMaxLength(20);
+		rc.setCustomOperationMaxLength(20);
+		List<RuntimeRegisterItem> rt = new RegisterLayout(new Properties()).compute(rc);
+		Assert.assertEquals(4 + 2 * 4 + 2 * 12 + 10, rt.size());
+		// the runtime fields
+		assertItem(rt.get(0), 406, 1, Type.INPUT);
+		assertItem(rt.get(2), 408, 2, Type.HOLDING);
+		assertItem(rt.get(3), 410, 1, Type.HOLDING);
+		// the selection masks follow the runtime fields
+		assertItem(rt.get(4), 411, 1, Type.HOLDING);
+		assertItem(rt.get(7), 414, 20, Type.HOLDING);
+		assertItem(rt.get(8), 434, 1, Type.HOLDING);
+		// the fields of the tags with all memory areas
+		assertItem(rt.get(12), 457, 1, Type.HOLDING);
+		assertItem(rt.get(18), 466, 6, Type.HOLDING);
+		assertItem(rt.get(21), 480, 20, Type.HOLDING);
+		assertItem(rt.get(23), 501, 20, Type.HOLDING);
+		assertItem(rt.get(24), 521, 1, Type.HOLDING);
+		// the diagnostic fields at their fixed addresses
+		assertItem(rt.get(36), DIAGNOSTIC_ADDRESS, 2, Type.INPUT);
+		assertItem(rt.get(45), DIAGNOSTIC_ADDRESS + 16, 2, Type.INPUT);
+
+		// without selection masks and memory areas the tags follow the
+		// runtime fields
+		rc.setTagsInField(1);
+		rc.setMemorySelector((short) 0);
+		rc.setSelectionMaskCount(0);
+		rt = new RegisterLayout(new Properties()).compute(rc);
+		Assert.assertEquals(4 + 7 + 10, rt.size());
+		assertItem(rt.get(4), 411, 1, Type.HOLDING);
+		assertItem(rt.get(6), 414, 6, Type.HOLDING);
+		assertItem(rt.get(11), DIAGNOSTIC_ADDRESS, 2, Type.INPUT);
+	}
+
+	@Test
+	public void getRuntime() throws Exception {
+		List<RuntimeRegisterItem> rt = config.getRuntime();
+		// runtime fields, 4 fields of a tag (EPC, no other memory areas) and
+		// diagnostic fields
+		Assert.assertEquals(4 + 4 + 10, rt.size());
+		assertItem(rt.get(6), 414, 6, Type.HOLDING);
+		// the layout is cached
+		Assert.assertSame(rt, config.getRuntime());
+		// the backend is not connected
+		Assert.assertEquals(0, connectCount);
+
+		// a changed runtime configuration uses another layout
+		setTagsInField(2);
+		List<RuntimeRegisterItem> rt2 = config.getRuntime();
+		Assert.assertEquals(4 + 2 * 4 + 10, rt2.size());
+		// the EPC of the second tag
+		assertItem(rt2.get(10), 424, 6, Type.HOLDING);
+		assertItem(rt2.get(12), DIAGNOSTIC_ADDRESS, 2, Type.INPUT);
+
+		// the layout of the previous runtime configuration is still cached
+		setTagsInField(1);
+		Assert.assertSame(rt, config.getRuntime());
+	}
+
+	@Test
+	public void getRuntimePage() throws Exception {
+		setTagsInField(3);
+		RuntimeRegisterPage page = config.getRuntimePage(1 /* offset */, 2 /* limit */);
+		Assert.assertEquals(1, page.getOffset());
+		Assert.assertEquals(26, page.getTotal());
+		Assert.assertEquals(2, page.getItems().size());
+		Assert.assertEquals("407", page.getItems().get(0).getAddressDez());
+
+		// the last page is shorter
+		page = config.getRuntimePage(24 /* offset */, 5 /* limit */);
+		Assert.assertEquals(2, page.getItems().size());
+		Assert.assertEquals(String.valueOf(DIAGNOSTIC_ADDRESS + 15), page.getItems().get(0).getAddressDez());
+
+		// an offset past the end returns an empty page
+		page = config.getRuntimePage(99 /* offset */, 2 /* limit */);
+		Assert.assertEquals(26, page.getOffset());
+		Assert.assertEquals(26, page.getTotal());
+		Assert.assertTrue(page.getItems().isEmpty());
+
+		// a limit of 0 returns all items, a negative offset starts at the
+		// first item
+		page = config.getRuntimePage(-1 /* offset */, 0 /* limit */);
+		Assert.assertEquals(0, page.getOffset());
+		Assert.assertEquals(26, page.getItems().size());
+		Assert.assertEquals(0, connectCount);
+	}
+
+	@Test
+	public void writeRuntimeExport() throws Exception {
+		List<RuntimeRegisterItem> rt = Arrays.asList(
+				new RuntimeRegisterItem("0x001C", "28", 1, Type.HOLDING, "TagCount, current"),
+				new RuntimeRegisterItem("0x0064", "100", 6, Type.HOLDING, "EPC \"first\"\nof tag"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		config.writeRuntimeExport(rt, ',', false /* gzip */, out);
+		String csv = "Register address (HEX),Register address (DEC),Length (WORD),Register type,Description\n"
+				+ "0x001C,28,1,HOLDING,\"TagCount, current\"\n"
+				+ "0x0064,100,6,HOLDING,\"EPC \"\"first\"\"\nof tag\"\n";
+		Assert.assertEquals(csv, new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+		// the comma is not quoted in TSV
+		out = new ByteArrayOutputStream();
+		config.writeRuntimeExport(rt.subList(0, 1), '\t', false /* gzip */, out);
+		Assert.assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8)
+				.endsWith("0x001C\t28\t1\tHOLDING\tTagCount, current\n"));
+
+		// the gzip stream is complete
+		out = new ByteArrayOutputStream();
+		config.writeRuntimeExport(rt, ',', true /* gzip */, out);
+		// the output stream is not closed
+		out.write('x');
+		byte[] data = out.toByteArray();
+		Assert.assertEquals('x', data[data.length - 1]);
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data, 0, data.length - 1))) {
+			Assert.assertEquals(csv, new String(readAll(in), StandardCharsets.UTF_8));
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int length;
+		while ((length = in.read(buffer)) != -1) {
+			ret.write(buffer, 0, length);
+		}
+		return ret.toByteArray();
+	}
+}
@@ -0,0 +1,127 @@
+package havis.app.modbus.reader;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import havis.app.modbus.reader.api.Field;
+import havis.app.modbus.reader.api.FieldValue;
+import havis.app.modbus.reader.core.FieldProperties;
+import havis.app.modbus.reader.core.ModbusSlaveException;
+import havis.app.modbus.reader.core.RegisterMapping;
+import havis.app.modbus.reader.core.SlaveMetrics;
+import havis.app.modbus.reader.core.SlaveProcessor;
+
+public class SlaveSessionTest {
+
+	private int connectCount;
+	private int disconnectCount;
+
+	private class TestProcessor implements SlaveProcessor {
+
+		@Override
+		public void connect() throws ModbusSlaveException {
+			connectCount++;
+		}
+
+		@Override
+		public void disconnect() throws ModbusSlaveException {
+			disconnectCount++;
+		}
+
+		@Override
+		public FieldProperties getFieldProperties(FieldProperties startFieldProps, Integer selectAddress,
+				Field selectField) {
+			return null;
+		}
+
+		@Override
+		public FieldProperties getFieldProperties(Field field, int fieldGroupIndex) {
+			return null;
+		}
+
+		@Override
+		public FieldProperties[] getFieldProperties(int address, int addressQuantity) {
+			return new FieldProperties[0];
+		}
+
+		@Override
+		public FieldValue[] getConfigFieldValues(Field... fields) throws ModbusSlaveException {
+			return new FieldValue[fields.length];
+		}
+
+		@Override
+		public RegisterMapping acquireMapping() {
+			return null;
+		}
+
+		@Override
+		public RegisterMapping acquireMapping(short functionCode, int address, int addressQuantity) {
+			return null;
+		}
+
+		@Override
+		public void releaseMapping() {
+		}
+
+		@Override
+		public void read(short functionCode, int address, int addressQuantity, RegisterMapping mapping)
+				throws ModbusSlaveException {
+		}
+
+		@Override
+		public RegisterMapping write(short functionCode, int address, int addressQuantity, Date timeStamp,
+				RegisterMapping mapping) throws ModbusSlaveException {
+			return mapping;
+		}
+
+		@Override
+		public SlaveMetrics getMetrics() {
+			return null;
+		}
+	}
+
+	@Test
+	public void idleTimeout() throws Exception {
+		SlaveSession session = new SlaveSession(new TestProcessor(), 200 /* idleTimeout */);
+		// nested leases share the connection
+		session.acquire();
+		session.acquire();
+		session.release();
+		session.release();
+		// a lease within the idle time reuses the connection
+		session.acquire();
+		session.release();
+		Assert.assertEquals(1, connectCount);
+		Assert.assertEquals(0, disconnectCount);
+		Assert.assertTrue(session.isConnected());
+		// the session is disconnected after the idle time
+		Thread.sleep(400);
+		Assert.assertFalse(session.isConnected());
+		Assert.assertEquals(1, disconnectCount);
+
+		session.acquire();
+		session.release();
+		Assert.assertEquals(2, connectCount);
+		// an idle session is disconnected when it is closed
+		session.close();
+		Assert.assertFalse(session.isConnected());
+		Assert.assertEquals(2, disconnectCount);
+		// leases after closing disconnect immediately
+		session.acquire();
+		session.release();
+		Assert.assertEquals(3, connectCount);
+		Assert.assertEquals(3, disconnectCount);
+	}
+
+	@Test
+	public void noIdleTimeout() throws Exception {
+		SlaveSession session = new SlaveSession(new TestProcessor(), 0 /* idleTimeout */);
+		session.acquire();
+		session.release();
+		Assert.assertFalse(session.isConnected());
+		Assert.assertEquals(1, connectCount);
+		Assert.assertEquals(1, disconnectCount);
+	}
+}
@@ -5,8 +5,18 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 import havis.app.modbus.reader.core.FieldSerializerTest;
+import havis.app.modbus.reader.core.MetricsHistogramTest;
+import havis.app.modbus.reader.core.ModbusSlaveProcessorTest;
+import havis.app.modbus.reader.core.NioModbusSlaveTest;
+import havis.app.modbus.reader.core.RegisterCodecTest;
+import havis.app.modbus.reader.core.RequestTracerTest;
+import havis.app.modbus.reader.rf.AddressIndexTest;
+import havis.app.modbus.reader.rf.RfConnectorTest;
+import havis.app.modbus.reader.rf.TagMemoryCacheTest;
 
 @RunWith(Suite.class)
-@SuiteClasses({ FieldSerializerTest.class })
+@SuiteClasses({ AddressIndexTest.class, FieldSerializerTest.class, MetricsHistogramTest.class, ModbusReaderConfigurationTest.class,
+		ModbusSlaveProcessorTest.class, NioModbusSlaveTest.class, RegisterCodecTest.class, RequestTracerTest.class,
+		RfConnectorTest.class, SlaveSessionTest.class, TagMemoryCacheTest.class })
 public class TestSuite {
 }
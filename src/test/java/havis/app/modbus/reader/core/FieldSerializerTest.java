@@ -1,5 +1,8 @@
 package havis.app.modbus.reader.core;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -25,19 +28,14 @@ public class FieldSerializerTest {
 	}
 
 	@Test
-	public void readWrite() throws Exception {
+	public void read() throws Exception {
 		FieldSerializer fs = new FieldSerializer();
-		Map<Field, List<FieldValue>> fieldValues = new HashMap<>();
-		fieldValues.put(new Field(0), Arrays.asList(new FieldValue(new boolean[] { true })));
-		fieldValues.put(new Field(1), Arrays.asList(new FieldValue(new byte[] { 3, 4 })));
-		fieldValues.put(new Field(2), Arrays.asList(new FieldValue(new float[] { (float) 5.1 })));
-		fieldValues.put(new Field(3), Arrays.asList(new FieldValue(new short[] { (short) 6 })));
-		fieldValues.put(new Field(4), Arrays.asList(new FieldValue(new String[] { "aä" })));
-		fieldValues.put(new Field(5), Arrays.asList(new FieldValue(new int[] { 7 }), new FieldValue(new int[] { 8, 9 })));
 		Path file = basePath.resolve("fields.properties");
-		fs.write(fieldValues, file);
+		// properties files are encoded in ISO 8859-1
+		Files.write(file, Arrays.asList("0=BOOLEAN true", "1=BYTE 0304", "2=FLOAT 5.1", "3=SHORT 6",
+				"4=STRING \"a\\u00E4\"", "5=USHORT 7;USHORT 8,9"), StandardCharsets.ISO_8859_1);
 
-		fieldValues = fs.read(file);
+		Map<Field, List<FieldValue>> fieldValues = fs.read(file);
 		Assert.assertTrue(fieldValues.get(new Field(0)).get(0).getBooleanValue()[0]);
 		Assert.assertEquals(fieldValues.get(new Field(1)).get(0).getByteValue()[0], 3);
 		Assert.assertEquals(fieldValues.get(new Field(1)).get(0).getByteValue()[1], 4);
@@ -49,6 +47,46 @@ public class FieldSerializerTest {
 		Assert.assertEquals(fieldValues.get(new Field(5)).get(1).getUShortValue()[1], 9);
 	}
 
+	@Test
+	public void readWriteBinary() throws Exception {
+		FieldSerializer fs = new FieldSerializer();
+		Map<Field, List<FieldValue>> fieldValues = new HashMap<>();
+		fieldValues.put(new Field(0), Arrays.asList(new FieldValue(new boolean[] { true, false })));
+		fieldValues.put(new Field(1), Arrays.asList(new FieldValue(new byte[] { 3, 4 })));
+		fieldValues.put(new Field(2), Arrays.asList(new FieldValue(new float[] { (float) 5.1 })));
+		fieldValues.put(new Field(3), Arrays.asList(new FieldValue(new short[] { (short) -6 })));
+		fieldValues.put(new Field(4), Arrays.asList(new FieldValue(new String[] { "a;ä,\"", null })));
+		fieldValues.put(new Field(5), Arrays.asList(new FieldValue(new int[] { 7 }), null,
+				new FieldValue(new int[] { 8, 0xFFFF })));
+		Path file = basePath.resolve("fields.bin");
+		fs.writeBinary(fieldValues, file);
+		Assert.assertEquals(fieldValues, fs.readBinary(file));
+
+		// corrupt the last value
+		byte[] data = Files.readAllBytes(file);
+		data[data.length - 5] ^= 1;
+		Files.write(file, data);
+		try {
+			fs.readBinary(file);
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Invalid checksum"));
+		}
+
+		// the temporary file is deleted if the file cannot be replaced
+		Path dir = Files.createTempDirectory(basePath, "fields");
+		Path dirFile = Files.createFile(dir.resolve("file"));
+		try {
+			fs.writeBinary(fieldValues, dir);
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertFalse(Files.exists(dir.resolveSibling(dir.getFileName() + ".tmp")));
+		} finally {
+			Files.delete(dirFile);
+			Files.delete(dir);
+		}
+	}
+
 	@Test
 	public void serializeDeserialize() {
 		FieldSerializer fs = new FieldSerializer();
@@ -0,0 +1,57 @@
+package havis.app.modbus.reader.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsHistogramTest {
+
+	@Test
+	public void percentiles() {
+		MetricsHistogram histogram = new MetricsHistogram();
+		Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		Assert.assertEquals(1000, histogram.getCount());
+		Assert.assertEquals(500500, histogram.getSum());
+		Assert.assertEquals(500.5, histogram.getMean(), 0.001);
+		Assert.assertEquals(1000, histogram.getMax());
+		// the relative error is at most 25%
+		assertApproximately(500, histogram.getValueAtPercentile(50));
+		assertApproximately(990, histogram.getValueAtPercentile(99));
+		Assert.assertEquals(1000, histogram.getValueAtPercentile(100));
+		// small values are exact
+		histogram = new MetricsHistogram();
+		histogram.record(-1);
+		histogram.record(3);
+		Assert.assertEquals(0, histogram.getValueAtPercentile(50));
+		Assert.assertEquals(3, histogram.getValueAtPercentile(100));
+	}
+
+	private void assertApproximately(long expected, long actual) {
+		Assert.assertTrue("Expected ~" + expected + ", got " + actual,
+				actual >= expected && actual <= expected * 1.25);
+	}
+
+	@Test
+	public void concurrentRecording() throws Exception {
+		final MetricsHistogram histogram = new MetricsHistogram();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						histogram.record(j);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(40000, histogram.getCount());
+		Assert.assertEquals(9999, histogram.getMax());
+	}
+}
@@ -0,0 +1,523 @@
+package havis.app.modbus.reader.core;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import havis.app.modbus.reader.api.Field;
+import havis.app.modbus.reader.api.FieldValue;
+import havis.app.modbus.reader.api.Module;
+import havis.app.modbus.reader.api.ModuleException;
+import havis.app.modbus.reader.core.FieldProperties.FieldDataType;
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+
+public class ModbusSlaveProcessorTest {
+
+	// a holding register per region
+	private static final int MEMORY_ADDRESS = 0;
+	private static final int CONFIG_ADDRESS = 1;
+	private static final int DEVICE_ADDRESS = 2;
+	private static final int FIELD_COUNT = 3;
+	// the memory field at the device address after a remapping
+	private static final int REMAPPED_FIELD = 3;
+
+	private Path baseDir;
+	private TestSlave slave;
+	private TestModule module;
+	private ModbusSlaveProcessor processor;
+	private ExecutorService threadPool;
+
+	/**
+	 * A module with a field per region. Reading the device field blocks until
+	 * it is released. Like the RF connector, the device field and the config
+	 * field are accessed exclusively by default.
+	 */
+	private static class TestModule implements Module {
+		private final Map<Field, FieldValue> values = new HashMap<>();
+		private final Lock serviceLock = new ReentrantLock();
+		final CountDownLatch deviceStarted = new CountDownLatch(1);
+		final CountDownLatch deviceReleased = new CountDownLatch(1);
+		volatile int openCount;
+		volatile int closeCount;
+		// the count of complete expansions
+		volatile int expansionCount;
+		// the field of the last expansion of a changed field
+		volatile Field expandedField;
+		// the count of fields after the next expansion of a changed field (0:
+		// the layout is kept)
+		volatile int expandedFieldCount;
+		private volatile int fieldCount = FIELD_COUNT;
+		volatile int deviceCount;
+		// whether the config field is written without waiting for the device
+		volatile boolean isConfigShared;
+		// whether writing the config field maps the device address to a
+		// memory field
+		volatile boolean isRemapping;
+		private volatile boolean isRemapped;
+
+		@Override
+		public void configure(Properties configProps) throws ModuleException {
+		}
+
+		@Override
+		public void setMetrics(SlaveMetrics metrics) {
+		}
+
+		@Override
+		public void open(int timeout) throws ModuleException {
+			openCount++;
+		}
+
+		@Override
+		public void close(int timeout) throws ModuleException {
+			closeCount++;
+		}
+
+		@Override
+		public void expandFields() {
+			expansionCount++;
+		}
+
+		@Override
+		public int expandFields(Field changedField) {
+			expandedField = changedField;
+			if (isRemapping) {
+				isRemapped = true;
+				return DEVICE_ADDRESS;
+			}
+			// the existing fields are kept
+			int ret = fieldCount;
+			if (expandedFieldCount > 0) {
+				ret = Math.min(fieldCount, expandedFieldCount);
+				fieldCount = expandedFieldCount;
+			}
+			return ret;
+		}
+
+		@Override
+		public int getEndAddress(FieldType type) {
+			return type == FieldType.HOLDING_REGISTERS ? fieldCount : 0;
+		}
+
+		@Override
+		public FieldProperties getFieldProperties(FieldProperties startFieldProps, Integer selectAddress,
+				Field selectField) {
+			// the end of the fields
+			return new FieldProperties(fieldCount, new Field[0]);
+		}
+
+		@Override
+		public FieldProperties getFieldProperties(Field field, int fieldGroupIndex) {
+			return getFieldProperties(field.getId());
+		}
+
+		@Override
+		public FieldProperties[] getFieldProperties(int address, int addressQuantity) {
+			int end = Math.min(address + addressQuantity, fieldCount);
+			FieldProperties[] ret = new FieldProperties[Math.max(end - address, 0)];
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = getFieldProperties(address + i);
+			}
+			return ret;
+		}
+
+		private FieldProperties getFieldProperties(int address) {
+			FieldProperties ret = new FieldProperties(address, new Field[0]);
+			if (isRemapped && address == DEVICE_ADDRESS) {
+				address = REMAPPED_FIELD;
+			}
+			ret.setField(new Field(address));
+			ret.setAddressQuantity(1);
+			ret.setType(FieldType.HOLDING_REGISTERS);
+			ret.setDataType(FieldDataType.USHORT);
+			ret.setFieldGroupIndex(0);
+			ret.setConfigField(address == CONFIG_ADDRESS);
+			ret.setDeviceField(address == DEVICE_ADDRESS);
+			return ret;
+		}
+
+		@Override
+		public FieldValue getFieldValue(Field field, int fieldGroupIndex) throws ModuleException {
+			if (field.getId() == DEVICE_ADDRESS) {
+				deviceCount++;
+				serviceLock.lock();
+				try {
+					deviceStarted.countDown();
+					deviceReleased.await();
+				} catch (InterruptedException e) {
+					throw new ModuleException("Interrupted", e);
+				} finally {
+					serviceLock.unlock();
+				}
+			}
+			synchronized (values) {
+				FieldValue ret = values.get(field);
+				return ret == null ? new FieldValue(new int[] { 0 }) : ret;
+			}
+		}
+
+		@Override
+		public void setFieldValue(Field field, int fieldGroupIndex, FieldValue value) throws ModuleException {
+			if (isConfigShared) {
+				synchronized (values) {
+					values.put(field, value);
+				}
+				return;
+			}
+			serviceLock.lock();
+			try {
+				synchronized (values) {
+					values.put(field, value);
+				}
+			} finally {
+				serviceLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * A slave which records the destroyed mappings.
+	 */
+	private static class TestSlave extends NioModbusSlave {
+		final List<RegisterMapping> destroyedMappings = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void destroyMapping(RegisterMapping mapping) {
+			destroyedMappings.add(mapping);
+			super.destroyMapping(mapping);
+		}
+	}
+
+	@Before
+	public void open() throws Exception {
+		baseDir = Files.createTempDirectory("processor");
+		Files.write(baseDir.resolve("dfltFields.properties"),
+				Arrays.asList(MEMORY_ADDRESS + "=USHORT 7", CONFIG_ADDRESS + "=USHORT 3"), StandardCharsets.UTF_8);
+		connect();
+		threadPool = Executors.newCachedThreadPool();
+	}
+
+	private void connect() throws Exception {
+		connect(0 /* lingerTime */);
+	}
+
+	private void connect(int lingerTime) throws Exception {
+		slave = new TestSlave();
+		module = new TestModule();
+		processor = new ModbusSlaveProcessor(baseDir, baseDir, 3000 /* openCloseTimeout */, lingerTime, slave,
+				module, new RequestTracer());
+		processor.connect();
+	}
+
+	@After
+	public void close() throws Exception {
+		module.deviceReleased.countDown();
+		threadPool.shutdown();
+		Assert.assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+		processor.disconnect();
+		for (String file : new String[] { "dfltFields.properties", "fields.properties", "fields.bin",
+				"fields.bin.corrupt" }) {
+			Files.deleteIfExists(baseDir.resolve(file));
+		}
+		Files.delete(baseDir);
+	}
+
+	private Future<Integer> read(final int address) {
+		return threadPool.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				RegisterMapping mapping = processor.acquireMapping(FunctionCode.READ_HOLDING_REGISTERS, address,
+						1 /* addressQuantity */);
+				try {
+					processor.read(FunctionCode.READ_HOLDING_REGISTERS, address, 1 /* addressQuantity */, mapping);
+					short[] registers = new short[1];
+					mapping.getRegisters(FieldType.HOLDING_REGISTERS, address, registers, 0 /* destOffset */,
+							1 /* quantity */);
+					return (int) registers[0];
+				} finally {
+					processor.releaseMapping();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return The future of the mapping for the reply
+	 */
+	private Future<RegisterMapping> write(final int address, final int value) {
+		return threadPool.submit(new Callable<RegisterMapping>() {
+			@Override
+			public RegisterMapping call() throws Exception {
+				RegisterMapping mapping = processor.acquireMapping(FunctionCode.WRITE_SINGLE_REGISTER, address,
+						1 /* addressQuantity */);
+				try {
+					mapping.setRegisters(FieldType.HOLDING_REGISTERS, address, new short[] { (short) value },
+							0 /* srcOffset */, 1 /* quantity */);
+					return processor.write(FunctionCode.WRITE_SINGLE_REGISTER, address, 1 /* addressQuantity */,
+							new Date(), mapping);
+				} finally {
+					processor.releaseMapping();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return The current mapping
+	 */
+	private RegisterMapping getMapping() {
+		RegisterMapping ret = processor.acquireMapping();
+		processor.releaseMapping();
+		return ret;
+	}
+
+	private int getRegister(RegisterMapping mapping, int address) throws ModbusSlaveException {
+		short[] registers = new short[1];
+		mapping.getRegisters(FieldType.HOLDING_REGISTERS, address, registers, 0 /* destOffset */, 1 /* quantity */);
+		return registers[0];
+	}
+
+	private byte[] request(Socket socket, byte... pdu) throws Exception {
+		byte[] adu = new byte[7 + pdu.length];
+		adu[5] = (byte) (pdu.length + 1);
+		adu[6] = 1; // unit identifier
+		System.arraycopy(pdu, 0, adu, 7, pdu.length);
+		OutputStream out = socket.getOutputStream();
+		out.write(adu);
+		out.flush();
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		// transaction identifier, protocol identifier
+		in.readInt();
+		int length = in.readUnsignedShort();
+		Assert.assertEquals(1, in.readUnsignedByte());
+		byte[] ret = new byte[length - 1];
+		in.readFully(ret);
+		return ret;
+	}
+
+	@Test
+	public void memoryReadDuringDeviceAccess() throws Exception {
+		Future<Integer> deviceRead = read(DEVICE_ADDRESS);
+		Assert.assertTrue(module.deviceStarted.await(5, TimeUnit.SECONDS));
+		Future<RegisterMapping> configWrite = write(CONFIG_ADDRESS, 4);
+		// give the config write the time to queue for the field structure
+		Thread.sleep(100);
+		// neither the device read nor the config write delay the memory read
+		Assert.assertEquals(7, read(MEMORY_ADDRESS).get(5, TimeUnit.SECONDS).intValue());
+		// the config write waits for the device
+		Assert.assertFalse(configWrite.isDone());
+		module.deviceReleased.countDown();
+		Assert.assertEquals(0, deviceRead.get(5, TimeUnit.SECONDS).intValue());
+		configWrite.get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(4, read(CONFIG_ADDRESS).get(5, TimeUnit.SECONDS).intValue());
+	}
+
+	@Test
+	public void remapDuringDeviceAccess() throws Exception {
+		module.isConfigShared = true;
+		module.isRemapping = true;
+		module.setFieldValue(new Field(REMAPPED_FIELD), 0 /* fieldGroupIndex */, new FieldValue(new int[] { 9 }));
+		Future<Integer> deviceRead = read(DEVICE_ADDRESS);
+		Assert.assertTrue(module.deviceStarted.await(5, TimeUnit.SECONDS));
+		// the fields are remapped while the device is accessed
+		write(CONFIG_ADDRESS, 4).get(5, TimeUnit.SECONDS);
+		Assert.assertFalse(deviceRead.isDone());
+		module.deviceReleased.countDown();
+		// the value of the field which covers the address after the
+		// remapping is returned instead of the device value
+		Assert.assertEquals(9, deviceRead.get(5, TimeUnit.SECONDS).intValue());
+		Assert.assertEquals(1, module.deviceCount);
+		Assert.assertEquals(9, read(DEVICE_ADDRESS).get(5, TimeUnit.SECONDS).intValue());
+	}
+
+	@Test
+	public void remapBeforeMappingAcquired() throws Exception {
+		module.expandedFieldCount = 5;
+		Future<Integer> deviceRead = read(DEVICE_ADDRESS);
+		Assert.assertTrue(module.deviceStarted.await(5, TimeUnit.SECONDS));
+		// the config write waits for the device
+		Future<RegisterMapping> configWrite = write(CONFIG_ADDRESS, 4);
+		Thread.sleep(100);
+		// the config read resolves its regions and waits for the config write
+		Future<Integer> configRead = read(CONFIG_ADDRESS);
+		Thread.sleep(100);
+		long acquisitionCount = processor.getMetrics().getMappingLockWaits().getCount();
+		module.deviceReleased.countDown();
+		configWrite.get(5, TimeUnit.SECONDS);
+		deviceRead.get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(4, configRead.get(5, TimeUnit.SECONDS).intValue());
+		// the fields have been remapped in the meantime, so the config read
+		// has acquired the mapping of the new version again
+		Assert.assertEquals(acquisitionCount + 2, processor.getMetrics().getMappingLockWaits().getCount());
+	}
+
+	@Test
+	public void resizeMapping() throws Exception {
+		Assert.assertEquals(7, read(MEMORY_ADDRESS).get(5, TimeUnit.SECONDS).intValue());
+		RegisterMapping mapping = getMapping();
+		module.expandedFieldCount = 5;
+		// no other request has pinned the mapping, so it is resized in place
+		Assert.assertSame(mapping, write(CONFIG_ADDRESS, 4).get(5, TimeUnit.SECONDS));
+		Assert.assertSame(mapping, getMapping());
+		// only the fields which depend on the written field are expanded
+		Assert.assertEquals(new Field(CONFIG_ADDRESS), module.expandedField);
+		Assert.assertEquals(1, module.expansionCount);
+		Assert.assertEquals(5, mapping.getSize(FieldType.HOLDING_REGISTERS));
+		Assert.assertEquals(7, getRegister(mapping, MEMORY_ADDRESS));
+		Assert.assertTrue(slave.destroyedMappings.isEmpty());
+
+		// a device read pins the mapping, so a new mapping is created
+		module.isConfigShared = true;
+		Future<Integer> deviceRead = read(DEVICE_ADDRESS);
+		Assert.assertTrue(module.deviceStarted.await(5, TimeUnit.SECONDS));
+		module.expandedFieldCount = 7;
+		RegisterMapping copy = write(CONFIG_ADDRESS, 5).get(5, TimeUnit.SECONDS);
+		Assert.assertNotSame(mapping, copy);
+		Assert.assertEquals(5, mapping.getSize(FieldType.HOLDING_REGISTERS));
+		Assert.assertEquals(7, copy.getSize(FieldType.HOLDING_REGISTERS));
+		// the valid addresses have been copied
+		Assert.assertEquals(7, getRegister(copy, MEMORY_ADDRESS));
+		// the previous mapping is destroyed when the device read has finished
+		Assert.assertTrue(slave.destroyedMappings.isEmpty());
+		module.deviceReleased.countDown();
+		Assert.assertEquals(0, deviceRead.get(5, TimeUnit.SECONDS).intValue());
+		Assert.assertEquals(Arrays.asList(mapping), slave.destroyedMappings);
+		Assert.assertSame(copy, getMapping());
+	}
+
+	@Test
+	public void addressPastTableEnd() throws Exception {
+		// each table is sized to the fields of its type
+		RegisterMapping mapping = getMapping();
+		Assert.assertEquals(FIELD_COUNT, mapping.getSize(FieldType.HOLDING_REGISTERS));
+		Assert.assertEquals(0, mapping.getSize(FieldType.INPUT_REGISTERS));
+		Assert.assertEquals(0, mapping.getSize(FieldType.COILS));
+		slave.open("0" /* port */, 1 /* maxConnectionCount */, 1 /* workerCount */, 3000 /* openCloseTimeout */,
+				processor);
+		Future<?> slaveFuture = threadPool.submit(new Runnable() {
+			@Override
+			public void run() {
+				slave.run();
+			}
+		});
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), slave.getLocalPort())) {
+			// fail instead of waiting for a missing response
+			socket.setSoTimeout(5000);
+			Assert.assertArrayEquals(new byte[] { 0x03, 2, 0, 7 }, request(socket, new byte[] { 0x03, 0, 0, 0, 1 }));
+			// illegal data address
+			Assert.assertArrayEquals(new byte[] { (byte) 0x83, 0x02 },
+					request(socket, new byte[] { 0x03, 0, FIELD_COUNT - 1, 0, 2 }));
+			Assert.assertArrayEquals(new byte[] { (byte) 0x84, 0x02 },
+					request(socket, new byte[] { 0x04, 0, 0, 0, 1 }));
+			Assert.assertArrayEquals(new byte[] { (byte) 0x81, 0x02 },
+					request(socket, new byte[] { 0x01, 0, 0, 0, 1 }));
+		} finally {
+			slave.close();
+			slaveFuture.get(5, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void lingerAfterDisconnect() throws Exception {
+		processor.disconnect();
+		connect(500 /* lingerTime */);
+		RegisterMapping mapping = getMapping();
+		processor.disconnect();
+		// a reconnect within the linger time reuses the open module and the
+		// mapping
+		processor.connect();
+		Assert.assertEquals(1, module.openCount);
+		Assert.assertEquals(0, module.closeCount);
+		Assert.assertSame(mapping, getMapping());
+		// the module is closed after the linger time
+		processor.disconnect();
+		long end = System.currentTimeMillis() + 5000;
+		while (module.closeCount == 0 && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, module.closeCount);
+		Assert.assertEquals(Arrays.asList(mapping), slave.destroyedMappings);
+		processor.connect();
+		Assert.assertEquals(2, module.openCount);
+		processor.disconnect();
+		processor.close();
+		Assert.assertEquals(2, module.closeCount);
+	}
+
+	@Test
+	public void getConfigFieldValues() throws Exception {
+		write(CONFIG_ADDRESS, 4).get(5, TimeUnit.SECONDS);
+		// the values are read from the open module, the device is not
+		// accessed
+		FieldValue[] values = processor.getConfigFieldValues(new Field(CONFIG_ADDRESS), new Field(DEVICE_ADDRESS));
+		Assert.assertEquals(4, values[0].getUShortValue()[0]);
+		Assert.assertNull(values[1]);
+		Assert.assertEquals(1, module.deviceStarted.getCount());
+
+		// the stored values are read without opening the module
+		processor.disconnect();
+		values = processor.getConfigFieldValues(new Field(CONFIG_ADDRESS));
+		Assert.assertEquals(4, values[0].getUShortValue()[0]);
+		Assert.assertEquals(1, module.openCount);
+	}
+
+	@Test
+	public void migrateFieldValues() throws Exception {
+		processor.disconnect();
+		Files.deleteIfExists(baseDir.resolve("fields.bin"));
+		Files.write(baseDir.resolve("fields.properties"),
+				Arrays.asList(MEMORY_ADDRESS + "=USHORT 5", CONFIG_ADDRESS + "=USHORT 4"), StandardCharsets.UTF_8);
+		connect();
+		Assert.assertEquals(5, read(MEMORY_ADDRESS).get(5, TimeUnit.SECONDS).intValue());
+		Assert.assertEquals(4, read(CONFIG_ADDRESS).get(5, TimeUnit.SECONDS).intValue());
+		// the field values have been migrated to the binary format
+		Assert.assertFalse(Files.exists(baseDir.resolve("fields.properties")));
+		Map<Field, List<FieldValue>> fieldValues = new FieldSerializer().readBinary(baseDir.resolve("fields.bin"));
+		Assert.assertEquals(5, fieldValues.get(new Field(MEMORY_ADDRESS)).get(0).getUShortValue()[0]);
+		Assert.assertEquals(4, fieldValues.get(new Field(CONFIG_ADDRESS)).get(0).getUShortValue()[0]);
+	}
+
+	@Test
+	public void readTruncatedFieldValues() throws Exception {
+		processor.disconnect();
+		Path file = baseDir.resolve("fields.bin");
+		Map<Field, List<FieldValue>> fieldValues = new HashMap<>();
+		fieldValues.put(new Field(MEMORY_ADDRESS), Arrays.asList(new FieldValue(new int[] { 5 })));
+		fieldValues.put(new Field(CONFIG_ADDRESS), Arrays.asList(new FieldValue(new int[] { 4 })));
+		new FieldSerializer().writeBinary(fieldValues, file);
+		byte[] data = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(data, data.length - 2));
+		connect();
+		// the default field values are used
+		Assert.assertEquals(7, read(MEMORY_ADDRESS).get(5, TimeUnit.SECONDS).intValue());
+		Assert.assertEquals(3, read(CONFIG_ADDRESS).get(5, TimeUnit.SECONDS).intValue());
+		// the corrupt file is kept
+		Assert.assertFalse(Files.exists(file));
+		Assert.assertArrayEquals(Arrays.copyOf(data, data.length - 2),
+				Files.readAllBytes(baseDir.resolve("fields.bin.corrupt")));
+	}
+}
@@ -0,0 +1,254 @@
+package havis.app.modbus.reader.core;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import havis.app.modbus.reader.api.Field;
+import havis.app.modbus.reader.api.FieldValue;
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+
+public class NioModbusSlaveTest {
+
+	private NioModbusSlave slave;
+	private RegisterMapping mapping;
+	private int writeCount;
+	private RuntimeException readFailure;
+	private SlaveMetrics metrics = new SlaveMetrics();
+	private ExecutorService threadPool;
+	private Future<?> slaveFuture;
+	private Socket socket;
+
+	private class TestProcessor implements SlaveProcessor {
+
+		@Override
+		public void connect() throws ModbusSlaveException {
+		}
+
+		@Override
+		public void disconnect() throws ModbusSlaveException {
+		}
+
+		@Override
+		public FieldProperties getFieldProperties(FieldProperties startFieldProps, Integer selectAddress,
+				Field selectField) {
+			return null;
+		}
+
+		@Override
+		public FieldProperties getFieldProperties(Field field, int fieldGroupIndex) {
+			return null;
+		}
+
+		@Override
+		public FieldProperties[] getFieldProperties(int address, int addressQuantity) {
+			return new FieldProperties[0];
+		}
+
+		@Override
+		public FieldValue[] getConfigFieldValues(Field... fields) throws ModbusSlaveException {
+			return new FieldValue[fields.length];
+		}
+
+		@Override
+		public RegisterMapping acquireMapping() {
+			return mapping;
+		}
+
+		@Override
+		public RegisterMapping acquireMapping(short functionCode, int address, int addressQuantity) {
+			return mapping;
+		}
+
+		@Override
+		public void releaseMapping() {
+		}
+
+		@Override
+		public void read(short functionCode, int address, int addressQuantity, RegisterMapping mapping)
+				throws ModbusSlaveException {
+			if (readFailure != null) {
+				throw readFailure;
+			}
+		}
+
+		@Override
+		public RegisterMapping write(short functionCode, int address, int addressQuantity, Date timeStamp,
+				RegisterMapping mapping) throws ModbusSlaveException {
+			writeCount++;
+			return mapping;
+		}
+
+		@Override
+		public SlaveMetrics getMetrics() {
+			return metrics;
+		}
+	}
+
+	@Before
+	public void open() throws Exception {
+		slave = new NioModbusSlave();
+		mapping = slave.createMapping(16 /* coils */, 16 /* discreteInputs */, 8 /* holdingRegisters */,
+				8 /* inputRegisters */);
+		slave.open("0" /* port */, 2 /* maxConnectionCount */, 2 /* workerCount */, 3000 /* openCloseTimeout */,
+				new TestProcessor());
+		threadPool = Executors.newFixedThreadPool(1);
+		slaveFuture = threadPool.submit(new Runnable() {
+			@Override
+			public void run() {
+				slave.run();
+			}
+		});
+		socket = new Socket(InetAddress.getLoopbackAddress(), slave.getLocalPort());
+		// fail instead of waiting for a missing response
+		socket.setSoTimeout(5000);
+	}
+
+	@After
+	public void close() throws Exception {
+		socket.close();
+		slave.close();
+		slaveFuture.get();
+		threadPool.shutdown();
+	}
+
+	private byte[] request(int transactionId, byte... pdu) throws Exception {
+		byte[] adu = new byte[7 + pdu.length];
+		adu[0] = (byte) (transactionId >> 8);
+		adu[1] = (byte) transactionId;
+		adu[4] = (byte) ((pdu.length + 1) >> 8);
+		adu[5] = (byte) (pdu.length + 1);
+		adu[6] = 1; // unit identifier
+		System.arraycopy(pdu, 0, adu, 7, pdu.length);
+		OutputStream out = socket.getOutputStream();
+		out.write(adu);
+		out.flush();
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		Assert.assertEquals(transactionId, in.readUnsignedShort());
+		Assert.assertEquals(0, in.readUnsignedShort());
+		int length = in.readUnsignedShort();
+		Assert.assertEquals(1, in.readUnsignedByte());
+		byte[] ret = new byte[length - 1];
+		in.readFully(ret);
+		return ret;
+	}
+
+	@Test
+	public void readRegisters() throws Exception {
+		mapping.setRegisters(FieldType.HOLDING_REGISTERS, 2 /* address */, new short[] { 0x1234, (short) 0xABCD },
+				0 /* srcOffset */, 2 /* quantity */);
+		Assert.assertArrayEquals(new byte[] { 0x03, 4, 0x12, 0x34, (byte) 0xAB, (byte) 0xCD },
+				request(1, new byte[] { 0x03, 0, 2, 0, 2 }));
+	}
+
+	@Test
+	public void readBits() throws Exception {
+		mapping.setBits(FieldType.DISCRETE_INPUTS, 0 /* address */,
+				new byte[] { 1, 0, 1, 1, 0, 0, 0, 0, 0, 1 }, 0 /* srcOffset */, 10 /* quantity */);
+		Assert.assertArrayEquals(new byte[] { 0x02, 2, 0x0D, 0x02 }, request(2, new byte[] { 0x02, 0, 0, 0, 10 }));
+	}
+
+	@Test
+	public void writeRegisters() throws Exception {
+		Assert.assertArrayEquals(new byte[] { 0x10, 0, 6, 0, 2 },
+				request(3, new byte[] { 0x10, 0, 6, 0, 2, 4, 0x00, 0x01, (byte) 0xFF, (byte) 0xFE }));
+		short[] registers = new short[2];
+		mapping.getRegisters(FieldType.HOLDING_REGISTERS, 6 /* address */, registers, 0 /* destOffset */,
+				2 /* quantity */);
+		Assert.assertArrayEquals(new short[] { 1, -2 }, registers);
+		Assert.assertEquals(1, writeCount);
+
+		Assert.assertArrayEquals(new byte[] { 0x05, 0, 9, (byte) 0xFF, 0 },
+				request(4, new byte[] { 0x05, 0, 9, (byte) 0xFF, 0 }));
+		byte[] bits = new byte[1];
+		mapping.getBits(FieldType.COILS, 9 /* address */, bits, 0 /* destOffset */, 1 /* quantity */);
+		Assert.assertEquals(1, bits[0]);
+		Assert.assertEquals(2, writeCount);
+	}
+
+	@Test
+	public void exceptions() throws Exception {
+		// illegal function
+		Assert.assertArrayEquals(new byte[] { (byte) 0x97, 0x01 }, request(5, new byte[] { 0x17, 0, 0, 0, 1 }));
+		// illegal data address
+		Assert.assertArrayEquals(new byte[] { (byte) 0x84, 0x02 }, request(6, new byte[] { 0x04, 0, 7, 0, 2 }));
+		// illegal data value
+		Assert.assertArrayEquals(new byte[] { (byte) 0x83, 0x03 }, request(7, new byte[] { 0x03, 0, 0, 0, 126 }));
+		Assert.assertEquals(0, writeCount);
+		// the exception replies are recorded per exception code
+		Assert.assertEquals(3, metrics.getRequestCount());
+		Assert.assertEquals(3, metrics.getExceptionReplyCount());
+		Assert.assertEquals(Long.valueOf(1), metrics.getExceptionReplies().get(0x02));
+		Assert.assertEquals(1, metrics.getRequestLatencies().get((short) 0x17).getCount());
+		Assert.assertEquals(1, metrics.getActiveConnections());
+	}
+
+	@Test
+	public void unexpectedFailure() throws Exception {
+		readFailure = new IllegalStateException("test");
+		// slave or server failure
+		Assert.assertArrayEquals(new byte[] { (byte) 0x83, 0x04 }, request(10, new byte[] { 0x03, 0, 0, 0, 1 }));
+		// the failed request has been consumed
+		readFailure = null;
+		Assert.assertArrayEquals(new byte[] { 0x03, 2, 0, 0 }, request(11, new byte[] { 0x03, 0, 0, 0, 1 }));
+		Assert.assertEquals(2, metrics.getRequestCount());
+	}
+
+	@Test
+	public void pipelinedRequests() throws Exception {
+		mapping.setRegisters(FieldType.INPUT_REGISTERS, 0 /* address */, new short[] { 7 }, 0 /* srcOffset */,
+				1 /* quantity */);
+		// send more requests at once than are processed at once
+		int count = NioModbusSlave.MAX_PIPELINED_REQUESTS + 2;
+		byte[] adus = new byte[12 * count];
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(new byte[] { 0, (byte) i, 0, 0, 0, 6, 1, 0x04, 0, 0, 0, 1 }, 0, adus, i * 12, 12);
+		}
+		socket.getOutputStream().write(adus);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		for (int transactionId = 0; transactionId < count; transactionId++) {
+			byte[] response = new byte[11];
+			in.readFully(response);
+			Assert.assertArrayEquals(new byte[] { 0, (byte) transactionId, 0, 0, 0, 5, 1, 0x04, 2, 0, 7 }, response);
+		}
+	}
+
+	@Test
+	public void resizeMapping() throws Exception {
+		mapping.setRegisters(FieldType.INPUT_REGISTERS, 0 /* address */, new short[] { 1, 2, 3 }, 0 /* srcOffset */,
+				3 /* quantity */);
+		// grow beyond the capacity
+		Assert.assertTrue(slave.resizeMapping(mapping, 40 /* coils */, 40 /* discreteInputs */,
+				40 /* holdingRegisters */, 40 /* inputRegisters */, 2 /* validAddressQuantity */));
+		Assert.assertEquals(40, mapping.getSize(FieldType.INPUT_REGISTERS));
+		short[] registers = new short[3];
+		mapping.getRegisters(FieldType.INPUT_REGISTERS, 0 /* address */, registers, 0 /* destOffset */,
+				3 /* quantity */);
+		Assert.assertArrayEquals(new short[] { 1, 2, 0 }, registers);
+		// shrink within the capacity
+		Assert.assertTrue(slave.resizeMapping(mapping, 4, 4, 4, 4, 4 /* validAddressQuantity */));
+		Assert.assertEquals(4, mapping.getSize(FieldType.INPUT_REGISTERS));
+		// illegal data address
+		Assert.assertArrayEquals(new byte[] { (byte) 0x84, 0x02 }, request(8, new byte[] { 0x04, 0, 4, 0, 1 }));
+		Assert.assertArrayEquals(new byte[] { 0x04, 2, 0, 2 }, request(9, new byte[] { 0x04, 0, 1, 0, 1 }));
+	}
+
+	@Test
+	public void floats() {
+		short[] registers = new short[2];
+		slave.setFloat(5.1f, registers, 0 /* destOffset */);
+		Assert.assertEquals(5.1f, slave.getFloat(registers, 0 /* srcOffset */), 0.0f);
+		// low word first
+		Assert.assertEquals((short) Float.floatToIntBits(5.1f), registers[0]);
+	}
+}
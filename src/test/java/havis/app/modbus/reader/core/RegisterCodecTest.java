@@ -0,0 +1,31 @@
+package havis.app.modbus.reader.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RegisterCodecTest {
+
+	@Test
+	public void strings() {
+		RegisterCodec codec = RegisterCodec.get();
+		short[] registers = new short[4];
+		codec.encodeString(new String[] { "ab", null, "c\u00e4" }, registers, 4);
+		Assert.assertArrayEquals(new short[] { 0x6162, 0x63C3, (short) 0xA400, 0 }, registers);
+		Assert.assertEquals("abc\u00e4", codec.decodeString(registers, 4, true /* isZeroTerminated */));
+		Assert.assertEquals("abc\u00e4\0\0\0", codec.decodeString(registers, 4, false /* isZeroTerminated */));
+		// truncated
+		codec.encodeString(new String[] { "abcde" }, registers, 2);
+		Assert.assertEquals("abcd", codec.decodeString(registers, 2, true /* isZeroTerminated */));
+	}
+
+	@Test
+	public void numbers() {
+		short[] registers = new short[3];
+		RegisterCodec.encodeUShorts(new int[] { 0xFFFF, 1 }, registers, 3);
+		Assert.assertArrayEquals(new short[] { -1, 1, 0 }, registers);
+		Assert.assertArrayEquals(new int[] { 0xFFFF, 1, 0 }, RegisterCodec.decodeUShorts(registers, 3));
+		RegisterCodec.encodeBytes(new byte[] { 1, 2, 3 }, 3, registers, 3);
+		Assert.assertArrayEquals(new short[] { 0x0102, 0x0300, 0 }, registers);
+		Assert.assertArrayEquals(new byte[] { 1, 2, 3, 0 }, RegisterCodec.decodeBytes(registers, 2));
+	}
+}
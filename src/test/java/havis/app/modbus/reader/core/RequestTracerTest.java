@@ -0,0 +1,63 @@
+package havis.app.modbus.reader.core;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestTracerTest {
+
+	@Test
+	public void disabled() {
+		RequestTracer tracer = new RequestTracer();
+		Assert.assertFalse(tracer.isEnabled());
+		tracer.begin(System.nanoTime());
+		Assert.assertEquals(0, tracer.start());
+		tracer.span("inventory", null /* detail */, 0 /* start */);
+		tracer.end(0 /* exceptionCode */);
+		Assert.assertTrue(tracer.getTraces().isEmpty());
+	}
+
+	@Test
+	public void traces() {
+		RequestTracer tracer = new RequestTracer(0 /* threshold */, 2 /* capacity */);
+		Assert.assertTrue(tracer.isEnabled());
+		// spans without a trace are ignored
+		tracer.span("inventory", null /* detail */, tracer.start());
+		tracer.end(0 /* exceptionCode */);
+		Assert.assertTrue(tracer.getTraces().isEmpty());
+
+		for (int i = 0; i < 3; i++) {
+			tracer.begin(System.nanoTime());
+			tracer.setRequest((short) 0x04, i /* address */, 2 /* quantity */);
+			tracer.span("field", "TAG_COUNT", tracer.start());
+			tracer.span("encode", null /* detail */, tracer.start());
+			tracer.span("encode", null /* detail */, tracer.start());
+			tracer.end(i /* exceptionCode */);
+		}
+		// the latest traces are kept, the latest one first
+		List<RequestTrace> traces = tracer.getTraces();
+		Assert.assertEquals(2, traces.size());
+		RequestTrace trace = traces.get(0);
+		Assert.assertEquals(0x04, trace.getFunctionCode());
+		Assert.assertEquals(2, trace.getAddress());
+		Assert.assertEquals(2, trace.getQuantity());
+		Assert.assertEquals(2, trace.getExceptionCode());
+		Assert.assertEquals(1, traces.get(1).getAddress());
+		// spans of the same stage and detail are merged
+		Assert.assertEquals(2, trace.getSpans().size());
+		Assert.assertEquals("field", trace.getSpans().get(0).getStage());
+		Assert.assertEquals("TAG_COUNT", trace.getSpans().get(0).getDetail());
+		Assert.assertEquals("encode", trace.getSpans().get(1).getStage());
+		Assert.assertEquals(2, trace.getSpans().get(1).getCount());
+		Assert.assertEquals(0, trace.getDroppedSpanCount());
+	}
+
+	@Test
+	public void threshold() {
+		RequestTracer tracer = new RequestTracer(60000 /* threshold */, 2 /* capacity */);
+		tracer.begin(System.nanoTime());
+		tracer.end(0 /* exceptionCode */);
+		Assert.assertTrue(tracer.getTraces().isEmpty());
+	}
+}
@@ -0,0 +1,186 @@
+package havis.app.modbus.reader.rf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import havis.app.modbus.reader.api.Field;
+import havis.app.modbus.reader.api.FieldValue;
+import havis.app.modbus.reader.core.FieldProperties;
+import havis.app.modbus.reader.core.FieldProperties.FieldType;
+import havis.app.modbus.reader.rf.RfConstants.RfFieldType;
+
+public class AddressIndexTest {
+
+	private final List<RfFieldType> fields = new ArrayList<>();
+	private final List<Integer> fieldGroupIndices = new ArrayList<>();
+	private final List<Integer> addressQuantities = new ArrayList<>();
+
+	/**
+	 * Expands the fields for a runtime config like the register layout does
+	 * and collects the expanded fields without the diagnostic fields.
+	 */
+	private void expand(int tagsInField, int memorySelector, int epcLength, int tidLength, int userLength,
+			int selectionMaskCount, int selectionMaskMaxLength, int customCommandMaxLength) {
+		Map<Field, FieldValue> configFieldValues = new HashMap<>();
+		configFieldValues.put(RfFieldType.TAGS_IN_FIELD.getField(), new FieldValue(new int[] { tagsInField }));
+		configFieldValues.put(RfFieldType.MEMORY_SELECTOR.getField(),
+				new FieldValue(new short[] { (short) memorySelector }));
+		configFieldValues.put(RfFieldType.EPC_LENGTH.getField(), new FieldValue(new int[] { epcLength }));
+		configFieldValues.put(RfFieldType.TID_LENGTH.getField(), new FieldValue(new int[] { tidLength }));
+		configFieldValues.put(RfFieldType.USER_LENGTH.getField(), new FieldValue(new int[] { userLength }));
+		configFieldValues.put(RfFieldType.SELECTION_MASK_COUNT.getField(),
+				new FieldValue(new int[] { selectionMaskCount }));
+		configFieldValues.put(RfFieldType.SELECTION_MASK_MAX_LENGTH.getField(),
+				new FieldValue(new int[] { selectionMaskMaxLength }));
+		configFieldValues.put(RfFieldType.CUSTOM_COMMAND_MAX_LENGTH.getField(),
+				new FieldValue(new int[] { customCommandMaxLength }));
+		fields.clear();
+		fieldGroupIndices.clear();
+		addressQuantities.clear();
+		int address = 0;
+		for (FieldProperties fp : RfModule.getFieldProperties(configFieldValues)) {
+			RfFieldType field = RfFieldType.get(fp.getField());
+			if (RfConstants.DIAGNOSTIC_FIELDS.contains(field)) {
+				continue;
+			}
+			// the expanded fields are contiguous
+			Assert.assertEquals(address, fp.getAddress());
+			fields.add(field);
+			fieldGroupIndices.add(fp.getFieldGroupIndex());
+			addressQuantities.add(fp.getAddressQuantity());
+			address += fp.getAddressQuantity();
+		}
+	}
+
+	/**
+	 * Finds the expanded field which contains an address by walking over all
+	 * expanded fields.
+	 */
+	private int walk(int startAddress, int address) {
+		int fieldStartAddress = startAddress;
+		for (int i = 0; i < fields.size(); i++) {
+			int fieldEndAddress = fieldStartAddress + addressQuantities.get(i);
+			if (address >= fieldStartAddress && address < fieldEndAddress) {
+				return i;
+			}
+			fieldStartAddress = fieldEndAddress;
+		}
+		return -1;
+	}
+
+	private int walkStartAddress(int startAddress, int expandedFieldIndex) {
+		int address = startAddress;
+		for (int i = 0; i < expandedFieldIndex; i++) {
+			address += addressQuantities.get(i);
+		}
+		return address;
+	}
+
+	private int walkEndAddress(int startAddress, FieldType type) {
+		int endAddress = 0;
+		int address = startAddress;
+		for (int i = 0; i < fields.size(); i++) {
+			address += addressQuantities.get(i);
+			if (RfConstants.FIELD_PROPERTIES.get(fields.get(i)).type == type) {
+				endAddress = address;
+			}
+		}
+		return endAddress;
+	}
+
+	private void assertIndex(int startAddress) {
+		int[] groupIndices = new int[fields.size()];
+		int[] quantities = new int[fields.size()];
+		for (int i = 0; i < fields.size(); i++) {
+			groupIndices[i] = fieldGroupIndices.get(i);
+			quantities[i] = addressQuantities.get(i);
+		}
+		AddressIndex index = new AddressIndex(startAddress, fields.toArray(new RfFieldType[fields.size()]),
+				groupIndices, quantities);
+		int endAddress = walkStartAddress(startAddress, fields.size());
+		Assert.assertEquals(fields.size(), index.size());
+		Assert.assertEquals(endAddress, index.getEndAddress());
+		for (FieldType type : FieldType.values()) {
+			Assert.assertEquals(type.toString(), walkEndAddress(startAddress, type), index.getEndAddress(type));
+		}
+		// each address including the addresses inside of multi-register
+		// fields and the addresses around the index
+		for (int address = Math.max(0, startAddress - 2); address < endAddress + 2; address++) {
+			int i = walk(startAddress, address);
+			Assert.assertEquals("Address " + address, i, index.find(address));
+			if (i >= 0) {
+				Assert.assertEquals(walkStartAddress(startAddress, i), index.getStartAddress(i));
+			}
+		}
+		// each field and group index
+		for (int i = 0; i < fields.size(); i++) {
+			RfFieldType field = fields.get(i);
+			Assert.assertEquals(field + "[" + fieldGroupIndices.get(i) + "]", i,
+					index.get(field, fieldGroupIndices.get(i)));
+			Assert.assertEquals(field + " from " + i, i, index.find(field, i));
+			Assert.assertEquals(fieldGroupIndices.get(i).intValue(), index.getFieldGroupIndex(i));
+			Assert.assertEquals(addressQuantities.get(i).intValue(), index.getAddressQuantity(i));
+			// the next field of the type after the field
+			int next = fields.subList(i + 1, fields.size()).indexOf(field);
+			Assert.assertEquals(next < 0 ? -1 : i + 1 + next, index.find(field, i + 1));
+		}
+		for (RfFieldType field : RfFieldType.values()) {
+			Assert.assertEquals(field.toString(), -1, index.get(field, count(field)));
+			Assert.assertEquals(field.toString(), -1, index.get(field, -1));
+		}
+	}
+
+	@Test
+	public void findInExpandedFields() {
+		// three tags with all banks, two selection masks
+		expand(3 /* tagsInField */, 0x1F /* memorySelector */, 6 /* epcLength */, 4 /* tidLength */,
+				8 /* userLength */, 2 /* selectionMaskCount */, 3 /* selectionMaskMaxLength */,
+				4 /* customCommandMaxLength */);
+		// the groups of the selection masks and tags
+		Assert.assertEquals(2, count(RfFieldType.SELECTION_MASK));
+		Assert.assertEquals(3, count(RfFieldType.EPC));
+		Assert.assertEquals(3, count(RfFieldType.USER_BANK));
+		assertIndex(0 /* startAddress */);
+		assertIndex(RfConstants.DIAGNOSTIC_ADDRESS);
+
+		// fields with an address quantity of 0 are not expanded
+		expand(2 /* tagsInField */, 0 /* memorySelector */, 1 /* epcLength */, 0 /* tidLength */,
+				0 /* userLength */, 1 /* selectionMaskCount */, 0 /* selectionMaskMaxLength */,
+				0 /* customCommandMaxLength */);
+		Assert.assertEquals(0, count(RfFieldType.SELECTION_MASK));
+		Assert.assertEquals(0, count(RfFieldType.USER_BANK));
+		Assert.assertEquals(2, count(RfFieldType.EPC));
+		assertIndex(0 /* startAddress */);
+
+		// no tags
+		expand(0 /* tagsInField */, 0x1F /* memorySelector */, 6 /* epcLength */, 4 /* tidLength */,
+				8 /* userLength */, 0 /* selectionMaskCount */, 3 /* selectionMaskMaxLength */,
+				4 /* customCommandMaxLength */);
+		Assert.assertEquals(0, count(RfFieldType.EPC));
+		assertIndex(0 /* startAddress */);
+	}
+
+	@Test
+	public void empty() {
+		Assert.assertEquals(0, AddressIndex.EMPTY.size());
+		Assert.assertEquals(0, AddressIndex.EMPTY.getEndAddress());
+		Assert.assertEquals(-1, AddressIndex.EMPTY.find(0));
+		Assert.assertEquals(-1, AddressIndex.EMPTY.find(RfFieldType.EPC, 0 /* startExpandedFieldIndex */));
+		Assert.assertEquals(-1, AddressIndex.EMPTY.get(RfFieldType.EPC, 0 /* fieldGroupIndex */));
+	}
+
+	private int count(RfFieldType field) {
+		int count = 0;
+		for (RfFieldType f : fields) {
+			if (f == field) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
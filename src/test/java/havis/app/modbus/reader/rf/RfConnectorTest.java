@@ -0,0 +1,255 @@
+package havis.app.modbus.reader.rf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import havis.app.modbus.reader.api.FieldValue;
+import havis.app.modbus.reader.api.ModuleException;
+import havis.app.modbus.reader.common.ServiceFactory;
+import havis.app.modbus.reader.core.SlaveMetrics;
+import havis.app.modbus.reader.rf.RfConstants.RfFieldType;
+import havis.device.rf.RFDevice;
+import havis.device.rf.capabilities.Capabilities;
+import havis.device.rf.capabilities.CapabilityType;
+import havis.device.rf.configuration.Configuration;
+import havis.device.rf.configuration.ConfigurationType;
+import havis.device.rf.exception.ImplementationException;
+import havis.device.rf.exception.ParameterException;
+import havis.device.rf.tag.Filter;
+import havis.device.rf.tag.TagData;
+import havis.device.rf.tag.operation.ReadOperation;
+import havis.device.rf.tag.operation.TagOperation;
+import standalone.RFDeviceStub;
+
+public class RfConnectorTest {
+
+	private static final String[] DELAY_PROPERTIES = { "rfDeviceStub.getCapabilitiesDelay",
+			"rfDeviceStub.getConfigurationDelay", "rfDeviceStub.executeDelay" };
+
+	private TestDevice device;
+	private RfConnector connector;
+
+	/**
+	 * The stub device with one tag which counts the device calls. An
+	 * inventory is executed without filters (no selection masks), the
+	 * operations on a tag with an EPC filter.
+	 */
+	private static class TestDevice extends RFDeviceStub {
+		final AtomicInteger inventoryCount = new AtomicInteger();
+		final AtomicInteger tagOperationCount = new AtomicInteger();
+		final AtomicInteger capabilitiesCount = new AtomicInteger();
+		final AtomicInteger configurationCount = new AtomicInteger();
+		final AtomicInteger setConfigurationCount = new AtomicInteger();
+		// the operations of the last inventory
+		volatile List<TagOperation> inventoryOperations;
+
+		@Override
+		public List<TagData> execute(List<Short> antennas, List<Filter> filter, List<TagOperation> operations)
+				throws ParameterException, ImplementationException {
+			if (filter.isEmpty()) {
+				inventoryCount.incrementAndGet();
+				inventoryOperations = new ArrayList<>(operations);
+			} else {
+				tagOperationCount.incrementAndGet();
+			}
+			return super.execute(antennas, filter, operations);
+		}
+
+		@Override
+		public List<Capabilities> getCapabilities(CapabilityType type) {
+			capabilitiesCount.incrementAndGet();
+			return super.getCapabilities(type);
+		}
+
+		@Override
+		public List<Configuration> getConfiguration(ConfigurationType type, short antennaID, short gpiPort,
+				short gpoPort) {
+			configurationCount.incrementAndGet();
+			return super.getConfiguration(type, antennaID, gpiPort, gpoPort);
+		}
+
+		@Override
+		public void setConfiguration(List<Configuration> configuration) throws ImplementationException {
+			setConfigurationCount.incrementAndGet();
+			super.setConfiguration(configuration);
+		}
+	}
+
+	@BeforeClass
+	public static void disableDelays() {
+		for (String property : DELAY_PROPERTIES) {
+			System.setProperty(property, "0");
+		}
+	}
+
+	@AfterClass
+	public static void resetDelays() {
+		for (String property : DELAY_PROPERTIES) {
+			System.clearProperty(property);
+		}
+	}
+
+	private void open(int inventoryCacheTime, int continuousInventoryInterval) throws Exception {
+		device = new TestDevice();
+		connector = new RfConnector(new ServiceFactory<RFDevice>() {
+			@Override
+			public RFDevice getService(String host, int port, long timeout) {
+				return device;
+			}
+
+			@Override
+			public void release(RFDevice service) {
+			}
+		}, inventoryCacheTime, continuousInventoryInterval, new SlaveMetrics());
+		connector.open(3000 /* timeout */);
+		set(RfFieldType.TAGS_IN_FIELD, new FieldValue(new int[] { 1 }));
+	}
+
+	@After
+	public void close() throws Exception {
+		if (connector != null) {
+			connector.close(3000 /* timeout */);
+		}
+	}
+
+	private FieldValue get(RfFieldType type) throws ModuleException {
+		return connector.getFieldValue(new RfField(type.getField()), 0 /* fieldGroupIndex */);
+	}
+
+	private void set(RfFieldType type, FieldValue value) throws ModuleException {
+		connector.setFieldValue(new RfField(type.getField()), 0 /* fieldGroupIndex */, value);
+	}
+
+	private int getTagCount() throws ModuleException {
+		return get(RfFieldType.TAG_COUNT).getUShortValue()[0];
+	}
+
+	@Test
+	public void inventoryCache() throws Exception {
+		open(500 /* inventoryCacheTime */, 0 /* continuousInventoryInterval */);
+		Assert.assertEquals(1, getTagCount());
+		Assert.assertEquals(1, getTagCount());
+		Assert.assertEquals(1, device.inventoryCount.get());
+		// writing an inventory parameter invalidates the cached result
+		set(RfFieldType.ANTENNA_MASK, new FieldValue(new short[] { 1 }));
+		Assert.assertEquals(1, getTagCount());
+		Assert.assertEquals(2, device.inventoryCount.get());
+		set(RfFieldType.TAGS_IN_FIELD, new FieldValue(new int[] { 2 }));
+		Assert.assertEquals(1, getTagCount());
+		Assert.assertEquals(3, device.inventoryCount.get());
+		// the cached result expires
+		Thread.sleep(600);
+		Assert.assertEquals(1, getTagCount());
+		Assert.assertEquals(4, device.inventoryCount.get());
+	}
+
+	@Test
+	public void noInventoryCache() throws Exception {
+		open(0 /* inventoryCacheTime */, 0 /* continuousInventoryInterval */);
+		Assert.assertEquals(1, getTagCount());
+		Assert.assertEquals(1, getTagCount());
+		Assert.assertEquals(2, device.inventoryCount.get());
+	}
+
+	@Test
+	public void continuousInventory() throws Exception {
+		open(0 /* inventoryCacheTime */, 10 /* continuousInventoryInterval */);
+		Assert.assertTrue(connector.isContinuousInventory());
+		// the inventories are executed without reads
+		long end = System.currentTimeMillis() + 5000;
+		while (device.inventoryCount.get() < 3 && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(device.inventoryCount.get() >= 3);
+		// the tag fields are read from the latest snapshot
+		Assert.assertEquals(1, getTagCount());
+		Assert.assertArrayEquals(new byte[] { 0x30, 0x0D, (byte) 0x96, 0x4A, 0x31, 0x20, 0x00, 0x40, 0x00, 0x00,
+				0x00, 0x01 }, get(RfFieldType.EPC).getByteValue());
+		Assert.assertEquals(0, device.tagOperationCount.get());
+		Assert.assertTrue(connector.getInventoryCount() > 0);
+		long age = connector.getInventorySnapshotAge();
+		Assert.assertTrue("Snapshot age " + age, age >= 0 && age < 5000);
+		// the inventories are stopped on closing
+		connector.close(3000 /* timeout */);
+		connector = null;
+		int inventoryCount = device.inventoryCount.get();
+		Thread.sleep(50);
+		Assert.assertEquals(inventoryCount, device.inventoryCount.get());
+	}
+
+	@Test
+	public void bankReadsWithInventory() throws Exception {
+		open(0 /* inventoryCacheTime */, 0 /* continuousInventoryInterval */);
+		// kill and access password
+		set(RfFieldType.MEMORY_SELECTOR, new FieldValue(new short[] { 3 }));
+		set(RfFieldType.TID_LENGTH, new FieldValue(new int[] { 2 }));
+		set(RfFieldType.USER_LENGTH, new FieldValue(new int[] { 2 }));
+		Assert.assertEquals(1, getTagCount());
+		Assert.assertEquals(3, device.inventoryOperations.size());
+		ReadOperation readReservedBank = (ReadOperation) device.inventoryOperations.get(1);
+		Assert.assertEquals(0, readReservedBank.getOffset());
+		Assert.assertEquals(4, readReservedBank.getLength());
+		ReadOperation readUserBank = (ReadOperation) device.inventoryOperations.get(2);
+		Assert.assertEquals(3, readUserBank.getBank());
+		Assert.assertEquals(2, readUserBank.getLength());
+		// the banks are served from the inventory result
+		Assert.assertArrayEquals(new byte[] { (byte) 0xAF, (byte) 0xFE, 0x00, 0x01 },
+				get(RfFieldType.KILL_PWD).getByteValue());
+		Assert.assertArrayEquals(new byte[] { 0x12, 0x34, 0x00, 0x01 }, get(RfFieldType.ACCESS_PWD).getByteValue());
+		Assert.assertArrayEquals(new byte[] { (byte) 0xE2, 0x11, 0x10, 0x03 },
+				get(RfFieldType.TID_BANK).getByteValue());
+		RfField userBank = new RfField(RfFieldType.USER_BANK.getField(), 0 /* offset */, 2 /* length */);
+		Assert.assertArrayEquals(new byte[] { (byte) 0x98, 0x76, 0x54, 0x00 },
+				connector.getFieldValue(userBank, 0 /* fieldGroupIndex */).getByteValue());
+		Assert.assertEquals(0, device.tagOperationCount.get());
+
+		// the user bank is read separately if it exceeds the max. word count
+		// of a read
+		set(RfFieldType.USER_LENGTH, new FieldValue(new int[] { 256 }));
+		Assert.assertEquals(1, getTagCount());
+		Assert.assertEquals(2, device.inventoryOperations.size());
+		Assert.assertArrayEquals(new byte[] { (byte) 0x98, 0x76, 0x54, 0x00 },
+				connector.getFieldValue(userBank, 0 /* fieldGroupIndex */).getByteValue());
+		Assert.assertEquals(1, device.tagOperationCount.get());
+	}
+
+	@Test
+	public void deviceConfigurationCache() throws Exception {
+		open(0 /* inventoryCacheTime */, 0 /* continuousInventoryInterval */);
+		// device and regulatory capabilities, properties and configuration of
+		// two antennas
+		Assert.assertEquals(2, device.capabilitiesCount.get());
+		Assert.assertEquals(4, device.configurationCount.get());
+		Assert.assertEquals(2, get(RfFieldType.COMMUNICATION_STANDARD).getUShortValue()[0]);
+		Assert.assertEquals(1, get(RfFieldType.NUMBER_OF_ANTENNAS).getUShortValue()[0]);
+		Assert.assertEquals(1, get(RfFieldType.ANTENNA_ONE_CONNECTED).getUShortValue()[0]);
+		Assert.assertEquals(0, get(RfFieldType.ANTENNA_TWO_CONNECTED).getUShortValue()[0]);
+		Assert.assertEquals(18, get(RfFieldType.ANTENNA_ONE_TRANSMIT_POWER).getShortValue()[0]);
+		Assert.assertEquals(20, get(RfFieldType.ANTENNA_TWO_TRANSMIT_POWER).getShortValue()[0]);
+		Assert.assertEquals(2, device.capabilitiesCount.get());
+		Assert.assertEquals(4, device.configurationCount.get());
+
+		// the transmit power index is looked up in the cached table
+		set(RfFieldType.ANTENNA_ONE_TRANSMIT_POWER, new FieldValue(new short[] { 20 }));
+		Assert.assertEquals(1, device.setConfigurationCount.get());
+		Assert.assertEquals(2, device.capabilitiesCount.get());
+		// the written configuration is fetched again once
+		Assert.assertEquals(20, get(RfFieldType.ANTENNA_ONE_TRANSMIT_POWER).getShortValue()[0]);
+		Assert.assertEquals(20, get(RfFieldType.ANTENNA_ONE_TRANSMIT_POWER).getShortValue()[0]);
+		Assert.assertEquals(5, device.configurationCount.get());
+		try {
+			set(RfFieldType.ANTENNA_ONE_TRANSMIT_POWER, new FieldValue(new short[] { 19 }));
+			Assert.fail();
+		} catch (ModuleException e) {
+			Assert.assertTrue(e.getMessage().contains("19"));
+		}
+		Assert.assertEquals(1, device.setConfigurationCount.get());
+	}
+}
@@ -0,0 +1,55 @@
+package havis.app.modbus.reader.rf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TagMemoryCacheTest {
+
+	private static final byte[] EPC1 = new byte[] { 1, 2 };
+	private static final byte[] EPC2 = new byte[] { 3, 4 };
+	private static final short TID = 2;
+	private static final short USER = 3;
+
+	@Test
+	public void missingRange() {
+		TagMemoryCache cache = new TagMemoryCache();
+		Assert.assertArrayEquals(new int[] { 2, 4 }, cache.getMissingRange(EPC1, USER, 2, 4));
+		// words 2..3
+		cache.put(EPC1, USER, 2, new byte[] { 0x10, 0x11, 0x12, 0x13 });
+		Assert.assertNull(cache.getMissingRange(EPC1, USER, 2, 2));
+		Assert.assertArrayEquals(new byte[] { 0x10, 0x11, 0x12, 0x13 }, cache.get(EPC1, USER, 2, 2));
+		// partial overlap at the start and at the end
+		Assert.assertArrayEquals(new int[] { 0, 2 }, cache.getMissingRange(EPC1, USER, 0, 3));
+		Assert.assertArrayEquals(new int[] { 4, 2 }, cache.getMissingRange(EPC1, USER, 3, 3));
+		Assert.assertNull(cache.get(EPC1, USER, 3, 3));
+		// a gap in the middle: the missing range covers the cached words
+		cache.put(EPC1, USER, 6, new byte[] { 0x20, 0x21 });
+		Assert.assertArrayEquals(new int[] { 1, 5 }, cache.getMissingRange(EPC1, USER, 1, 5));
+		// adjacent ranges are merged
+		cache.put(EPC1, USER, 4, new byte[] { 0x14, 0x15, 0x16, 0x17 });
+		Assert.assertNull(cache.getMissingRange(EPC1, USER, 2, 5));
+		Assert.assertArrayEquals(new byte[] { 0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x20, 0x21 },
+				cache.get(EPC1, USER, 3, 4));
+		// other banks and tags are missing
+		Assert.assertArrayEquals(new int[] { 2, 2 }, cache.getMissingRange(EPC1, TID, 2, 2));
+		Assert.assertArrayEquals(new int[] { 2, 2 }, cache.getMissingRange(EPC2, USER, 2, 2));
+		// removed words are missing again
+		cache.remove(EPC1, USER, 3, 2);
+		Assert.assertArrayEquals(new int[] { 3, 2 }, cache.getMissingRange(EPC1, USER, 2, 5));
+	}
+
+	@Test
+	public void removeTag() {
+		TagMemoryCache cache = new TagMemoryCache();
+		cache.put(EPC1, TID, 0, new byte[] { 1, 2 });
+		cache.put(EPC1, USER, 0, new byte[] { 3, 4 });
+		cache.put(EPC2, USER, 0, new byte[] { 5, 6 });
+		// all banks of a tag are removed
+		cache.remove(EPC1);
+		Assert.assertNull(cache.get(EPC1, TID, 0, 1));
+		Assert.assertNull(cache.get(EPC1, USER, 0, 1));
+		Assert.assertArrayEquals(new byte[] { 5, 6 }, cache.get(EPC2, USER, 0, 1));
+		cache.clear();
+		Assert.assertNull(cache.get(EPC2, USER, 0, 1));
+	}
+}
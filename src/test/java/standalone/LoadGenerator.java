@@ -0,0 +1,426 @@
+package standalone;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.HdrHistogram.Histogram;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import havis.app.modbus.reader.common.ReflectionServiceFactory;
+import havis.app.modbus.reader.core.FieldProperties;
+import havis.app.modbus.reader.core.FunctionCode;
+import havis.app.modbus.reader.core.ModbusSlave;
+import havis.app.modbus.reader.core.SlaveProcessor;
+import havis.app.modbus.reader.rf.RfConstants.RfFieldType;
+import havis.app.modbus.reader.rf.RfModule;
+import havis.device.rf.RFDevice;
+
+/**
+ * Load generator for the modbus TCP slave. The slave is started with the
+ * stub device and is polled by N client connections over real sockets. Each
+ * connection sends the next request after it has received the response of
+ * the previous one.
+ * <p>
+ * The arguments are <code>key=value</code> pairs:
+ * </p>
+ * <ul>
+ * <li>connections: the count of client connections (default: 10)</li>
+ * <li>duration: the measurement time in s (default: 30)</li>
+ * <li>warmup: the time in s before the measurement (default: 5)</li>
+ * <li>mix: the weights of the requests (default:
+ * tagCount:30,tag:40,config:10,deviceInfo:10,antennaMask:5,accessPassword:5)
+ * <ul>
+ * <li>tagCount: FC 4, TAG_COUNT (executes an inventory)</li>
+ * <li>tag: FC 3, a block of the first tag starting with CRC</li>
+ * <li>config: FC 3, the runtime configuration</li>
+ * <li>deviceInfo: FC 4, VENDOR_NAME</li>
+ * <li>antennaMask: FC 6, ANTENNA_MASK</li>
+ * <li>accessPassword: FC 16, ACCESS_PASSWORD</li>
+ * </ul>
+ * </li>
+ * <li>blockSize: the max. address quantity of the tag requests (default:
+ * 16)</li>
+ * <li>engine: the slave engine (default: nio)</li>
+ * <li>port: the slave port (default: 1502)</li>
+ * <li>executeDelay: the delay of an inventory of the stub device in ms
+ * (default: 2)</li>
+ * <li>report: the path of the JSON report (default: loadReport.json)</li>
+ * </ul>
+ * <p>
+ * The latencies and the throughput are reported per function code and per
+ * request (register region).
+ * </p>
+ */
+public class LoadGenerator {
+
+	private static final Logger log = Logger.getLogger(LoadGenerator.class.getName());
+
+	// max. trackable latency: 60s in us
+	private static final long MAX_LATENCY = TimeUnit.SECONDS.toMicros(60);
+
+	/**
+	 * A request of the mix.
+	 */
+	private static class Request {
+		final String region;
+		final short functionCode;
+		final byte[] pdu;
+		final int weight;
+
+		Request(String region, short functionCode, byte[] pdu, int weight) {
+			this.region = region;
+			this.functionCode = functionCode;
+			this.pdu = pdu;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * The results of a connection per request.
+	 */
+	private static class Results {
+		final Map<String, Histogram> latencies = new LinkedHashMap<>();
+		final Map<String, Long> errors = new LinkedHashMap<>();
+	}
+
+	public static void main(String[] args) throws Exception {
+		Properties props = new Properties();
+		for (String arg : args) {
+			int i = arg.indexOf('=');
+			if (i < 0) {
+				throw new IllegalArgumentException("Invalid argument (expected: key=value): " + arg);
+			}
+			props.setProperty(arg.substring(0, i), arg.substring(i + 1));
+		}
+		int connections = Integer.parseInt(props.getProperty("connections", "10"));
+		long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(props.getProperty("duration", "30")));
+		long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(props.getProperty("warmup", "5")));
+		int port = Integer.parseInt(props.getProperty("port", "1502"));
+		System.setProperty("rfDeviceStub.executeDelay", props.getProperty("executeDelay", "2"));
+		System.setProperty("rfDeviceStub.getCapabilitiesDelay", "0");
+		System.setProperty("rfDeviceStub.getConfigurationDelay", "0");
+
+		// create the configuration
+		Path configBaseDir = Files.createTempDirectory("modbusReaderLoad");
+		Files.write(configBaseDir.resolve("config.properties"), Arrays.asList( //
+				"port=" + port, //
+				"openCloseTimeout=3000", //
+				"maxConnectionCount=" + connections, //
+				"workerCount=" + props.getProperty("workerCount", "4"), //
+				"engine=" + props.getProperty("engine", "nio")), StandardCharsets.UTF_8);
+		try (InputStream in = LoadGenerator.class.getClassLoader()
+				.getResourceAsStream("havis-modbus-reader/dfltFields.properties")) {
+			Files.copy(in, configBaseDir.resolve("dfltFields.properties"));
+		}
+
+		RfModule module = new RfModule(new ReflectionServiceFactory<RFDevice>(
+				RFDeviceStub.class.getCanonicalName(), null /* addressSetterMethodName */));
+		final ModbusSlave modbusSlave = new ModbusSlave(configBaseDir.toString(), configBaseDir.toString(),
+				false /* createConfigCopy */, module, new String[] { "modbusjni" } /* nativeLibraryNames */);
+		SlaveProcessor processor = modbusSlave.open();
+		ExecutorService slaveThreadPool = Executors.newFixedThreadPool(1);
+		Future<?> slaveFuture = slaveThreadPool.submit(new Runnable() {
+			@Override
+			public void run() {
+				modbusSlave.run();
+			}
+		});
+		ExecutorService clientThreadPool = Executors.newFixedThreadPool(connections);
+		try {
+			// the field structure is available while a connection is open
+			processor.connect();
+			final List<Request> requests;
+			try {
+				requests = createRequests(processor, props.getProperty("mix",
+						"tagCount:30,tag:40,config:10,deviceInfo:10,antennaMask:5,accessPassword:5"),
+						Integer.parseInt(props.getProperty("blockSize", "16")));
+			} finally {
+				processor.disconnect();
+			}
+
+			log.log(Level.INFO, "Starting " + connections + " connections");
+			final long startTime = System.nanoTime() + warmup;
+			final long endTime = startTime + duration;
+			List<Future<Results>> futures = new ArrayList<>();
+			for (int i = 0; i < connections; i++) {
+				final long seed = i;
+				futures.add(clientThreadPool.submit(new Callable<Results>() {
+					@Override
+					public Results call() throws Exception {
+						return poll(port, requests, startTime, endTime, seed);
+					}
+				}));
+			}
+			Results results = new Results();
+			for (Future<Results> future : futures) {
+				Results connectionResults = future.get();
+				for (Entry<String, Histogram> entry : connectionResults.latencies.entrySet()) {
+					Histogram histogram = results.latencies.get(entry.getKey());
+					if (histogram == null) {
+						results.latencies.put(entry.getKey(), entry.getValue());
+					} else {
+						histogram.add(entry.getValue());
+					}
+				}
+				for (Entry<String, Long> entry : connectionResults.errors.entrySet()) {
+					Long count = results.errors.get(entry.getKey());
+					results.errors.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+				}
+			}
+			report(results, requests, connections, duration, Paths.get(props.getProperty("report", "loadReport.json")));
+		} finally {
+			clientThreadPool.shutdownNow();
+			modbusSlave.close();
+			slaveFuture.get();
+			slaveThreadPool.shutdown();
+			for (String file : new String[] { "config.properties", "dfltFields.properties", "fields.properties",
+					"fields.bin" }) {
+				Files.deleteIfExists(configBaseDir.resolve(file));
+			}
+			Files.deleteIfExists(configBaseDir);
+		}
+	}
+
+	private static List<Request> createRequests(SlaveProcessor processor, String mix, int blockSize) {
+		Map<String, Integer> weights = new LinkedHashMap<>();
+		for (String entry : mix.split(",")) {
+			String[] parts = entry.trim().split(":");
+			weights.put(parts[0], Integer.parseInt(parts[1]));
+		}
+		List<Request> ret = new ArrayList<>();
+		for (Entry<String, Integer> entry : weights.entrySet()) {
+			String region = entry.getKey();
+			switch (region) {
+			case "tagCount":
+				ret.add(read(region, FunctionCode.READ_INPUT_REGISTERS, getFieldProperties(processor,
+						RfFieldType.TAG_COUNT, 0).getAddress(), 1 /* quantity */, entry.getValue()));
+				break;
+			case "tag":
+				int address = getFieldProperties(processor, RfFieldType.CRC, 0).getAddress();
+				// the stub device provides one tag
+				FieldProperties nextTag = processor.getFieldProperties(RfFieldType.LOCK_OPERATION.getField(), 1);
+				int quantity = blockSize;
+				if (nextTag != null) {
+					quantity = Math.min(quantity, nextTag.getAddress() - address);
+				}
+				ret.add(read(region, FunctionCode.READ_HOLDING_REGISTERS, address, quantity, entry.getValue()));
+				break;
+			case "config":
+				ret.add(read(region, FunctionCode.READ_HOLDING_REGISTERS,
+						getFieldProperties(processor, RfFieldType.TAGS_IN_FIELD, 0).getAddress(),
+						8 /* TAGS_IN_FIELD .. CUSTOM_COMMAND_MAX_LENGTH */, entry.getValue()));
+				break;
+			case "deviceInfo":
+				FieldProperties vendorName = getFieldProperties(processor, RfFieldType.VENDOR_NAME, 0);
+				ret.add(read(region, FunctionCode.READ_INPUT_REGISTERS, vendorName.getAddress(),
+						Math.min(125, vendorName.getAddressQuantity()), entry.getValue()));
+				break;
+			case "antennaMask":
+				address = getFieldProperties(processor, RfFieldType.ANTENNA_MASK, 0).getAddress();
+				ret.add(new Request(region, FunctionCode.WRITE_SINGLE_REGISTER, new byte[] {
+						FunctionCode.WRITE_SINGLE_REGISTER, (byte) (address >> 8), (byte) address, 0, 1 },
+						entry.getValue()));
+				break;
+			case "accessPassword":
+				address = getFieldProperties(processor, RfFieldType.ACCESS_PASSWORD, 0).getAddress();
+				ret.add(new Request(region, FunctionCode.WRITE_MULTIPLE_REGISTERS,
+						new byte[] { FunctionCode.WRITE_MULTIPLE_REGISTERS, (byte) (address >> 8), (byte) address,
+								0, 2 /* quantity */, 4 /* byte count */, 0, 0, 0, 0 },
+						entry.getValue()));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown request: " + region);
+			}
+		}
+		return ret;
+	}
+
+	private static FieldProperties getFieldProperties(SlaveProcessor processor, RfFieldType field,
+			int fieldGroupIndex) {
+		FieldProperties ret = processor.getFieldProperties(field.getField(), fieldGroupIndex);
+		if (ret == null) {
+			throw new IllegalStateException("Missing field " + field + "[" + fieldGroupIndex + "]");
+		}
+		return ret;
+	}
+
+	private static Request read(String region, short functionCode, int address, int quantity, int weight) {
+		return new Request(region, functionCode, new byte[] { (byte) functionCode, (byte) (address >> 8),
+				(byte) address, (byte) (quantity >> 8), (byte) quantity }, weight);
+	}
+
+	/**
+	 * Sends requests of the mix over one connection until the end time.
+	 */
+	private static Results poll(int port, List<Request> requests, long startTime, long endTime, long seed)
+			throws IOException {
+		int totalWeight = 0;
+		for (Request request : requests) {
+			totalWeight += request.weight;
+		}
+		Random random = new Random(seed);
+		Results ret = new Results();
+		for (Request request : requests) {
+			ret.latencies.put(request.region, new Histogram(MAX_LATENCY, 3 /* significant digits */));
+			ret.errors.put(request.region, 0L);
+		}
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			socket.setTcpNoDelay(true);
+			OutputStream out = socket.getOutputStream();
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			byte[] response = new byte[260];
+			// the tags are provided after an inventory of the connection like
+			// for a polling client
+			for (Request request : requests) {
+				if ("tagCount".equals(request.region)) {
+					send(request, 0 /* transactionId */, out, in, response);
+				}
+			}
+			int transactionId = 0;
+			long now;
+			while ((now = System.nanoTime()) < endTime) {
+				// choose a request by its weight
+				int w = random.nextInt(totalWeight);
+				Request request = null;
+				for (Request r : requests) {
+					request = r;
+					w -= r.weight;
+					if (w < 0) {
+						break;
+					}
+				}
+				transactionId = (transactionId + 1) & 0xFFFF;
+				boolean isException = send(request, transactionId, out, in, response);
+				long end = System.nanoTime();
+				// if the measurement has been started
+				if (now >= startTime) {
+					if (isException) {
+						ret.errors.put(request.region, ret.errors.get(request.region) + 1);
+					} else {
+						ret.latencies.get(request.region)
+								.recordValue(Math.min(MAX_LATENCY, TimeUnit.NANOSECONDS.toMicros(end - now)));
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Sends a request and receives the response.
+	 * 
+	 * @return Whether an exception response has been received
+	 */
+	private static boolean send(Request request, int transactionId, OutputStream out, DataInputStream in,
+			byte[] response) throws IOException {
+		byte[] adu = new byte[7 + request.pdu.length];
+		adu[0] = (byte) (transactionId >> 8);
+		adu[1] = (byte) transactionId;
+		adu[4] = (byte) ((request.pdu.length + 1) >> 8);
+		adu[5] = (byte) (request.pdu.length + 1);
+		adu[6] = 1; // unit identifier
+		System.arraycopy(request.pdu, 0, adu, 7, request.pdu.length);
+		out.write(adu);
+		out.flush();
+		if (in.readUnsignedShort() != transactionId) {
+			throw new IOException("Unexpected transaction identifier");
+		}
+		in.readUnsignedShort(); // protocol identifier
+		int length = in.readUnsignedShort();
+		in.readFully(response, 0, length);
+		// unit identifier, function code
+		return (response[1] & 0x80) != 0;
+	}
+
+	private static void report(Results results, List<Request> requests, int connections, long duration, Path path)
+			throws IOException {
+		double seconds = duration / 1e9;
+		Map<String, Histogram> functionCodeLatencies = new LinkedHashMap<>();
+		Map<String, Object> regions = new LinkedHashMap<>();
+		Histogram total = new Histogram(MAX_LATENCY, 3 /* significant digits */);
+		long errors = 0;
+		for (Request request : requests) {
+			Histogram histogram = results.latencies.get(request.region);
+			String functionCode = String.valueOf(request.functionCode);
+			Histogram functionCodeHistogram = functionCodeLatencies.get(functionCode);
+			if (functionCodeHistogram == null) {
+				functionCodeHistogram = new Histogram(MAX_LATENCY, 3 /* significant digits */);
+				functionCodeLatencies.put(functionCode, functionCodeHistogram);
+			}
+			functionCodeHistogram.add(histogram);
+			total.add(histogram);
+			long regionErrors = results.errors.get(request.region);
+			errors += regionErrors;
+			Map<String, Object> region = summarize(histogram, seconds);
+			region.put("functionCode", request.functionCode);
+			region.put("errors", regionErrors);
+			regions.put(request.region, region);
+		}
+		Map<String, Object> functionCodes = new LinkedHashMap<>();
+		for (Entry<String, Histogram> entry : functionCodeLatencies.entrySet()) {
+			functionCodes.put(entry.getKey(), summarize(entry.getValue(), seconds));
+		}
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("connections", connections);
+		report.put("durationSeconds", seconds);
+		report.put("total", summarize(total, seconds));
+		report.put("errors", errors);
+		report.put("functionCodes", functionCodes);
+		report.put("regions", regions);
+		new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(path.toFile(), report);
+
+		System.out.println(String.format("%-16s %4s %10s %10s %10s %10s %10s %8s", "request", "fc", "ops/s",
+				"p50 (us)", "p99 (us)", "p99.9 (us)", "max (us)", "errors"));
+		for (Request request : requests) {
+			Histogram h = results.latencies.get(request.region);
+			System.out.println(String.format("%-16s %4d %10.1f %10d %10d %10d %10d %8d", request.region,
+					request.functionCode, h.getTotalCount() / seconds, h.getValueAtPercentile(50),
+					h.getValueAtPercentile(99), h.getValueAtPercentile(99.9), h.getMaxValue(),
+					results.errors.get(request.region)));
+		}
+		System.out.println(String.format("%-16s %4s %10.1f %10d %10d %10d %10d %8d", "total", "", total.getTotalCount()
+				/ seconds, total.getValueAtPercentile(50), total.getValueAtPercentile(99),
+				total.getValueAtPercentile(99.9), total.getMaxValue(), errors));
+		System.out.println("Report: " + path.toAbsolutePath());
+	}
+
+	private static Map<String, Object> summarize(Histogram histogram, double seconds) {
+		Map<String, Object> ret = new LinkedHashMap<>();
+		ret.put("count", histogram.getTotalCount());
+		ret.put("opsPerSecond", histogram.getTotalCount() / seconds);
+		Map<String, Object> latencies = new LinkedHashMap<>();
+		latencies.put("mean", histogram.getMean());
+		for (double percentile : new double[] { 50, 90, 99, 99.9, 99.99 }) {
+			latencies.put("p" + (percentile == (long) percentile ? String.valueOf((long) percentile)
+					: String.valueOf(percentile)), histogram.getValueAtPercentile(percentile));
+		}
+		latencies.put("max", histogram.getMaxValue());
+		ret.put("latencyMicros", latencies);
+		return ret;
+	}
+}
@@ -41,9 +41,11 @@ public class RFDeviceStub implements havis.device.rf.RFDevice {
 
     private Logger log = Logger.getLogger(RFDeviceStub.class.getName());
 
-    private final long GET_CAPABILITIES_DELAY = 20; // ms
-    private final long GET_CONFIGURATION_DELAY = 15; // ms
-    private final long EXECUTE_DELAY = 2; // ms
+    // the delays can be changed with system properties (eg. 0 for
+    // benchmarks)
+    private final long GET_CAPABILITIES_DELAY = Long.getLong("rfDeviceStub.getCapabilitiesDelay", 20); // ms
+    private final long GET_CONFIGURATION_DELAY = Long.getLong("rfDeviceStub.getConfigurationDelay", 15); // ms
+    private final long EXECUTE_DELAY = Long.getLong("rfDeviceStub.executeDelay", 2); // ms
 
     class Tag {
         TagData tagData;